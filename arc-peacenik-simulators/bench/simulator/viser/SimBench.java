@@ -0,0 +1,362 @@
+package simulator.viser;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Microbenchmarks of the hot paths of the simulator, driven by synthetic access
+ * streams: cache lookups (HierarchicalCache.search()), Processor.read() and
+ * write(), Machine.cacheAccess(), whole regions ending in a region boundary
+ * (read validation through rvPrivateCacheMergedHelper() and the post-commit
+ * self-invalidation), and the Bloom filter.
+ *
+ * Every benchmark runs for each combination of the given core counts, private
+ * cache associativities, line sizes and sharing ratios. Like JMH, each one runs
+ * a few warmup iterations and then timed iterations of a fixed duration, and
+ * reports the throughput and the bytes allocated per operation. Results of a
+ * warmed-up JVM are only comparable on the same host and JDK.
+ *
+ * Run with "ant bench", passing options through -Dbench.args, e.g.,
+ * -Dbench.args="--bench=access,region --cores=4,16 --sharing=0,0.5".
+ */
+public final class SimBench {
+
+	/** Accesses of each core in the synthetic stream, a power of 2 */
+	private static final int STREAM_LENGTH = 1 << 16;
+	/** Share of the accesses that are writes */
+	private static final double WRITE_RATIO = 0.3;
+	private static final long SHARED_BASE = 0x10000000L;
+	private static final long PRIVATE_BASE = 0x20000000L;
+	private static final long PRIVATE_STRIDE = 0x1000000L;
+	/** Check the clock every that many operations */
+	private static final int BATCH = 256;
+
+	/** One configuration of the simulated machine and of the access stream */
+	static final class Config {
+		int cores;
+		int assoc;
+		int lineSize;
+		double sharing;
+		int footprint;
+		int regionSize;
+		String simOptions;
+
+		@Override
+		public String toString() {
+			return String.format("%5d %5d %8d %7.2f", cores, assoc, lineSize, sharing);
+		}
+	}
+
+	/** A benchmark: setUp() builds its state, op() is the measured operation */
+	abstract static class Workload {
+		final String name;
+		/** Index of the next operation */
+		int next = 0;
+
+		Workload(String name) {
+			this.name = name;
+		}
+
+		abstract void setUp(Config c);
+
+		abstract void op(int i);
+	}
+
+	/** A machine, and a synthetic access stream per core */
+	abstract static class MachineWorkload extends Workload {
+		Config config;
+		Machine<ViserLine> machine;
+		CpuId[] cpus;
+		ThreadId[] tids;
+		long[][] addrs;
+		boolean[][] writes;
+		/** Accesses of each core since its last region boundary */
+		int[] regionAccesses;
+
+		MachineWorkload(String name) {
+			super(name);
+		}
+
+		@Override
+		void setUp(Config c) {
+			config = c;
+			MemorySystemConstants.unsafeSetLineSize(c.lineSize);
+			ViserSim.setOptions(Knobs.parser.parse(("--cores=" + c.cores + " --line-size=" + c.lineSize + " --l1-assoc="
+					+ c.assoc + " --l2-assoc=" + c.assoc + " --model-only-roi=false --xasserts=false " + c.simOptions)
+					.trim().split("\\s+")));
+			ViserSim.XASSERTS = false;
+			ViserSim.setPARSECPhase(ViserSim.PARSEC_PHASE.PRE_ROI);
+			machine = new Machine<ViserLine>(ViserSim.machineParams(Machine.SimulationMode.VISER));
+			machine.initializeEpochs();
+			machine.prepareScavengeMap(c.cores);
+
+			cpus = new CpuId[c.cores];
+			tids = new ThreadId[c.cores];
+			addrs = new long[c.cores][STREAM_LENGTH];
+			writes = new boolean[c.cores][STREAM_LENGTH];
+			regionAccesses = new int[c.cores];
+			Random rnd = new Random(42);
+			for (int p = 0; p < c.cores; p++) {
+				cpus[p] = CpuId.of(p);
+				// Tid 1 is the IO thread of the Pintool, see Machine.cpuOfTid()
+				tids[p] = ThreadId.of((byte) ((p == 0) ? 0 : p + 1));
+				for (int i = 0; i < STREAM_LENGTH; i++) {
+					long base = (rnd.nextDouble() < c.sharing) ? SHARED_BASE : PRIVATE_BASE + p * PRIVATE_STRIDE;
+					long line = base + (long) rnd.nextInt(c.footprint) * c.lineSize;
+					addrs[p][i] = line + 8 * rnd.nextInt(c.lineSize / 8);
+					writes[p][i] = rnd.nextDouble() < WRITE_RATIO;
+				}
+			}
+		}
+
+		/** End the region of the core every regionSize accesses */
+		void countAccess(int p) {
+			if (++regionAccesses[p] == config.regionSize) {
+				regionAccesses[p] = 0;
+				machine.processRegionBoundary(cpus[p], tids[p], EventType.LOCK_RELEASE, EventType.REG_END);
+			}
+		}
+	}
+
+	static List<Workload> workloads() {
+		List<Workload> all = new ArrayList<Workload>();
+
+		// Lookups in the private caches of core 0, after a pass over its stream
+		all.add(new MachineWorkload("search") {
+			DataByteAddress[] lookups;
+
+			@Override
+			void setUp(Config c) {
+				super.setUp(c);
+				lookups = new DataByteAddress[STREAM_LENGTH];
+				for (int i = 0; i < STREAM_LENGTH; i++) {
+					machine.cacheRead(cpus[0], addrs[0][i], 8, 0, tids[0], 0, 0, MemoryAccessType.MEMORY_READ);
+					countAccess(0);
+					lookups[i] = new DataByteAddress(addrs[0][i]);
+				}
+			}
+
+			@Override
+			void op(int i) {
+				machine.processors[0].L1cache.search(lookups[i & (STREAM_LENGTH - 1)], true);
+			}
+		});
+
+		all.add(new MachineWorkload("read") {
+			@Override
+			void op(int i) {
+				int p = i % config.cores;
+				Processor<ViserLine> proc = machine.processors[p];
+				DataAccess access = proc.currentAccess;
+				access.reset(MemoryAccessType.MEMORY_READ, addrs[p][(i / config.cores) & (STREAM_LENGTH - 1)], 8, 0,
+						cpus[p], tids[p], 0, 0);
+				proc.read(access);
+				countAccess(p);
+			}
+		});
+
+		all.add(new MachineWorkload("write") {
+			@Override
+			void op(int i) {
+				int p = i % config.cores;
+				Processor<ViserLine> proc = machine.processors[p];
+				DataAccess access = proc.currentAccess;
+				access.reset(MemoryAccessType.MEMORY_WRITE, addrs[p][(i / config.cores) & (STREAM_LENGTH - 1)], 8, i,
+						cpus[p], tids[p], 0, 0);
+				proc.write(access);
+				countAccess(p);
+			}
+		});
+
+		// Interleaved reads and writes of all cores, through Machine.cacheAccess()
+		all.add(new MachineWorkload("access") {
+			@Override
+			void op(int i) {
+				int p = i % config.cores;
+				int j = (i / config.cores) & (STREAM_LENGTH - 1);
+				if (writes[p][j]) {
+					machine.cacheWrite(cpus[p], addrs[p][j], 8, i, tids[p], 0, 0, MemoryAccessType.MEMORY_WRITE);
+				} else {
+					machine.cacheRead(cpus[p], addrs[p][j], 8, 0, tids[p], 0, 0, MemoryAccessType.MEMORY_READ);
+				}
+				countAccess(p);
+			}
+		});
+
+		// One operation is a whole region of one core, ending in a region boundary
+		all.add(new MachineWorkload("region") {
+			int[] position;
+
+			@Override
+			void setUp(Config c) {
+				super.setUp(c);
+				position = new int[c.cores];
+			}
+
+			@Override
+			void op(int i) {
+				int p = i % config.cores;
+				for (int k = 0; k < config.regionSize; k++) {
+					int j = position[p]++ & (STREAM_LENGTH - 1);
+					if (writes[p][j]) {
+						machine.cacheWrite(cpus[p], addrs[p][j], 8, i, tids[p], 0, 0, MemoryAccessType.MEMORY_WRITE);
+					} else {
+						machine.cacheRead(cpus[p], addrs[p][j], 8, 0, tids[p], 0, 0, MemoryAccessType.MEMORY_READ);
+					}
+				}
+				machine.processRegionBoundary(cpus[p], tids[p], EventType.LOCK_RELEASE, EventType.REG_END);
+			}
+		});
+
+		// One operation adds a line and queries another one, as a region would
+		all.add(new Workload("bloom") {
+			BloomFilter bf;
+			long[] lines;
+
+			@Override
+			void setUp(Config c) {
+				bf = new BloomFilter();
+				lines = new long[STREAM_LENGTH];
+				Random rnd = new Random(42);
+				for (int i = 0; i < STREAM_LENGTH; i++) {
+					lines[i] = (SHARED_BASE >> 6) + rnd.nextInt(c.cores * c.footprint);
+				}
+			}
+
+			@Override
+			void op(int i) {
+				int j = i & (STREAM_LENGTH - 1);
+				if ((i & 63) == 0) {
+					bf.clear();
+				}
+				bf.add(lines[j]);
+				if (bf.contains(lines[(j + 1) & (STREAM_LENGTH - 1)])) {
+					sink++;
+				}
+			}
+		});
+		return all;
+	}
+
+	/** Keeps results alive, like a JMH Blackhole */
+	static volatile long sink;
+
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/** Run one timed iteration, returning {ops/s, bytes/op} */
+	private static double[] iteration(Workload w, long millis) {
+		long tid = Thread.currentThread().getId();
+		long bytes0 = threads.getThreadAllocatedBytes(tid);
+		long t0 = System.nanoTime();
+		long deadline = t0 + millis * 1000000L;
+		long ops = 0;
+		long t;
+		do {
+			for (int k = 0; k < BATCH; k++) {
+				w.op(w.next);
+				w.next = (w.next + 1) & Integer.MAX_VALUE;
+			}
+			ops += BATCH;
+			t = System.nanoTime();
+		} while (t < deadline);
+		long bytes = threads.getThreadAllocatedBytes(tid) - bytes0;
+		return new double[] { ops * 1e9 / (t - t0), bytes / (double) ops };
+	}
+
+	private static List<Integer> ints(String list) {
+		List<Integer> l = new ArrayList<Integer>();
+		for (String s : list.split(",")) {
+			l.add(Integer.valueOf(s.trim()));
+		}
+		return l;
+	}
+
+	private static List<Double> doubles(String list) {
+		List<Double> l = new ArrayList<Double>();
+		for (String s : list.split(",")) {
+			l.add(Double.valueOf(s.trim()));
+		}
+		return l;
+	}
+
+	public static void main(String[] args) {
+		OptionParser parser = new OptionParser();
+		OptionSpec<String> benchOpt = parser.accepts("bench", "comma-separated benchmarks to run, all by default")
+				.withRequiredArg().defaultsTo("search,read,write,access,region,bloom");
+		OptionSpec<String> coresOpt = parser.accepts("cores", "comma-separated core counts").withRequiredArg()
+				.defaultsTo("4,16");
+		OptionSpec<String> assocOpt = parser.accepts("assoc", "comma-separated L1 and L2 associativities")
+				.withRequiredArg().defaultsTo("8");
+		OptionSpec<String> lineOpt = parser.accepts("line-size", "comma-separated line sizes").withRequiredArg()
+				.defaultsTo("64");
+		OptionSpec<String> sharingOpt = parser
+				.accepts("sharing", "comma-separated shares of the accesses that go to lines shared by all cores")
+				.withRequiredArg().defaultsTo("0,0.2");
+		OptionSpec<Integer> footprintOpt = parser
+				.accepts("footprint", "lines of the shared pool and of each private pool").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(2048);
+		OptionSpec<Integer> regionOpt = parser.accepts("region-size", "accesses of a core between region boundaries")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(100);
+		OptionSpec<Integer> warmupOpt = parser.accepts("warmup", "warmup iterations").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(3);
+		OptionSpec<Integer> iterOpt = parser.accepts("iterations", "measured iterations").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(5);
+		OptionSpec<Integer> timeOpt = parser.accepts("time", "milliseconds per iteration").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(1000);
+		OptionSpec<String> simOpt = parser.accepts("sim-options", "further ViserSim options, e.g., \"--use-l2=false\"")
+				.withRequiredArg().defaultsTo("");
+		OptionSet opts = parser.parse(args);
+
+		List<String> benches = new ArrayList<String>();
+		for (String s : opts.valueOf(benchOpt).split(",")) {
+			benches.add(s.trim());
+		}
+
+		System.out.println(String.format("%-10s %5s %5s %8s %7s %14s %12s %10s", "Benchmark", "Cores", "Assoc",
+				"LineSize", "Sharing", "ops/s", "+-sd", "B/op"));
+		for (int cores : ints(opts.valueOf(coresOpt))) {
+			for (int assoc : ints(opts.valueOf(assocOpt))) {
+				for (int lineSize : ints(opts.valueOf(lineOpt))) {
+					for (double sharing : doubles(opts.valueOf(sharingOpt))) {
+						Config c = new Config();
+						c.cores = cores;
+						c.assoc = assoc;
+						c.lineSize = lineSize;
+						c.sharing = sharing;
+						c.footprint = opts.valueOf(footprintOpt);
+						c.regionSize = opts.valueOf(regionOpt);
+						c.simOptions = opts.valueOf(simOpt);
+						for (Workload w : workloads()) {
+							if (!benches.contains(w.name)) {
+								continue;
+							}
+							w.setUp(c);
+							for (int k = 0; k < opts.valueOf(warmupOpt); k++) {
+								iteration(w, opts.valueOf(timeOpt));
+							}
+							int n = opts.valueOf(iterOpt);
+							double sum = 0, sumSq = 0, bytes = 0;
+							for (int k = 0; k < n; k++) {
+								double[] r = iteration(w, opts.valueOf(timeOpt));
+								sum += r[0];
+								sumSq += r[0] * r[0];
+								bytes += r[1];
+							}
+							double mean = sum / n;
+							double sd = (n > 1) ? Math.sqrt(Math.max(0, (sumSq - n * mean * mean) / (n - 1))) : 0;
+							System.out.println(String.format("%-10s %s %14.1f %12.1f %10.2f", w.name, c, mean, sd,
+									bytes / n));
+						}
+					}
+				}
+			}
+		}
+	}
+}
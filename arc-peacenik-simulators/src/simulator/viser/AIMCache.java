@@ -1,12 +1,13 @@
 package simulator.viser;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-class AIMResponse<Line extends ViserLine> {
+class AIMResponse<Line extends ViserLine> implements Serializable {
 	/** The level of the cache hierarchy where the hit occurred */
 	public CacheLevel whereHit;
 
@@ -21,7 +22,7 @@ class AIMResponse<Line extends ViserLine> {
 // to actually store all the metadata for 8 cores + 4 bytes version. Instead we
 // just want to model the hit/miss ratio,
 // so we store tags.
-public final class AIMCache<Line extends ViserLine> {
+public final class AIMCache<Line extends ViserLine> implements Serializable {
 	private final int assoc = 4;
 	// this corresponds to the data line size, and not the actual capacity that
 	// should also include
@@ -193,11 +194,9 @@ public final class AIMCache<Line extends ViserLine> {
 				assert llcLine != null;
 				boolean valid = false;
 				for (int i = 0; i < proc.params.numProcessors(); i++) {
-					CpuId cpuId = new CpuId(i);
+					CpuId cpuId = CpuId.of(i);
 					Processor<Line> p = proc.machine.getProc(cpuId);
-					PerCoreLineMetadata md = llcLine.getPerCoreMetadata(cpuId);
-					assert md != null;
-					assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
+					assert llcLine.getRegionId(cpuId) <= p.getCurrentEpoch().getRegionId();
 					if (llcLine.hasReadOffsets(cpuId) || llcLine.hasWrittenOffsets(cpuId)) {
 						valid = true;
 						break;
@@ -301,7 +300,7 @@ public final class AIMCache<Line extends ViserLine> {
 					Line llcLine = proc.L3cache.getLine(origLine);
 					assert llcLine != null;
 					for (int j = 0; j < proc.params.numProcessors(); j++) {
-						CpuId cpuId = new CpuId(j);
+						CpuId cpuId = CpuId.of(j);
 						if (llcLine.hasReadOffsets(cpuId) || llcLine.hasWrittenOffsets(cpuId)) {
 							valid = true;
 							break;
@@ -335,7 +334,7 @@ public final class AIMCache<Line extends ViserLine> {
 			int numLinesRemoved = 0;
 			while (deqIt.hasNext()) {
 				Line aimLine = deqIt.next();
-				assert aimLine.id().equals(new CpuId(0));
+				assert aimLine.id().equals(CpuId.of(0));
 
 				if (aimLine.lineAddress() == null) {
 					continue;
@@ -345,11 +344,9 @@ public final class AIMCache<Line extends ViserLine> {
 				Line llcLine = proc.L3cache.getLine(aimLine);
 				assert llcLine != null;
 				for (int i = 0; i < proc.params.numProcessors(); i++) {
-					CpuId cpuId = new CpuId(i);
+					CpuId cpuId = CpuId.of(i);
 					Processor<Line> p = proc.machine.getProc(cpuId);
-					PerCoreLineMetadata md = llcLine.getPerCoreMetadata(cpuId);
-					assert md != null;
-					assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
+					assert llcLine.getRegionId(cpuId) <= p.getCurrentEpoch().getRegionId();
 					if (llcLine.hasReadOffsets(cpuId) || llcLine.hasWrittenOffsets(cpuId)) {
 						valid = true;
 						break;
@@ -3,24 +3,21 @@ package simulator.viser;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import simulator.viser.ViserSim.PARSEC_PHASE;
-
 public class AvgCounter extends Counter {
-	/** List of all the stats that have been created. */
-	protected static List<AvgCounter> AllCounters = new LinkedList<AvgCounter>();
-
 	// maps pc counter names => global Counter objects
 	static Map<String, AvgCounter> globalCounters = new HashMap<String, AvgCounter>();
 
-	public static void dumpCounters(Writer wr, String prefix, String suffix) throws IOException {
+	/** Dump the counters of the cores, from their stat blocks, and the global counters. */
+	public static void dumpCounters(StatBlock[] cores, Writer wr, String prefix, String suffix) throws IOException {
+		List<AvgCounter> counters = StatBlock.counters(cores, AvgCounter.class);
+
 		// generate global counters
-		currentCpu = new CpuId(-1);
+		currentCpu = CpuId.of(-1);
 
-		for (AvgCounter c : AllCounters) {
+		for (AvgCounter c : counters) {
 			if (!c.name.startsWith("pc_")) {
 				continue;
 			}
@@ -34,11 +31,11 @@ public class AvgCounter extends Counter {
 			}
 		}
 		currentCpu = null;
-		AllCounters.addAll(globalCounters.values());
+		counters.addAll(globalCounters.values());
 
 		// write counter values
-		for (AvgCounter c : AllCounters) {
-			wr.write(prefix + "'cpuid': " + c.cpuid.get() + ", '" + c.name + "': " + c.stat + suffix);
+		for (AvgCounter c : counters) {
+			wr.write(prefix + "'cpuid': " + c.cpuid.get() + ", '" + c.name + "': " + c.get() + suffix);
 		}
 	}
 
@@ -50,8 +47,8 @@ public class AvgCounter extends Counter {
 
 	@Override
 	public void incr(double a) {
-		if (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
-			stat += a;
+		if (counting()) {
+			block[slot] += a;
 			if (a > 0)
 				num++;
 			else
@@ -61,6 +58,5 @@ public class AvgCounter extends Counter {
 
 	AvgCounter(String name) {
 		super(currentCpu, name);
-		AllCounters.add(this);
 	}
 }
@@ -1,120 +1,173 @@
 package simulator.viser;
 
-import java.util.BitSet;
-
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A Bloom filter of line addresses. The bits live in a long[] and the hash
+ * functions are computed inline, so adding and querying do not allocate.
+ *
+ * The first hash function is Murmur3 32-bit and the second one is Murmur3
+ * 128-bit (lower half) over the line address, computing the same bits as the
+ * Guava functions used before. Further functions combine the two by double
+ * hashing.
+ */
+public final class BloomFilter implements Serializable {
+
+	// Try to fit the filter into one 16-byte flit, along with the message header
+	public static final int DEFAULT_NUM_BITS = 112;
+	// Use two hash functions by default, help avoid false positives. This improves
+	// the network usage of fluidanimate, and helps the geomean slightly.
+	public static final int DEFAULT_NUM_HASH_FUNCS = 2;
 
-/** A fixed-size Bloom filter, with support for up to three hash functions. */
-public final class BloomFilter {
+	private final long[] words;
+	private final int numBits;
+	private final int numHashFuncs;
 
-	private static final int NUM_BITS = 112;
-	public static final int NUM_BYTES = NUM_BITS / MemorySystemConstants.BITS_IN_BYTE;
+	public BloomFilter() {
+		this(DEFAULT_NUM_BITS, DEFAULT_NUM_HASH_FUNCS);
+	}
 
-	private final BitSet filter = new BitSet(NUM_BITS); // number of bits
+	public BloomFilter(int numBits, int numHashFuncs) {
+		if (numBits <= 0 || numHashFuncs <= 0) {
+			throw new IllegalArgumentException(
+					"Bad Bloom filter geometry: " + numBits + " bits, " + numHashFuncs + " hash functions");
+		}
+		this.numBits = numBits;
+		this.numHashFuncs = numHashFuncs;
+		this.words = new long[(numBits + Long.SIZE - 1) / Long.SIZE];
+	}
 
-	// Guava hash
-	private static final HashFunction hf2 = Hashing.murmur3_32();
-	private static final HashFunction hf3 = Hashing.murmur3_128();
+	public int numBits() {
+		return numBits;
+	}
 
-	// Use two hash functions by default, help avoid false positives. This improves
-	// the
-	// network usage of fluidanimate, and helps the geomean slightly.
-	private static final boolean useJavaHash = false;
-	private static final boolean useMurmur3_32 = true;
+	public int numHashFuncs() {
+		return numHashFuncs;
+	}
 
-	// private static final boolean useMurmur3_128 = false;
 	public void clear() {
-		filter.clear();
+		Arrays.fill(words, 0L);
 	}
 
-	// We possibly need not bother with negative hashcodes
-	// RZ: I encountered a negative hashcode with raytrace with simsmall.
-	/*
-	 * Exception in thread "main" java.lang.IndexOutOfBoundsException: bitIndex < 0:
-	 * -16 at java.util.BitSet.set(BitSet.java:436) at
-	 * simulator.viser.BloomFilter.setBit(BloomFilter.java:--) at
-	 * simulator.viser.BloomFilter.add(BloomFilter.java:--) ...
-	 */
 	public void add(long lineAddress) {
-		int bitPos;
-		if (useJavaHash) {
-			bitPos = getJavaHashBit(lineAddress);
-			if (bitPos < 0) {
-				System.out.println("Negative hashcode:" + bitPos + " from line address:" + lineAddress);
+		long h1 = murmur3_32(lineAddress);
+		setBit(bitIndex(h1));
+		if (numHashFuncs > 1) {
+			long h2 = murmur3_128(lineAddress);
+			setBit(bitIndex(h2));
+			for (int i = 2; i < numHashFuncs; i++) {
+				setBit(bitIndex(h1 + i * h2));
 			}
-			setBit(bitPos);
 		}
-		if (useMurmur3_32) {
-			bitPos = getMurmur3_32_Bit(lineAddress);
-			if (bitPos < 0) {
-				System.out.println("Negative hashcode:" + bitPos + " from line address:" + lineAddress);
-			}
-			setBit(bitPos);
+	}
+
+	public boolean contains(long lineAddress) {
+		long h1 = murmur3_32(lineAddress);
+		if (!getBit(bitIndex(h1))) {
+			return false;
 		}
-		if (/* useMurmur3_128 || */ ViserSim.useTwoBloomFuncs()) {
-			bitPos = getMurmur3_128_Bit(lineAddress);
-			if (bitPos < 0) {
-				System.out.println("Negative hashcode:" + bitPos + " from line address:" + lineAddress);
+		if (numHashFuncs > 1) {
+			long h2 = murmur3_128(lineAddress);
+			if (!getBit(bitIndex(h2))) {
+				return false;
+			}
+			for (int i = 2; i < numHashFuncs; i++) {
+				if (!getBit(bitIndex(h1 + i * h2))) {
+					return false;
+				}
 			}
-			setBit(bitPos);
 		}
+		return true;
+	}
+
+	// Hash codes can be negative, so fold the remainder into [0, numBits)
+	private int bitIndex(long hash) {
+		return (int) Math.abs(hash % numBits);
 	}
 
 	private void setBit(int bitPos) {
-		filter.set(bitPos);
+		words[bitPos >>> 6] |= (1L << bitPos);
 	}
 
-	// Java hashcode
-	private int getJavaHashBit(long value) {
-		int firstInt = Long.valueOf(value).hashCode();
-		int firstBit = (Math.abs(firstInt)) % NUM_BITS;
-		return firstBit;
+	private boolean getBit(int bitPos) {
+		return (words[bitPos >>> 6] & (1L << bitPos)) != 0L;
 	}
 
-	// Guava murmur3_32
-	private int getMurmur3_32_Bit(long value) {
-		int secondInt = hf2.hashLong(value).asInt();
-		int secondBit = Math.abs(secondInt) % NUM_BITS;
-		return secondBit;
+	/** Murmur3 x86 32-bit hash of a long, with seed 0. */
+	static int murmur3_32(long value) {
+		int h1 = mixH1(0, mixK1((int) value));
+		h1 = mixH1(h1, mixK1((int) (value >>> 32)));
+		h1 ^= Long.SIZE / MemorySystemConstants.BITS_IN_BYTE;
+		h1 ^= h1 >>> 16;
+		h1 *= 0x85ebca6b;
+		h1 ^= h1 >>> 13;
+		h1 *= 0xc2b2ae35;
+		h1 ^= h1 >>> 16;
+		return h1;
 	}
 
-	// Guava murmur3_128
-	private int getMurmur3_128_Bit(long value) {
-		long thirdLong = hf3.hashLong(value).asLong();
-		int thirdBit = (int) (Math.abs(thirdLong) % NUM_BITS);
-		return thirdBit;
+	private static int mixK1(int k1) {
+		k1 *= 0xcc9e2d51;
+		k1 = Integer.rotateLeft(k1, 15);
+		k1 *= 0x1b873593;
+		return k1;
 	}
 
-	public boolean contains(long lineAddress) {
-		if (useJavaHash) {
-			if (!filter.get(getJavaHashBit(lineAddress))) {
-				return false;
-			}
-		}
-		if (useMurmur3_32) {
-			if (!filter.get(getMurmur3_32_Bit(lineAddress))) {
-				return false;
-			}
-		}
-		if (/* useMurmur3_128 || */ ViserSim.useTwoBloomFuncs()) {
-			if (!filter.get(getMurmur3_128_Bit(lineAddress))) {
-				return false;
-			}
-		}
-		return true;
+	private static int mixH1(int h1, int k1) {
+		h1 ^= k1;
+		h1 = Integer.rotateLeft(h1, 13);
+		h1 = h1 * 5 + 0xe6546b64;
+		return h1;
+	}
+
+	/** The lower 64 bits of the Murmur3 x64 128-bit hash of a long, with seed 0. */
+	static long murmur3_128(long value) {
+		long k1 = value * 0x87c37b91114253d5L;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= 0x4cf5ad432745937fL;
+		long h1 = k1 ^ (Long.SIZE / MemorySystemConstants.BITS_IN_BYTE);
+		long h2 = Long.SIZE / MemorySystemConstants.BITS_IN_BYTE;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		return h1 + h2;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
 	}
 
 	public void print() {
-		System.out.println(filter.toString());
+		System.out.println(toString());
 	}
 
+	/** Same format as BitSet.toString() */
 	@Override
 	public String toString() {
-		return filter.toString();
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = 0; i < numBits; i++) {
+			if (getBit(i)) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append(i);
+			}
+		}
+		return sb.append('}').toString();
 	}
 
 	public int cardinality() {
-		return filter.cardinality();
+		int count = 0;
+		for (long w : words) {
+			count += Long.bitCount(w);
+		}
+		return count;
 	}
 }
@@ -1,7 +1,10 @@
 package simulator.viser;
 
+import java.io.Serializable;
+import java.util.Arrays;
+
 /** Base class for all cache lines */
-abstract class CoherentLine {
+abstract class CoherentLine implements Serializable {
 	protected LineAddress addr;
 
 	abstract public boolean valid();
@@ -93,11 +96,50 @@ class ViserLine extends VILine {
 	/**
 	 * Viser needs to store values in addition to tags (unlike MESI). We do not need
 	 * per-core values, since LLC values are globally visible.
+	 *
+	 * A value is kept per byte offset, but only a few offsets of a line are ever
+	 * accessed, so only the offsets in valueMask have a slot: values holds them in
+	 * offset order, and every other offset reads as 0. Copying all values shares
+	 * the array between the two lines, and whichever line is updated next makes
+	 * its own copy.
+	 */
+	private long valueMask = 0L;
+	private long[] values = NO_VALUES;
+	private boolean valuesShared = false;
+	/**
+	 * The last writer of each offset, -1 if none. Lines are usually written by a
+	 * single core, so lastWriterMask and soleLastWriter describe the line until a
+	 * second core writes it. Only then lastWriters holds one entry per offset; it
+	 * is shared on copies like values.
+	 */
+	private long lastWriterMask = 0L;
+	private short soleLastWriter = -1;
+	private short[] lastWriters = null;
+	private boolean lastWritersShared = false;
+
+	private static final long[] NO_VALUES = new long[0];
+	/**
+	 * Per-core metadata that LLC needs to maintain for evicted lines, with one
+	 * slot per core (a single slot for private lines). The slots are kept in
+	 * parallel primitive arrays instead of a PerCoreLineMetadata object per core,
+	 * so that walking over all the cores of an LLC line reads a few contiguous
+	 * arrays. The region id is that of the per-thread epoch, which can be used to
+	 * avoid clearing lines in the LLC and main memory.
 	 */
-	private long[] values = new long[MemorySystemConstants.LINE_SIZE()];
-	private short[] lastWriters = new short[MemorySystemConstants.LINE_SIZE()];
-	/** Per-core metadata that LLC needs to maintain for evicted lines. */
-	private PerCoreLineMetadata[] perCoreMd;
+	private long[] writeEncodings;
+	private long[] readEncodings;
+	private int[] regionIds;
+	/**
+	 * Site information, SITE_KINDS arrays per slot. The table is only allocated
+	 * once a site is recorded, so it stays null without site tracking.
+	 */
+	private int[][] siteInfo = null;
+
+	private static final int WRITE_SITE = 0;
+	private static final int WRITE_LAST_SITE = 1;
+	private static final int READ_SITE = 2;
+	private static final int READ_LAST_SITE = 3;
+	private static final int SITE_KINDS = 4;
 	/**
 	 * LLC needs to maintain the owner core in case write back of dirty lines are
 	 * deferred.
@@ -134,10 +176,26 @@ class ViserLine extends VILine {
 	// for improvement is bounded.
 	private void allocatePerCoreMetadata() {
 		int size = (level == CacheLevel.L3) ? ownerProc.params.numProcessors() : 1;
-		perCoreMd = new PerCoreLineMetadata[size];
-		for (int i = 0; i < perCoreMd.length; i++) {
-			perCoreMd[i] = new PerCoreLineMetadata();
+		writeEncodings = new long[size];
+		readEncodings = new long[size];
+		regionIds = new int[size];
+		Arrays.fill(regionIds, Epoch.NONE.getRegionId());
+	}
+
+	/** The metadata slot of the given core */
+	private int slot(CpuId cid) {
+		if (isPrivateCacheLine()) {
+			assert cid.equals(id());
+			return 0;
 		}
+		return cid.get();
+	}
+
+	/** True if the metadata in the slot is from the ongoing region of the core. */
+	private boolean isCurrentRegion(CpuId cid, int slot) {
+		int current = ownerProc.machine.getProc(cid).getCurrentEpoch().getRegionId();
+		assert regionIds[slot] <= current : "Epoch mismatch";
+		return regionIds[slot] == current;
 	}
 
 	public ViserState getState() {
@@ -240,83 +298,44 @@ class ViserLine extends VILine {
 
 	// In Java, we do not easily get an unsigned integer
 	public long getWriteEncoding(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-		assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId() : "Epoch mismatch";
-
-		if (p.getCurrentEpoch().equals(md.epoch)) {
-			return md.writeEncoding;
-		} else {
-			return 0;
-		}
+		int i = slot(cid);
+		return isCurrentRegion(cid, i) ? writeEncodings[i] : 0;
 	}
 
 	public int[] getWriteSiteInfo(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		return md.writeSiteInfo;
+		return getSiteInfo(cid, WRITE_SITE);
 	}
 
 	public int[] getWriteLastSiteInfo(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		return md.writeLastSiteInfo;
+		return getSiteInfo(cid, WRITE_LAST_SITE);
 	}
 
 	public void orWriteEncoding(CpuId cid, long enc) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		if (p.getCurrentEpoch().equals(md.epoch)) {
-			md.writeEncoding |= enc;
+		int i = slot(cid);
+		if (isCurrentRegion(cid, i)) {
+			writeEncodings[i] |= enc;
 		} else {
-			md.writeEncoding = enc;
+			writeEncodings[i] = enc;
 		}
 	}
 
 	public void clearWriteEncodingFromAccess(CpuId cid, long enc) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		if (p.getCurrentEpoch().equals(md.epoch)) {
-			md.writeEncoding &= ~enc;
+		int i = slot(cid);
+		if (isCurrentRegion(cid, i)) {
+			writeEncodings[i] &= ~enc;
 		} else {
-			md.writeEncoding = 0L;
+			writeEncodings[i] = 0L;
 		}
 	}
 
 	public void updateWriteSiteInfo(CpuId cid, long enc, int[] si, int[] lastSi) {
-		if (si == null) {
-			return;
-		}
-
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-
-		if (md.writeSiteInfo == null) {
-			md.writeSiteInfo = new int[MemorySystemConstants.LINE_SIZE()];
-			md.writeLastSiteInfo = new int[MemorySystemConstants.LINE_SIZE()];
-		}
-		for (int i = 0; i < MemorySystemConstants.LINE_SIZE(); i++) {
-			if (((1L << i) & enc) != 0) {
-				md.writeSiteInfo[i] = si[i];
-				md.writeLastSiteInfo[i] = lastSi[i];
-			}
-		}
+		updateSiteInfo(cid, WRITE_SITE, WRITE_LAST_SITE, enc, si, lastSi);
 	}
 
 	public void clearWriteEncoding(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		md.writeEncoding = 0L;
+		int i = slot(cid);
+		assert regionIds[i] <= ownerProc.machine.getProc(cid).getCurrentEpoch().getRegionId();
+		writeEncodings[i] = 0L;
 	}
 
 	public boolean isOffsetWritten(CpuId cid, long enc) {
@@ -328,85 +347,77 @@ class ViserLine extends VILine {
 	}
 
 	public long getReadEncoding(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		if (p.getCurrentEpoch().equals(md.epoch)) {
-			return md.readEncoding;
-		} else {
-			return 0;
-		}
+		int i = slot(cid);
+		return isCurrentRegion(cid, i) ? readEncodings[i] : 0;
 	}
 
 	public int[] getReadSiteInfo(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		return md.readSiteInfo;
+		return getSiteInfo(cid, READ_SITE);
 	}
 
 	public int[] getReadLastSiteInfo(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		return md.readLastSiteInfo;
+		return getSiteInfo(cid, READ_LAST_SITE);
 	}
 
 	public void orReadEncoding(CpuId cid, long enc) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		if (p.getCurrentEpoch().equals(md.epoch)) {
-			md.readEncoding |= enc;
+		int i = slot(cid);
+		if (isCurrentRegion(cid, i)) {
+			readEncodings[i] |= enc;
 		} else {
-			md.readEncoding = enc;
+			readEncodings[i] = enc;
 		}
 	}
 
 	public void clearReadEncodingFromAccess(CpuId cid, long enc) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		if (p.getCurrentEpoch().equals(md.epoch)) {
-			md.readEncoding &= ~enc;
+		int i = slot(cid);
+		if (isCurrentRegion(cid, i)) {
+			readEncodings[i] &= ~enc;
 		} else {
-			md.readEncoding = 0L;
+			readEncodings[i] = 0L;
 		}
 	}
 
 	public void updateReadSiteInfo(CpuId cid, long enc, int[] si, int[] lastSi) {
+		updateSiteInfo(cid, READ_SITE, READ_LAST_SITE, enc, si, lastSi);
+	}
+
+	public void clearReadEncoding(CpuId cid) {
+		int i = slot(cid);
+		assert regionIds[i] <= ownerProc.machine.getProc(cid).getCurrentEpoch().getRegionId();
+		readEncodings[i] = 0L;
+	}
+
+	private int[] getSiteInfo(CpuId cid, int kind) {
+		int i = slot(cid);
+		assert regionIds[i] <= ownerProc.machine.getProc(cid).getCurrentEpoch().getRegionId();
+		return (siteInfo == null) ? null : siteInfo[SITE_KINDS * i + kind];
+	}
+
+	private void updateSiteInfo(CpuId cid, int kind, int lastKind, long enc, int[] si, int[] lastSi) {
 		if (si == null) {
 			return;
 		}
 
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
+		int i = slot(cid);
+		assert regionIds[i] <= ownerProc.machine.getProc(cid).getCurrentEpoch().getRegionId();
 
-		if (md.readSiteInfo == null) {
-			md.readSiteInfo = new int[MemorySystemConstants.LINE_SIZE()];
-			md.readLastSiteInfo = new int[MemorySystemConstants.LINE_SIZE()];
+		if (siteInfo == null) {
+			siteInfo = new int[SITE_KINDS * regionIds.length][];
+		}
+		int[] sites = siteInfo[SITE_KINDS * i + kind];
+		int[] lastSites = siteInfo[SITE_KINDS * i + lastKind];
+		if (sites == null) {
+			sites = siteInfo[SITE_KINDS * i + kind] = new int[MemorySystemConstants.LINE_SIZE()];
+			lastSites = siteInfo[SITE_KINDS * i + lastKind] = new int[MemorySystemConstants.LINE_SIZE()];
 		}
-		for (int i = 0; i < MemorySystemConstants.LINE_SIZE(); i++) {
-			if (((1L << i) & enc) != 0) {
-				md.readSiteInfo[i] = si[i];
-				md.readLastSiteInfo[i] = lastSi[i];
+		for (int j = 0; j < MemorySystemConstants.LINE_SIZE(); j++) {
+			if (((1L << j) & enc) != 0) {
+				sites[j] = si[j];
+				lastSites[j] = lastSi[j];
 			}
 		}
 	}
 
-	public void clearReadEncoding(CpuId cid) {
-		Processor<ViserLine> p = ownerProc.machine.getProc(cid);
-		PerCoreLineMetadata md = getPerCoreMetadata(cid);
-		assert p.getCurrentEpoch().getRegionId() >= md.epoch.getRegionId();
-		md.readEncoding = 0L;
-	}
-
 	/** Read by the given cpu, before being updated. */
 	public boolean isOffsetRead(CpuId cid, long enc) {
 		return (getReadEncoding(cid) & enc) != 0;
@@ -467,41 +478,86 @@ class ViserLine extends VILine {
 
 	public long getValue(int offset) {
 		assert offset < MemorySystemConstants.LINE_SIZE();
-		return values[offset];
+		long bit = 1L << offset;
+		if ((valueMask & bit) == 0) {
+			return 0L;
+		}
+		return values[Long.bitCount(valueMask & (bit - 1))];
 	}
 
 	public short getLastWriter(int offset) {
 		assert offset < MemorySystemConstants.LINE_SIZE();
-		return lastWriters[offset];
+		if (lastWriters != null) {
+			return lastWriters[offset];
+		}
+		return ((lastWriterMask & (1L << offset)) != 0) ? soleLastWriter : -1;
 	}
 
+	/** Return a copy of the last writers of all offsets. */
 	public short[] getLastWriters() {
-		return lastWriters;
+		short[] tmp = new short[MemorySystemConstants.LINE_SIZE()];
+		for (int i = 0; i < tmp.length; i++) {
+			tmp[i] = getLastWriter(i);
+		}
+		return tmp;
 	}
 
 	public void initLastWriters() {
-		for (int i = 0; i < lastWriters.length; i++) {
-			lastWriters[i] = -1;
-		}
+		assert MemorySystemConstants.LINE_SIZE() <= Long.SIZE : "Offsets are tracked in a long";
+		lastWriterMask = 0L;
+		soleLastWriter = -1;
+		lastWriters = null;
+		lastWritersShared = false;
 	}
 
 	public void setLastWriters(short[] l_writers) {
-		for (int i = 0; i < lastWriters.length; i++) {
-			lastWriters[i] = l_writers[i];
+		initLastWriters();
+		for (int i = 0; i < l_writers.length; i++) {
+			if (l_writers[i] != -1) {
+				setLastWriters(1L << i, l_writers[i]);
+			}
+		}
+	}
+
+	/** this <-- other */
+	public void copyLastWriters(ViserLine other) {
+		lastWriterMask = other.lastWriterMask;
+		soleLastWriter = other.soleLastWriter;
+		lastWriters = other.lastWriters;
+		if (lastWriters != null) {
+			lastWritersShared = other.lastWritersShared = true;
 		}
 	}
 
 	public void setLastWritersFromPrivateLine(ViserLine src) {
-		assert src.perCoreMd.length == 1;
+		assert src.regionIds.length == 1;
 		long enc = src.getWriteEncoding(src.id());
 		setLastWriters(enc, src.id());
 	}
 
 	public void setLastWriters(long enc, CpuId lastWriter) {
-		short l_writers = lastWriter.get();
-		for (int i = 0; i < lastWriters.length; i++) {
-			if (((1L << i) & enc) != 0)
-				lastWriters[i] = l_writers;
+		setLastWriters(enc, lastWriter.get());
+	}
+
+	private void setLastWriters(long enc, short l_writer) {
+		if (lastWriters == null) {
+			if (lastWriterMask == 0L || soleLastWriter == l_writer || (lastWriterMask & ~enc) == 0L) {
+				// Still a single writer
+				lastWriterMask |= enc;
+				soleLastWriter = l_writer;
+				return;
+			}
+			lastWriters = new short[MemorySystemConstants.LINE_SIZE()];
+			for (int i = 0; i < lastWriters.length; i++) {
+				lastWriters[i] = ((lastWriterMask & (1L << i)) != 0) ? soleLastWriter : -1;
+			}
+			lastWritersShared = false;
+		} else if (lastWritersShared) {
+			lastWriters = lastWriters.clone();
+			lastWritersShared = false;
+		}
+		for (long bits = enc; bits != 0L; bits &= bits - 1) {
+			lastWriters[Long.numberOfTrailingZeros(bits)] = l_writer;
 		}
 	}
 
@@ -511,17 +567,59 @@ class ViserLine extends VILine {
 
 	public void setValue(int offset, long value) {
 		assert offset < MemorySystemConstants.LINE_SIZE();
-		values[offset] = value;
+		long bit = 1L << offset;
+		int slot = Long.bitCount(valueMask & (bit - 1));
+		if ((valueMask & bit) != 0) {
+			if (values[slot] != value) {
+				if (valuesShared) {
+					values = values.clone();
+					valuesShared = false;
+				}
+				values[slot] = value;
+			}
+			return;
+		}
+		if (value == 0L) {
+			return; // Offsets without a slot read as 0
+		}
+		// Make room for a new slot
+		int count = Long.bitCount(valueMask);
+		long[] tmp = values;
+		if (valuesShared || count == values.length) {
+			tmp = new long[Math.max(2, 2 * count)];
+			System.arraycopy(values, 0, tmp, 0, slot);
+			valuesShared = false;
+		}
+		System.arraycopy(values, slot, tmp, slot + 1, count - slot);
+		tmp[slot] = value;
+		values = tmp;
+		valueMask |= bit;
 	}
 
 	/** this <-- other */
 	public void copyAllValues(ViserLine other) {
-		assert values != null && other.values != null && values.length == other.values.length;
-		for (int i = 0; i < values.length; i++) {
-			values[i] = other.values[i];
+		valueMask = other.valueMask;
+		values = other.values;
+		if (values.length > 0) {
+			valuesShared = other.valuesShared = true;
 		}
 	}
 
+	/** Return the offsets whose values differ between this line and other. */
+	public long getDifferingOffsets(ViserLine other) {
+		if (values == other.values && valueMask == other.valueMask) {
+			return 0L;
+		}
+		long diff = 0L;
+		for (long bits = valueMask | other.valueMask; bits != 0L; bits &= bits - 1) {
+			int offset = Long.numberOfTrailingZeros(bits);
+			if (getValue(offset) != other.getValue(offset)) {
+				diff |= 1L << offset;
+			}
+		}
+		return diff;
+	}
+
 	/**
 	 * Note that the cpu id from the source line is used. WAR bits are also copied.
 	 */
@@ -542,44 +640,74 @@ class ViserLine extends VILine {
 
 	/** Copy values based on enc. */
 	public void copyRequestedValues(ViserLine source, long enc) {
-		// Iterate over all the bits
-		for (int i = 0; i < MemorySystemConstants.LINE_SIZE(); i++) {
-			// Check if the ith bit is set in "enc". if yes, then update the value from
-			// source line to this line.
-			long mask = 1L << i; // Lines are 64 bytes
-			if ((enc & mask) != 0) { // ith bit is set
-				assert (enc & mask) == mask;
-				values[i] = source.values[i];
-			}
+		// Offsets without a slot in either line are 0 in both
+		for (long bits = enc & (valueMask | source.valueMask); bits != 0L; bits &= bits - 1) {
+			int offset = Long.numberOfTrailingZeros(bits);
+			setValue(offset, source.getValue(offset));
 		}
 	}
 
+	/** The region id of the epoch in which the given core last updated the line */
+	public int getRegionId(CpuId cid) {
+		return regionIds[slot(cid)];
+	}
+
 	public Epoch getEpoch(CpuId cid) {
-		return getPerCoreMetadata(cid).epoch;
+		int regionId = getRegionId(cid);
+		Epoch current = ownerProc.machine.getProc(cid).getCurrentEpoch();
+		if (regionId == current.getRegionId()) {
+			return current;
+		}
+		return (regionId == Epoch.NONE.getRegionId()) ? Epoch.NONE : new Epoch(regionId);
 	}
 
 	public void setEpoch(CpuId cid, Epoch ep) {
-		if (isPrivateCacheLine()) {
-			assert cid.equals(id());
-			cid = new CpuId(0);
-		}
-		perCoreMd[cid.get()].epoch = (ep == null ? new Epoch() : new Epoch(ep));
+		regionIds[slot(cid)] = (ep == null ? Epoch.NONE : ep).getRegionId();
 	}
 
 	public void setPerCoreMetadata(CpuId cid, PerCoreLineMetadata md) {
-		if (isPrivateCacheLine()) {
-			assert cid.equals(id());
-			cid = new CpuId(0);
+		int i = slot(cid);
+		writeEncodings[i] = md.writeEncoding;
+		readEncodings[i] = md.readEncoding;
+		regionIds[i] = md.epoch.getRegionId();
+		if (siteInfo == null && (md.writeSiteInfo != null || md.readSiteInfo != null)) {
+			siteInfo = new int[SITE_KINDS * regionIds.length][];
+		}
+		if (siteInfo != null) {
+			siteInfo[SITE_KINDS * i + WRITE_SITE] = md.writeSiteInfo;
+			siteInfo[SITE_KINDS * i + WRITE_LAST_SITE] = md.writeLastSiteInfo;
+			siteInfo[SITE_KINDS * i + READ_SITE] = md.readSiteInfo;
+			siteInfo[SITE_KINDS * i + READ_LAST_SITE] = md.readLastSiteInfo;
 		}
-		perCoreMd[cid.get()] = md;
 	}
 
+	/** Return a copy of the metadata of the given core. */
 	public PerCoreLineMetadata getPerCoreMetadata(CpuId cid) {
-		if (isPrivateCacheLine()) {
-			assert cid.equals(id());
-			cid = new CpuId(0);
+		int i = slot(cid);
+		Epoch ep = (regionIds[i] == Epoch.NONE.getRegionId()) ? Epoch.NONE : new Epoch(regionIds[i]);
+		if (siteInfo == null) {
+			return new PerCoreLineMetadata(ep, writeEncodings[i], readEncodings[i], null, null, null, null);
+		}
+		return new PerCoreLineMetadata(ep, writeEncodings[i], readEncodings[i], siteInfo[SITE_KINDS * i + WRITE_SITE],
+				siteInfo[SITE_KINDS * i + READ_SITE], siteInfo[SITE_KINDS * i + WRITE_LAST_SITE],
+				siteInfo[SITE_KINDS * i + READ_LAST_SITE]);
+	}
+
+	/** this <-- other, for the metadata of all cores */
+	public void copyPerCoreMetadata(ViserLine other) {
+		assert regionIds.length == other.regionIds.length;
+		System.arraycopy(other.writeEncodings, 0, writeEncodings, 0, writeEncodings.length);
+		System.arraycopy(other.readEncodings, 0, readEncodings, 0, readEncodings.length);
+		System.arraycopy(other.regionIds, 0, regionIds, 0, regionIds.length);
+		siteInfo = null;
+		if (other.siteInfo != null) {
+			siteInfo = new int[other.siteInfo.length][];
+			for (int i = 0; i < siteInfo.length; i++) {
+				if (other.siteInfo[i] != null) {
+					siteInfo[i] = other.siteInfo[i].clone();
+				}
+			}
 		}
-		return perCoreMd[cid.get()];
 	}
 
 	public boolean isLineDeferred() {
@@ -631,7 +759,7 @@ class ViserLine extends VILine {
  * Used by HierarchicalCache to construct new line objects, since generic ctors
  * can't be called directly (due to type erasure).
  */
-interface LineFactory<Line extends ViserLine> {
+interface LineFactory<Line extends ViserLine> extends Serializable {
 	public Line create(Processor<Line> proc, CacheLevel level);
 
 	public Line create(Processor<Line> proc, CacheLevel level, LineAddress la);
@@ -1,8 +1,8 @@
 package simulator.viser;
 
-import simulator.viser.ViserSim.PARSEC_PHASE;
+import java.io.Serializable;
 
-public class Conflict {
+public class Conflict implements Serializable {
 	// site0
 	short fileNumber0;
 	short lineNumber0;
@@ -50,7 +50,7 @@ public class Conflict {
 	}
 
 	public void inc() {
-		if (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI && allowCounting) {
+		if (!ViserSim.modelOnlyROI() || Counter.counting() && allowCounting) {
 			counter++;
 			allowCounting = false;
 		}
@@ -78,6 +78,10 @@ public class Conflict {
 		allowCounting = true;
 	}
 
+	public boolean isCountingAllowed() {
+		return allowCounting;
+	}
+
 	public double getCounter() {
 		return counter;
 	}
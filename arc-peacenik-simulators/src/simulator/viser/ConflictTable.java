@@ -0,0 +1,137 @@
+package simulator.viser;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Static conflicts keyed by their pair of sites. Conflicts are kept in a dense
+ * array in first-seen order for printConflicts(), and an open-addressed index
+ * over the packed site pair gives O(1) lookup. Conflicts counted since the last
+ * reset are remembered so that reset() only touches those.
+ *
+ * The key follows Conflict.isTheSame(): the two sites are ordered by line
+ * number, and the caller sites are part of the key only if either site has no
+ * line information.
+ */
+public final class ConflictTable implements Serializable {
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int EMPTY = -1;
+
+	private Conflict[] conflicts = new Conflict[INITIAL_CAPACITY];
+	private long[] siteKeys = new long[INITIAL_CAPACITY];
+	private long[] callerKeys = new long[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private int[] index = newIndex(2 * INITIAL_CAPACITY);
+	private int indexMask = index.length - 1;
+
+	/** Conflicts that were counted since the last reset() */
+	private int[] touched = new int[INITIAL_CAPACITY];
+	private int numTouched = 0;
+
+	private static int[] newIndex(int capacity) {
+		int[] tmp = new int[capacity];
+		Arrays.fill(tmp, EMPTY);
+		return tmp;
+	}
+
+	private static long pack(int a, int b, int c, int d) {
+		return ((a & 0xffffL) << 48) | ((b & 0xffffL) << 32) | ((c & 0xffffL) << 16) | (d & 0xffffL);
+	}
+
+	private static int hash(long siteKey, long callerKey) {
+		long h = siteKey * 0x9e3779b97f4a7c15L + callerKey;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	/** Count one dynamic instance of the conflict, creating it if necessary. */
+	public void increment(int f0, int l0, int r0, int f1, int l1, int r1, int lf0, int ll0, int lf1, int ll1) {
+		long siteKey;
+		long callerKey = 0;
+		boolean precise = l0 != 0 && l1 != 0;
+		if (l0 <= l1) {
+			siteKey = pack(f0, l0, f1, l1);
+			if (!precise) {
+				callerKey = pack(lf0, ll0, lf1, ll1);
+			}
+		} else {
+			siteKey = pack(f1, l1, f0, l0);
+			if (!precise) {
+				callerKey = pack(lf1, ll1, lf0, ll0);
+			}
+		}
+
+		int slot = hash(siteKey, callerKey) & indexMask;
+		int pos;
+		while (true) {
+			pos = index[slot];
+			if (pos == EMPTY) {
+				pos = append(new Conflict(f0, l0, r0, f1, l1, r1, lf0, ll0, lf1, ll1), siteKey, callerKey, slot);
+				break;
+			}
+			if (siteKeys[pos] == siteKey && callerKeys[pos] == callerKey) {
+				break;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+
+		Conflict conflict = conflicts[pos];
+		boolean allowed = conflict.isCountingAllowed();
+		conflict.inc();
+		if (allowed && !conflict.isCountingAllowed()) {
+			if (numTouched == touched.length) {
+				touched = Arrays.copyOf(touched, 2 * numTouched);
+			}
+			touched[numTouched++] = pos;
+		}
+	}
+
+	private int append(Conflict conflict, long siteKey, long callerKey, int slot) {
+		if (size == conflicts.length) {
+			conflicts = Arrays.copyOf(conflicts, 2 * size);
+			siteKeys = Arrays.copyOf(siteKeys, 2 * size);
+			callerKeys = Arrays.copyOf(callerKeys, 2 * size);
+		}
+		int pos = size++;
+		conflicts[pos] = conflict;
+		siteKeys[pos] = siteKey;
+		callerKeys[pos] = callerKey;
+		index[slot] = pos;
+		// Keep the load factor of the index at most one half
+		if (2 * size > index.length) {
+			index = newIndex(2 * index.length);
+			indexMask = index.length - 1;
+			for (int i = 0; i < size; i++) {
+				int s = hash(siteKeys[i], callerKeys[i]) & indexMask;
+				while (index[s] != EMPTY) {
+					s = (s + 1) & indexMask;
+				}
+				index[s] = i;
+			}
+		}
+		return pos;
+	}
+
+	/** Allow counting again for the conflicts counted since the last reset. */
+	public void reset() {
+		for (int i = 0; i < numTouched; i++) {
+			conflicts[touched[i]].allowCounting();
+		}
+		numTouched = 0;
+	}
+
+	public Conflict get(int pos) {
+		if (pos < 0 || pos >= size) {
+			throw new IndexOutOfBoundsException("Conflict index: " + pos + ", size: " + size);
+		}
+		return conflicts[pos];
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -1,11 +1,13 @@
 package simulator.viser;
 
-import simulator.viser.ViserSim.PARSEC_PHASE;
+import java.io.Serializable;
 
-public abstract class Counter {
+public abstract class Counter implements Serializable {
 	protected CpuId cpuid;
-	protected double stat;
 	protected String name;
+	/** The stat block of the core, and the slot of this counter in it */
+	double[] block;
+	int slot;
 
 	/**
 	 * Each counter is associated with a CPU. New Counters are associated with
@@ -16,10 +18,26 @@ public abstract class Counter {
 	 */
 	public static CpuId currentCpu;
 
+	/**
+	 * Whether increments are counted. Only the ROI is counted if only the ROI is
+	 * modeled; the switch is flipped when the phase changes (see
+	 * ViserSim.setPARSECPhase()) rather than checked on every increment.
+	 */
+	private static boolean counting = true;
+
 	Counter(CpuId cpu, String n) {
 		assert currentCpu != null;
 		this.cpuid = currentCpu;
 		this.name = n;
+		StatBlock.of(cpuid).add(this);
+	}
+
+	public static boolean counting() {
+		return counting;
+	}
+
+	static void setCounting(boolean c) {
+		counting = c;
 	}
 
 	public String name() {
@@ -27,16 +45,16 @@ public abstract class Counter {
 	}
 
 	public double get() {
-		return stat;
+		return block[slot];
 	}
 
 	public void set(double v) {
-		stat = v;
+		block[slot] = v;
 	}
 
 	public void incr() {
-		if (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
-			stat++;
+		if (counting) {
+			block[slot]++;
 		}
 	}
 
@@ -45,8 +63,8 @@ public abstract class Counter {
 	}
 
 	public void incr(double a, boolean forceInc) {
-		if (forceInc || !ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
-			stat += a;
+		if (forceInc || counting) {
+			block[slot] += a;
 			if (a < 0) {
 				System.out.println(name + " incr " + a);
 				System.exit(-177);
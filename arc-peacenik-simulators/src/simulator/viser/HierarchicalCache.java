@@ -1,9 +1,9 @@
 package simulator.viser;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.io.Serializable;
+import java.util.BitSet;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import simulator.viser.Processor.ExecutionPhase;
 
@@ -11,15 +11,15 @@ interface CacheCallbacks<Line extends ViserLine> {
 	/**
 	 * Called whenever a line needs to be evicted.
 	 *
-	 * @param set   the set from which we need to evict something; the list is
-	 *              ordered from MRU (front) to LRU (back).
+	 * @param set   the set from which we need to evict something; its positions
+	 *              are ordered from MRU (first) to LRU (last).
 	 * @param level the level of the cache where the eviction is happening
 	 * @return the line to evict
 	 */
-	Line eviction(final Line incoming, final LinkedList<Line> set, CacheLevel level, ExecutionPhase phase, short bits);
+	Line eviction(final Line incoming, final CacheSet<Line> set, CacheLevel level, ExecutionPhase phase, short bits);
 }
 
-class CacheConfiguration<Line extends ViserLine> {
+class CacheConfiguration<Line extends ViserLine> implements Serializable {
 	public int cacheSize;
 	public int assoc;
 	public int lineSize;
@@ -31,7 +31,7 @@ enum CacheLevel {
 };
 
 /** The response from sending a request to the memory hierarchy */
-class MemoryResponse<Line extends ViserLine> {
+class MemoryResponse<Line extends ViserLine> implements Serializable {
 	/** The level of the cache hierarchy where the hit occurred */
 	public CacheLevel whereHit;
 	/** The line containing the requested address. */
@@ -41,13 +41,21 @@ class MemoryResponse<Line extends ViserLine> {
 	public boolean invalidStateFailure; // implies line was in special invalid state, but version check failed
 	public CacheLevel invalidStateSharedHitLevel; // applicable to special invalid case
 
+	void reset() {
+		whereHit = null;
+		lineHit = null;
+		invalidStateHit = false;
+		invalidStateFailure = false;
+		invalidStateSharedHitLevel = null;
+	}
+
 	@Override
 	public String toString() {
 		return whereHit.toString() + " " + String.valueOf(lineHit);
 	}
 }
 
-public class HierarchicalCache<Line extends ViserLine> {
+public class HierarchicalCache<Line extends ViserLine> implements Serializable {
 
 	protected CacheLevel levelInHierarchy = CacheLevel.L1;
 
@@ -65,10 +73,36 @@ public class HierarchicalCache<Line extends ViserLine> {
 
 	protected int numLines;
 
-	protected List<LinkedList<Line>> sets;
+	protected CacheSet<Line>[] sets;
+	/**
+	 * Indices of the sets that may hold a valid line. Every set that a line is put
+	 * into is marked, and sets whose lines have all been invalidated are dropped by
+	 * trimResidentSets(), so this is always a superset of the sets with valid
+	 * lines.
+	 */
+	private final BitSet residentSets = new BitSet();
+	/**
+	 * Indices of the sets of the lines that the ongoing region of the core has
+	 * accessed. Private lines only get metadata of the region from its accesses,
+	 * directly or through the L1 line of the same address, so every line with
+	 * metadata of the region is in one of these sets. Cleared when the region
+	 * commits or restarts.
+	 */
+	private final BitSet touchedSets = new BitSet();
 	protected short[] MRUBits;
 	protected CacheCallbacks<Line> callbacks;
 	protected LineFactory<Line> lineFactory;
+	/**
+	 * The response of requestWithSpecialInvalidState(), reused by every request.
+	 * Each core makes one request at a time, and a request visits each cache once.
+	 */
+	private final MemoryResponse<Line> response = new MemoryResponse<Line>();
+	/**
+	 * The response of search() and searchPrivateCache(), reused by every search.
+	 * It is not the response field, since a request may search the private caches
+	 * of its own core while it still holds the response of its L1.
+	 */
+	private final MemoryResponse<Line> searchResponse = new MemoryResponse<Line>();
 
 	/**
 	 * The next higher-level cache in the hierarchy. Can be shared by multiple
@@ -116,24 +150,101 @@ public class HierarchicalCache<Line extends ViserLine> {
 		lineOffsetBits = (short) BitTwiddle.floorLog2(thisConfig.lineSize);
 		numLines = thisConfig.cacheSize / thisConfig.lineSize;
 
-		sets = new ArrayList<LinkedList<Line>>(numSets);
+		@SuppressWarnings("unchecked")
+		CacheSet<Line>[] tmpSets = new CacheSet[numSets];
+		sets = tmpSets;
 		MRUBits = new short[numSets];
 
 		for (int i = 0; i < numSets; i++) {
-			LinkedList<Line> set = new LinkedList<Line>();
+			CacheSet<Line> set = new CacheSet<Line>(thisConfig.assoc, residentSets, i);
 			for (int j = 0; j < thisConfig.assoc; j++) {
 				// For the LLC, the processor is always P0.
 				if (levelInHierarchy == CacheLevel.L3) {
 					assert this.processor.id.get() == 0;
 				}
 				Line line = lineFactory.create(this.processor, this.levelInHierarchy);
-				set.add(line);
+				set.set(j, line);
 			}
-			sets.add(set);
+			sets[i] = set;
 			MRUBits[i] = 0;
 		}
+		// The lines we just made are all invalid
+		residentSets.clear();
 	} // end ctor
 
+	/**
+	 * Iterate, in set order, over the sets that may hold valid lines. The other
+	 * sets hold only invalid lines, so passes that visit every valid line of a
+	 * private cache, like the post-commit self-invalidation, need not visit them. A set
+	 * that gets a line during the walk is visited if the walk has not passed it
+	 * yet, just like with a walk over all the sets.
+	 */
+	Iterable<CacheSet<Line>> residentSets() {
+		return walk(residentSets);
+	}
+
+	/**
+	 * Iterate, in set order, over the sets of the lines that the ongoing region has
+	 * accessed. The passes at a region boundary that only act on lines with
+	 * metadata of the region, pre-commit, read validation and the invalidation of
+	 * touched lines at a restart, walk these instead of residentSets().
+	 */
+	Iterable<CacheSet<Line>> touchedSets() {
+		return walk(touchedSets);
+	}
+
+	/** Note that the ongoing region accesses the line of the address. */
+	void touch(long address) {
+		touchedSets.set(index(address));
+	}
+
+	/** The region committed or restarted, so no line has metadata of it. */
+	void clearTouchedSets() {
+		touchedSets.clear();
+	}
+
+	/** Iterate over the sets marked in the index, reading it as the walk goes */
+	private Iterable<CacheSet<Line>> walk(final BitSet index) {
+		return new Iterable<CacheSet<Line>>() {
+			@Override
+			public Iterator<CacheSet<Line>> iterator() {
+				return new Iterator<CacheSet<Line>>() {
+					/** Look for the next set from here on, as the walk may mark sets */
+					private int from = 0;
+
+					@Override
+					public boolean hasNext() {
+						return index.nextSetBit(from) >= 0;
+					}
+
+					@Override
+					public CacheSet<Line> next() {
+						int i = index.nextSetBit(from);
+						if (i < 0) {
+							throw new NoSuchElementException();
+						}
+						from = i + 1;
+						return sets[i];
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/** Drop the sets that no longer hold a valid line from residentSets(). */
+	void trimResidentSets() {
+		for (int i = residentSets.nextSetBit(0); i >= 0; i = residentSets.nextSetBit(i + 1)) {
+			if (!sets[i].hasValidLine()) {
+				residentSets.clear(i);
+			}
+		}
+	}
+
 	/**
 	 * Update LLC line with updated write encoding, epoch, and values. Note that the
 	 * corresponding LLC line might have been evicted by this time.
@@ -147,7 +258,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 		assert processor.id.get() == 0;
 		assert privLine.id().equals(proc.id);
 
-		LinkedList<Line> set = sets.get(index(privLine.lineAddress().get()));
+		CacheSet<Line> set = sets[index(privLine.lineAddress().get())];
 
 		boolean hit = true; // LLC hit or miss
 		Line llcLine = getLine(privLine);
@@ -176,9 +287,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 					set.set(lineIndex, llcLine);
 					setMRUBit(llcLine, false);
 				} else {
-					boolean found = set.remove(toEvict);
-					assert found;
-					set.addFirst(llcLine);
+					set.replaceAndPromote(toEvict, llcLine);
 				}
 				// If we are evicting a valid line that has updated metadata,
 				// then need to virtualize the line in memory
@@ -291,7 +400,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 		assert processor.id.get() == 0;
 		assert privLine.id().equals(proc.id);
 
-		LinkedList<Line> set = sets.get(index(privLine.lineAddress().get()));
+		CacheSet<Line> set = sets[index(privLine.lineAddress().get())];
 
 		boolean hit = true; // LLC hit or miss
 		Line llcLine = getLine(privLine);
@@ -321,9 +430,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 					set.set(lineIndex, llcLine);
 					setMRUBit(llcLine, false);
 				} else {
-					boolean found = set.remove(toEvict);
-					assert found;
-					set.addFirst(llcLine);
+					set.replaceAndPromote(toEvict, llcLine);
 				}
 				// If we are evicting a valid line that has updated metadata,
 				// then need to virtualize the line in memory
@@ -371,7 +478,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 		assert processor.id.get() == 0;
 		assert privLine.id().equals(proc.id);
 
-		LinkedList<Line> set = sets.get(index(privLine.lineAddress().get()));
+		CacheSet<Line> set = sets[index(privLine.lineAddress().get())];
 
 		boolean hit = true; // LLC hit or miss
 		Line llcLine = getLine(privLine);
@@ -401,9 +508,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 					set.set(lineIndex, llcLine);
 					setMRUBit(llcLine, false);
 				} else {
-					boolean found = set.remove(toEvict);
-					assert found;
-					set.addFirst(llcLine);
+					set.replaceAndPromote(toEvict, llcLine);
 				}
 				// If we are evicting a valid line that has updated metadata,
 				// then need to virtualize the line in memory
@@ -461,24 +566,21 @@ public class HierarchicalCache<Line extends ViserLine> {
 	 */
 	Line recallFromL1Cache(CacheLevel level, Line toEvict) {
 		assert (level == CacheLevel.L2) && (levelInHierarchy == CacheLevel.L1) : "Only L1 and L2 are inclusive.";
-		LinkedList<Line> set = sets.get(index(toEvict.lineAddress().get()));
+		CacheSet<Line> set = sets[index(toEvict.lineAddress().get())];
 		assert set.size() == assoc;
 		// search this cache
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid() && line.lineAddress().get() == toEvict.lineAddress().get()) {
-				Line tmp = lineFactory.create(processor, levelInHierarchy, line);
-				if (processor.params.usePLRU()) {
-					resetMRUBit(line);
-					int lineIndex = set.indexOf(line);
-					set.set(lineIndex, lineFactory.create(processor, levelInHierarchy));
-				} else {
-					it.remove();
-					// Create an empty line
-					set.addLast(lineFactory.create(processor, levelInHierarchy));
-				}
-				return tmp; // A valid line should only be found in one slot, so we can safely break
+		int lineIndex = set.find(toEvict.lineAddress().get());
+		if (lineIndex >= 0) {
+			Line line = set.get(lineIndex);
+			Line tmp = lineFactory.create(processor, levelInHierarchy, line);
+			if (processor.params.usePLRU()) {
+				resetMRUBit(line);
+				set.set(lineIndex, lineFactory.create(processor, levelInHierarchy));
+			} else {
+				// Create an empty line
+				set.replaceAndDemote(lineIndex, lineFactory.create(processor, levelInHierarchy));
 			}
+			return tmp; // A valid line should only be found in one slot
 		}
 		return null;
 	}
@@ -488,7 +590,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 	// are not inclusive.
 	private void evictValidLineFromLLC(Processor<Line> proc, Line toEvict, ExecutionPhase phase) {
 		assert this.levelInHierarchy == CacheLevel.L3 && toEvict.valid();
-		assert toEvict.id().equals(new CpuId(0));
+		assert toEvict.id().equals(CpuId.of(0));
 
 		// Check if the line is deferred, if yes, then get the values from the owner
 		// core
@@ -500,14 +602,14 @@ public class HierarchicalCache<Line extends ViserLine> {
 		boolean mdWritebackNeeded = false;
 
 		for (int i = 0; i < proc.params.numProcessors(); i++) {
-			CpuId cpuId = new CpuId(i);
-			PerCoreLineMetadata md = toEvict.getPerCoreMetadata(cpuId);
+			CpuId cpuId = CpuId.of(i);
+			int regionId = toEvict.getRegionId(cpuId);
 			Processor<Line> p = processor.machine.getProc(cpuId);
-			assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
+			assert regionId <= p.getCurrentEpoch().getRegionId();
 			// Write back read metadata only if the region is ongoing. Write back the write
 			// metadata if the region is
 			// ongoing. Write back values if the line is dirty.
-			if (md.epoch.equals(p.getCurrentEpoch())) { /* The region is ongoing */
+			if (regionId == p.getCurrentEpoch().getRegionId()) { /* The region is ongoing */
 				// The private line metadata may not have been written back to the LLC, since we
 				// do not have
 				// inclusivity.
@@ -552,16 +654,16 @@ public class HierarchicalCache<Line extends ViserLine> {
 			throw new RuntimeException("Wrong cache level");
 		}
 
-		MemoryResponse<Line> ret = new MemoryResponse<Line>();
-		final LinkedList<Line> set = sets.get(index(addr.get()));
+		MemoryResponse<Line> ret = searchResponse;
+		ret.reset();
+		final CacheSet<Line> set = sets[index(addr.get())];
 		// search this cache
-		for (Line l : set) {
-			if (l.valid() && l.lineAddress().get() == addr.get()) {
-				// hit!
-				ret.lineHit = l;
-				ret.whereHit = levelInHierarchy;
-				return ret;
-			}
+		Line l = set.getValid(addr.get());
+		if (l != null) {
+			// hit!
+			ret.lineHit = l;
+			ret.whereHit = levelInHierarchy;
+			return ret;
 		}
 
 		if (nextCache != null && nextCache.levelInHierarchy.compareTo(processor.llc()) < 0) {
@@ -578,15 +680,9 @@ public class HierarchicalCache<Line extends ViserLine> {
 
 	/** Just get the corresponding line, from any cache. */
 	public Line getLine(LineAddress addr) {
-		LinkedList<Line> set = sets.get(index(addr.get()));
+		CacheSet<Line> set = sets[index(addr.get())];
 		// search this cache
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid() && line.lineAddress().get() == addr.get()) {
-				return line;
-			}
-		}
-		return null;
+		return set.getValid(addr.get());
 	}
 
 	private void updateL2LineWithL1Line(Processor<Line> proc, Line destLine, Line sourceLine, boolean isL1Eviction) {
@@ -806,7 +902,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 		Line sharedLine = getLine(incomingL2Line);
 
 		if (sharedLine == null) {
-			LinkedList<Line> set = sets.get(index(incomingL2Line.lineAddress().get()));
+			CacheSet<Line> set = sets[index(incomingL2Line.lineAddress().get())];
 			// fetch the line from memory
 			sharedLine = proc.machine.memory.get(incomingL2Line.lineAddress().get());
 			assert sharedLine != null : "L1/L2 line should be present either in the LLC or in the memory";
@@ -824,9 +920,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 					set.set(lineIndex, sharedLine);
 					setMRUBit(sharedLine, false);
 				} else {
-					boolean found = set.remove(toEvict);
-					assert found;
-					set.addFirst(sharedLine);
+					set.replaceAndPromote(toEvict, sharedLine);
 				}
 				// If we are evicting a valid line that has updated metadata, then need to
 				// virtualize the line in memory
@@ -929,8 +1023,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 		Processor<Line> p = proc.machine.getProc(cid);
 
 		// Update information in the per-core metadata
-		PerCoreLineMetadata md = sharedLine.getPerCoreMetadata(cid);
-		assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId() : "LLC line epoch cannot be greater.";
+		assert sharedLine.getRegionId(cid) <= p.getCurrentEpoch().getRegionId() : "LLC line epoch cannot be greater.";
 		// Update read bits
 		sharedLine.orReadEncoding(cid, incomingL2Line.getReadEncoding(cid));
 		sharedLine.updateReadSiteInfo(cid, incomingL2Line.getReadEncoding(cid), incomingL2Line.getReadSiteInfo(cid),
@@ -1014,22 +1107,16 @@ public class HierarchicalCache<Line extends ViserLine> {
 	 */
 	public boolean searchSharedCache(Line incoming) {
 		assert levelInHierarchy == CacheLevel.L3 && incoming.valid();
-		LinkedList<Line> set = sets.get(index(incoming.lineAddress().get()));
+		CacheSet<Line> set = sets[index(incoming.lineAddress().get())];
 		// search this cache
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid() && line.lineAddress().get() == incoming.lineAddress().get()) {
-				return true;
-			}
-		}
-		return false;
+		return set.find(incoming.lineAddress().get()) >= 0;
 	}
 
 	/** Insert line into shared cache, possibly evicting another line to memory. */
 	public void insertSharedCache(final Line incoming) {
 		assert levelInHierarchy == CacheLevel.L3;
 
-		LinkedList<Line> set = sets.get(index(incoming.lineAddress().get()));
+		CacheSet<Line> set = sets[index(incoming.lineAddress().get())];
 		assert set.size() == assoc;
 
 		// Check if line exists
@@ -1051,9 +1138,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 			set.set(lineIndex, incoming);
 			setMRUBit(incoming, false);
 		} else {
-			boolean found = set.remove(toEvict);
-			assert found;
-			set.addFirst(incoming);
+			set.replaceAndPromote(toEvict, incoming);
 		}
 	}
 
@@ -1073,28 +1158,27 @@ public class HierarchicalCache<Line extends ViserLine> {
 	}
 
 	private MemoryResponse<Line> __search(final ByteAddress address, final boolean reorderSet) {
-		MemoryResponse<Line> ret = new MemoryResponse<Line>();
-		final LinkedList<Line> set = sets.get(index(address.get()));
+		MemoryResponse<Line> ret = searchResponse;
+		ret.reset();
+		final CacheSet<Line> set = sets[index(address.get())];
 
 		// search this cache
-		for (Line l : set) {
-
-			if (l.valid() && l.contains(address)) {
-				// hit!
-				ret.lineHit = l;
-				ret.whereHit = levelInHierarchy;
-
-				if (reorderSet) {
-					if (processor.params.usePLRU()) {
-						setMRUBit(l, false);
-					} else {
-						set.remove(l);
-						set.addFirst(l);
-					}
+		int lineIndex = set.find(address.lineAddress().get());
+		if (lineIndex >= 0) {
+			Line l = set.get(lineIndex);
+			// hit!
+			ret.lineHit = l;
+			ret.whereHit = levelInHierarchy;
+
+			if (reorderSet) {
+				if (processor.params.usePLRU()) {
+					setMRUBit(l, false);
+				} else {
+					set.promote(lineIndex);
 				}
-
-				return ret;
 			}
+
+			return ret;
 		}
 
 		// at this point, we missed in this cache
@@ -1120,7 +1204,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 	 * traversed in no particular order.
 	 */
 	public void visitAllLines(LineVisitor<Line> lv) {
-		for (LinkedList<Line> set : sets) {
+		for (CacheSet<Line> set : sets) {
 			for (Line l : set) {
 				lv.visit(l);
 			}
@@ -1129,8 +1213,8 @@ public class HierarchicalCache<Line extends ViserLine> {
 
 	/** Verify that each line is indexed into the proper set. */
 	public void verifyIndices() {
-		for (int i = 0; i < sets.size(); i++) {
-			LinkedList<Line> set = sets.get(i);
+		for (int i = 0; i < sets.length; i++) {
+			CacheSet<Line> set = sets[i];
 			for (Line l : set) {
 				if (l.lineAddress() != null) {
 					assert index(l.lineAddress().get()) == i;
@@ -1146,7 +1230,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 			s.append(this.processor + "\n");
 		}
 		s.append("cache=" + this.levelInHierarchy + System.getProperty("line.separator"));
-		for (LinkedList<Line> set : sets) {
+		for (CacheSet<Line> set : sets) {
 			for (Line l : set) {
 				s.append(l.toString() + "\n");
 			}
@@ -1163,18 +1247,89 @@ public class HierarchicalCache<Line extends ViserLine> {
 		return s.toString();
 	}
 
+	/**
+	 * Bring the line of the access into the LLC, updating only tags and
+	 * replacement state, for functional warming (see Processor.warm()). A victim
+	 * is kept in memory, as in requestWithSpecialInvalidState().
+	 *
+	 * @return the LLC line
+	 */
+	Line warm(Processor<Line> proc, final DataAccess access, boolean read) {
+		assert levelInHierarchy == CacheLevel.L3;
+		final ByteAddress address = access.addr();
+		final long lineAddr = address.lineAddressBits();
+		int setIndex = index(address.get());
+		CacheSet<Line> set = sets[setIndex];
+
+		int pos = set.find(lineAddr);
+		if (pos >= 0) { // hit!
+			Line line = set.get(pos);
+			if (proc.params.usePLRU()) {
+				setMRUBit(line, read);
+			} else if (pos != 0) {
+				set.promote(pos);
+			}
+			return line;
+		}
+
+		// bring line from memory
+		Line memLine = processor.machine.memory.get(lineAddr);
+		if (memLine == null) {
+			memLine = lineFactory.create(processor, levelInHierarchy, address.lineAddress());
+			memLine.changeStateTo(ViserState.VISER_VALID);
+			if (read) {
+				memLine.setValue(address, access.value());
+			}
+			if (proc.machine.sampler != null) {
+				proc.machine.sampler.coldMiss(proc.l3MissCounter(access, read));
+			}
+		}
+
+		Line toEvict = callbacks.eviction(memLine, set, levelInHierarchy, ExecutionPhase.REGION_BODY,
+				MRUBits[setIndex]);
+		if (proc.params.usePLRU()) {
+			set.set(set.indexOf(toEvict), memLine);
+			setMRUBit(memLine, read);
+		} else {
+			set.replaceAndPromote(toEvict, memLine);
+		}
+		if (toEvict.valid()) {
+			// Warmed lines have no metadata, so they are never in the AIM cache
+			toEvict.setDirty(false);
+			proc.machine.memory.put(toEvict.lineAddress().get(), toEvict);
+		}
+		return memLine;
+	}
+
 	MemoryResponse<Line> requestWithSpecialInvalidState(Processor<Line> proc, final DataAccess access, boolean read) {
 		final ByteAddress address = access.addr();
 		int setIndex = index(address.get());
-		LinkedList<Line> set = sets.get(setIndex);
+		CacheSet<Line> set = sets[setIndex];
 		assert set.size() == assoc;
 
-		MemoryResponse<Line> ret = new MemoryResponse<Line>();
+		// No response is allocated on the way: each cache reuses its own, as do
+		// search(), searchPrivateCache() and Processor.getLineFromLLCOrMemory(). What
+		// an access still allocates is
+		// - the line that becomes resident in each cache it fills (L1, and L2 on an
+		// L2 miss), copied from the line of the level that was hit,
+		// - the line of a memory miss on a line that was never written back,
+		// - the copy of detached() for a lock or atomic write or a restart.
+		MemoryResponse<Line> ret = response;
+		ret.reset();
+
+		if (levelInHierarchy == CacheLevel.L1) {
+			// The access may give the line metadata of the region in both private caches
+			touch(address.get());
+			if (proc.params.useL2()) {
+				proc.L2cache.touch(address.get());
+			}
+		}
 
 		// search this cache
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid() && line.contains(address)) {
+		final long lineAddr = address.lineAddressBits();
+		for (int i = 0; i < set.size(); i++) {
+			if (set.holds(i, lineAddr)) {
+				Line line = set.get(i);
 
 				if (line.getState() == ViserState.VISER_INVALID_TENTATIVE) {
 					assert levelInHierarchy.compareTo(CacheLevel.L3) < 0;
@@ -1224,9 +1379,8 @@ public class HierarchicalCache<Line extends ViserLine> {
 					setMRUBit(line, read);
 				} else {
 					// move this line to the mru spot
-					if (line != set.getFirst()) {
-						it.remove();
-						set.addFirst(line);
+					if (i != 0) {
+						set.promote(i);
 					}
 				}
 				assert line == set.getFirst();
@@ -1238,14 +1392,9 @@ public class HierarchicalCache<Line extends ViserLine> {
 					}
 				}
 
-				if (levelInHierarchy == CacheLevel.L1) {
-					ret.lineHit = line;
-				} else if (levelInHierarchy == CacheLevel.L2) { // L2
-					// Create a new object instead of a mere reference
-					ret.lineHit = lineFactory.create(proc, levelInHierarchy, line);
-				} else {
-					ret.lineHit = lineFactory.create(processor, levelInHierarchy, line);
-				}
+				// An L2 or L3 line is copied by the cache that is filled with it, see
+				// detached() for the requests that fill no cache
+				ret.lineHit = line;
 				ret.whereHit = this.levelInHierarchy;
 				return ret;
 			}
@@ -1258,13 +1407,13 @@ public class HierarchicalCache<Line extends ViserLine> {
 		if (nextCache != null) {
 			ret = nextCache.requestWithSpecialInvalidState(proc, access, read);
 			if (proc.reRunEvent || proc.restartRegion)
-				return ret;
+				return detached(proc, ret);
 			// response should have come from deeper in the hierarchy
 			assert ret.whereHit.compareTo(levelInHierarchy) > 0;
 		} else { // missed in the LLC
 			ret.whereHit = CacheLevel.MEMORY;
 			// bring line from memory, this line needs to be owned by P0
-			memLine = processor.machine.memory.get(address.lineAddress().get());
+			memLine = processor.machine.memory.get(lineAddr);
 
 			// This is being returned, on behalf of the current processor, P0
 			if (memLine == null) {
@@ -1273,6 +1422,9 @@ public class HierarchicalCache<Line extends ViserLine> {
 				if (read) {
 					memLine.setValue(access.addr(), access.value());
 				}
+				if (proc.machine.sampler != null) {
+					proc.machine.sampler.coldMiss(proc.l3MissCounter(access, read));
+				}
 			} else {
 				assert !memLine.isLineDeferred();
 				memLine = proc.clearAccessEncoding(memLine); // memLine may get
@@ -1280,14 +1432,14 @@ public class HierarchicalCache<Line extends ViserLine> {
 			}
 
 			assert memLine.valid();
-			assert memLine.id().equals(new CpuId(0));
-			ret.lineHit = lineFactory.create(processor, levelInHierarchy, memLine); // copy a line
+			assert memLine.id().equals(CpuId.of(0));
+			ret.lineHit = memLine;
 		}
 
 		if (levelInHierarchy == CacheLevel.L1) { // miss in L1
 			// We don't fetch lines for lock/atomic writes.
 			if (!access.isRegularMemAccess() && !read) {
-				return ret;
+				return detached(proc, ret);
 			}
 
 			// evict a line (possibly to next-level cache)
@@ -1300,17 +1452,16 @@ public class HierarchicalCache<Line extends ViserLine> {
 				assert nextCache.getLine(toEvict).getVersion() == toEvict.getVersion();
 			}
 
+			// Copy the line before the write back, which may evict it from the LLC
+			Line insert = lineFactory.create(proc, levelInHierarchy, ret.lineHit);
+
 			// Write back the line to a lower level cache
 			if (nextCache != null) { // Valid check is in the callee
 				nextCache.evictedFromHigherCache(proc, toEvict, ExecutionPhase.REGION_BODY);
 				if (proc.restartRegion || proc.reRunEvent)
-					return ret;
+					return detached(proc, ret);
 			}
 
-			// Create a copy of the line, not required since ret.lineHit already represents
-			// an unique copy, but
-			// we want to set the correct owner processor
-			Line insert = lineFactory.create(proc, levelInHierarchy, ret.lineHit);
 			// remove the evicted line and insert the new line only after a successful
 			// eviction
 			if (proc.params.usePLRU()) {
@@ -1318,11 +1469,9 @@ public class HierarchicalCache<Line extends ViserLine> {
 				set.set(lineIndex, insert);
 				setMRUBit(insert, read);
 			} else {
-				boolean found = set.remove(toEvict);
-				assert found;
 				assert insert.id() == processor.id && proc.id == processor.id;
 				// NB: only push in the incoming line *after* we've evicted something
-				set.addFirst(insert);
+				set.replaceAndPromote(toEvict, insert);
 			}
 			ret.lineHit = insert;
 			// l1 line will be updated with access.value() (l2 line won't)
@@ -1373,6 +1522,9 @@ public class HierarchicalCache<Line extends ViserLine> {
 				}
 			}
 
+			// Copy the line before the write back, which may evict it from the LLC
+			Line insert = lineFactory.create(proc, levelInHierarchy, ret.lineHit);
+
 			// Write back the line to a lower level cache
 			if (nextCache != null) { // Valid check is in the callee
 				nextCache.evictedFromHigherCache(proc, toEvict, ExecutionPhase.REGION_BODY);
@@ -1380,7 +1532,6 @@ public class HierarchicalCache<Line extends ViserLine> {
 					return ret;
 			}
 
-			Line insert = lineFactory.create(proc, levelInHierarchy, ret.lineHit);
 			if (proc.params.usePLRU()) {
 				int lineIndex = set.indexOf(toEvict);
 				set.set(lineIndex, insert);
@@ -1388,8 +1539,6 @@ public class HierarchicalCache<Line extends ViserLine> {
 			} else {
 				// remove the evicted line and insert the new line only after a successful
 				// eviction
-				boolean found = set.remove(toEvict);
-				assert found;
 
 				// Create a copy of the line
 				assert ret.lineHit.valid();
@@ -1397,7 +1546,7 @@ public class HierarchicalCache<Line extends ViserLine> {
 				// assert ret.lineHit.id().get() == 0;
 				assert insert.id() == processor.id && proc.id == processor.id;
 				// NB: only push in the incoming line *after* we've evicted something
-				set.addFirst(insert);
+				set.replaceAndPromote(toEvict, insert);
 			}
 			ret.lineHit = insert;
 
@@ -1415,15 +1564,13 @@ public class HierarchicalCache<Line extends ViserLine> {
 				set.set(lineIndex, memLine);
 				setMRUBit(memLine, read);
 			} else {
-				boolean found = set.remove(toEvict);
-				assert found;
 
 				// This is not required for correctness, conflicts on private cache lines will
 				// be detected lazily.
 				// proc.checkPreciseConflicts(memLine, access, read);
 
 				// NB: only push in the incoming line *after* we've evicted something
-				set.addFirst(memLine);
+				set.replaceAndPromote(toEvict, memLine);
 			}
 
 			// So we just fetched a line into the LLC, create one in the AIM cache only if
@@ -1431,11 +1578,9 @@ public class HierarchicalCache<Line extends ViserLine> {
 			if (proc.params.useAIMCache()) {
 				boolean fetch = false;
 				for (int i = 0; i < proc.params.numProcessors(); i++) {
-					CpuId cpuId = new CpuId(i);
+					CpuId cpuId = CpuId.of(i);
 					Processor<Line> p = proc.machine.getProc(cpuId);
-					PerCoreLineMetadata md = memLine.getPerCoreMetadata(cpuId);
-					assert md != null;
-					assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
+					assert memLine.getRegionId(cpuId) <= p.getCurrentEpoch().getRegionId();
 					if (memLine.hasReadOffsets(cpuId) || memLine.hasWrittenOffsets(cpuId)) {
 						fetch = true;
 						break;
@@ -1464,9 +1609,24 @@ public class HierarchicalCache<Line extends ViserLine> {
 		return ret;
 	}
 
+	/**
+	 * The response of an L1 miss that goes back to the Processor without an L1
+	 * fill, for a lock or atomic write or a restart. The line is the one of the
+	 * level that was hit, so the Processor gets a copy of it, which it may update
+	 * without changing the cached line.
+	 */
+	private MemoryResponse<Line> detached(Processor<Line> proc, MemoryResponse<Line> ret) {
+		// The L2 returns to the L1, which detaches the line
+		if (levelInHierarchy == CacheLevel.L1) {
+			Line line = ret.lineHit;
+			ret.lineHit = lineFactory.create(proc.machine.getProc(line.id()), line.getLevel(), line);
+		}
+		return ret;
+	}
+
 	public void setMRUBit(Line cacheLine, boolean read) {
 		int setIndex = index(cacheLine.lineAddress().get());
-		LinkedList<Line> set = sets.get(setIndex);
+		CacheSet<Line> set = sets[setIndex];
 		short bits = MRUBits[setIndex];
 		int lineIndex = set.indexOf(cacheLine);
 		if (lineIndex < 0) {
@@ -1519,15 +1679,8 @@ public class HierarchicalCache<Line extends ViserLine> {
 	// the line should still be valid when this function is called
 	public void resetMRUBit(Line toInvalidate) {
 		int setIndex = index(toInvalidate.lineAddress().get());
-		List<Line> set = sets.get(setIndex);
-		int lineIndex = -1;
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid() && line.lineAddress().get() == toInvalidate.lineAddress().get()) {
-				lineIndex = set.indexOf(line);
-				break;
-			}
-		}
+		CacheSet<Line> set = sets[setIndex];
+		int lineIndex = set.find(toInvalidate.lineAddress().get());
 		if (lineIndex == -1) {
 			System.out.println("Can't find the line to reset MRU bit");
 			System.exit(-1);
@@ -1,25 +1,55 @@
 package simulator.viser;
 
+import java.io.Serializable;
+
 /**
  * These types would be encoded as "variant types" in other languages, but have to be distinct
  * classes in Java. Basically, we want to maintain the distinctions of different kinds of numbers,
  * instead of treating them all as ints/longs.
  */
 
-/** Tracks CPU id's */
-class CpuId {
+/**
+ * Tracks CPU id's. Ids are interned, so use of() instead of allocating a new
+ * CpuId for every lookup.
+ */
+class CpuId implements Serializable {
+	/** Ids 0..CACHED_IDS-1 have a canonical instance */
+	private static final int CACHED_IDS = 256;
+	private static final CpuId[] cache = new CpuId[CACHED_IDS];
+
+	static {
+		for (int i = 0; i < CACHED_IDS; i++) {
+			cache[i] = new CpuId(i);
+		}
+	}
+
 	private final short cpuid;
 
-	public CpuId(int id) {
+	private CpuId(int id) {
 		cpuid = (short) id;
 	}
 
+	public static CpuId of(int id) {
+		if (id >= 0 && id < CACHED_IDS) {
+			return cache[id];
+		}
+		return new CpuId(id);
+	}
+
 	public short get() {
 		return cpuid;
 	}
 
+	/** Keep ids read from a snapshot canonical */
+	private Object readResolve() {
+		return of(cpuid);
+	}
+
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
 		if (o instanceof CpuId) {
 			CpuId other = (CpuId) o;
 			return this.cpuid == other.cpuid;
@@ -38,14 +68,26 @@ class CpuId {
 	}
 }
 
-/** Tracks thread id's */
-class ThreadId {
+/** Tracks thread id's. Every thread id has a canonical instance, see of(). */
+class ThreadId implements Serializable {
+	private static final ThreadId[] cache = new ThreadId[1 << Byte.SIZE];
+
+	static {
+		for (int i = 0; i < cache.length; i++) {
+			cache[i] = new ThreadId((byte) i);
+		}
+	}
+
 	private final byte tid;
 
-	public ThreadId(byte id) {
+	private ThreadId(byte id) {
 		tid = (byte) id;
 	}
 
+	public static ThreadId of(byte id) {
+		return cache[id & 0xff];
+	}
+
 	public short get() {
 		return tid;
 	}
@@ -54,8 +96,16 @@ class ThreadId {
 		return a == tid;
 	}
 
+	/** Keep ids read from a snapshot canonical */
+	private Object readResolve() {
+		return of(tid);
+	}
+
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
 		if (o instanceof ThreadId) {
 			ThreadId other = (ThreadId) o;
 			return this.tid == other.tid;
@@ -79,18 +129,15 @@ class ThreadId {
  * and out and the fact needs to be noted in the cache. To be simple, we disallow swapping threads in and out in a
  * region, except at region boundaries. Moreover, validation needs to be done if a thread gets stuck doing IO within a
  * long region.
+ *
+ * Epochs are immutable, so lines share the epoch of a core instead of keeping copies of it.
  */
-class Epoch {
+class Epoch implements Serializable {
 	static final int REGION_ID_START = 1;
-	private int regionId;
-
-	public Epoch() {
-		this(-1);
-	}
+	/** The epoch of lines that have not been accessed by a core */
+	static final Epoch NONE = new Epoch(-1);
 
-	public Epoch(Epoch ep) {
-		this(ep.regionId);
-	}
+	private final int regionId;
 
 	public Epoch(int reg) {
 		this.regionId = reg;
@@ -100,13 +147,14 @@ class Epoch {
 		return regionId;
 	}
 
-	public void setRegionId(int reg) {
-		this.regionId = reg;
+	/** Return the epoch of the next region. */
+	public Epoch next() {
+		assert this.regionId < Integer.MAX_VALUE : "Region id has overflowed for Thread";
+		return new Epoch(regionId + 1);
 	}
 
-	public void incrementRegionId() {
-		this.regionId++;
-		assert this.regionId <= Integer.MAX_VALUE : "Region id has overflowed for Thread";
+	private Object readResolve() {
+		return regionId == NONE.regionId ? NONE : this;
 	}
 
 	@Override
@@ -116,6 +164,9 @@ class Epoch {
 
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
 		if (o instanceof Epoch) {
 			Epoch that = (Epoch) o;
 			return this.regionId == that.regionId;
@@ -130,7 +181,7 @@ class Epoch {
 }
 
 /** The fully-qualified address of a particular byte in memory */
-abstract class ByteAddress {
+abstract class ByteAddress implements Serializable {
 	protected long addr;
 
 	public ByteAddress(long a) {
@@ -141,6 +192,15 @@ abstract class ByteAddress {
 		return this.addr;
 	}
 
+	public void set(long a) {
+		this.addr = a;
+	}
+
+	/** Return the address of the line holding this byte, without making a LineAddress. */
+	public long lineAddressBits() {
+		return this.addr & (~MemorySystemConstants.LINE_OFFSET_MASK());
+	}
+
 	public void incr() {
 		this.addr++;
 	}
@@ -162,7 +222,7 @@ abstract class ByteAddress {
 }
 
 /** A cache-line-aligned address */
-abstract class LineAddress {
+abstract class LineAddress implements Serializable {
 	protected final long lineAddr;
 
 	public LineAddress(long la) {
@@ -263,7 +323,7 @@ class DataLineAddress extends LineAddress {
 	}
 } */
 
-class PerCoreLineMetadata {
+class PerCoreLineMetadata implements Serializable {
 	/** Represent precise access information, one bit per byte */
 	long writeEncoding = 0L;
 	long readEncoding = 0L;
@@ -278,14 +338,14 @@ class PerCoreLineMetadata {
 	int[] readLastSiteInfo = null;
 
 	public PerCoreLineMetadata() {
-		this.epoch = new Epoch();
+		this.epoch = Epoch.NONE;
 		this.writeEncoding = 0L;
 		this.readEncoding = 0L;
 	}
 
 	public PerCoreLineMetadata(Epoch ep, long write, long read, int[] writeinfo, int[] readinfo, int[] writelastinfo,
 			int[] readlastinfo) {
-		this.epoch = new Epoch(ep);
+		this.epoch = ep;
 		this.writeEncoding = write;
 		this.readEncoding = read;
 		
@@ -0,0 +1,231 @@
+package simulator.viser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time series of the per-core counters, to see how a run behaves over time
+ * (conflict bursts, restart storms, read validation spikes) and not only its
+ * totals. Every intervalEvents events (see ViserSim.totalEvents), or every
+ * intervalCycles bandwidth-driven cycles of the slowest core, the values of the
+ * selected per-core SumCounters, MaxCounters and DependentCounters are appended
+ * to a binary file as one row. The values are read from the counters at the
+ * end of each interval, so increments cost nothing more.
+ *
+ * The file starts with MAGIC, VERSION, the number of columns and the name and
+ * core of each column. Each row holds the events so far, the PARSEC phase (its
+ * ordinal) and one double per column. The last row is written when the
+ * simulation ends.
+ *
+ * Usage: IntervalStats [--deltas] <file> [counter ...]
+ *
+ * prints the rows of a file as CSV, with only the columns of the given counters
+ * if any. With --deltas, the values are the increments over each interval
+ * rather than the running totals.
+ */
+public final class IntervalStats {
+
+	static final int MAGIC = 0x53494d54; // "SIMT"
+	static final int VERSION = 1;
+
+	private final long intervalEvents;
+	private final double intervalCycles;
+	private final Counter[] columns;
+	private final DataOutputStream out;
+
+	/** The pc_BandwidthDrivenCycleCount of each core */
+	private final Counter[] coreCycles;
+	/** The largest cycle count seen so far */
+	private double maxCycles;
+
+	private long nextEvents;
+	private double nextCycles;
+
+	/**
+	 * Write the counters with the given names (all the per-core counters if none)
+	 * in the stat blocks of the cores to fileName every intervalEvents events or
+	 * intervalCycles cycles; 0 disables either.
+	 */
+	IntervalStats(StatBlock[] cores, String fileName, long intervalEvents, long intervalCycles, List<String> names)
+			throws IOException {
+		if (intervalEvents < 0 || intervalCycles < 0 || intervalEvents + intervalCycles == 0) {
+			throw new IllegalArgumentException("Bad intervals: " + intervalEvents + " events, " + intervalCycles
+					+ " cycles");
+		}
+		this.intervalEvents = intervalEvents;
+		this.intervalCycles = intervalCycles;
+		coreCycles = new Counter[cores.length];
+		for (int i = 0; i < coreCycles.length; i++) {
+			coreCycles[i] = cores[i].counter("pc_BandwidthDrivenCycleCount");
+			maxCycles = Math.max(maxCycles, coreCycles[i].get());
+		}
+		nextEvents = ViserSim.totalEvents + intervalEvents;
+		nextCycles = maxCycles + intervalCycles;
+
+		List<Counter> cols = new ArrayList<Counter>();
+		List<Counter> all = new ArrayList<Counter>();
+		all.addAll(StatBlock.counters(cores, SumCounter.class));
+		all.addAll(StatBlock.counters(cores, MaxCounter.class));
+		all.addAll(StatBlock.counters(cores, DependentCounter.class));
+		for (Counter c : all) {
+			if (c.name.startsWith("pc_") && (names.isEmpty() || names.contains(c.name))) {
+				cols.add(c);
+			}
+		}
+		columns = cols.toArray(new Counter[cols.size()]);
+
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(columns.length);
+		for (Counter c : columns) {
+			out.writeUTF(c.name);
+			out.writeShort(c.cpuid.get());
+		}
+	}
+
+	/**
+	 * Called after each event of core cid; writes a row at the end of an interval.
+	 * The cycles of the slowest core (like the global max_BandwidthDrivenCycleCount)
+	 * are tracked from the core of each event, since cycle counts only grow. Cycles
+	 * that another core charges to a paused core are seen at its next event.
+	 */
+	void eventHandled(int cid) throws IOException {
+		if (intervalCycles > 0) {
+			maxCycles = Math.max(maxCycles, coreCycles[cid].get());
+		}
+		if (intervalEvents > 0 && ViserSim.totalEvents >= nextEvents) {
+			nextEvents = ViserSim.totalEvents + intervalEvents;
+			writeRow();
+		} else if (intervalCycles > 0 && maxCycles >= nextCycles) {
+			nextCycles = maxCycles + intervalCycles;
+			writeRow();
+		}
+	}
+
+	private void writeRow() throws IOException {
+		out.writeLong(ViserSim.totalEvents);
+		out.writeByte(ViserSim.getPARSECPhase().ordinal());
+		for (Counter c : columns) {
+			out.writeDouble(c.get());
+		}
+	}
+
+	/** Write the last row and close the file. */
+	void close() throws IOException {
+		writeRow();
+		out.close();
+	}
+
+	/** Reads the rows of an interval stats file. */
+	static final class Reader implements Closeable {
+		private final DataInputStream in;
+		/** Name and core of each column */
+		final String[] names;
+		final short[] cpus;
+
+		private long events;
+		private int phase;
+		private final double[] values;
+
+		Reader(String fileName) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				in.close();
+				throw new IOException("Not an interval stats file: " + fileName);
+			}
+			int n = in.readInt();
+			names = new String[n];
+			cpus = new short[n];
+			for (int i = 0; i < n; i++) {
+				names[i] = in.readUTF();
+				cpus[i] = in.readShort();
+			}
+			values = new double[n];
+		}
+
+		/** Read the next row; return false at the end of the file. */
+		boolean next() throws IOException {
+			try {
+				events = in.readLong();
+			} catch (EOFException eof) {
+				return false;
+			}
+			phase = in.readByte();
+			for (int i = 0; i < values.length; i++) {
+				values[i] = in.readDouble();
+			}
+			return true;
+		}
+
+		long events() {
+			return events;
+		}
+
+		ViserSim.PARSEC_PHASE phase() {
+			return ViserSim.PARSEC_PHASE.values()[phase];
+		}
+
+		/** The value of the column in the current row */
+		double value(int column) {
+			return values[column];
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Print the rows of the file as CSV, with only the columns of the given
+	 * counters (all if none), as running totals or as deltas over each interval.
+	 */
+	static void printCsv(Reader r, List<String> names, boolean deltas, PrintStream out) throws IOException {
+		List<Integer> cols = new ArrayList<Integer>();
+		StringBuilder header = new StringBuilder("events,phase");
+		for (int i = 0; i < r.names.length; i++) {
+			if (names.isEmpty() || names.contains(r.names[i])) {
+				cols.add(i);
+				header.append(',').append(r.names[i]).append('@').append(r.cpus[i]);
+			}
+		}
+		out.println(header);
+		double[] last = new double[r.names.length];
+		while (r.next()) {
+			StringBuilder row = new StringBuilder();
+			row.append(r.events()).append(',').append(r.phase());
+			for (int i : cols) {
+				row.append(',').append(deltas ? r.value(i) - last[i] : r.value(i));
+				last[i] = r.value(i);
+			}
+			out.println(row);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean deltas = args.length > 0 && args[0].equals("--deltas");
+		int first = deltas ? 1 : 0;
+		if (args.length <= first) {
+			System.err.println("Usage: IntervalStats [--deltas] <file> [counter ...]");
+			System.exit(1);
+		}
+		Reader r = new Reader(args[first]);
+		try {
+			printCsv(r, Arrays.asList(args).subList(first + 1, args.length), deltas, System.out);
+		} finally {
+			r.close();
+		}
+	}
+}
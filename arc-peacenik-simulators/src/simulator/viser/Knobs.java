@@ -15,6 +15,15 @@ public class Knobs {
 	public static final OptionSpec<Integer> AssertPeriod;
 	public static final OptionSpec<String> StatsFile;
 	public static final OptionSpec<String> ToSimulatorFifo;
+	public static final OptionSpec<String> SaveSnapshot;
+	public static final OptionSpec<String> RestoreSnapshot;
+	public static final OptionSpec<Boolean> PrefetchTrace;
+	public static final OptionSpec<Integer> MonitorPeriod;
+	public static final OptionSpec<String> MonitorFile;
+	public static final OptionSpec<Long> IntervalEvents;
+	public static final OptionSpec<Long> IntervalCycles;
+	public static final OptionSpec<String> IntervalFile;
+	public static final OptionSpec<String> IntervalCounters;
 
 	public static final OptionSpec<Integer> Cores;
 	public static final OptionSpec<Integer> PinThreads;
@@ -45,6 +54,8 @@ public class Knobs {
 	public static final OptionSpec<Boolean> UseSpecialInvalidState;
 	public static final OptionSpec<Boolean> UseBloomFilter;
 	public static final OptionSpec<Boolean> UseTwoBloomFuncs;
+	public static final OptionSpec<Integer> BloomFilterBits;
+	public static final OptionSpec<Integer> BloomFilterHashFuncs;
 
 	public static final OptionSpec<Boolean> UseAIMCache;
 	public static final OptionSpec<Integer> NumAIMLines;
@@ -77,6 +88,10 @@ public class Knobs {
 	public static final OptionSpec<Boolean> FalseRestart;
 
 	public static final OptionSpec<Integer> CheckPointingRate;
+	public static final OptionSpec<Boolean> FunctionalWarming;
+	public static final OptionSpec<Integer> SamplingPeriod;
+	public static final OptionSpec<Integer> SamplingWarmup;
+	public static final OptionSpec<Integer> SamplingWindow;
 	
 	public static final OptionParser parser;
 	private Knobs() {
@@ -98,6 +113,27 @@ public class Knobs {
 		StatsFile = parser.accepts("stats-file", "stats file to generate").withRequiredArg().defaultsTo("sim-stats.py");
 		ToSimulatorFifo = parser.accepts("tosim-fifo", "named fifo used to get events from the front-end")
 				.withRequiredArg();
+		SaveSnapshot = parser
+				.accepts("save-snapshot", "file to save a snapshot of the simulator to when the ROI starts")
+				.withRequiredArg();
+		RestoreSnapshot = parser
+				.accepts("restore-snapshot", "snapshot file to resume the simulation from, skipping the pre-ROI part")
+				.withRequiredArg();
+		PrefetchTrace = parser.accepts("prefetch-trace", "read the trace ahead of the simulation on a separate thread")
+				.withRequiredArg().ofType(Boolean.class).defaultsTo(true);
+		MonitorPeriod = parser.accepts("monitor-period", "seconds between updates of the live metrics (see SimMonitor)")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(10);
+		MonitorFile = parser.accepts("monitor-file", "file to append the live metrics to every monitor period")
+				.withRequiredArg();
+		IntervalEvents = parser.accepts("interval-events", "write the per-core counters every that many events")
+				.withRequiredArg().ofType(Long.class).defaultsTo(0L);
+		IntervalCycles = parser.accepts("interval-cycles", "write the per-core counters every that many cycles")
+				.withRequiredArg().ofType(Long.class).defaultsTo(0L);
+		IntervalFile = parser.accepts("interval-file", "file to write the per-core counters to (see IntervalStats)")
+				.withRequiredArg().defaultsTo("interval-stats.bin");
+		IntervalCounters = parser
+				.accepts("interval-counters", "comma-separated per-core counters to write, all if not given")
+				.withRequiredArg().withValuesSeparatedBy(',');
 		modelOnlyROI = parser.accepts("model-only-roi", "Whether to only simulate the ROI?").withRequiredArg()
 				.ofType(Boolean.class).defaultsTo(true);
 
@@ -165,6 +201,12 @@ public class Knobs {
 				.withRequiredArg().ofType(Boolean.class).defaultsTo(false));
 		UseTwoBloomFuncs = registerBool(parser.accepts("use-two-bloom-funcs", "Use two Bloom filter functions.")
 				.withRequiredArg().ofType(Boolean.class).defaultsTo(true));
+		BloomFilterBits = registerInt(parser.accepts("bloom-filter-bits", "Number of bits in each Bloom filter")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(BloomFilter.DEFAULT_NUM_BITS));
+		BloomFilterHashFuncs = registerInt(parser
+				.accepts("bloom-filter-hash-funcs",
+						"Number of Bloom filter hash functions, 0 to pick one or two by use-two-bloom-funcs")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(0));
 
 		UseAIMCache = registerBool(parser.accepts("use-aim-cache", "Use AIM cache").withRequiredArg()
 				.ofType(Boolean.class).defaultsTo(false));
@@ -240,6 +282,18 @@ public class Knobs {
 		
 		CheckPointingRate = registerInt(parser.accepts("check-pointing-rate", "number of interations between each two check points").withRequiredArg()
                 .ofType(Integer.class).defaultsTo(0));
+		FunctionalWarming = registerBool(parser.accepts("functional-warming",
+				"Only warm up the caches before the ROI, without simulating the protocol (needs --model-only-roi)")
+				.withRequiredArg().ofType(Boolean.class).defaultsTo(false));
+		SamplingPeriod = registerInt(parser.accepts("sampling-period",
+				"Sample the ROI with one detailed window every that many events, 0 simulates every event in detail; "
+						+ "not supported with pausing, restarts, lockstep, deferred write-backs or check points")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(0));
+		SamplingWarmup = registerInt(parser.accepts("sampling-warmup",
+				"Number of events simulated in detail, but not measured, before each sampling window")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(5000));
+		SamplingWindow = registerInt(parser.accepts("sampling-window", "Number of events measured in each sampling window")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(10000));
 	}
 
 	/*
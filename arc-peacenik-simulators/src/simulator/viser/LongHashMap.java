@@ -0,0 +1,237 @@
+package simulator.viser;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash map from primitive long keys (line addresses) to objects. Keys and
+ * values live in two flat arrays with open addressing and linear probing, so
+ * there are no boxed keys and no per-entry objects, which matters for maps that
+ * grow to millions of lines.
+ *
+ * Removed entries leave a tombstone behind, so entries never move while the map
+ * is walked with a Cursor and Cursor.remove() is cheap. Tombstones are dropped
+ * the next time the table is rebuilt.
+ *
+ * Serialization keeps the slots as they are, tombstones included, so a restored
+ * map is walked in the same order as the original one.
+ */
+public final class LongHashMap<V> implements Serializable {
+
+	private static final int MIN_CAPACITY = 16;
+	/** Marks a slot whose entry was removed */
+	private static final Object TOMBSTONE = new Object();
+
+	private long[] keys;
+	/** null for a free slot, TOMBSTONE for a removed entry */
+	private transient Object[] values;
+	private int mask;
+	private int size = 0;
+	/** Live entries plus tombstones */
+	private int used = 0;
+	/** Rebuild the table once used reaches this, i.e., 3/4 of the capacity */
+	private int threshold;
+
+	public LongHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongHashMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 <= expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		threshold = capacity * 3 / 4;
+		used = size;
+	}
+
+	private static int hash(long key) {
+		// Murmur3 64-bit finalizer
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/** Return the slot holding key, or -1 if the key is not in the map. */
+	private int slotOf(long key) {
+		int slot = hash(key) & mask;
+		Object v;
+		while ((v = values[slot]) != null) {
+			if (keys[slot] == key && v != TOMBSTONE) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int slot = slotOf(key);
+		return (slot < 0) ? null : (V) values[slot];
+	}
+
+	public boolean containsKey(long key) {
+		return slotOf(key) >= 0;
+	}
+
+	/** Map key to value, which must not be null. Returns the previous value. */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("LongHashMap does not hold null values");
+		}
+		int slot = hash(key) & mask;
+		int free = -1;
+		Object v;
+		while ((v = values[slot]) != null) {
+			if (v == TOMBSTONE) {
+				if (free < 0) {
+					free = slot;
+				}
+			} else if (keys[slot] == key) {
+				values[slot] = value;
+				return (V) v;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (free < 0) {
+			free = slot;
+			used++;
+		}
+		keys[free] = key;
+		values[free] = value;
+		size++;
+		if (used >= threshold) {
+			rebuild();
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		int slot = slotOf(key);
+		if (slot < 0) {
+			return null;
+		}
+		V old = (V) values[slot];
+		values[slot] = TOMBSTONE;
+		size--;
+		return old;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		for (Object v : values) {
+			out.writeBoolean(v == TOMBSTONE);
+			if (v != TOMBSTONE) {
+				out.writeObject(v);
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		values = new Object[keys.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readBoolean() ? TOMBSTONE : in.readObject();
+		}
+	}
+
+	/** Rehash the live entries, growing the table only if it is mostly live. */
+	private void rebuild() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		int capacity = oldKeys.length;
+		if (size * 2 >= threshold) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			Object v = oldValues[i];
+			if (v != null && v != TOMBSTONE) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = v;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+		allocate(MIN_CAPACITY);
+	}
+
+	/**
+	 * Return a cursor over the entries, in no particular order. Entries may be
+	 * removed through the cursor, but the map must not be otherwise modified while
+	 * it is walked.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	public final class Cursor {
+		private int slot = -1;
+
+		private Cursor() {
+		}
+
+		/** Move to the next entry. Returns false once all entries have been seen. */
+		public boolean advance() {
+			while (++slot < values.length) {
+				Object v = values[slot];
+				if (v != null && v != TOMBSTONE) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public long key() {
+			check();
+			return keys[slot];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V value() {
+			check();
+			return (V) values[slot];
+		}
+
+		/** Remove the current entry from the map. */
+		public void remove() {
+			check();
+			values[slot] = TOMBSTONE;
+			size--;
+		}
+
+		private void check() {
+			if (slot < 0 || slot >= values.length || values[slot] == null || values[slot] == TOMBSTONE) {
+				throw new NoSuchElementException();
+			}
+		}
+	}
+}
@@ -5,20 +5,20 @@ import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
-class MultipleWritersLineMD<Line> {
+import simulator.viser.ViserSim.PARSEC_PHASE;
+
+class MultipleWritersLineMD<Line> implements Serializable {
 	Line llcLine;
 	HashMap<CpuId, Line> procMap;
 }
 
 /** A class that manages the set of processors in the system. */
-public class Machine<Line extends ViserLine> {
+public class Machine<Line extends ViserLine> implements Serializable {
 
 	// Variable-sized message requires a two byte header: the first is a read vector
 	// for N cores, and the second is a
@@ -39,14 +39,20 @@ public class Machine<Line extends ViserLine> {
 	// public int[] srcCoverage = new int[400];
 
 	// At most 25 static conflicts
-	List<Conflict> conflicts = new ArrayList<>();
-	List<SiteInfoEntry> siteInfo = new ArrayList<SiteInfoEntry>();
+	final ConflictTable conflicts = new ConflictTable();
+	final SiteTable siteInfo = new SiteTable();
 
 	double[] check_point_time;
 
+	/** Sampled simulation of the ROI, null when every event is simulated in detail */
+	Sampler sampler;
+
+	/** The stat blocks of the counters of this machine, by core id (see StatBlock) */
+	final Map<Integer, StatBlock> statBlocks = new HashMap<Integer, StatBlock>();
+
 	// We backup evicted LLC lines to memory, including the metadata.
 	/** Machine memory. Holds addresses written to. The key is the line address. */
-	final public HashMap<Long, Line> memory = new HashMap<>();
+	final public LongHashMap<Line> memory = new LongHashMap<Line>();
 	private static final int SCAVENGE_MEMORY = 100000;
 	private int[] scavengeMap = null;
 	/**
@@ -56,15 +62,17 @@ public class Machine<Line extends ViserLine> {
 	private Epoch[] epochMap = null;
 	/** For pausing: Global metadata to indicate cores to be paused. */
 	public long pausingBits = 0L;
+	/** Number of times a core has been paused */
+	public long totalPauses = 0L;
 
-	private DataOutputStream[] perThreadFifoOut;
+	private transient DataOutputStream[] perThreadFifoOut;
 
 	/**
 	 * Arguments to the Machine ctor. We encode these values as abstract methods so
 	 * that we can't forget to initialize one of them. The values get initialized by
 	 * creating an anonymous subclass that is forced to override all these methods.
 	 */
-	static abstract class MachineParams<Line extends ViserLine> {
+	static abstract class MachineParams<Line extends ViserLine> implements Serializable {
 		abstract SimulationMode simulationMode();
 
 		/** The number of processors to simulate */
@@ -108,6 +116,12 @@ public class Machine<Line extends ViserLine> {
 
 		abstract boolean useBloomFilter();
 
+		/** The number of bits in the per-core Bloom filters */
+		abstract int bloomFilterBits();
+
+		/** The number of hash functions of the per-core Bloom filters */
+		abstract int bloomFilterHashFuncs();
+
 		abstract boolean useAIMCache();
 
 		abstract boolean deferWriteBacks();
@@ -153,6 +167,9 @@ public class Machine<Line extends ViserLine> {
 		abstract boolean FalseRestart();
 
 		abstract int checkPointingRate();
+
+		/** Warm up the caches functionally before the ROI, see Machine.warming(Processor) */
+		abstract boolean functionalWarming();
 	}
 
 	@SuppressWarnings("unchecked")
@@ -163,10 +180,13 @@ public class Machine<Line extends ViserLine> {
 
 		createEpochs(params.numProcessors());
 
+		// the counters created from now on belong to this machine
+		StatBlock.blocks = statBlocks;
+
 		// construct processors
 		processors = new Processor[args.numProcessors()];
 		for (int i = 0; i < processors.length; i++) {
-			CpuId cpuid = new CpuId(i);
+			CpuId cpuid = CpuId.of(i);
 			/* HACK: see Counter.currentCpu for details */
 			Counter.currentCpu = cpuid;
 			processors[i] = new Processor<Line>(args, this, cpuid, processors, varmap);
@@ -195,12 +215,37 @@ public class Machine<Line extends ViserLine> {
 		return p;
 	}
 
+	/** The stat blocks of the cores, in core order */
+	StatBlock[] coreStatBlocks() {
+		StatBlock[] cores = new StatBlock[processors.length];
+		for (int i = 0; i < cores.length; i++) {
+			cores[i] = statBlocks.get(i);
+		}
+		return cores;
+	}
+
 	public void dumpStats(Writer wr, String prefix, String suffix) throws IOException {
-		// the Counter class keeps track of all its instances, so we only need to dump
-		// once
-		SumCounter.dumpCounters(wr, prefix, suffix);
-		MaxCounter.dumpCounters(wr, prefix, suffix);
-		DependentCounter.dumpCounters(wr, prefix, suffix);
+		// the counters of the cores are all in their stat blocks, so we only need to
+		// dump once
+		StatBlock[] cores = coreStatBlocks();
+		SumCounter.dumpCounters(cores, wr, prefix, suffix);
+		MaxCounter.dumpCounters(cores, wr, prefix, suffix);
+		DependentCounter.dumpCounters(cores, wr, prefix, suffix);
+	}
+
+	/**
+	 * True while the caches are only warmed up functionally: before the ROI, when
+	 * only the ROI is modeled anyway. Accesses then update only the tags and the
+	 * replacement state of the LLC (see Processor.warm()) and region boundaries do
+	 * not run the protocol. All later events are simulated in detail, starting
+	 * from the warmed LLC and memory.
+	 *
+	 * With sampling, a core also only warms the LLC in the gaps between sampling
+	 * windows (see Sampler).
+	 */
+	boolean warming(Processor<Line> proc) {
+		return (params.functionalWarming() && ViserSim.getPARSECPhase() == PARSEC_PHASE.PRE_ROI
+				&& ViserSim.modelOnlyROI()) || (sampler != null && sampler.warming(proc.id));
 	}
 
 	public void insnsExecuted(final CpuId cpuid, int n) {
@@ -259,8 +304,9 @@ public class Machine<Line extends ViserLine> {
 		}
 		}
 
-		Processor.DataMemoryAccessResult mopResult = new Processor.DataMemoryAccessResult();
-		mopResult.remoteCommunicatedHappened = false;
+		boolean warming = warming(proc);
+		Processor.DataMemoryAccessResult mopResult = proc.opResult;
+		mopResult.reset();
 		int remainingSize = size;
 
 		// Translate the address for atomic and lock accesses, so that they lie on a
@@ -283,18 +329,24 @@ public class Machine<Line extends ViserLine> {
 		}
 
 		for (long a = translatedAddr; remainingSize > 0;) {
-			DataByteAddress dba = new DataByteAddress(a);
-			int data_bytesFromStartOfLine = dba.lineOffset();
+			int data_bytesFromStartOfLine = (int) (a & MemorySystemConstants.LINE_OFFSET_MASK());
 			int data_maxSizeAccessWithinThisLine = MemorySystemConstants.LINE_SIZE() - data_bytesFromStartOfLine;
 
 			// data access
 			int accessSize = Math.min(remainingSize, data_maxSizeAccessWithinThisLine);
+			DataAccess access = proc.currentAccess;
+			access.reset(type, a, accessSize, value, cpuid, tid, siteIndex, lastSiteIndex);
+			if (warming) {
+				proc.warm(access, !write);
+				a += accessSize;
+				remainingSize -= accessSize;
+				continue;
+			}
 			Processor.DataMemoryAccessResult tempMor;
 			if (write) {
-				tempMor = proc
-						.write(new DataAccess(type, dba, accessSize, value, cpuid, tid, siteIndex, lastSiteIndex));
+				tempMor = proc.write(access);
 			} else {
-				tempMor = proc.read(new DataAccess(type, dba, accessSize, value, cpuid, tid, siteIndex, lastSiteIndex));
+				tempMor = proc.read(access);
 			}
 			if (proc.reRunEvent) {
 				return;
@@ -316,7 +368,7 @@ public class Machine<Line extends ViserLine> {
 		processRegionBoundary(performingCpu, tid, EventType.LOCK_RELEASE, EventType.REG_END, null, 0);
 	}
 
-	public void testProcessRegionBoundary(final CpuId performingCpu, ThreadId tid, EventType type, List<Event> EB,
+	public void testProcessRegionBoundary(final CpuId performingCpu, ThreadId tid, EventType type, EventLog EB,
 			int curPosition) {
 		processRegionBoundary(performingCpu, tid, EventType.LOCK_RELEASE, EventType.REG_END, EB, curPosition);
 	}
@@ -326,9 +378,24 @@ public class Machine<Line extends ViserLine> {
 	}
 
 	public void processRegionBoundary(final CpuId performingCpu, ThreadId tid, EventType type, EventType semantics,
-			List<Event> EB, int curPosition) {
+			EventLog EB, int curPosition) {
 		Processor<Line> performingProc = getProc(performingCpu);
 
+		if (warming(performingProc)) {
+			// Just keep ignoring the accesses made inside lock acquires
+			if (type == EventType.LOCK_ACQUIRE) {
+				if (semantics == EventType.REG_END) {
+					performingProc.incIgnoreCounter();
+				} else if (semantics == EventType.REG_BEGIN) {
+					performingProc.decIgnoreCounter();
+				}
+			}
+			if (sampler != null && semantics == EventType.REG_END) {
+				sampler.regionBoundary(performingProc);
+			}
+			return;
+		}
+
 		boolean successful = false;
 		if (semantics == EventType.REG_BEGIN) {
 			if (type == EventType.LOCK_ACQUIRE) {
@@ -392,10 +459,14 @@ public class Machine<Line extends ViserLine> {
 				}
 			} else if (params.restartAtFailedValidationsOrDeadlocks()) {
 				// clear the event buffer of this core
-				EB.subList(0, curPosition).clear();
+				EB.discardFirst(curPosition);
 			}
 			// No need to invoke this expensive method at both region begin and end
 			scavengeMemory(performingProc);
+
+			if (sampler != null && semantics == EventType.REG_END) {
+				sampler.regionBoundary(performingProc);
+			}
 		}
 	}
 
@@ -422,7 +493,7 @@ public class Machine<Line extends ViserLine> {
 
 	/** Increment epoch for current core id (not thread) */
 	public void incrementEpoch(CpuId id) {
-		epochMap[id.get()].incrementRegionId();
+		epochMap[id.get()] = epochMap[id.get()].next();
 	}
 
 	public Epoch getEpoch(CpuId id) {
@@ -439,6 +510,9 @@ public class Machine<Line extends ViserLine> {
 			return;
 		}
 		long t = 1L << offset;
+		if ((pausingBits & t) == 0) {
+			totalPauses++;
+		}
 		pausingBits |= t;
 	}
 
@@ -502,13 +576,12 @@ public class Machine<Line extends ViserLine> {
 		 * // Iterate over all entries in the map, and check whether all the epochs for
 		 * all cores // have expired for a line. Then, we can safely remove that line.
 		 * 
-		 * Iterator<Entry<Long, Line>> iter = memory.entrySet().iterator(); while
-		 * (iter.hasNext()) { Map.Entry<Long, Line> entry = iter.next(); Line test =
-		 * entry.getValue(); assert test.valid() :
+		 * LongHashMap<Line>.Cursor iter = memory.cursor(); while (iter.advance()) {
+		 * Line test = iter.value(); assert test.valid() :
 		 * "Should not backup INVALID lines to memory";
 		 * 
 		 * boolean remove = true; for (int i = 0; i < params.numProcessors(); i++) {
-		 * CpuId cpu = new CpuId(i); PerCoreLineMetadata md =
+		 * CpuId cpu = CpuId.of(i); PerCoreLineMetadata md =
 		 * test.getPerCoreMetadata(cpu); if (md.epoch.getRegionId() ==
 		 * getEpoch(cpu).getRegionId()) { remove = false; break; } else if
 		 * (md.epoch.getRegionId() > getEpoch(cpu).getRegionId()) { assert false :
@@ -535,12 +608,13 @@ public class Machine<Line extends ViserLine> {
 	/** Should mostly contain of addresses/lines written to. */
 	void dumpMachineMemory() {
 		System.out.println("*************MACHINE MEMORY START*************\n");
-		for (Entry<Long, Line> entry : memory.entrySet()) {
-			Line line = entry.getValue();
+		LongHashMap<Line>.Cursor entry = memory.cursor();
+		while (entry.advance()) {
+			Line line = entry.value();
 			System.out.println("Line: " + line);
 			System.out.println("Per-core metadata:");
 			for (int i = 0; i < params.numProcessors(); i++) {
-				System.out.print("\tCore " + i + ": " + line.getPerCoreMetadata(new CpuId(i)));
+				System.out.print("\tCore " + i + ": " + line.getPerCoreMetadata(CpuId.of(i)));
 			}
 		}
 		System.out.println("\n*************MACHINE MEMORY END*************\n");
@@ -625,22 +699,11 @@ public class Machine<Line extends ViserLine> {
 
 	public void updateConflictCounters(int f0, int l0, int r0, int f1, int l1, int r1, int lf0, int ll0, int lf1,
 			int ll1) {
-		for (int i = 0; i < conflicts.size(); i++) {
-			Conflict conflict = conflicts.get(i);
-			if (conflict.isTheSame(f0, l0, f1, l1, lf0, ll0, lf1, ll1)) {
-				conflict.inc();
-				return;
-			}
-		}
-		Conflict conflict = new Conflict(f0, l0, r0, f1, l1, r1, lf0, ll0, lf1, ll1);
-		conflict.inc();
-		conflicts.add(conflict);
+		conflicts.increment(f0, l0, r0, f1, l1, r1, lf0, ll0, lf1, ll1);
 	}
 
 	// reset the counters to allow counting for other lines.
 	public void resetConflictCounter() {
-		for (int i = 0; i < conflicts.size(); i++) {
-			conflicts.get(i).allowCounting();
-		}
+		conflicts.reset();
 	}
 };
@@ -1,5 +1,7 @@
 package simulator.viser;
 
+import java.io.Serializable;
+
 enum MemoryAccessType {
 	MEMORY_READ, MEMORY_WRITE, ATOMIC_READ, ATOMIC_WRITE, LOCK_ACQ_READ, LOCK_ACQ_WRITE, LOCK_REL_WRITE
 }
@@ -29,8 +31,10 @@ class MemorySystemConstants {
 	// Multiple cores can validate their reads simultaneously, so we need control header words
 	public static final int VISER_RV_MESSAGE_SIZE_BYTES = DATA_MESSAGE_CONTROL_BYTES + VISER_RV_DATA_MESSAGE_SIZE_BYTES;
 
-	// Try to fit it into one 16-byte flit
-	public static final int BLOOM_FILTER_LLC_MESSAGE = DATA_MESSAGE_CONTROL_BYTES + BloomFilter.NUM_BYTES;
+	// The default filter fits into one 16-byte flit, along with the header
+	public static int bloomFilterLLCMessage(BloomFilter bf) {
+		return DATA_MESSAGE_CONTROL_BYTES + (bf.numBits() + BITS_IN_BYTE - 1) / BITS_IN_BYTE;
+	}
 
 	public static final int BITS_IN_BYTE = 8;
 	private static final int ADDRESS_BITS = 48;
@@ -121,11 +125,11 @@ class MemorySystemConstants {
 
 }
 
-abstract class GenericAccess {
+abstract class GenericAccess implements Serializable {
 	/** cpuid used when manipulating "global" metadata addresses */
-	static final CpuId GLOBAL_CPUID = new CpuId(0);
+	static final CpuId GLOBAL_CPUID = CpuId.of(0);
 	/** cpuid used when manipulating data addresses */
-	static final CpuId DATA_CPUID   = new CpuId(0);
+	static final CpuId DATA_CPUID   = CpuId.of(0);
 
 	protected MemoryAccessType type;
 	protected ByteAddress baseAddr;
@@ -171,20 +175,38 @@ abstract class GenericAccess {
 	}
 }
 
+/**
+ * A data access to (part of) one line. Each core keeps one DataAccess that is
+ * reset for every access, so the access path does not allocate.
+ */
 class DataAccess extends GenericAccess {
 	private long value;
 	private CpuId core;
 	private ThreadId thread; // This is important for epochs
 	private int[] siteInfo = null;
 	private int[] lastSiteInfo = null;
+	/** Per-byte site arrays, kept across resets. Only the accessed bytes are valid. */
+	private int[] siteInfoBuffer = null;
+	private int[] lastSiteInfoBuffer = null;
 	private long encoding;
 
+	DataAccess() {
+		this.baseAddr = new DataByteAddress(0);
+		this.addr = new DataByteAddress(0);
+	}
+
 	DataAccess(MemoryAccessType mtype, ByteAddress addr, final int size, long value, CpuId core, ThreadId tid,
 			int siteIndex, int lastSiteIndex) {
+		this();
+		reset(mtype, addr.get(), size, value, core, tid, siteIndex, lastSiteIndex);
+	}
+
+	/** Make this object describe a new access. */
+	void reset(MemoryAccessType mtype, long a, final int size, long value, CpuId core, ThreadId tid, int siteIndex,
+			int lastSiteIndex) {
 		this.type = mtype;
-		// make defensive copies
-		this.baseAddr = new DataByteAddress(addr.get());
-		this.addr = new DataByteAddress(addr.get());
+		this.baseAddr.set(a);
+		this.addr.set(a);
 		this.size = size;
 		this.value = value;
 		// ensure access fits within a cache line
@@ -194,14 +216,19 @@ class DataAccess extends GenericAccess {
 		this.thread = tid;
 
 		if (siteIndex != -1) {
-			if (siteInfo == null) {
-				siteInfo = new int[MemorySystemConstants.LINE_SIZE()];
-				lastSiteInfo = new int[MemorySystemConstants.LINE_SIZE()];
+			if (siteInfoBuffer == null) {
+				siteInfoBuffer = new int[MemorySystemConstants.LINE_SIZE()];
+				lastSiteInfoBuffer = new int[MemorySystemConstants.LINE_SIZE()];
 			}
-			for (int i = addr.lineOffset(); i < addr.lineOffset() + size; i++) {
+			siteInfo = siteInfoBuffer;
+			lastSiteInfo = lastSiteInfoBuffer;
+			for (int i = lineOffset(); i < lineOffset() + size; i++) {
 				this.siteInfo[i] = siteIndex;
 				this.lastSiteInfo[i] = lastSiteIndex;
 			}
+		} else {
+			siteInfo = null;
+			lastSiteInfo = null;
 		}
 		this.encoding = getEncodingForAccess();
 	}
@@ -258,18 +285,10 @@ class DataAccess extends GenericAccess {
 		return encoding;
 	}
 
-	private long getEncodingForOffset(int off) {
-		return (1L << off);
-	}
-
 	// full bit map, we want to be precise at the byte-level
 	private long getEncodingForAccess() {
-		long tmp = 0;
-		ByteAddress start = new DataByteAddress(this.addr().get());
-		for (int i = 0; i < this.size(); i++) {
-			tmp |= getEncodingForOffset(start.lineOffset());
-			start.incr();
-		}
-		return tmp;
+		// The access lies within a line of at most 64 bytes
+		long bytes = (size == Long.SIZE) ? -1L : (1L << size) - 1;
+		return bytes << lineOffset();
 	}
 }
@@ -1,17 +1,15 @@
 package simulator.viser;
 
-import java.util.ArrayList;
+import java.io.Serializable;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import simulator.viser.ViserSim.PARSEC_PHASE;
 
-public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
+public class Processor<Line extends ViserLine> implements CacheCallbacks<Line>, Serializable {
 
 	public enum ExecutionPhase {
 		REGION_BODY, PRE_COMMIT, PRE_COMMIT_L1, PRE_COMMIT_L2, READ_VALIDATION, POST_COMMIT, PAUSE, REGION_L2_COMMIT,
@@ -37,7 +35,8 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	public final AIMCache<Line> aimcache;
 
 	public final BloomFilter bf;
-	public final HashSet<Long> set; // keep track of unique lines written by the LLC in a region
+	// Unique lines written by the LLC in a region, i.e., the exact contents of bf
+	public final LongHashMap<Boolean> set;
 
 	// Needed if deferred write backs need to be precise
 	public final HashMap<Long, Long> wrMdDeferredDirtyLines = new HashMap<Long, Long>();
@@ -49,6 +48,18 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	final Processor<Line>[] allProcessors;
 	final Machine.MachineParams<Line> params;
 	final ProcessorStats stats = new ProcessorStats();
+
+	// Access context, reused by every access of this core so that the access path
+	// does not allocate
+	/** The line-sized piece of an access being performed */
+	final DataAccess currentAccess = new DataAccess();
+	/** Result returned by read() and write() */
+	private final DataMemoryAccessResult accessResult = new DataMemoryAccessResult();
+	/** Result of a whole access, aggregated over its line-sized pieces */
+	final DataMemoryAccessResult opResult = new DataMemoryAccessResult();
+	/** Result returned by getLineFromLLCOrMemory(), which every caller reads right away */
+	private final MemoryResponse<Line> sharedResponse = new MemoryResponse<Line>();
+
 	public long pausedCores = 0L;
 	boolean inTrans = false;
 	boolean hasTransRestart = false; // if the current transaction has been restarted.
@@ -83,9 +94,9 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	// Set<Integer> rtnCoveredSet = new HashSet<Integer>();
 	// Set<Integer> srcCoveredSet = new HashSet<Integer>();
 
-	class ProcessorStats {
+	class ProcessorStats implements Serializable {
 		// counters for cache events
-		class CacheEventCounter {
+		class CacheEventCounter implements Serializable {
 			SumCounter pc_ReadHits;
 			SumCounter pc_ReadMisses;
 			SumCounter pc_WriteHits;
@@ -140,6 +151,12 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		SumCounter pc_ValidationAttempts = new SumCounter("pc_ValidationAttempts");
 		SumCounter pc_FailedValidations = new SumCounter("pc_FailedValidations");
 
+		// Bloom filter queries, split by whether the LLC really wrote the line in the
+		// region
+		SumCounter pc_BloomFilterQueries = new SumCounter("pc_BloomFilterQueries");
+		SumCounter pc_BloomFilterTruePositives = new SumCounter("pc_BloomFilterTruePositives");
+		SumCounter pc_BloomFilterFalsePositives = new SumCounter("pc_BloomFilterFalsePositives");
+
 		// The following "conflict"-related counters don't count failed validations.
 		SumCounter pc_ConflictCheckAttempts = new SumCounter("pc_ConflictCheckAttempts");
 		SumCounter pc_PreciseConflicts = new SumCounter("pc_PreciseConflicts");
@@ -274,8 +291,8 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		}
 
 		// Create a per-core bloom filter, which is maintained by the LLC in the design
-		bf = new BloomFilter();
-		set = new HashSet<Long>();
+		bf = new BloomFilter(params.bloomFilterBits(), params.bloomFilterHashFuncs());
+		set = new LongHashMap<Boolean>();
 	}
 
 	@Override
@@ -415,7 +432,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	}
 
 	@Override
-	public Line eviction(final Line incoming, final LinkedList<Line> set, final CacheLevel level, ExecutionPhase phase,
+	public Line eviction(final Line incoming, final CacheSet<Line> set, final CacheLevel level, ExecutionPhase phase,
 			short bits) {
 		Line toEvict = null;
 		if (params.usePLRU()) {
@@ -438,32 +455,22 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 			toEvict = set.getLast(); // straight LRU
 
 			if ((params.evictCleanLineFirst() && !hasDirtyEviction) && level == CacheLevel.L2 && toEvict.valid()) {
-				List<Line> tmp = new ArrayList<Line>(set.size());
-				boolean notPreferred;
-				long enc;
-				do {
-					Line l1Line = L1cache.getLine(toEvict);
-
+				// Walk from the LRU towards the MRU line for a line without writes
+				boolean notPreferred = true;
+				for (int i = set.size() - 1; i >= 0 && notPreferred; i--) {
+					Line line = set.get(i);
+					Line l1Line = L1cache.getLine(line);
+					long enc;
 					if (l1Line != null && l1Line.valid())
-						enc = l1Line.getWriteEncoding(id) | toEvict.getWriteEncoding(id);
+						enc = l1Line.getWriteEncoding(id) | line.getWriteEncoding(id);
 					else
-						enc = toEvict.getWriteEncoding(id);
-					notPreferred = enc != 0L;
-
-					if (notPreferred && set.size() > 1) { // WAR or dirty line
-						set.removeLast();
-						tmp.add(toEvict);
-						toEvict = set.getLast();
-					} else
-						break;
-				} while (true);
-
-				for (int i = tmp.size() - 1; i >= 0; i--)
-					set.addLast(tmp.get(i));
-				if (notPreferred) {
-					// System.out.println("WAR Eviction from " + id);
-					toEvict = set.getLast();
+						enc = line.getWriteEncoding(id);
+					notPreferred = enc != 0L; // WAR or dirty line
+					if (!notPreferred) {
+						toEvict = line;
+					}
 				}
+				// if (notPreferred) System.out.println("WAR Eviction from " + id);
 			}
 		}
 
@@ -491,7 +498,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		return toEvict;
 	}
 
-	public static class DataMemoryAccessResult {
+	public static class DataMemoryAccessResult implements Serializable {
 		/** The latency of this memory operation, in cycles. */
 		int latency = 0;
 		/**
@@ -500,6 +507,11 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		 */
 		boolean remoteCommunicatedHappened = false;
 
+		void reset() {
+			latency = 0;
+			remoteCommunicatedHappened = false;
+		}
+
 		/**
 		 * Aggregate the result of another memory op into the current result.
 		 */
@@ -522,8 +534,8 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 			stats.pc_TotalMemoryAccesses.incr();
 		}
 
-		DataMemoryAccessResult dmaResult = new DataMemoryAccessResult();
-		dmaResult.remoteCommunicatedHappened = false;
+		DataMemoryAccessResult dmaResult = accessResult;
+		dmaResult.reset();
 
 		MemoryResponse<Line> resp = null;
 		resp = L1cache.requestWithSpecialInvalidState(this, access, true);
@@ -640,7 +652,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 					Line llcLine = sharedResp.lineHit;
 					boolean miss = false;
 					for (int i = 0; i < params.numProcessors(); i++) {
-						CpuId cpuId = new CpuId(i);
+						CpuId cpuId = CpuId.of(i);
 						if (llcLine.hasReadOffsets(cpuId) || llcLine.hasWrittenOffsets(cpuId)) {
 							miss = true;
 							break;
@@ -768,11 +780,11 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		int sizeBytes = MemorySystemConstants.DATA_MESSAGE_SIZE_BYTES/* line size */ + machine.VISER_VARIABLE_MSG_HEADER
 				+ MemorySystemConstants.VISER_VERSION_BYTES; // version bytes
 		for (int i = 0; i < params.numProcessors(); i++) {
-			CpuId cpuId = new CpuId(i);
-			PerCoreLineMetadata md = memLine.getPerCoreMetadata(cpuId);
+			CpuId cpuId = CpuId.of(i);
+			int regionId = memLine.getRegionId(cpuId);
 			Processor<Line> p = machine.getProc(cpuId);
-			assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
-			if (md.epoch.equals(p.getCurrentEpoch())) {
+			assert regionId <= p.getCurrentEpoch().getRegionId();
+			if (regionId == p.getCurrentEpoch().getRegionId()) {
 				// read and write information for this processor, if it is
 				// non-zero
 				if (memLine.hasReadOffsets(cpuId)) {
@@ -808,7 +820,8 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 	// No need to fetch the line if the access misses a private cache
 	public DataMemoryAccessResult lockReleaseWrite(final DataAccess access) {
-		DataMemoryAccessResult dmaResult = new DataMemoryAccessResult();
+		DataMemoryAccessResult dmaResult = accessResult;
+		dmaResult.reset();
 		MemoryResponse<Line> resp = L1cache.requestWithSpecialInvalidState(this, access, false);
 		if (params.useSpecialInvalidState()) {
 			// Both cannot be true at the same time
@@ -902,7 +915,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 														// read ahead.
 			// Invalidate the line in the last owner
 			if (line.getLockOwnerID() >= 0 && line.getLockOwnerID() != id.get()) {
-				Processor<Line> lastOwner = machine.getProc(new CpuId(line.getLockOwnerID()));
+				Processor<Line> lastOwner = machine.getProc(CpuId.of(line.getLockOwnerID()));
 				Line l2Line = lastOwner.L2cache.getLine(line);
 				if (l2Line != null && l2Line.valid()) {
 					l2Line.invalidate();
@@ -916,6 +929,55 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		return dmaResult;
 	}
 
+	/**
+	 * Functional warming for an access (see Machine.warming(Processor)): bring the
+	 * line into the LLC and update its value on a write. No metadata is set and no
+	 * costs are charged. The private caches are not warmed, since Viser
+	 * self-invalidates them at region boundaries and their contents at the start
+	 * of the ROI depend on the access metadata of the ongoing regions.
+	 */
+	void warm(final DataAccess access, boolean read) {
+		Line llcLine = L3cache.warm(this, access, read);
+		if (!read) {
+			llcLine.setValue(access.addr(), access.value());
+			if (!access.isRegularMemAccess()) {
+				llcLine.setLockOwnerID(id.get());
+			}
+		}
+	}
+
+	/** The LLC counter that detailed simulation counts a miss of the access to memory in */
+	SumCounter l3MissCounter(DataAccess access, boolean read) {
+		if (access.isAtomic()) {
+			return read ? stats.pc_l3d.pc_AtomicReadMisses : stats.pc_l3d.pc_AtomicWriteMisses;
+		} else if (access.isLockAccess()) {
+			return read ? stats.pc_l3d.pc_LockReadMisses : stats.pc_l3d.pc_LockWriteMisses;
+		}
+		return read ? stats.pc_l3d.pc_ReadMisses : stats.pc_l3d.pc_WriteMisses;
+	}
+
+	/**
+	 * Drop all lines of the private caches when the core starts warming in a
+	 * sampling gap (see Sampler). It does so right after a region commits, so the
+	 * LLC is up to date and the lines would be self-invalidated at the next region
+	 * boundary anyway.
+	 */
+	void flushPrivateCaches() {
+		flush(L1cache);
+		flush(L2cache);
+	}
+
+	private void flush(HierarchicalCache<Line> cache) {
+		for (CacheSet<Line> set : cache.residentSets()) {
+			for (Line l : set) {
+				if (l.valid()) {
+					l.invalidate();
+				}
+			}
+		}
+		cache.trimResidentSets();
+	}
+
 	/** Make a write request. */
 	public DataMemoryAccessResult write(final DataAccess access) {
 		if (access.isAtomic()) {
@@ -933,7 +995,8 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 			return lockReleaseWrite(access);
 		}
 
-		DataMemoryAccessResult dmaResult = new DataMemoryAccessResult();
+		DataMemoryAccessResult dmaResult = accessResult;
+		dmaResult.reset();
 
 		MemoryResponse<Line> resp = L1cache.requestWithSpecialInvalidState(this, access, false);
 		if (params.useSpecialInvalidState()) {
@@ -1101,7 +1164,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 					Line llcLine = sharedResp.lineHit;
 					boolean miss = false;
 					for (int i = 0; i < params.numProcessors(); i++) {
-						CpuId cpuId = new CpuId(i);
+						CpuId cpuId = CpuId.of(i);
 						if (llcLine.hasReadOffsets(cpuId) || llcLine.hasWrittenOffsets(cpuId)) {
 							miss = true;
 							break;
@@ -1210,7 +1273,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 			// Invalidate the line in the last owner
 			if (line.getLockOwnerID() >= 0 && line.getLockOwnerID() != id.get()) {
-				Processor<Line> lastOwner = machine.getProc(new CpuId(line.getLockOwnerID()));
+				Processor<Line> lastOwner = machine.getProc(CpuId.of(line.getLockOwnerID()));
 				Line l2Line = lastOwner.L2cache.getLine(line);
 				if (l2Line != null && l2Line.valid()) {
 					l2Line.invalidate();
@@ -1287,7 +1350,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	 * @param earlyReadValidation
 	 */
 	void checkPreciseWriteReadConflicts(Line sharedLine, Line privLine, ExecutionPhase phase) {
-		if (!(!params.isHttpd() && (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+		if (!(!params.isHttpd() && Counter.counting()
 				|| ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI)) { // Not in ROIs
 			return;
 		}
@@ -1298,12 +1361,11 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 			if (i == id.get()) {
 				continue; // ignore the same processor
 			}
-			CpuId cpuId = new CpuId(i);
+			CpuId cpuId = CpuId.of(i);
 			Processor<Line> p = machine.getProc(cpuId);
-			PerCoreLineMetadata md = sharedLine.getPerCoreMetadata(cpuId);
-			assert md != null;
-			assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
-			if (md.epoch.equals(p.getCurrentEpoch())) { // The region is ongoing
+			int regionId = sharedLine.getRegionId(cpuId);
+			assert regionId <= p.getCurrentEpoch().getRegionId();
+			if (regionId == p.getCurrentEpoch().getRegionId()) { // The region is ongoing
 				long sharedWrites = sharedLine.getWriteEncoding(cpuId);
 				if ((sharedWrites & existingReads) != 0) {
 					boolean preciseConflict = true;
@@ -1336,9 +1398,9 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 				// pause the current core
 				machine.processors[rid].setPausedCores(cid);
 				if (last_pause != 0)
-					stats.pc_TotalIntervals.incr(stats.pc_BandwidthDrivenCycleCount.stat - last_pause);
-				last_pause = stats.pc_BandwidthDrivenCycleCount.stat;
-				start_time = machine.processors[rid].stats.pc_BandwidthDrivenCycleCount.stat;
+					stats.pc_TotalIntervals.incr(stats.pc_BandwidthDrivenCycleCount.get() - last_pause);
+				last_pause = stats.pc_BandwidthDrivenCycleCount.get();
+				start_time = machine.processors[rid].stats.pc_BandwidthDrivenCycleCount.get();
 				machine.setPausingBitsAtOffset(cid);
 
 				Processor<Line> eligileCore = machine.processors[i];
@@ -1351,7 +1413,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 				} else
 					waiteeCore = machine.processors[ends[0]];
 
-				double end_time = waiteeCore.stats.pc_BandwidthDrivenCycleCount.stat;
+				double end_time = waiteeCore.stats.pc_BandwidthDrivenCycleCount.get();
 				double paused_cycles = end_time - eligileCore.start_time;
 				if (paused_cycles < 0) {
 					System.out.println("paused_cycles < 0: " + end_time + " " + eligileCore.start_time + " "
@@ -1478,9 +1540,9 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 			short[] ends = new short[2];
 			if (!machine.detectDeadlock(waitee, ends)) {
 				if (last_pause != 0)
-					stats.pc_TotalIntervals.incr(stats.pc_BandwidthDrivenCycleCount.stat - last_pause);
-				last_pause = stats.pc_BandwidthDrivenCycleCount.stat;
-				start_time = machine.processors[cpuId.get()].stats.pc_BandwidthDrivenCycleCount.stat;
+					stats.pc_TotalIntervals.incr(stats.pc_BandwidthDrivenCycleCount.get() - last_pause);
+				last_pause = stats.pc_BandwidthDrivenCycleCount.get();
+				start_time = machine.processors[cpuId.get()].stats.pc_BandwidthDrivenCycleCount.get();
 				machine.setPausingBitsAtOffset(id.get());
 				/*
 				 * System.out.println("[Current proc: " + id + "] Pause the writer core " + id +
@@ -1515,7 +1577,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	 */
 	// used at precommit, early-pre-commit
 	void checkPreciseConflicts(Line sharedLine, Line privLine, ExecutionPhase phase) {
-		if (!(!params.isHttpd() && (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+		if (!(!params.isHttpd() && Counter.counting()
 				|| ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI)) { // Not in ROIs
 			return;
 		}
@@ -1527,12 +1589,11 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 			if (i == id.get()) {
 				continue; // ignore the same processor
 			}
-			CpuId cpuId = new CpuId(i);
+			CpuId cpuId = CpuId.of(i);
 			Processor<Line> p = machine.getProc(cpuId);
-			PerCoreLineMetadata md = sharedLine.getPerCoreMetadata(cpuId);
-			assert md != null;
-			assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
-			if (md.epoch.equals(p.getCurrentEpoch())) { // The region is ongoing
+			int regionId = sharedLine.getRegionId(cpuId);
+			assert regionId <= p.getCurrentEpoch().getRegionId();
+			if (regionId == p.getCurrentEpoch().getRegionId()) { // The region is ongoing
 				long sharedWrites = sharedLine.getWriteEncoding(cpuId);
 				long sharedReads = sharedLine.getReadEncoding(cpuId);
 				if ((sharedReads & existingWrites) != 0) {
@@ -1624,12 +1685,11 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	 */
 	Line clearAccessEncoding(Line sharedLine) {
 		for (int i = 0; i < params.numProcessors(); i++) {
-			CpuId cpuId = new CpuId(i);
+			CpuId cpuId = CpuId.of(i);
 			Processor<Line> p = machine.getProc(cpuId);
-			PerCoreLineMetadata md = sharedLine.getPerCoreMetadata(cpuId);
-			assert md != null;
-			assert md.epoch.getRegionId() <= p.getCurrentEpoch().getRegionId();
-			if (md.epoch.getRegionId() < p.getCurrentEpoch().getRegionId()) {
+			int regionId = sharedLine.getRegionId(cpuId);
+			assert regionId <= p.getCurrentEpoch().getRegionId();
+			if (regionId < p.getCurrentEpoch().getRegionId()) {
 				sharedLine.clearReadEncoding(cpuId);
 				sharedLine.clearWriteEncoding(cpuId);
 			}
@@ -1670,7 +1730,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	private void sendDirtyValuesToLLC() {
 		final HashSet<Long> dirtyL1Lines = new HashSet<Long>();
 
-		for (Deque<Line> set : L1cache.sets) {
+		for (CacheSet<Line> set : L1cache.touchedSets()) {
 			for (Line l : set) {
 				if (l.hasWrittenOffsets(id)) {
 					assert l.valid() : "Written line has to be VALID";
@@ -1684,7 +1744,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 		if (params.useL2()) {
 			// Visit L2-only dirty lines, and skip L1 dirty lines.
-			for (Deque<Line> set : L2cache.sets) {
+			for (CacheSet<Line> set : L2cache.touchedSets()) {
 				for (Line l : set) {
 					if (l.hasWrittenOffsets(id)) {
 						assert l.valid() : "Dirty line has to be VALID.";
@@ -1715,7 +1775,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 		boolean written = false; // Track whether there is at least one written line
 		// phase = ExecutionPhase.PRE_COMMIT_L1;
-		loops: for (Deque<Line> set : L1cache.sets) {
+		loops: for (CacheSet<Line> set : L1cache.touchedSets()) {
 			for (Line l : set) {
 				if (l.hasWrittenOffsets(id)) {
 					if (!written) {
@@ -1762,7 +1822,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		if (!(proc.reRunEvent || proc.restartRegion) && params.useL2()) {
 			// phase = ExecutionPhase.PRE_COMMIT_L2;
 			// Visit L2-only dirty lines, and skip L1 dirty lines.
-			loops: for (Deque<Line> set : L2cache.sets) {
+			loops: for (CacheSet<Line> set : L2cache.touchedSets()) {
 				for (Line l : set) {
 					if (l.hasWrittenOffsets(id)) {
 						assert l.valid() : "Dirty line has to be VALID.";
@@ -1865,7 +1925,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 		boolean rdValAndWriteSignatureOverlap = false;
 
-		loops: for (Deque<Line> set : cache.sets) {
+		loops: for (CacheSet<Line> set : cache.touchedSets()) {
 			for (Line l : set) {
 				if (!l.valid() || !l.hasReadOffsets(id)) {
 					continue;
@@ -1876,7 +1936,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 				// that the line has been
 				// updated during the region.
 				if (params.skipValidatingReadLines() && params.useBloomFilter()) {
-					if (!bf.contains(l.lineAddress().get())) {
+					if (!bloomFilterContains(l.lineAddress().get())) {
 						continue;
 					}
 				}
@@ -2061,27 +2121,16 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	}
 
 	// invalidate read lines before restarting
-	private void performInvalidation(CacheLevel level, HashSet<Line> skippedL2Lines, Epoch nextEp) {
+	private void performInvalidation(CacheLevel level, LongHashMap<Line> skippedL2Lines) {
 		HierarchicalCache<Line> cache = (level == CacheLevel.L1) ? L1cache : L2cache;
-		for (Deque<Line> set : cache.sets) {
+		for (CacheSet<Line> set : cache.touchedSets()) {
 			for (Line l : set) {
 				if (!l.valid()) {
 					continue;
 				}
 				assert l.id() == id : "Private lines should be owned by the same core";
 				if (params.useL2() && level == CacheLevel.L1) {
-					boolean found = false;
-					Iterator<Line> it = skippedL2Lines.iterator();
-					while (it.hasNext()) {
-						Line skip = it.next();
-						if (skip.lineAddress().get() == l.lineAddress().get()) {
-							found = true;
-							it.remove();
-							break;
-						}
-					}
-
-					if (found) {
+					if (skippedL2Lines.remove(l.lineAddress().get()) != null) {
 						// invalidate the private L1 line
 						l.invalidate();
 						continue;
@@ -2103,14 +2152,23 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 					l.invalidate();
 					if (level == CacheLevel.L2) {
-						skippedL2Lines.add(l);
+						skippedL2Lines.put(l.lineAddress().get(), l);
 					} else if (params.useL2()) { // invalidate the corresponding L2 line
 						MemoryResponse<Line> l2resp = L2cache.searchPrivateCache(l);
 						assert l2resp.lineHit != null;
 						Line l2Line = l2resp.lineHit;
 						l2Line.invalidate();
 					}
-				} else {
+				}
+			}
+		}
+	}
+
+	// Untouched lines survive a restart, move them to the next epoch
+	private void advanceEpoch(HierarchicalCache<Line> cache, Epoch nextEp) {
+		for (CacheSet<Line> set : cache.residentSets()) {
+			for (Line l : set) {
+				if (l.valid()) {
 					// clear R/W metadat in the private cache and update epoch
 					/*
 					 * l.clearReadEncoding(id); if (l.hasWrittenOffsets(id)) // l is not a deferred
@@ -2125,13 +2183,19 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	public void prepareRestart() {
 		/* System.out.println("Core " + id + " is preparing restart..."); */
 		Epoch currentEp = getCurrentEpoch();
-		Epoch nextEp = new Epoch(currentEp.getRegionId() + 1);
+		Epoch nextEp = currentEp.next();
 
 		// invalidate touched lines
-		HashSet<Line> skippedL2Lines = new HashSet<Line>();
-		if (params.useL2())
-			performInvalidation(CacheLevel.L2, skippedL2Lines, nextEp);
-		performInvalidation(CacheLevel.L1, skippedL2Lines, nextEp);
+		// Invalidated L2 lines, keyed by line address
+		LongHashMap<Line> skippedL2Lines = new LongHashMap<Line>();
+		if (params.useL2()) {
+			performInvalidation(CacheLevel.L2, skippedL2Lines);
+			advanceEpoch(L2cache, nextEp);
+		}
+		performInvalidation(CacheLevel.L1, skippedL2Lines);
+		advanceEpoch(L1cache, nextEp);
+		L1cache.clearTouchedSets();
+		L2cache.clearTouchedSets();
 
 		// increase epoch to clear read/write metadata in the LLC
 		machine.incrementEpoch(id);
@@ -2150,7 +2214,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	private void rvMergeReadInformationFromL1ToL2() {
 		assert params.useL2();
 
-		for (Deque<Line> set : L2cache.sets) {
+		for (CacheSet<Line> set : L2cache.touchedSets()) {
 			for (Line l2Line : set) {
 				if (!l2Line.valid()) {
 					continue;
@@ -2189,7 +2253,9 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		if (privLine.valid() && privLine.hasReadOffsets(id)) { // Line has some reads
 			int[] privSiIndex = privLine.getReadSiteInfo(id);
 			int[] privLastSiIndex = privLine.getReadLastSiteInfo(id);
-			for (int offset = 0; offset < MemorySystemConstants.LINE_SIZE(); offset++) {
+			// Only offsets whose values differ need to be looked at
+			for (long diff = privLine.getDifferingOffsets(sharedLine); diff != 0L; diff &= diff - 1) {
+				int offset = Long.numberOfTrailingZeros(diff);
 				long enc = getEncodingForOffset(offset);
 				long privValue = privLine.getValue(offset);
 				long sharedValue = sharedLine.getValue(offset);
@@ -2198,7 +2264,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 					if (privLine.isOffsetRead(id, enc)) {
 						// The current core has read from this byte offset, match values
 						if (!params.isHttpd()
-								&& (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+								&& Counter.counting()
 								|| ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI) {
 							if (params.siteTracking()) {
 								SiteInfoEntry privSi = machine.siteInfo.get(privSiIndex[offset]);
@@ -2208,7 +2274,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 								int privRno = privSi.routineIndexNo;
 								short lw = sharedLine.getLastWriter(offset);
 								if (lw != -1) {
-									CpuId lastWriter = new CpuId(lw);
+									CpuId lastWriter = CpuId.of(lw);
 									int sharedSiIndex = sharedLine.getWriteSiteInfo(lastWriter)[offset];
 									SiteInfoEntry sharedSi = machine.siteInfo.get(sharedSiIndex);
 									int sharedLastSiIndex = sharedLine.getWriteLastSiteInfo(lastWriter)[offset];
@@ -2295,7 +2361,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 					int privLno = privSi.lineNo;
 					short lw = sharedLine.getLastWriter(offset);
 					if (lw != -1) {
-						CpuId lastWriter = new CpuId(lw);
+						CpuId lastWriter = CpuId.of(lw);
 						int sharedSiIndex = sharedLine.getWriteSiteInfo(lastWriter)[offset];
 						SiteInfoEntry sharedSi = machine.siteInfo.get(sharedSiIndex);
 						int sharedLno = sharedSi.lineNo;
@@ -2337,7 +2403,8 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 	 */
 	MemoryResponse<Line> getLineFromLLCOrMemory(Line l) {
 		assert l.valid();
-		MemoryResponse<Line> resp = new MemoryResponse<Line>();
+		MemoryResponse<Line> resp = sharedResponse;
+		resp.reset();
 
 		// Get the corresponding line from memory or LLC
 		Line llcLine = L3cache.getLine(l);
@@ -2357,7 +2424,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 	/** Initiated on behalf of the shared cache */
 	void fetchDeferredLineFromPrivateCache(Line llcLine, boolean rv, boolean notCountCosts) {
-		Processor<Line> ownerCore = machine.getProc(new CpuId(llcLine.getDeferredLineOwnerID()));
+		Processor<Line> ownerCore = machine.getProc(CpuId.of(llcLine.getDeferredLineOwnerID()));
 		CpuId cid = ownerCore.id;
 		Line line;
 
@@ -2635,7 +2702,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		// Clear pausingBits to rerun paused cores
 		if (pausedCores != 0) {
 			long t = 1L;
-			double end_time = stats.pc_BandwidthDrivenCycleCount.stat;
+			double end_time = stats.pc_BandwidthDrivenCycleCount.get();
 			for (short i = 0; i < params.numProcessors(); i++) {
 				if ((pausedCores & t) != 0L) { // core i was paused at a
 												// conflict
@@ -2712,18 +2779,36 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		stats.hgramVersionSizes.put(key, val);
 	}
 
+	/**
+	 * Check the Bloom filter for a line that the LLC may have written in this
+	 * region, counting false positives against the exact set of written lines.
+	 */
+	private boolean bloomFilterContains(long lineAddr) {
+		stats.pc_BloomFilterQueries.incr();
+		if (!bf.contains(lineAddr)) {
+			assert !set.containsKey(lineAddr) : "Bloom filters have no false negatives";
+			return false;
+		}
+		if (set.containsKey(lineAddr)) {
+			stats.pc_BloomFilterTruePositives.incr();
+		} else {
+			stats.pc_BloomFilterFalsePositives.incr();
+		}
+		return true;
+	}
+
 	// We do not add performance cost since this is not on the critical path, DRFx
 	// 2011 adds two cycles
 	void updatePerCoreBloomFilters(Line line) {
 		long lineAddr = line.lineAddress().get();
 		for (int i = 0; i < params.numProcessors(); i++) {
-			CpuId cpuId = new CpuId(i);
+			CpuId cpuId = CpuId.of(i);
 			if (cpuId.equals(id)) { // Avoid polluting the filter of the initiator core
 				continue;
 			}
 			Processor<Line> p = machine.getProc(cpuId);
 			p.bf.add(lineAddr);
-			p.set.add(lineAddr);
+			p.set.put(lineAddr, Boolean.TRUE);
 		}
 	}
 
@@ -2751,19 +2836,25 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 				updateBloomFilterHistogram();
 			}
 		}
-		HashSet<Line> skippedL1Lines = new HashSet<Line>();
+		// L1 lines that were not invalidated, keyed by line address
+		LongHashMap<Line> skippedL1Lines = new LongHashMap<Line>();
 		postCommitSelfInvalidateSFRs(type, CacheLevel.L1, skippedL1Lines, onlyInvalidateUntouchedLines);
 		if (params.useL2()) {
 			postCommitSelfInvalidateSFRs(type, CacheLevel.L2, skippedL1Lines, onlyInvalidateUntouchedLines);
 		}
+		if (!onlyInvalidateUntouchedLines) {
+			// The lines that kept metadata of the region are in the next epoch now
+			L1cache.clearTouchedSets();
+			L2cache.clearTouchedSets();
+		}
 	}
 
-	private void postCommitSelfInvalidateSFRs(EventType type, CacheLevel level, HashSet<Line> skippedL1Lines,
+	private void postCommitSelfInvalidateSFRs(EventType type, CacheLevel level, LongHashMap<Line> skippedL1Lines,
 			boolean onlyInvalidateUntouchedLines) {
 		Epoch currentEp = getCurrentEpoch();
 		Epoch nextEp;
 		if (!onlyInvalidateUntouchedLines) {
-			nextEp = new Epoch(currentEp.getRegionId() + 1);
+			nextEp = currentEp.next();
 		} else {
 			nextEp = currentEp;
 		}
@@ -2778,7 +2869,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		// the bytes and compute network traffic in terms of flits.
 
 		HierarchicalCache<Line> cache = (level == CacheLevel.L1) ? L1cache : L2cache;
-		for (Deque<Line> set : cache.sets) {
+		for (CacheSet<Line> set : cache.residentSets()) {
 			for (Line l : set) {
 				if (!l.valid()) {
 					continue;
@@ -2804,23 +2895,10 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 				assert l.id() == id : "Private lines should be owned by the same core";
 
 				if (level == CacheLevel.L2) {
-					boolean found = false;
-					Line l1Line = null;
-					Iterator<Line> it = skippedL1Lines.iterator();
-					// Speed up searching by removing found lines
-					while (it.hasNext()) {
-						Line skip = it.next();
-						if (skip.lineAddress().get() == l.lineAddress().get()) {
-							// So the L1 line corresponding to this L2 line was
-							// not invalidated
-							found = true;
-							l1Line = skip;
-							it.remove();
-							break;
-						}
-					}
-
-					if (found) {
+					Line l1Line = skippedL1Lines.remove(l.lineAddress().get());
+					if (l1Line != null) {
+						// So the L1 line corresponding to this L2 line was
+						// not invalidated
 						// Clear metadata from private L2 line
 						l.clearReadEncoding(id);
 						l.clearWriteEncoding(id);
@@ -2850,7 +2928,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 						l.setEpoch(id, nextEp);
 						l.clearConcurrentRemoteWrite();
 						if (params.useL2() && level == CacheLevel.L1) {
-							skippedL1Lines.add(l);
+							skippedL1Lines.put(l.lineAddress().get(), l);
 						}
 					}
 
@@ -2898,7 +2976,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 							l.setVersion(sharedVer); // Update the version
 							l.setEpoch(id, nextEp);
 							if (params.useL2() && level == CacheLevel.L1) {
-								skippedL1Lines.add(l);
+								skippedL1Lines.put(l.lineAddress().get(), l);
 							}
 						} else {
 							if (params.updateWrittenLinesDuringVersionCheck()) {
@@ -2909,7 +2987,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 									assert l2Line != null;
 									l2Line.copyAllValues(sharedLine);
 									if (params.useL2()) {
-										skippedL1Lines.add(l);
+										skippedL1Lines.put(l.lineAddress().get(), l);
 									}
 								}
 								l.clearReadEncoding(id);
@@ -2984,7 +3062,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 						}
 
 					} else if (params.useBloomFilter()) {
-						if (bf.contains(l.lineAddress().get())) { // LLC might have written it
+						if (bloomFilterContains(l.lineAddress().get())) { // LLC might have written it
 							// Some of these lines could have been marked deferred in the LLC, which could
 							// lead
 							// to assertion failures while checking deferred LLC lines. This happens in
@@ -3024,13 +3102,16 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 				}
 			}
 		}
+		// Most untouched lines have just been invalidated, so the passes at the next
+		// region boundary need to visit fewer sets
+		cache.trimResidentSets();
 
 		double bwCost = Math.ceil(bandwidthBasedCost);
 		stats.pc_BandwidthDrivenCycleCount.incr(bwCost);
 		updatePhaseBWDrivenCycleCost(ExecutionPhase.POST_COMMIT, bwCost);
 	}
 
-	class Verifier {
+	class Verifier implements Serializable {
 
 		/** AIM Cache lines should be a strict subset of the LLC lines */
 		public void verifyAIMCacheInclusivity(final Processor<Line> proc) {
@@ -3346,7 +3427,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 
 			// Now check for the correctness of individual deferred lines
 			for (Line dl : deferredLLCLines) {
-				Processor<Line> ownerCore = proc.machine.getProc(new CpuId(dl.getDeferredLineOwnerID()));
+				Processor<Line> ownerCore = proc.machine.getProc(CpuId.of(dl.getDeferredLineOwnerID()));
 				MemoryResponse<Line> privateResp = ownerCore.L1cache.searchPrivateCache(dl);
 				if (privateResp.lineHit == null) {
 					System.out.println(ViserSim.totalEvents);
@@ -3364,7 +3445,7 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 						System.out.println(privateResp.whereHit);
 						System.out.println(privateResp.lineHit);
 						System.out
-								.println(privateResp.lineHit.getWriteEncoding(new CpuId(dl.getDeferredLineOwnerID())));
+								.println(privateResp.lineHit.getWriteEncoding(CpuId.of(dl.getDeferredLineOwnerID())));
 					}
 					assert writeMd != null : privateResp.lineHit.toString();
 				}
@@ -3422,7 +3503,12 @@ public class Processor<Line extends ViserLine> implements CacheCallbacks<Line> {
 		double BDcost;
 
 		for (int i = 0; i < params.numProcessors(); i++) {
-			BDcost = machine.processors[i].stats.pc_BandwidthDrivenCycleCount.get();
+			if (machine.sampler != null) {
+				// The sampled cycles only cover the detailed windows
+				BDcost = machine.sampler.estimate(machine.processors[i].stats.pc_BandwidthDrivenCycleCount);
+			} else {
+				BDcost = machine.processors[i].stats.pc_BandwidthDrivenCycleCount.get();
+			}
 			if (BDcost > restartCost)
 				restartCost = BDcost;
 		}
@@ -0,0 +1,435 @@
+package simulator.viser;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sampled simulation of the ROI, in the style of SMARTS (Wunderlich et al., ISCA
+ * 2003). The events of the ROI are split into periods of samplingPeriod events.
+ * Each period ends with a detailed warmup of samplingWarmup events and a
+ * measured window of samplingWindow events; the rest of the period is a gap in
+ * which the cores only warm the LLC (see Machine.warming(Processor)).
+ *
+ * The first period of the ROI is simulated and counted in full, since the cold
+ * misses of the caches make it unlike the periods that follow: the windows
+ * would miss them, as the LLC takes them in a gap. The counts of that period
+ * are added to the sampled estimate of the rest of the ROI. Later misses on
+ * lines that were never in the LLC are counted exactly too (see coldMiss()).
+ *
+ * A core switches between warming and detailed simulation only at its own
+ * region boundaries, so regions are never split: a core leaves detailed
+ * simulation right after one of its regions commits, and its private caches
+ * are flushed then. A core is measured from the start of the window (or from
+ * when it became detailed, if later) to the end of the window.
+ *
+ * Each window gives, for every per-core Sum and Max counter, a sample of the
+ * counter increment per event of that core. The estimate of a counter is its
+ * count in the first period plus the mean of its samples times the number of
+ * later ROI events of the core, and its 95% confidence interval follows from
+ * the standard error of the samples. If the ROI ends within the first period,
+ * the counts are exact. Global Sum counters add the per-core estimates (and
+ * variances); global Max counters take the largest per-core estimate, and an
+ * interval that reaches up to the largest upper bound of the cores, at a
+ * confidence that holds for all of them at once (the Bonferroni correction).
+ *
+ * Reboots are charged the cycles spent so far (see
+ * Processor.updateStatsForReboot()), which the sampled cycle counts
+ * underestimate, so they are charged the running estimate instead. As for the
+ * measured counters, the reboot cycles are added to the cycles of every core at
+ * the end (see ViserSim.populateRestartBWDrivenCycleCount()).
+ */
+final class Sampler implements Serializable {
+
+	private final long period;
+	private final long warmup;
+	private final long window;
+
+	/** ROI events handled so far */
+	private long events;
+	/** Number of windows that have ended */
+	private int windows;
+
+	private final boolean[] detailed;
+	private final boolean[] measuring;
+	/** ROI events of each core */
+	private final long[] coreEvents;
+	/** Events of each core in its current window */
+	private final long[] windowEvents;
+	/** Windows in which each core was measured */
+	private final int[] samples;
+	/** Sums of the events, and of their squares, over the windows of each core */
+	private final double[] sumEvents;
+	private final double[] sumEventsSq;
+	/** ROI events of each core in the first period, set when it ends */
+	private long[] firstPeriodEvents = null;
+
+	/** The per-core counters, with the core of each and the sample statistics */
+	private final List<Counter> counters = new ArrayList<Counter>();
+	/** The index of each sampled counter in counters, by core and stat block slot, or -1 */
+	private final int[][] indices;
+	private final int[] core;
+	private final double[] start;
+	/** Counts of the first period */
+	private final double[] first;
+	/** Cold misses counted in each counter, see coldMiss() */
+	private final long[] cold;
+	private final long[] coldAtStart;
+	private final long[] coldInFirst;
+	/** Sums of the increments, of their squares and of their products with the events */
+	private final double[] sum;
+	private final double[] sumSq;
+	private final double[] sumProd;
+
+	/** Sample the per-core counters in the stat blocks of the cores */
+	Sampler(StatBlock[] cores, long period, long warmup, long window) {
+		if (window <= 0 || warmup < 0 || warmup + window >= period) {
+			throw new IllegalArgumentException("Bad sampling parameters: period " + period + ", warmup " + warmup
+					+ ", window " + window);
+		}
+		this.period = period;
+		this.warmup = warmup;
+		this.window = window;
+		int numCores = cores.length;
+		detailed = new boolean[numCores];
+		measuring = new boolean[numCores];
+		coreEvents = new long[numCores];
+		windowEvents = new long[numCores];
+		samples = new int[numCores];
+		sumEvents = new double[numCores];
+		sumEventsSq = new double[numCores];
+		for (int i = 0; i < numCores; i++) {
+			detailed[i] = true;
+		}
+
+		for (SumCounter c : StatBlock.counters(cores, SumCounter.class)) {
+			if (c.name.startsWith("pc_")) {
+				counters.add(c);
+			}
+		}
+		for (MaxCounter c : StatBlock.counters(cores, MaxCounter.class)) {
+			if (c.name.startsWith("pc_")) {
+				counters.add(c);
+			}
+		}
+		core = new int[counters.size()];
+		indices = new int[numCores][];
+		for (int i = 0; i < numCores; i++) {
+			indices[i] = new int[cores[i].size()];
+			Arrays.fill(indices[i], -1);
+		}
+		for (int i = 0; i < core.length; i++) {
+			Counter c = counters.get(i);
+			core[i] = c.cpuid.get();
+			indices[core[i]][c.slot] = i;
+		}
+		start = new double[core.length];
+		first = new double[core.length];
+		cold = new long[core.length];
+		coldAtStart = new long[core.length];
+		coldInFirst = new long[core.length];
+		sum = new double[core.length];
+		sumSq = new double[core.length];
+		sumProd = new double[core.length];
+	}
+
+	/** Only the events that are counted (see Counter.counting()) are sampled */
+	private static boolean sampledPhase() {
+		return Counter.counting();
+	}
+
+	/** Position of the current event in its period */
+	private long position() {
+		return events % period;
+	}
+
+	private boolean inWindow() {
+		return position() >= period - window;
+	}
+
+	/** True during the first period, which is simulated and counted in full */
+	private boolean inFirstPeriod() {
+		return firstPeriodEvents == null;
+	}
+
+	/** True if the core is in a sampling gap, and should only warm the LLC */
+	boolean warming(CpuId cpu) {
+		return !detailed[cpu.get()] && sampledPhase();
+	}
+
+	/** The running estimate of a per-core counter, from the windows so far */
+	double estimate(Counter c) {
+		int i = indexOf(c);
+		return (samples[core[i]] > 0) ? estimate(i) : c.get();
+	}
+
+	/** The index of a per-core counter in counters, -1 if it is not sampled */
+	private int indexOf(Counter c) {
+		int[] slots = indices[c.cpuid.get()];
+		return (c.slot < slots.length) ? slots[c.slot] : -1;
+	}
+
+	private double estimate(int i) {
+		if (inFirstPeriod()) {
+			return counters.get(i).get();
+		}
+		double est = first[i] + cold[i] - coldInFirst[i];
+		if (samples[core[i]] > 0) {
+			est += rate(i) * (coreEvents[core[i]] - firstPeriodEvents[core[i]]);
+		}
+		return est;
+	}
+
+	/** Increment of a per-core counter per event of its core, over all its windows */
+	private double rate(int i) {
+		return sum[i] / sumEvents[core[i]];
+	}
+
+	/**
+	 * The half-width of the interval of a per-core estimate, at a confidence of 1 -
+	 * 2 * p. The windows of a core vary in length, so the rate is a ratio
+	 * estimate, whose variance follows from the residuals of the windows around it
+	 * (Cochran, Sampling Techniques, 6.9). There are few windows in a short ROI,
+	 * so the quantile is that of Student's t.
+	 */
+	private double halfWidth(int i, double p) {
+		int n = samples[core[i]];
+		if (inFirstPeriod() || n < 2) {
+			return 0;
+		}
+		double r = rate(i);
+		double meanEvents = sumEvents[core[i]] / n;
+		double residuals = sumSq[i] - 2 * r * sumProd[i] + r * r * sumEventsSq[core[i]];
+		double rateVar = Math.max(0, residuals) / (n * (n - 1) * meanEvents * meanEvents);
+		long rest = coreEvents[core[i]] - firstPeriodEvents[core[i]];
+		return tScore(p, n - 1) * Math.sqrt(rateVar) * rest;
+	}
+
+	/**
+	 * Called when an access of the core misses in the LLC on a line that has never
+	 * been in it, whether the core is warming or not, with the counter that
+	 * detailed simulation counts the miss in. Such misses happen once per line and
+	 * are rare after the first period, so few windows would see them; they are
+	 * counted exactly instead, and left out of the samples.
+	 */
+	void coldMiss(Counter c) {
+		if (!sampledPhase()) {
+			return;
+		}
+		int i = indexOf(c);
+		if (i >= 0) {
+			cold[i]++;
+		}
+	}
+
+	/** Account for an event of the given core, after it has been handled. */
+	void eventHandled(short cpu) {
+		if (!sampledPhase()) {
+			return;
+		}
+		coreEvents[cpu]++;
+		if (measuring[cpu]) {
+			windowEvents[cpu]++;
+		}
+		events++;
+		long pos = position();
+		if (inFirstPeriod()) {
+			if (pos == 0) {
+				endFirstPeriod();
+			}
+		} else if (pos == period - window) {
+			for (int i = 0; i < detailed.length; i++) {
+				if (detailed[i]) {
+					startWindow(i);
+				}
+			}
+		} else if (pos == 0) {
+			for (int i = 0; i < measuring.length; i++) {
+				if (measuring[i]) {
+					endWindow(i);
+				}
+			}
+			windows++;
+		}
+	}
+
+	/**
+	 * Called at each region end of the core that has committed, and at each
+	 * region boundary while it is warming. Switches the core between warming and
+	 * detailed simulation as the current position in the period requires.
+	 */
+	void regionBoundary(Processor<?> proc) {
+		if (!sampledPhase()) {
+			return;
+		}
+		int cpu = proc.id.get();
+		boolean wantDetailed = inFirstPeriod() || position() >= period - window - warmup;
+		if (detailed[cpu] && !wantDetailed) {
+			assert !measuring[cpu];
+			proc.flushPrivateCaches();
+			detailed[cpu] = false;
+		} else if (!detailed[cpu] && wantDetailed) {
+			detailed[cpu] = true;
+			if (inWindow()) {
+				startWindow(cpu);
+			}
+		}
+	}
+
+	private void endFirstPeriod() {
+		firstPeriodEvents = coreEvents.clone();
+		for (int i = 0; i < core.length; i++) {
+			first[i] = counters.get(i).get();
+			coldInFirst[i] = cold[i];
+		}
+	}
+
+	private void startWindow(int cpu) {
+		measuring[cpu] = true;
+		windowEvents[cpu] = 0;
+		for (int i = 0; i < core.length; i++) {
+			if (core[i] == cpu) {
+				start[i] = counters.get(i).get();
+				coldAtStart[i] = cold[i];
+			}
+		}
+	}
+
+	private void endWindow(int cpu) {
+		measuring[cpu] = false;
+		if (windowEvents[cpu] == 0) {
+			return;
+		}
+		samples[cpu]++;
+		double x = windowEvents[cpu];
+		sumEvents[cpu] += x;
+		sumEventsSq[cpu] += x * x;
+		for (int i = 0; i < core.length; i++) {
+			if (core[i] == cpu) {
+				double y = counters.get(i).get() - start[i] - (cold[i] - coldAtStart[i]);
+				sum[i] += y;
+				sumSq[i] += y * y;
+				sumProd[i] += x * y;
+			}
+		}
+	}
+
+	private int indexOf(int cpu, String name) {
+		for (int i = 0; i < core.length; i++) {
+			if (core[i] == cpu && counters.get(i).name.equals(name)) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("No counter " + name + " for core " + cpu);
+	}
+
+	/**
+	 * Write the estimates of the global counters and their 95% confidence
+	 * intervals, as 'sampled_<counter>' and 'sampled_<counter>_ci95'.
+	 */
+	void dumpEstimates(Writer wr, String prefix, String suffix, boolean httpd, double serverStartupCycles)
+			throws IOException {
+		// Half-widths at 95%, and at the confidence that holds for all the cores at
+		// once (the Bonferroni correction), which the global Max counters need.
+		// Half-widths are combined like the standard deviations they scale.
+		double pAll = 0.025 / samples.length;
+		double[] est = new double[core.length];
+		double[] h = new double[core.length];
+		double[] hAll = new double[core.length];
+		for (int i = 0; i < core.length; i++) {
+			est[i] = estimate(i);
+			h[i] = halfWidth(i, 0.025);
+			hAll[i] = halfWidth(i, pAll);
+		}
+
+		// Add the reboot cycles like ViserSim.populateRestartBWDrivenCycleCount()
+		double rebootCycles = 0;
+		double rebootH = 0;
+		double rebootHAll = 0;
+		for (int cpu = 0; cpu < samples.length; cpu++) {
+			int i = httpd ? indexOf(cpu, "pc_TotalReboots") : indexOf(cpu, "pc_BandwidthDrivenCycleCountForReboot");
+			double scale = httpd ? serverStartupCycles : 1;
+			rebootCycles += est[i] * scale;
+			rebootH = Math.hypot(rebootH, h[i] * scale);
+			rebootHAll = Math.hypot(rebootHAll, hAll[i] * scale);
+		}
+		for (int cpu = 0; cpu < samples.length; cpu++) {
+			int i = indexOf(cpu, "pc_BandwidthDrivenCycleCount");
+			est[i] += rebootCycles;
+			h[i] = Math.hypot(h[i], rebootH);
+			hAll[i] = Math.hypot(hAll[i], rebootHAll);
+			if (httpd) {
+				int r = indexOf(cpu, "pc_BandwidthDrivenCycleCountForRequestRestart");
+				est[i] += est[r];
+				h[i] = Math.hypot(h[i], h[r]);
+				hAll[i] = Math.hypot(hAll[i], hAll[r]);
+			}
+		}
+
+		// counter name => {estimate, half-width}. The interval of a global Max
+		// counter has to cover the counts of all the cores at once, so it reaches up
+		// to the highest of their simultaneous upper bounds.
+		Map<String, double[]> estimates = new LinkedHashMap<String, double[]>();
+		for (int i = 0; i < core.length; i++) {
+			Counter c = counters.get(i);
+			boolean max = c instanceof MaxCounter;
+			String name = c.name.replace("pc_", max ? "max_" : "g_");
+			double[] g = estimates.get(name);
+			if (g == null) {
+				estimates.put(name, new double[] { est[i], max ? hAll[i] : h[i] });
+			} else if (!max) {
+				g[0] += est[i];
+				g[1] = Math.hypot(g[1], h[i]);
+			} else {
+				double upper = Math.max(g[0] + g[1], est[i] + hAll[i]);
+				g[0] = Math.max(g[0], est[i]);
+				g[1] = upper - g[0];
+			}
+		}
+
+		wr.write(prefix + "'SamplingWindows': " + windows + suffix);
+		wr.write(prefix + "'SampledEvents': " + events + suffix);
+		for (Map.Entry<String, double[]> e : estimates.entrySet()) {
+			wr.write(prefix + "'sampled_" + e.getKey() + "': " + e.getValue()[0] + suffix);
+			wr.write(prefix + "'sampled_" + e.getKey() + "_ci95': " + e.getValue()[1] + suffix);
+		}
+	}
+
+	/**
+	 * The t such that a variable of Student's t distribution with the given degrees
+	 * of freedom exceeds it with probability p (0 < p <= 0.5). It is exact for one
+	 * and two degrees of freedom, and otherwise expands the normal quantile (26.7.5
+	 * of Abramowitz and Stegun).
+	 */
+	static double tScore(double p, int dof) {
+		if (dof == 1) {
+			return Math.tan(Math.PI * (0.5 - p));
+		} else if (dof == 2) {
+			return (1 - 2 * p) / Math.sqrt(2 * p * (1 - p));
+		}
+		double z = zScore(p);
+		double z2 = z * z;
+		double g1 = (z2 + 1) * z / 4;
+		double g2 = ((5 * z2 + 16) * z2 + 3) * z / 96;
+		double g3 = (((3 * z2 + 19) * z2 + 17) * z2 - 15) * z / 384;
+		double g4 = ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) * z / 92160;
+		double v = dof;
+		return z + g1 / v + g2 / (v * v) + g3 / (v * v * v) + g4 / (v * v * v * v);
+	}
+
+	/**
+	 * The z such that a standard normal variable exceeds it with probability p
+	 * (0 < p <= 0.5), by the rational approximation 26.2.23 of Abramowitz and
+	 * Stegun, which is within 4.5e-4 of it.
+	 */
+	static double zScore(double p) {
+		double t = Math.sqrt(-2 * Math.log(p));
+		return t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+				/ (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+	}
+}
@@ -0,0 +1,179 @@
+package simulator.viser;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of a running simulation, so that a slow run can be told apart
+ * from a stuck one before the stats file is written at the end. The metrics are
+ * registered as an MBean (simulator.viser:type=SimMonitor,name=<stats file>)
+ * for jconsole and other JMX clients, and a background thread appends them to
+ * the monitor file, if any, every period.
+ *
+ * The simulation does not synchronize with the readers: the metrics are plain
+ * reads of the simulator state, which may be slightly stale but cost the
+ * simulation nothing.
+ */
+final class SimMonitor implements SimMonitorMBean {
+
+	private final Machine<ViserLine> machine;
+	/** The name of the MBean, null if it is not registered */
+	private final ObjectName name;
+	private final long startTime = System.currentTimeMillis();
+	private final Thread thread;
+
+	// Updated by the monitor thread every period
+	private volatile long lastEvents = 0;
+	private volatile long lastTime = startTime;
+	private volatile double eventsPerSecond = 0;
+
+	private SimMonitor(Machine<ViserLine> machine, ObjectName name, final int periodSeconds,
+			final String monitorFile) {
+		this.machine = machine;
+		this.name = name;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// A monitor file that cannot be written is reported once, and the MBean keeps ticking
+				boolean reported = false;
+				try {
+					while (true) {
+						Thread.sleep(periodSeconds * 1000L);
+						tick();
+						if (monitorFile == null) {
+							continue;
+						}
+						try {
+							dump(monitorFile);
+						} catch (IOException ioe) {
+							if (!reported) {
+								System.err.println("Cannot write monitor file " + monitorFile + ": " + ioe);
+								reported = true;
+							}
+						}
+					}
+				} catch (InterruptedException ie) {
+					return; // The simulation has finished
+				}
+			}
+		}, "sim-monitor");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Register the metrics of the machine and start the monitor thread, which
+	 * updates the rates and appends the metrics to monitorFile (if not null) every
+	 * period. The simulation goes on without the MBean if it cannot be registered.
+	 */
+	static SimMonitor start(Machine<ViserLine> machine, String statsFile, int periodSeconds, String monitorFile) {
+		if (periodSeconds <= 0) {
+			throw new IllegalArgumentException("Bad monitor period: " + periodSeconds);
+		}
+		SimMonitor m;
+		try {
+			m = new SimMonitor(machine,
+					new ObjectName("simulator.viser:type=SimMonitor,name=" + ObjectName.quote(statsFile)),
+					periodSeconds, monitorFile);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(m, m.name);
+		} catch (JMException jme) {
+			System.err.println("Cannot register the monitor MBean: " + jme);
+			m = new SimMonitor(machine, null, periodSeconds, monitorFile);
+		}
+		m.thread.start();
+		return m;
+	}
+
+	void stop() {
+		thread.interrupt();
+		if (name == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException jme) {
+			System.err.println("Cannot unregister the monitor MBean: " + jme);
+		}
+	}
+
+	private void tick() {
+		long now = System.currentTimeMillis();
+		long events = getTotalEvents();
+		if (now > lastTime) {
+			eventsPerSecond = (events - lastEvents) * 1000.0 / (now - lastTime);
+		}
+		lastEvents = events;
+		lastTime = now;
+	}
+
+	/** Append the metrics to the file, as a Python dictionary like the stats. */
+	private void dump(String fileName) throws IOException {
+		Writer wr = new FileWriter(fileName, true);
+		try {
+			StringBuilder cycles = new StringBuilder();
+			for (double c : getBandwidthDrivenCycleCounts()) {
+				cycles.append(cycles.length() == 0 ? "" : ", ").append(c);
+			}
+			wr.write("{'seconds': " + (lastTime - startTime) / 1000.0 + ", 'totalEvents': " + lastEvents
+					+ ", 'eventsPerSecond': " + eventsPerSecond + ", 'bandwidthDrivenCycleCounts': [" + cycles
+					+ "], 'totalRegionRestarts': " + getTotalRegionRestarts() + ", 'totalPauses': "
+					+ getTotalPauses() + ", 'pausedCores': " + getPausedCores() + ", 'heapUsedBytes': "
+					+ getHeapUsedBytes() + ", 'memoryLines': " + getMemoryLines() + "}\n");
+		} finally {
+			wr.close();
+		}
+	}
+
+	@Override
+	public long getTotalEvents() {
+		return ViserSim.totalEvents;
+	}
+
+	@Override
+	public double getEventsPerSecond() {
+		return eventsPerSecond;
+	}
+
+	@Override
+	public double[] getBandwidthDrivenCycleCounts() {
+		double[] cycles = new double[machine.processors.length];
+		for (int i = 0; i < cycles.length; i++) {
+			cycles[i] = machine.processors[i].stats.pc_BandwidthDrivenCycleCount.get();
+		}
+		return cycles;
+	}
+
+	@Override
+	public long getTotalRegionRestarts() {
+		return ViserSim.totalRegionRestarts;
+	}
+
+	@Override
+	public long getTotalPauses() {
+		return machine.totalPauses;
+	}
+
+	@Override
+	public int getPausedCores() {
+		return Long.bitCount(machine.getPausingBits());
+	}
+
+	@Override
+	public long getHeapUsedBytes() {
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	@Override
+	public int getMemoryLines() {
+		return machine.memory.size();
+	}
+}
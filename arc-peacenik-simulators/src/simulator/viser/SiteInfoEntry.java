@@ -1,6 +1,8 @@
 package simulator.viser;
 
-public class SiteInfoEntry {
+import java.io.Serializable;
+
+public class SiteInfoEntry implements Serializable {
 	short fileIndexNo;
 	short lineNo;
 	short routineIndexNo;
@@ -0,0 +1,133 @@
+package simulator.viser;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Interned table of source sites. Sites are kept in a dense array so that their
+ * indices are stable (the per-byte site metadata and printConflicts() refer to
+ * sites by index), and an open-addressed index keyed on the packed
+ * (file, line, routine) triple makes lookups O(1) and allocation-free.
+ */
+public final class SiteTable implements Serializable {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int EMPTY = -1;
+
+	private SiteInfoEntry[] entries = new SiteInfoEntry[INITIAL_CAPACITY];
+	private int size = 0;
+
+	/** Packed keys of the interned sites, indexed the same way as entries. */
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	/** Open-addressed hash index, holding positions into entries. */
+	private int[] index = newIndex(2 * INITIAL_CAPACITY);
+	private int indexMask = index.length - 1;
+
+	static long pack(short fno, short lno, short rno) {
+		return ((fno & 0xffffL) << 32) | ((lno & 0xffffL) << 16) | (rno & 0xffffL);
+	}
+
+	private static int[] newIndex(int capacity) {
+		int[] tmp = new int[capacity];
+		Arrays.fill(tmp, EMPTY);
+		return tmp;
+	}
+
+	private static int hash(long key) {
+		// Murmur3 64-bit finalizer
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/** Return the index of the site, or -1 if the site has not been interned. */
+	public int indexOf(short fno, short lno, short rno) {
+		long key = pack(fno, lno, rno);
+		int slot = hash(key) & indexMask;
+		while (true) {
+			int pos = index[slot];
+			if (pos == EMPTY) {
+				return EMPTY;
+			}
+			if (keys[pos] == key) {
+				return pos;
+			}
+			slot = (slot + 1) & indexMask;
+		}
+	}
+
+	public int indexOf(SiteInfoEntry si) {
+		return indexOf(si.fileIndexNo, si.lineNo, si.routineIndexNo);
+	}
+
+	/**
+	 * Return the index of the site, interning it at the end of the table if it is
+	 * seen for the first time.
+	 */
+	public int intern(short fno, short lno, short rno) {
+		int pos = indexOf(fno, lno, rno);
+		if (pos == EMPTY) {
+			pos = append(new SiteInfoEntry(fno, lno, rno));
+		}
+		return pos;
+	}
+
+	/**
+	 * Append a site to the table. Like List.add(), duplicates are allowed, but only
+	 * the first occurrence of a site is found by lookups.
+	 */
+	public boolean add(SiteInfoEntry si) {
+		append(si);
+		return true;
+	}
+
+	private int append(SiteInfoEntry si) {
+		if (size == entries.length) {
+			entries = Arrays.copyOf(entries, 2 * size);
+			keys = Arrays.copyOf(keys, 2 * size);
+		}
+		int pos = size++;
+		entries[pos] = si;
+		keys[pos] = pack(si.fileIndexNo, si.lineNo, si.routineIndexNo);
+		// Keep the load factor of the index at most one half
+		if (2 * size > index.length) {
+			rehash(2 * index.length);
+		} else {
+			insert(pos);
+		}
+		return pos;
+	}
+
+	private void insert(int pos) {
+		long key = keys[pos];
+		int slot = hash(key) & indexMask;
+		while (index[slot] != EMPTY) {
+			if (keys[index[slot]] == key) {
+				return; // Keep the first occurrence, as indexOf() on a list would
+			}
+			slot = (slot + 1) & indexMask;
+		}
+		index[slot] = pos;
+	}
+
+	private void rehash(int capacity) {
+		index = newIndex(capacity);
+		indexMask = capacity - 1;
+		for (int i = 0; i < size; i++) {
+			insert(i);
+		}
+	}
+
+	public SiteInfoEntry get(int pos) {
+		if (pos < 0 || pos >= size) {
+			throw new IndexOutOfBoundsException("Site index: " + pos + ", size: " + size);
+		}
+		return entries[pos];
+	}
+
+	public int size() {
+		return size;
+	}
+}
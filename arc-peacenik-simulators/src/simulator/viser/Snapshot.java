@@ -0,0 +1,117 @@
+package simulator.viser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import simulator.viser.ViserSim.PARSEC_PHASE;
+
+/**
+ * A checkpoint of the whole simulator, taken when the trace enters the ROI. It
+ * holds the machine (caches, LLC, AIM cache, memory, epochs, the per-core
+ * state and the stat blocks), the global state of ViserSim, the global counter
+ * registries, and the number of trace records consumed so far. Restoring a
+ * snapshot and skipping that many records continues the simulation exactly as
+ * if the pre-ROI part of the trace had been simulated again.
+ *
+ * Snapshots are Java-serialized and gzipped. Everything is written as one object
+ * graph, so counters shared between a processor and the stat blocks stay
+ * shared after a restore. A snapshot is only valid for the simulator build and the
+ * registered parameters (see Knobs) it was taken with; the latter are checked
+ * on restore.
+ */
+final class Snapshot implements Serializable {
+
+	/** The registered parameters of the run that took the snapshot */
+	final String config;
+	/** Number of trace records consumed before the snapshot */
+	final long traceRecords;
+
+	final Machine<ViserLine> machine;
+	final short lastCid;
+
+	// ViserSim state
+	PARSEC_PHASE phase;
+	int maxLiveThreads;
+	int numSpawnedThreads;
+	int currentLiveThreads;
+	long insnsExecuted;
+	long stackAccesses;
+	long totalEvents;
+	long basicBlockEvents;
+	long totalRegionRestarts;
+	double serverStartupBWDrivenCycles;
+	double totalScavengeTime;
+	List<EventLog> eventsBuffer;
+	int[] pos;
+
+	// Counter registries; the stat blocks are in the machine
+	private final Map<String, SumCounter> globalSumCounters;
+	private final Map<String, MaxCounter> globalMaxCounters;
+	private final Map<String, DependentCounter> globalDependentCounters;
+	private final Map<String, AvgCounter> globalAvgCounters;
+
+	Snapshot(Machine<ViserLine> machine, short lastCid, long traceRecords) throws IOException {
+		this.config = currentConfig();
+		this.traceRecords = traceRecords;
+		this.machine = machine;
+		this.lastCid = lastCid;
+		globalSumCounters = SumCounter.globalCounters;
+		globalMaxCounters = MaxCounter.globalCounters;
+		globalDependentCounters = DependentCounter.globalCounters;
+		globalAvgCounters = AvgCounter.globalCounters;
+	}
+
+	/** Install the counter registries of this snapshot. */
+	void restoreCounters() {
+		SumCounter.globalCounters = globalSumCounters;
+		MaxCounter.globalCounters = globalMaxCounters;
+		DependentCounter.globalCounters = globalDependentCounters;
+		AvgCounter.globalCounters = globalAvgCounters;
+		StatBlock.blocks = machine.statBlocks;
+	}
+
+	private static String currentConfig() throws IOException {
+		StringWriter sw = new StringWriter();
+		Knobs.dumpRegisteredParams(sw);
+		return sw.toString();
+	}
+
+	void write(String fileName) throws IOException {
+		ObjectOutputStream out = new ObjectOutputStream(
+				new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(fileName))));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+	}
+
+	static Snapshot read(String fileName) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(
+				new GZIPInputStream(new BufferedInputStream(new FileInputStream(fileName))));
+		Snapshot s;
+		try {
+			s = (Snapshot) in.readObject();
+		} catch (ClassNotFoundException cnf) {
+			throw new IOException("Bad snapshot " + fileName, cnf);
+		} finally {
+			in.close();
+		}
+		if (!s.config.equals(currentConfig())) {
+			throw new IllegalStateException("Snapshot " + fileName + " was taken with different parameters: "
+					+ s.config);
+		}
+		return s;
+	}
+}
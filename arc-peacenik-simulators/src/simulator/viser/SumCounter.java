@@ -3,22 +3,21 @@ package simulator.viser;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 public class SumCounter extends Counter {
-	/** List of all the stats that have been created. */
-	protected static List<SumCounter> AllCounters = new LinkedList<SumCounter>();
-
 	// maps pc counter names => global Counter objects
 	static Map<String, SumCounter> globalCounters = new HashMap<String, SumCounter>();
 
-	public static void dumpCounters(Writer wr, String prefix, String suffix) throws IOException {
+	/** Dump the counters of the cores, from their stat blocks, and the global counters. */
+	public static void dumpCounters(StatBlock[] cores, Writer wr, String prefix, String suffix) throws IOException {
+		List<SumCounter> counters = StatBlock.counters(cores, SumCounter.class);
+
 		// generate global counters
-		currentCpu = new CpuId(-1);
+		currentCpu = CpuId.of(-1);
 
-		for (SumCounter c : AllCounters) {
+		for (SumCounter c : counters) {
 			if (!c.name.startsWith("pc_")) {
 				continue;
 			}
@@ -32,11 +31,11 @@ public class SumCounter extends Counter {
 			}
 		}
 		currentCpu = null;
-		AllCounters.addAll(globalCounters.values());
+		counters.addAll(globalCounters.values());
 
 		// write counter values
-		for (SumCounter c : AllCounters) {
-			wr.write(prefix + "'cpuid': " + c.cpuid.get() + ", '" + c.name + "': " + c.stat + suffix);
+		for (SumCounter c : counters) {
+			wr.write(prefix + "'cpuid': " + c.cpuid.get() + ", '" + c.name + "': " + c.get() + suffix);
 		}
 	}
 
@@ -46,6 +45,5 @@ public class SumCounter extends Counter {
 
 	SumCounter(String name) {
 		super(currentCpu, name);
-		AllCounters.add(this);
 	}
 }
@@ -1,11 +1,8 @@
 package simulator.viser;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -31,6 +28,11 @@ public class ViserSim {
 
 	static OptionSet Options;
 
+	// Options read on hot paths, cached by setOptions()
+	private static boolean modelOnlyROI;
+	private static int numProcessors;
+	private static int assertPeriod;
+
 	private static int maxLiveThreads;
 	private static int numSpawnedThreads;
 	private static int currentLiveThreads;
@@ -45,7 +47,7 @@ public class ViserSim {
 	public static double totalScavengeTime = 0;
 
 	/** Events buffer for paused cores */
-	private static final List<List<Event>> eventsBuffer = new ArrayList<List<Event>>();
+	private static final List<EventLog> eventsBuffer = new ArrayList<EventLog>();
 	public static int[] pos;
 
 	public static final long debugStart = 640000;
@@ -67,7 +69,7 @@ public class ViserSim {
 	// These checks are expensive
 	public static boolean xassertsEnabled() {
 		if (XASSERTS) {
-			if ((totalEvents % Options.valueOf(Knobs.AssertPeriod) == 0) && totalEvents > debugStart) {
+			if ((totalEvents % assertPeriod == 0) && totalEvents > debugStart) {
 				return true;
 			}
 		}
@@ -75,61 +77,86 @@ public class ViserSim {
 	}
 
 	public static boolean modelOnlyROI() {
-		return Options.valueOf(Knobs.modelOnlyROI);
+		return modelOnlyROI;
 	}
 
 	public static void setPARSECPhase(PARSEC_PHASE p) {
 		phase = p;
+		updateCounting();
 	}
 
-	public static PARSEC_PHASE getPARSECPhase() {
-		return phase;
+	/** Flip the switch that gates all counter increments. */
+	private static void updateCounting() {
+		Counter.setCounting(!modelOnlyROI || phase == PARSEC_PHASE.IN_ROI);
 	}
 
-	public static boolean useTwoBloomFuncs() {
-		return Options.valueOf(Knobs.UseTwoBloomFuncs);
+	public static PARSEC_PHASE getPARSECPhase() {
+		return phase;
 	}
 
 	public static int numProcessors() {
-		return Options.valueOf(Knobs.Cores);
+		return numProcessors;
 	}
 
-	public static void main(String[] args) throws IOException {
-		Options = Knobs.parser.parse(args);
-		if (Options.has(Knobs.Help)) {
-			Knobs.parser.printHelpOn(System.out);
-			return;
-		}
-		XASSERTS = Options.valueOf(Knobs.Xasserts);
-
-		final SimulationMode simMode;
-		if (Options.valueOf(Knobs.SimulationMode).equals("baseline")) {
-			throw new UnsupportedOperationException("Baseline mode not supported.");
-		} else if (Options.valueOf(Knobs.SimulationMode).equals("viser")) {
-			simMode = SimulationMode.VISER;
-		} else {
-			throw new IllegalStateException("Invalid simulation mode: " + Options.valueOf(Knobs.SimulationMode));
-		}
-
-		// if (!BitTwiddle.isPowerOf2(numProcessors())) {
-		// throw new IllegalArgumentException("Number of cores is not a power of 2.");
-		// }
-
-		DataInputStream in;
-		String fifoName = Options.valueOf(Knobs.ToSimulatorFifo);
-		String bench = fifoName.split("\\.")[0];
-		try {
-			FileInputStream fis = new FileInputStream(fifoName);
-			in = new DataInputStream(new BufferedInputStream(fis));
-		} catch (FileNotFoundException fnf) {
-			fnf.printStackTrace();
-			return;
-		}
+	/** Set the options of the run, and cache the ones that are read on hot paths. */
+	static void setOptions(OptionSet options) {
+		Options = options;
+		modelOnlyROI = options.valueOf(Knobs.modelOnlyROI);
+		numProcessors = options.valueOf(Knobs.Cores);
+		assertPeriod = options.valueOf(Knobs.AssertPeriod);
+		updateCounting();
+	}
 
-		final long startTime = System.currentTimeMillis();
-		MemorySystemConstants.setLineSize(Options.valueOf(Knobs.LineSize));
+	/** The machine parameters given by the options */
+	static Machine.MachineParams<ViserLine> machineParams(final SimulationMode simMode) {
+		return new Machine.MachineParams<ViserLine>() {
+			// Read the options once, so that the accessors are plain field reads
+			private final int numProcessors = ViserSim.numProcessors();
+			private final int numPinThreads = Options.valueOf(Knobs.PinThreads);
+			private final boolean pintool = Options.valueOf(Knobs.Pintool);
+			private final boolean useL2 = Options.valueOf(Knobs.UseL2);
+			private final boolean ignoreStackReferences = Options.valueOf(Knobs.IgnoreStackRefs);
+			private final boolean remoteAccessesAffectLRU = Options.valueOf(Knobs.RemoteAccessesAffectLRU);
+			private final boolean writebackInMemory = Options.valueOf(Knobs.WritebackInMemory);
+			private final boolean alwaysInvalidateReadOnlyLines = Options.valueOf(Knobs.AlwaysInvalidateReadOnlyLines);
+			private final boolean invalidateWrittenLinesOnlyAfterVersionCheck = Options
+					.valueOf(Knobs.InvalidateWrittenLinesOnlyAfterVersionCheck);
+			private final boolean updateWrittenLinesDuringVersionCheck = Options
+					.valueOf(Knobs.UpdateWrittenLinesDuringVersionCheck);
+			private final boolean invalidateUntouchedLinesOptimization = Options
+					.valueOf(Knobs.InvalidateUntouchedLinesOptimization);
+			private final boolean useSpecialInvalidState = Options.valueOf(Knobs.UseSpecialInvalidState);
+			private final boolean useBloomFilter = Options.valueOf(Knobs.UseBloomFilter);
+			private final int bloomFilterBits = Options.valueOf(Knobs.BloomFilterBits);
+			private final boolean useAIMCache = Options.valueOf(Knobs.UseAIMCache);
+			private final boolean deferWriteBacks = Options.valueOf(Knobs.DeferWritebacks);
+			private final boolean areDeferredWriteBacksPrecise = Options.valueOf(Knobs.DeferredWritebacksPrecise);
+			private final boolean skipValidatingReadLines = Options.valueOf(Knobs.SkipValidatingReadLines);
+			private final boolean pauseCoresAtConflicts = Options.valueOf(Knobs.PauseCoresAtConflicts);
+			private final boolean ignoreFetchingDeferredLinesDuringReadValidation = Options
+					.valueOf(Knobs.IgnoreFetchingDeferredLinesDuringReadValidation);
+			private final boolean clearAIMCacheAtRegionBoundaries = Options.valueOf(Knobs.ClearAIMAtRegionBoundaries);
+			private final boolean ignoreFetchingReadBits = Options.valueOf(Knobs.IgnoreFetchingReadBits);
+			private final boolean validateL1ReadsAlongWithL2 = Options.valueOf(Knobs.ValidateL1ReadsAlongWithL2);
+			private final boolean lockstep = Options.valueOf(Knobs.Lockstep);
+			private final boolean siteTracking = Options.valueOf(Knobs.SiteTracking);
+			private final boolean restartAtFailedValidationsOrDeadlocks = Options
+					.valueOf(Knobs.RestartAtFailedValidationsOrDeadlocks);
+			private final boolean treatAtomicUpdatesAsRegularAccesses = Options
+					.valueOf(Knobs.TreatAtomicUpdatesAsRegularAccesses);
+			private final boolean ignoreFetchingWriteBits = Options.valueOf(Knobs.IgnoreFetchingWriteBits);
+			private final boolean isHttpd = Options.valueOf(Knobs.IsHttpd);
+			private final boolean evictCleanLineFirst = Options.valueOf(Knobs.EvictCleanLineFirst);
+			private final boolean usePLRU = Options.valueOf(Knobs.UsePLRU);
+			private final boolean setWriteBitsInL2 = Options.valueOf(Knobs.SetWriteBitsInL2);
+			private final boolean treatAtomicUpdatesAsRegionBoundaries = Options
+					.valueOf(Knobs.TreatAtomicUpdatesAsRegionBoundaries);
+			private final boolean BackupDeferredWritebacksLasily = Options
+					.valueOf(Knobs.BackupDeferredWritebacksLasily);
+			private final boolean FalseRestart = Options.valueOf(Knobs.FalseRestart);
+			private final int checkPointingRate = Options.valueOf(Knobs.CheckPointingRate);
+			private final boolean functionalWarming = Options.valueOf(Knobs.FunctionalWarming);
 
-		Machine.MachineParams<ViserLine> p = new Machine.MachineParams<ViserLine>() {
 			@Override
 			SimulationMode simulationMode() {
 				return simMode;
@@ -137,12 +164,12 @@ public class ViserSim {
 
 			@Override
 			int numProcessors() {
-				return ViserSim.numProcessors();
+				return numProcessors;
 			}
 
 			@Override
 			int numPinThreads() {
-				return Options.valueOf(Knobs.PinThreads);
+				return numPinThreads;
 			}
 
 			@Override
@@ -162,12 +189,12 @@ public class ViserSim {
 
 			@Override
 			boolean pintool() {
-				return Options.valueOf(Knobs.Pintool);
+				return pintool;
 			}
 
 			@Override
 			boolean useL2() {
-				return Options.valueOf(Knobs.UseL2);
+				return useL2;
 			}
 
 			@Override
@@ -221,7 +248,7 @@ public class ViserSim {
 						tmp.changeStateTo(l.getState());
 						tmp.setVersion(l.getVersion());
 						tmp.copyAllValues(l);
-						tmp.setLastWriters(l.getLastWriters());
+						tmp.copyLastWriters(l);
 						tmp.setLockOwnerID(l.getLockOwnerID());
 						// We do not update deferred owner id from here.
 						if (level.compareTo(proc.llc()) < 0) { // private line
@@ -234,17 +261,10 @@ public class ViserSim {
 									l.getReadLastSiteInfo(cid));
 							tmp.setEpoch(proc.id, proc.getCurrentEpoch());
 						} else {
-							for (int i = 0; i < proc.params.numProcessors(); i++) {
-								CpuId cpuId = new CpuId(i);
-								PerCoreLineMetadata tmpMd = l.getPerCoreMetadata(cpuId);
-								// We do not bother with epoch here, since it should be taken care of
-								// automatically
-								// later
-								PerCoreLineMetadata md = new PerCoreLineMetadata(tmpMd.epoch, tmpMd.writeEncoding,
-										tmpMd.readEncoding, tmpMd.writeSiteInfo, tmpMd.readSiteInfo,
-										tmpMd.writeLastSiteInfo, tmpMd.readLastSiteInfo);
-								tmp.setPerCoreMetadata(cpuId, md);
-							}
+							// We do not bother with epoch here, since it should be taken care of
+							// automatically
+							// later
+							tmp.copyPerCoreMetadata(l);
 						}
 						return tmp;
 					}
@@ -253,118 +273,132 @@ public class ViserSim {
 
 			@Override
 			boolean ignoreStackReferences() {
-				return Options.valueOf(Knobs.IgnoreStackRefs);
+				return ignoreStackReferences;
 			}
 
 			@Override
 			boolean remoteAccessesAffectLRU() {
-				return Options.valueOf(Knobs.RemoteAccessesAffectLRU);
+				return remoteAccessesAffectLRU;
 			}
 
 			@Override
 			boolean writebackInMemory() {
-				return Options.valueOf(Knobs.WritebackInMemory);
+				return writebackInMemory;
 			}
 
 			@Override
 			boolean alwaysInvalidateReadOnlyLines() {
-				return Options.valueOf(Knobs.AlwaysInvalidateReadOnlyLines);
+				return alwaysInvalidateReadOnlyLines;
 			}
 
 			@Override
 			boolean invalidateWrittenLinesOnlyAfterVersionCheck() {
-				return Options.valueOf(Knobs.InvalidateWrittenLinesOnlyAfterVersionCheck);
+				return invalidateWrittenLinesOnlyAfterVersionCheck;
 			}
 
 			@Override
 			boolean updateWrittenLinesDuringVersionCheck() {
-				return Options.valueOf(Knobs.UpdateWrittenLinesDuringVersionCheck);
+				return updateWrittenLinesDuringVersionCheck;
 			}
 
 			@Override
 			boolean invalidateUntouchedLinesOptimization() {
-				return Options.valueOf(Knobs.InvalidateUntouchedLinesOptimization);
+				return invalidateUntouchedLinesOptimization;
 			}
 
 			@Override
 			boolean useSpecialInvalidState() {
-				return Options.valueOf(Knobs.UseSpecialInvalidState);
+				return useSpecialInvalidState;
 			}
 
 			@Override
 			boolean useBloomFilter() {
-				return Options.valueOf(Knobs.UseBloomFilter);
+				return useBloomFilter;
+			}
+
+			@Override
+			int bloomFilterBits() {
+				return bloomFilterBits;
+			}
+
+			@Override
+			int bloomFilterHashFuncs() {
+				int funcs = Options.valueOf(Knobs.BloomFilterHashFuncs);
+				if (funcs > 0) {
+					return funcs;
+				}
+				return Options.valueOf(Knobs.UseTwoBloomFuncs) ? 2 : 1;
 			}
 
 			@Override
 			boolean useAIMCache() {
-				return Options.valueOf(Knobs.UseAIMCache);
+				return useAIMCache;
 			}
 
 			@Override
 			boolean deferWriteBacks() {
-				return Options.valueOf(Knobs.DeferWritebacks);
+				return deferWriteBacks;
 			}
 
 			@Override
 			boolean areDeferredWriteBacksPrecise() {
-				return Options.valueOf(Knobs.DeferredWritebacksPrecise);
+				return areDeferredWriteBacksPrecise;
 			}
 
 			@Override
 			boolean skipValidatingReadLines() {
-				return Options.valueOf(Knobs.SkipValidatingReadLines);
+				return skipValidatingReadLines;
 			}
 
 			@Override
 			boolean pauseCoresAtConflicts() {
-				return Options.valueOf(Knobs.PauseCoresAtConflicts);
+				return pauseCoresAtConflicts;
 			}
 
 			@Override
 			boolean ignoreFetchingDeferredLinesDuringReadValidation() {
-				return Options.valueOf(Knobs.IgnoreFetchingDeferredLinesDuringReadValidation);
+				return ignoreFetchingDeferredLinesDuringReadValidation;
 			}
 
 			@Override
 			boolean clearAIMCacheAtRegionBoundaries() {
-				return Options.valueOf(Knobs.ClearAIMAtRegionBoundaries);
+				return clearAIMCacheAtRegionBoundaries;
 			}
 
 			@Override
 			boolean ignoreFetchingReadBits() {
-				return Options.valueOf(Knobs.IgnoreFetchingReadBits);
+				return ignoreFetchingReadBits;
 			}
 
 			@Override
 			boolean validateL1ReadsAlongWithL2() {
-				return Options.valueOf(Knobs.ValidateL1ReadsAlongWithL2);
+				return validateL1ReadsAlongWithL2;
 			}
 
 			@Override
 			boolean lockstep() {
-				return Options.valueOf(Knobs.Lockstep);
+				return lockstep;
 			}
 
 			@Override
 			boolean siteTracking() {
-				return Options.valueOf(Knobs.SiteTracking);
+				return siteTracking;
 				// && Options.valueOf(Knobs.RestartAtFailedValidationsOrDeadlocks);
 			}
 
 			@Override
 			boolean restartAtFailedValidationsOrDeadlocks() {
-				return Options.valueOf(Knobs.RestartAtFailedValidationsOrDeadlocks);
+				return restartAtFailedValidationsOrDeadlocks;
 			}
 
 			@Override
 			boolean treatAtomicUpdatesAsRegularAccesses() {
-				return Options.valueOf(Knobs.TreatAtomicUpdatesAsRegularAccesses);
+				return treatAtomicUpdatesAsRegularAccesses;
 			}
 
 			@Override
 			boolean ignoreFetchingWriteBits() {
-				return Options.valueOf(Knobs.IgnoreFetchingWriteBits);
+				return ignoreFetchingWriteBits;
 			}
 
 			@Override
@@ -375,59 +409,123 @@ public class ViserSim {
 
 			@Override
 			boolean isHttpd() {
-				return Options.valueOf(Knobs.IsHttpd);
+				return isHttpd;
 			}
 
 			@Override
 			boolean evictCleanLineFirst() {
-				return Options.valueOf(Knobs.EvictCleanLineFirst);
+				return evictCleanLineFirst;
 			}
 
 			@Override
 			boolean usePLRU() {
-				return Options.valueOf(Knobs.UsePLRU);
+				return usePLRU;
 			}
 
 			@Override
 			boolean setWriteBitsInL2() {
-				return Options.valueOf(Knobs.SetWriteBitsInL2);
+				return setWriteBitsInL2;
 			}
 
 			@Override
 			boolean treatAtomicUpdatesAsRegionBoundaries() {
-				return Options.valueOf(Knobs.TreatAtomicUpdatesAsRegionBoundaries);
+				return treatAtomicUpdatesAsRegionBoundaries;
 			}
 
 			@Override
 			boolean BackupDeferredWritebacksLasily() {
-				return Options.valueOf(Knobs.BackupDeferredWritebacksLasily);
+				return BackupDeferredWritebacksLasily;
 			}
 
 			@Override
 			boolean FalseRestart() {
-				return Options.valueOf(Knobs.FalseRestart);
+				return FalseRestart;
 			}
 
 			@Override
 			int checkPointingRate() {
-				return Options.valueOf(Knobs.CheckPointingRate);
+				return checkPointingRate;
+			}
+
+			@Override
+			boolean functionalWarming() {
+				return functionalWarming;
 			}
 
 		};
+	}
 
-		Machine<ViserLine> sim = new Machine<ViserLine>(p);
-		if (sim.params.lockstep()) {
-			sim.openPerThreadFifos(bench);
+	public static void main(String[] args) throws IOException {
+		setOptions(Knobs.parser.parse(args));
+		if (Options.has(Knobs.Help)) {
+			Knobs.parser.printHelpOn(System.out);
+			return;
+		}
+		XASSERTS = Options.valueOf(Knobs.Xasserts);
+
+		final SimulationMode simMode;
+		if (Options.valueOf(Knobs.SimulationMode).equals("baseline")) {
+			throw new UnsupportedOperationException("Baseline mode not supported.");
+		} else if (Options.valueOf(Knobs.SimulationMode).equals("viser")) {
+			simMode = SimulationMode.VISER;
+		} else {
+			throw new IllegalStateException("Invalid simulation mode: " + Options.valueOf(Knobs.SimulationMode));
+		}
+
+		// if (!BitTwiddle.isPowerOf2(numProcessors())) {
+		// throw new IllegalArgumentException("Number of cores is not a power of 2.");
+		// }
+
+		TraceReader in;
+		String fifoName = Options.valueOf(Knobs.ToSimulatorFifo);
+		String bench = fifoName.split("\\.")[0];
+		try {
+			in = TraceReader.open(fifoName);
+		} catch (FileNotFoundException fnf) {
+			fnf.printStackTrace();
+			return;
+		}
+
+		final long startTime = System.currentTimeMillis();
+		MemorySystemConstants.setLineSize(Options.valueOf(Knobs.LineSize));
+
+		Machine.MachineParams<ViserLine> p = machineParams(simMode);
+
+		String saveSnapshot = Options.valueOf(Knobs.SaveSnapshot);
+		String restoreSnapshot = Options.valueOf(Knobs.RestoreSnapshot);
+		if ((saveSnapshot != null || restoreSnapshot != null) && p.lockstep()) {
+			throw new UnsupportedOperationException("Snapshots are not supported with lockstep execution.");
+		}
+		int samplingPeriod = Options.valueOf(Knobs.SamplingPeriod);
+		if (samplingPeriod > 0 && (p.lockstep() || p.restartAtFailedValidationsOrDeadlocks() || p.FalseRestart()
+				|| p.pauseCoresAtConflicts() || p.deferWriteBacks() || p.checkPointingRate() > 0)) {
+			throw new UnsupportedOperationException("Sampling is not supported with lockstep execution, restarts, "
+					+ "pausing, deferred write-backs or check points.");
+		}
+
+		Snapshot snapshot = null;
+		Machine<ViserLine> sim;
+		if (restoreSnapshot != null) {
+			snapshot = Snapshot.read(restoreSnapshot);
+			sim = snapshot.machine;
+		} else {
+			sim = new Machine<ViserLine>(p);
+			if (sim.params.lockstep()) {
+				sim.openPerThreadFifos(bench);
+			}
+			sim.initializeEpochs();
+			sim.prepareScavengeMap(p.numProcessors());
+			if (samplingPeriod > 0) {
+				sim.sampler = new Sampler(sim.coreStatBlocks(), samplingPeriod,
+						Options.valueOf(Knobs.SamplingWarmup), Options.valueOf(Knobs.SamplingWindow));
+			}
 		}
-		sim.initializeEpochs();
-		sim.prepareScavengeMap(p.numProcessors());
 
 		String prix;
 		if (sim.params.restartAtFailedValidationsOrDeadlocks() || sim.params.FalseRestart()) {
 			pos = new int[numProcessors()];
 			for (int i = 0; i < numProcessors(); i++) {
-				// eventsBuffer.add(new ArrayList<Event>(initCapacity));
-				eventsBuffer.add(new ArrayList<Event>());
+				eventsBuffer.add(new EventLog());
 				pos[i] = 0;
 			}
 			if (sim.params.evictCleanLineFirst())
@@ -441,7 +539,7 @@ public class ViserSim {
 
 		} else if (sim.params.pauseCoresAtConflicts()) {
 			for (int i = 0; i < numProcessors(); i++) {
-				eventsBuffer.add(new ArrayList<Event>());
+				eventsBuffer.add(new EventLog());
 			}
 			prix = "[pausingsim] ";
 		} else if (sim.params.treatAtomicUpdatesAsRegularAccesses()) {
@@ -457,7 +555,31 @@ public class ViserSim {
 			prix = "[visersim] ";
 		}
 
+		short Cid = 0;
+		if (snapshot != null) {
+			restoreSnapshot(snapshot);
+			in.skip(snapshot.traceRecords);
+			Cid = snapshot.lastCid;
+			System.out.println(prix + "resuming from snapshot " + restoreSnapshot + " after " + snapshot.traceRecords
+					+ " events...");
+		}
+		boolean snapshotSaved = saveSnapshot == null || snapshot != null;
+		// MultiSim already reads the trace on its own thread, and a lone host core
+		// would just switch between the two
+		if (Options.valueOf(Knobs.PrefetchTrace) && TraceReader.sharedFeed == null
+				&& Runtime.getRuntime().availableProcessors() > 1) {
+			in = in.prefetch();
+		}
+
 		System.out.println(prix + "starting simulation...");
+		SimMonitor monitor = SimMonitor.start(sim, Options.valueOf(Knobs.StatsFile),
+				Options.valueOf(Knobs.MonitorPeriod), Options.valueOf(Knobs.MonitorFile));
+		IntervalStats intervals = null;
+		if (Options.valueOf(Knobs.IntervalEvents) > 0 || Options.valueOf(Knobs.IntervalCycles) > 0) {
+			intervals = new IntervalStats(sim.coreStatBlocks(), Options.valueOf(Knobs.IntervalFile),
+					Options.valueOf(Knobs.IntervalEvents), Options.valueOf(Knobs.IntervalCycles),
+					Options.valuesOf(Knobs.IntervalCounters));
+		}
 
 		/*
 		 * // Test detectDeadlock() short[] father = new short[numProcessors()]; short[]
@@ -470,16 +592,21 @@ public class ViserSim {
 		 * System.out.println(tmp); System.out.println(); return; }
 		 */
 
-		short Cid = 0;
 		while (true) {
 			try {
 				Event e = getNextEvent(in, sim, Cid);
 				boolean simulationFinished = handleEvent(e, sim, prix);
 				Cid = sim.cpuOfTid(e.tid).get();
+				if (sim.sampler != null) {
+					sim.sampler.eventHandled(Cid);
+				}
+				if (intervals != null) {
+					intervals.eventHandled(Cid);
+				}
 				if (!sim.params.restartAtFailedValidationsOrDeadlocks()) {
 					// if ((sim.getPausingBits() & (1L << Cid)) != 0) {
 					if (sim.processors[Cid].reRunEvent) {
-						eventsBuffer.get(Cid).add(0, e); // rerun immediately when resuming from pausing
+						eventsBuffer.get(Cid).addFirst(e); // rerun immediately when resuming from pausing
 						// totalPausings++;
 						/*
 						 * System.out.println(prix + "p" + Cid +
@@ -519,12 +646,21 @@ public class ViserSim {
 				}
 				assert sim.getPausingBits() != ((1L << numProcessors()) - 1) : "All cores are paused! "
 						+ sim.getPausingBits();
+				if (!snapshotSaved && phase != PARSEC_PHASE.PRE_ROI) {
+					// The ROI has just started
+					takeSnapshot(sim, Cid, in.recordsRead()).write(saveSnapshot);
+					snapshotSaved = true;
+				}
 			} catch (EOFException eof) {
 				break;
 			}
 		}
 
 		in.close();
+		monitor.stop();
+		if (intervals != null) {
+			intervals.close();
+		}
 		double mins = (System.currentTimeMillis() - startTime) / (double) (1000 * 60);
 
 		for (int i = 0; i < numProcessors(); i++) {
@@ -574,6 +710,43 @@ public class ViserSim {
 		System.err.println(prix + "finished");
 	} // end main()
 
+	private static Snapshot takeSnapshot(Machine<ViserLine> sim, short lastCid, long traceRecords)
+			throws IOException {
+		Snapshot s = new Snapshot(sim, lastCid, traceRecords);
+		s.phase = phase;
+		s.maxLiveThreads = maxLiveThreads;
+		s.numSpawnedThreads = numSpawnedThreads;
+		s.currentLiveThreads = currentLiveThreads;
+		s.insnsExecuted = insnsExecuted;
+		s.stackAccesses = stackAccesses;
+		s.totalEvents = totalEvents;
+		s.basicBlockEvents = basicBlockEvents;
+		s.totalRegionRestarts = totalRegionRestarts;
+		s.serverStartupBWDrivenCycles = SERVER_STARTUP_BWDRIVEN_CYCLES;
+		s.totalScavengeTime = totalScavengeTime;
+		s.eventsBuffer = eventsBuffer;
+		s.pos = pos;
+		return s;
+	}
+
+	private static void restoreSnapshot(Snapshot s) {
+		setPARSECPhase(s.phase);
+		maxLiveThreads = s.maxLiveThreads;
+		numSpawnedThreads = s.numSpawnedThreads;
+		currentLiveThreads = s.currentLiveThreads;
+		insnsExecuted = s.insnsExecuted;
+		stackAccesses = s.stackAccesses;
+		totalEvents = s.totalEvents;
+		basicBlockEvents = s.basicBlockEvents;
+		totalRegionRestarts = s.totalRegionRestarts;
+		SERVER_STARTUP_BWDRIVEN_CYCLES = s.serverStartupBWDrivenCycles;
+		totalScavengeTime = s.totalScavengeTime;
+		eventsBuffer.clear();
+		eventsBuffer.addAll(s.eventsBuffer);
+		pos = s.pos;
+		s.restoreCounters();
+	}
+
 	private static void printConflicts(Machine<ViserLine> sim, String prex) {
 		System.out.println("====================================================================================");
 		System.out.println("Total Sites: " + sim.siteInfo.size());
@@ -604,7 +777,7 @@ public class ViserSim {
 		double maxCycles = 0;
 		short pid = -1;
 		for (Processor<ViserLine> pc : sim.processors) {
-			double cycles = pc.stats.pc_BandwidthDrivenCycleCount.stat;
+			double cycles = pc.stats.pc_BandwidthDrivenCycleCount.get();
 			if (cycles > maxCycles) {
 				pid = pc.id.get();
 				maxCycles = cycles;
@@ -623,12 +796,12 @@ public class ViserSim {
 		}
 	}
 
-	private static Event getNextEvent(DataInputStream in, Machine<ViserLine> sim, short lastCid) throws IOException {
+	private static Event getNextEvent(TraceReader in, Machine<ViserLine> sim, short lastCid) throws IOException {
 		boolean needPause = sim.params.pauseCoresAtConflicts();
 		long currentPausingBits = sim.getPausingBits();
 		if (needPause) {
 			if (sim.params.restartAtFailedValidationsOrDeadlocks()) {
-				List<Event> EB;
+				EventLog EB;
 				for (short i = 0; i < eventsBuffer.size(); i++) {
 					// fair round-robin
 					if (i == lastCid)
@@ -646,11 +819,10 @@ public class ViserSim {
 				}
 			} else
 				for (short i = 0; i < eventsBuffer.size(); i++) {
-					List<Event> EB = eventsBuffer.get(i);
+					EventLog EB = eventsBuffer.get(i);
 					// this core is not paused
 					if ((currentPausingBits & (1L << i)) == 0L && !EB.isEmpty()) {
-						Event e = EB.get(0);
-						EB.remove(0);
+						Event e = EB.pollFirst();
 						// System.out.println("[visersim] Event from eventsBuffer. Type: " + e.type + ",
 						// Tid: " +
 						// e.tid);
@@ -659,42 +831,28 @@ public class ViserSim {
 				}
 		}
 		do {
-			byte type = in.readByte();
-			byte semantics = in.readByte();
-			byte tid = (byte) in.readShort();
+			in.next();
+			byte type = in.type;
+			byte semantics = in.semantics;
+			byte tid = (byte) in.tid;
 			Event e = new Event(EventType.fromByte(type), EventType.fromByte(semantics), tid);
-			e.addr = in.readLong();
-			e.memOpSize = (byte) in.readInt();
-			byte bits = in.readByte();
-			e.stackRef = (bits & 0x1) == 1;
-			e.value = in.readLong();
-			e.insnCount = in.readInt();
+			e.addr = in.addr;
+			e.memOpSize = (byte) in.memOpSize;
+			e.stackRef = (in.bits & 0x1) == 1;
+			e.value = in.value;
+			e.insnCount = in.insnCount;
 
 			// site info
-			short lineno = in.readShort();
-			short fno = in.readShort();
-			short rno = in.readShort();
-			in.readInt(); // eventID
-			short lastLineno = in.readShort();
-			short lastFno = in.readShort();
+			short lineno = in.lineno;
+			short fno = in.fno;
+			short rno = in.rno;
+			short lastLineno = in.lastLineno;
+			short lastFno = in.lastFno;
 
 			if (sim.params.siteTracking()) {
-				SiteInfoEntry siEntry = new SiteInfoEntry(fno, lineno, rno);
-				int index = sim.siteInfo.indexOf(siEntry);
-				if (index == -1) {
-					sim.siteInfo.add(siEntry);
-					index = sim.siteInfo.size() - 1;
-				}
-				e.siteIndex = index;
-
+				e.siteIndex = sim.siteInfo.intern(fno, lineno, rno);
 				// last site info
-				siEntry = new SiteInfoEntry(lastFno, lastLineno, (short) 0);
-				index = sim.siteInfo.indexOf(siEntry);
-				if (index == -1) {
-					sim.siteInfo.add(siEntry);
-					index = sim.siteInfo.size() - 1;
-				}
-				e.lastSiteIndex = index;
+				e.lastSiteIndex = sim.siteInfo.intern(lastFno, lastLineno, (short) 0);
 			} else {
 				e.siteIndex = -1;
 				e.lastSiteIndex = -1;
@@ -729,7 +887,7 @@ public class ViserSim {
 				// e.type + ", Pid:" +
 				// pid);
 				if (sim.params.restartAtFailedValidationsOrDeadlocks() && (!sim.params.isHttpd()
-						&& (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+						&& Counter.counting()
 						|| ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI) && !e.isLockAccess()) {
 					// all events of the current regions should be saved in case of restart
 					eventsBuffer.get(pid).add(e);
@@ -755,12 +913,12 @@ public class ViserSim {
 		switch (e.type) {
 		case ROI_START: {
 			assert phase == PARSEC_PHASE.PRE_ROI;
-			phase = PARSEC_PHASE.IN_ROI;
+			setPARSECPhase(PARSEC_PHASE.IN_ROI);
 			break;
 		}
 		case ROI_END: {
 			assert phase == PARSEC_PHASE.IN_ROI;
-			phase = PARSEC_PHASE.POST_ROI;
+			setPARSECPhase(PARSEC_PHASE.POST_ROI);
 			break;
 		}
 
@@ -844,7 +1002,7 @@ public class ViserSim {
 
 		case SERVER_ROI_START: {
 			if (phase == PARSEC_PHASE.PRE_ROI) {
-				phase = PARSEC_PHASE.IN_SERVER_ROI;
+				setPARSECPhase(PARSEC_PHASE.IN_SERVER_ROI);
 				// printConflicts(machine, prefix + "[mid] ");
 				computeCounters(machine, prefix + "[SERVER_ROI_START] ", true);
 			}
@@ -853,7 +1011,7 @@ public class ViserSim {
 
 		case SERVER_ROI_END: {
 			if (phase == PARSEC_PHASE.IN_SERVER_ROI) {
-				phase = PARSEC_PHASE.POST_SERVER_ROI;
+				setPARSECPhase(PARSEC_PHASE.POST_SERVER_ROI);
 				computeCounters(machine, prefix + "[SERVER_ROI_END] ", false);
 			}
 			break;
@@ -995,6 +1153,20 @@ public class ViserSim {
 		statsFd.write(prefix.toString() + "'ratioViserLLCToMemoryMetadataWritebackBandwidthCycles': "
 				+ fmt.format(value) + suffix);
 
+		// False-positive rate of the Bloom filters, i.e., the share of queries for lines
+		// the LLC did not write that the filters still answered positively
+		double bfNegatives = SumCounter.globalCounters.get("pc_BloomFilterQueries").get()
+				- SumCounter.globalCounters.get("pc_BloomFilterTruePositives").get();
+		value = (bfNegatives > 0)
+				? SumCounter.globalCounters.get("pc_BloomFilterFalsePositives").get() / bfNegatives
+				: 0;
+		statsFd.write(prefix.toString() + "'BloomFilterFalsePositiveRate': " + fmt.format(value) + suffix);
+
+		if (machine.sampler != null) {
+			machine.sampler.dumpEstimates(statsFd, prefix.toString(), suffix, machine.params.isHttpd(),
+					SERVER_STARTUP_BWDRIVEN_CYCLES);
+		}
+
 		// Compute global histograms
 		statsFd.write(
 				"# Histogram hgramLLCUpdatesInARegion description: 0 -- 0, 1 -- 1-10, 2 -- 11-20, 3 -- 21-30, 4 -- 31-40, 5 -- >=41\n");
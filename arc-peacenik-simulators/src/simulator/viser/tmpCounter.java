@@ -1,8 +1,8 @@
 package simulator.viser;
 
-import simulator.viser.ViserSim.PARSEC_PHASE;
+import java.io.Serializable;
 
-public class tmpCounter {
+public class tmpCounter implements Serializable {
 	private double stat = 0;
 
 	public tmpCounter() {
@@ -16,7 +16,7 @@ public class tmpCounter {
 	}
 
 	public void incr(double a) {
-		if (!ViserSim.modelOnlyROI() || ViserSim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
+		if (Counter.counting()) {
 			stat += a;
 		}
 	}
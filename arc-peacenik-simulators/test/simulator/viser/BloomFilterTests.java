@@ -0,0 +1,84 @@
+package simulator.viser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+public final class BloomFilterTests {
+
+	static final HashFunction GUAVA_32 = Hashing.murmur3_32();
+	static final HashFunction GUAVA_128 = Hashing.murmur3_128();
+
+	/** Edge values, line addresses and random longs */
+	static List<Long> keys() {
+		List<Long> keys = new ArrayList<Long>();
+		long[] edges = { 0L, 1L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+				0xffffffffL, 0x100000000L };
+		for (long k : edges) {
+			keys.add(k);
+		}
+		for (long line = 0x7f0000000000L; line < 0x7f0000000000L + 64 * 1000; line += 64) {
+			keys.add(line);
+		}
+		Random rnd = new Random(5);
+		for (int i = 0; i < 10000; i++) {
+			keys.add(rnd.nextLong());
+		}
+		return keys;
+	}
+
+	@Test
+	public void testMurmur3MatchesGuava() {
+		for (long k : keys()) {
+			assertEquals("murmur3_32 of " + k, GUAVA_32.hashLong(k).asInt(), BloomFilter.murmur3_32(k));
+			assertEquals("murmur3_128 of " + k, GUAVA_128.hashLong(k).asLong(), BloomFilter.murmur3_128(k));
+		}
+	}
+
+	/** The default filter sets the bits the Guava-based filter set */
+	@Test
+	public void testDefaultFilterBits() {
+		BloomFilter bf = new BloomFilter();
+		BitSet expected = new BitSet(BloomFilter.DEFAULT_NUM_BITS);
+		int n = 0;
+		for (long k : keys()) {
+			if (n++ % 500 != 0) {
+				continue; // keep the filter sparse enough to be meaningful
+			}
+			bf.add(k);
+			expected.set(Math.abs(GUAVA_32.hashLong(k).asInt()) % BloomFilter.DEFAULT_NUM_BITS);
+			expected.set((int) (Math.abs(GUAVA_128.hashLong(k).asLong()) % BloomFilter.DEFAULT_NUM_BITS));
+		}
+		assertEquals(expected.toString(), bf.toString());
+		assertEquals(expected.cardinality(), bf.cardinality());
+	}
+
+	@Test
+	public void testNoFalseNegatives() {
+		int[][] geometries = { { 112, 1 }, { 112, 2 }, { 256, 3 }, { 1000, 4 } };
+		for (int[] g : geometries) {
+			BloomFilter bf = new BloomFilter(g[0], g[1]);
+			List<Long> keys = keys();
+			for (long k : keys.subList(0, 50)) {
+				bf.add(k);
+			}
+			for (long k : keys.subList(0, 50)) {
+				assertTrue(bf.contains(k));
+			}
+			assertTrue(bf.cardinality() <= g[0]);
+			assertEquals((g[0] + 7) / 8 + MemorySystemConstants.DATA_MESSAGE_CONTROL_BYTES,
+					MemorySystemConstants.bloomFilterLLCMessage(bf));
+			bf.clear();
+			assertEquals(0, bf.cardinality());
+		}
+	}
+}
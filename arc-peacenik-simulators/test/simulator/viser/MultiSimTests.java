@@ -0,0 +1,113 @@
+package simulator.viser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** MultiSim runs against standalone runs of the same configurations */
+public final class MultiSimTests {
+
+	static final List<String> PAUSING = Arrays.asList("--pause-cores-at-conflicts=true");
+
+	SimulatorRuns runs;
+
+	@Before
+	public void setUp() throws IOException {
+		runs = new SimulatorRuns("multisim");
+		runs.generate(TraceGenerator.Pattern.RACY, 20000, 20, 4, 16, 21);
+	}
+
+	@After
+	public void tearDown() {
+		runs.delete();
+	}
+
+	/** Write a config file with one line of options per configuration */
+	File configs(List<List<String>> configs) throws IOException {
+		File file = runs.file("configs.txt");
+		PrintWriter w = new PrintWriter(file);
+		try {
+			w.println("# generated by " + getClass().getSimpleName());
+			for (List<String> options : configs) {
+				StringBuilder line = new StringBuilder();
+				for (String option : options) {
+					line.append(option).append(' ');
+				}
+				w.println(line.toString().trim());
+			}
+		} finally {
+			w.close();
+		}
+		return file;
+	}
+
+	String log(File configs, int index) throws IOException {
+		return new String(Files.readAllBytes(new File(configs.getPath() + "." + index + ".log").toPath()),
+				StandardCharsets.UTF_8);
+	}
+
+	String multiSim(File configs, int status) throws Exception {
+		return runs.fork(MultiSim.class, Arrays.asList(runs.trace.getPath(), configs.getPath()), status);
+	}
+
+	/**
+	 * Each configuration, on its own copy of the simulator classes and fed from
+	 * the shared trace, has the same stats as a run of ViserSim on its own, and
+	 * its console output goes to its own log
+	 */
+	@Test
+	public void testSameStatsAsStandaloneRuns() throws Exception {
+		List<String> none = Collections.emptyList();
+		File configs = configs(Arrays.asList(runs.options("multi-viser.py", none),
+				runs.options("multi-pausing.py", PAUSING)));
+		String output = multiSim(configs, 0);
+		assertTrue(output, output.contains("[multisim] simulated 2 configurations"));
+
+		String viser = log(configs, 0);
+		String pausing = log(configs, 1);
+		assertTrue(viser, viser.contains("[visersim] starting simulation"));
+		assertTrue(viser, viser.contains("[visersim] finished"));
+		assertFalse(viser, viser.contains("[pausingsim]"));
+		assertTrue(pausing, pausing.contains("[pausingsim] starting simulation"));
+		assertTrue(pausing, pausing.contains("[pausingsim] finished"));
+		assertFalse(pausing, pausing.contains("[visersim] starting"));
+		assertFalse(output, output.contains("starting simulation"));
+
+		runs.run("viser.py", none);
+		assertFalse(runs.stats("viser.py").isEmpty());
+		runs.run("pausing.py", PAUSING);
+		assertEquals(runs.stats("viser.py"), runs.stats("multi-viser.py"));
+		assertEquals(runs.stats("pausing.py"), runs.stats("multi-pausing.py"));
+	}
+
+	/**
+	 * A configuration that fails at startup takes no more of the trace, the
+	 * others run to the end, and the driver reports the failure
+	 */
+	@Test
+	public void testFailedConfiguration() throws Exception {
+		List<String> none = Collections.emptyList();
+		List<String> bad = Arrays.asList("--pause-cores-at-conflicts=true", "--sampling-period=1000");
+		File configs = configs(Arrays.asList(runs.options("multi-bad.py", bad), runs.options("multi-viser.py", none)));
+		String output = multiSim(configs, 1);
+		assertTrue(output, output.contains("[multisim] configuration 0 failed: java.lang.UnsupportedOperationException"));
+		assertFalse(output, output.contains("configuration 1 failed"));
+		assertTrue(log(configs, 0), log(configs, 0).contains("UnsupportedOperationException"));
+
+		runs.run("viser.py", none);
+		assertEquals(runs.stats("viser.py"), runs.stats("multi-viser.py"));
+	}
+}
@@ -19,15 +19,15 @@ public final class PausingTests {
 
 	static Machine<ViserLine> machine;
 
-	static final CpuId P0 = new CpuId(0);
-	static final CpuId P1 = new CpuId(1);
-	static final CpuId P2 = new CpuId(2);
-	static final CpuId P3 = new CpuId(3);
+	static final CpuId P0 = CpuId.of(0);
+	static final CpuId P1 = CpuId.of(1);
+	static final CpuId P2 = CpuId.of(2);
+	static final CpuId P3 = CpuId.of(3);
 
-	static final ThreadId T0 = new ThreadId((byte) 0);
-	static final ThreadId T1 = new ThreadId((byte) 1);
-	static final ThreadId T2 = new ThreadId((byte) 2);
-	static final ThreadId T3 = new ThreadId((byte) 3);
+	static final ThreadId T0 = ThreadId.of((byte) 0);
+	static final ThreadId T1 = ThreadId.of((byte) 1);
+	static final ThreadId T2 = ThreadId.of((byte) 2);
+	static final ThreadId T3 = ThreadId.of((byte) 3);
 
 	static final int CORES = 4;
 	static final int LINE_SIZE = 4;
@@ -156,7 +156,7 @@ public final class PausingTests {
 						tmp.changeStateTo(l.getState());
 						tmp.setVersion(l.getVersion());
 						tmp.copyAllValues(l);
-						tmp.setLastWriters(l.getLastWriters());
+						tmp.copyLastWriters(l);
 						tmp.setLockOwnerID(l.getLockOwnerID());
 						// We do not update deferred owner id from here.
 						if (level.compareTo(proc.llc()) < 0) { // private line
@@ -170,7 +170,7 @@ public final class PausingTests {
 							tmp.setEpoch(proc.id, proc.getCurrentEpoch());
 						} else {
 							for (int i = 0; i < proc.params.numProcessors(); i++) {
-								CpuId cpuId = new CpuId(i);
+								CpuId cpuId = CpuId.of(i);
 								PerCoreLineMetadata tmpMd = l.getPerCoreMetadata(cpuId);
 								// We do not bother with epoch here, since it should be taken care of automatically
 								// later
@@ -230,6 +230,16 @@ public final class PausingTests {
 				return true;
 			}
 
+			@Override
+			int bloomFilterBits() {
+				return BloomFilter.DEFAULT_NUM_BITS;
+			}
+
+			@Override
+			int bloomFilterHashFuncs() {
+				return BloomFilter.DEFAULT_NUM_HASH_FUNCS;
+			}
+
 			@Override
 			boolean useAIMCache() {
 				return false; // Reduce the default AIM cache size before
@@ -350,10 +360,15 @@ public final class PausingTests {
             int checkPointingRate() {
                 return 0;
             }
+
+			@Override
+			boolean functionalWarming() {
+				return false;
+			}
 		};
 
 		// Not sure how we can override JOpt command line
-		ViserSim.Options = Knobs.parser.parse("--xassert=true --assert-period=1");
+		ViserSim.setOptions(Knobs.parser.parse("--xassert=true --assert-period=1"));
 		ViserSim.setPARSECPhase(PARSEC_PHASE.IN_ROI);
 		assertTrue(ViserSim.XASSERTS);
 		assertEquals(1, ViserSim.Options.valueOf(Knobs.AssertPeriod).intValue());
@@ -6,8 +6,6 @@ package simulator.viser;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
-import java.util.LinkedList;
-
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -21,15 +19,15 @@ public final class RestartTests {
 
 	static Machine<ViserLine> machine;
 
-	static final CpuId P0 = new CpuId(0);
-	static final CpuId P1 = new CpuId(1);
-	static final CpuId P2 = new CpuId(2);
-	static final CpuId P3 = new CpuId(3);
+	static final CpuId P0 = CpuId.of(0);
+	static final CpuId P1 = CpuId.of(1);
+	static final CpuId P2 = CpuId.of(2);
+	static final CpuId P3 = CpuId.of(3);
 
-	static final ThreadId T0 = new ThreadId((byte) 0);
-	static final ThreadId T1 = new ThreadId((byte) 1);
-	static final ThreadId T2 = new ThreadId((byte) 2);
-	static final ThreadId T3 = new ThreadId((byte) 3);
+	static final ThreadId T0 = ThreadId.of((byte) 0);
+	static final ThreadId T1 = ThreadId.of((byte) 1);
+	static final ThreadId T2 = ThreadId.of((byte) 2);
+	static final ThreadId T3 = ThreadId.of((byte) 3);
 
 	static final int CORES = 4;
 	static final int LINE_SIZE = 4;
@@ -158,7 +156,7 @@ public final class RestartTests {
 						tmp.changeStateTo(l.getState());
 						tmp.setVersion(l.getVersion());
 						tmp.copyAllValues(l);
-						tmp.setLastWriters(l.getLastWriters());
+						tmp.copyLastWriters(l);
 						tmp.setLockOwnerID(l.getLockOwnerID());
 						// We do not update deferred owner id from here.
 						if (level.compareTo(proc.llc()) < 0) { // private line
@@ -172,7 +170,7 @@ public final class RestartTests {
 							tmp.setEpoch(proc.id, proc.getCurrentEpoch());
 						} else {
 							for (int i = 0; i < proc.params.numProcessors(); i++) {
-								CpuId cpuId = new CpuId(i);
+								CpuId cpuId = CpuId.of(i);
 								PerCoreLineMetadata tmpMd = l.getPerCoreMetadata(cpuId);
 								// We do not bother with epoch here, since it should be taken care of automatically
 								// later
@@ -232,6 +230,16 @@ public final class RestartTests {
 				return true;
 			}
 
+			@Override
+			int bloomFilterBits() {
+				return BloomFilter.DEFAULT_NUM_BITS;
+			}
+
+			@Override
+			int bloomFilterHashFuncs() {
+				return BloomFilter.DEFAULT_NUM_HASH_FUNCS;
+			}
+
 			@Override
 			boolean useAIMCache() {
 				return false; // Reduce the default AIM cache size before
@@ -352,10 +360,15 @@ public final class RestartTests {
             int checkPointingRate() {
                 return 0;
             }
+
+			@Override
+			boolean functionalWarming() {
+				return false;
+			}
 		};
 
 		// Not sure how we can override JOpt command line
-		ViserSim.Options = Knobs.parser.parse("--xassert=true --assert-period=1");
+		ViserSim.setOptions(Knobs.parser.parse("--xassert=true --assert-period=1"));
 		ViserSim.setPARSECPhase(PARSEC_PHASE.IN_ROI);
 		assertTrue(ViserSim.XASSERTS);
 		assertEquals(1, ViserSim.Options.valueOf(Knobs.AssertPeriod).intValue());
@@ -379,7 +392,7 @@ public final class RestartTests {
 		Processor<ViserLine> proc1 = machine.getProc(P1);
 		machine.testCacheMemoryWrite(P1, 80L, 2, 80, T1);
 		// deferred
-		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		ViserLine l2Line = proc1.L2cache.getLine(new DataLineAddress(80L));
 		assertEquals(true, l2Line.isDeferredWriteBitSet());
 		assertEquals(1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
@@ -393,11 +406,11 @@ public final class RestartTests {
 		assertEquals(-1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
 		ViserLine l1Line = proc0.L1cache.getLine(new DataLineAddress(80L));
 		assertEquals(80, l1Line.getValue(0), 0);
-		machine.testProcessRegionBoundary(P0, T0, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P0, T0, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		assertEquals(0, proc0.stats.pc_FailedValidations.get(), 0);
 
 		// deferred again
-		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		assertEquals(true, l2Line.isDeferredWriteBitSet());
 		assertEquals(1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
 		assertEquals(84, l2Line.getValue(0), 0);
@@ -409,7 +422,7 @@ public final class RestartTests {
 		Processor<ViserLine> proc1 = machine.getProc(P1);
 		machine.testCacheMemoryWrite(P1, 80L, 2, 80, T1);
 		// deferred
-		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		ViserLine l2Line = proc1.L2cache.getLine(new DataLineAddress(80L));
 		assertEquals(true, l2Line.isDeferredWriteBitSet());
 		assertEquals(1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
@@ -430,11 +443,11 @@ public final class RestartTests {
 		ViserLine l1Line = proc0.L1cache.getLine(new DataLineAddress(80L));
 		assertEquals(80, l1Line.getValue(0), 0);
 
-		machine.testProcessRegionBoundary(P0, T0, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P0, T0, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		assertEquals(0, proc0.stats.pc_FailedValidations.get(), 0);
 
 		// deferred again
-		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		assertEquals(true, l2Line.isDeferredWriteBitSet());
 		assertEquals(1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
 		assertEquals(84, l2Line.getValue(0), 0);
@@ -446,7 +459,7 @@ public final class RestartTests {
 		Processor<ViserLine> proc1 = machine.getProc(P1);
 		machine.testCacheMemoryWrite(P1, 80L, 2, 80, T1);
 		// deferred
-		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		ViserLine l2Line = proc1.L2cache.getLine(new DataLineAddress(80L));
 		assertEquals(true, l2Line.isDeferredWriteBitSet());
 		assertEquals(1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
@@ -471,11 +484,11 @@ public final class RestartTests {
 		ViserLine l1Line = proc0.L1cache.getLine(new DataLineAddress(80L));
 		assertEquals(80, l1Line.getValue(0), 0);
 
-		machine.testProcessRegionBoundary(P0, T0, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P0, T0, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		assertEquals(0, proc0.stats.pc_FailedValidations.get(), 0);
 
 		// deferred again
-		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new LinkedList<Event>(), 0);
+		machine.testProcessRegionBoundary(P1, T1, EventType.LOCK_ACQUIRE, new EventLog(), 0);
 		assertEquals(true, l2Line.isDeferredWriteBitSet());
 		assertEquals(1, proc1.L3cache.getLine(l2Line).getDeferredLineOwnerID(), 0);
 		assertEquals(86, l2Line.getValue(0), 0);
@@ -0,0 +1,110 @@
+package simulator.viser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Sampled runs against full runs of the same small generated traces */
+public final class SamplerTests {
+
+	/** Memory accesses of the traces, and the sampling of their ROI */
+	static final int EVENTS = 60000;
+	static final List<String> SAMPLING = Arrays.asList("--sampling-period=6000", "--sampling-warmup=600",
+			"--sampling-window=1200");
+
+	SimulatorRuns runs;
+
+	@Before
+	public void setUp() throws IOException {
+		runs = new SimulatorRuns("sampler");
+	}
+
+	@After
+	public void tearDown() {
+		runs.delete();
+	}
+
+	Map<String, Double> count(String stats, List<String> args) throws Exception {
+		runs.run(stats, args);
+		return runs.counts(stats);
+	}
+
+	/** Check every sampled estimate against the count of the full run */
+	static void checkEstimates(String what, Map<String, Double> full, Map<String, Double> sampled, boolean exact) {
+		int checked = 0;
+		for (Map.Entry<String, Double> e : sampled.entrySet()) {
+			String name = e.getKey();
+			if (!name.startsWith("sampled_") || name.endsWith("_ci95")) {
+				continue;
+			}
+			String counter = name.substring("sampled_".length());
+			assertTrue(what + ": no " + counter + " in the full run", full.containsKey(counter));
+			double count = full.get(counter);
+			double estimate = e.getValue();
+			double ci = sampled.get(name + "_ci95");
+			if (exact) {
+				assertEquals(what + ": " + counter, count, estimate, 1e-6 * Math.max(1, count));
+				assertEquals(what + ": " + counter + " interval", 0, ci, 0);
+			} else {
+				assertTrue(what + ": " + counter + " is " + count + ", estimated as " + estimate + " +- " + ci,
+						Math.abs(estimate - count) <= ci + 1e-6 * Math.max(1, count));
+			}
+			if (count != 0) {
+				checked++;
+			}
+		}
+		assertTrue(what + ": only " + checked + " counts to check", checked > 10);
+	}
+
+	/**
+	 * Each count of the full run lies within the interval of its estimate. Only a
+	 * handful of windows are taken, and a 95% interval misses now and then; the
+	 * traces are fixed, so the test is repeatable. Cold misses, which the windows
+	 * rarely see at this scale, and the largest of the per-core cycle counts are
+	 * included.
+	 */
+	@Test
+	public void testEstimatesWithinInterval() throws Exception {
+		TraceGenerator.Pattern[] patterns = { TraceGenerator.Pattern.PRIVATE, TraceGenerator.Pattern.MIGRATORY,
+				TraceGenerator.Pattern.LOCK_HEAVY };
+		for (TraceGenerator.Pattern p : patterns) {
+			runs.generate(p, EVENTS, 50, 8, 32, 12);
+			Map<String, Double> full = count("full.py", new ArrayList<String>());
+			Map<String, Double> sampled = count("sampled.py", SAMPLING);
+			assertTrue(p.name, sampled.get("SamplingWindows") >= 8);
+			checkEstimates(p.name, full, sampled, false);
+		}
+	}
+
+	/** An ROI that ends within the first period is simulated and counted in full */
+	@Test
+	public void testShortROIIsExact() throws Exception {
+		runs.generate(TraceGenerator.Pattern.MIGRATORY, EVENTS, 50, 8, 32, 12);
+		Map<String, Double> full = count("full.py", new ArrayList<String>());
+		List<String> args = Arrays.asList("--sampling-period=1000000", "--sampling-warmup=1000",
+				"--sampling-window=1000");
+		Map<String, Double> sampled = count("sampled.py", args);
+		assertEquals(0, sampled.get("SamplingWindows"), 0);
+		checkEstimates("short ROI", full, sampled, true);
+	}
+
+	@Test
+	public void testTScore() {
+		assertEquals(12.706, Sampler.tScore(0.025, 1), 1e-3);
+		assertEquals(4.303, Sampler.tScore(0.025, 2), 1e-3);
+		assertEquals(3.182, Sampler.tScore(0.025, 3), 5e-3);
+		assertEquals(2.306, Sampler.tScore(0.025, 8), 5e-3);
+		assertEquals(2.042, Sampler.tScore(0.025, 30), 5e-3);
+		assertEquals(1.960, Sampler.zScore(0.025), 1e-3);
+		assertEquals(2.576, Sampler.zScore(0.005), 1e-3);
+	}
+}
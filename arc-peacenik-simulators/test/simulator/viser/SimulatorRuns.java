@@ -0,0 +1,177 @@
+package simulator.viser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A temporary directory holding a generated trace, and runs of the simulator
+ * over it for the tests that compare whole runs. The simulator keeps its state
+ * in statics, so every run is a JVM of its own.
+ */
+final class SimulatorRuns {
+
+	static final Pattern STAT = Pattern.compile("'(\\w+)':\\s*([^,}]+)");
+	/** Wall-clock and memory stats, which differ from run to run */
+	static final Pattern UNSTABLE = Pattern.compile("(?i).*(time|MemUsage|mins).*");
+
+	final File dir;
+	final File trace;
+
+	SimulatorRuns(String prefix) throws IOException {
+		dir = Files.createTempDirectory(prefix).toFile();
+		trace = new File(dir, "trace.bin");
+	}
+
+	void delete() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	File file(String name) {
+		return new File(dir, name);
+	}
+
+	/** Write a trace of the pattern for 4 threads, on a pool of 256 lines of 64 bytes */
+	void generate(TraceGenerator.Pattern pattern, long events, int regionLength, int numLocks, int sites, long seed)
+			throws IOException {
+		FileOutputStream fos = new FileOutputStream(trace);
+		try {
+			new TraceGenerator(fos.getChannel(), pattern, 4, events, regionLength, 0.3, 64, 256, numLocks, sites, 4,
+					seed).generate();
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Move the ROI_START record of the trace after that many other records, so the
+	 * caches are warm when the ROI starts.
+	 */
+	void startROIAfter(int records) throws IOException {
+		byte[] bytes = Files.readAllBytes(trace.toPath());
+		int size = TraceReader.RECORD_SIZE;
+		List<byte[]> list = new ArrayList<byte[]>();
+		byte[] roiStart = null;
+		for (int i = 0; i < bytes.length; i += size) {
+			byte[] r = new byte[size];
+			System.arraycopy(bytes, i, r, 0, size);
+			if (r[0] == EventType.ROI_START.asByte()) {
+				roiStart = r;
+			} else {
+				list.add(r);
+			}
+		}
+		assertTrue(roiStart != null && list.size() > 2 * records);
+		list.add(records, roiStart);
+		ByteBuffer out = ByteBuffer.allocate(bytes.length);
+		for (byte[] r : list) {
+			out.put(r);
+		}
+		Files.write(trace.toPath(), out.array());
+	}
+
+	/** Run the main class in a JVM of its own, returning its output once it has exited normally */
+	String fork(Class<?> main, List<String> args) throws IOException, InterruptedException {
+		return fork(main, args, 0);
+	}
+
+	/** Run the main class in a JVM of its own, returning its output once it has exited with the status */
+	String fork(Class<?> main, List<String> args, int status) throws IOException, InterruptedException {
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(main.getName());
+		cmd.addAll(args);
+		Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+		StringBuilder output = new StringBuilder();
+		BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		try {
+			String line;
+			while ((line = r.readLine()) != null) {
+				output.append(line).append('\n');
+			}
+		} finally {
+			r.close();
+		}
+		assertEquals(output.toString(), status, p.waitFor());
+		return output.toString();
+	}
+
+	/** The options of a 4-core run writing the named stats file, but for the trace */
+	List<String> options(String stats, List<String> args) {
+		List<String> options = new ArrayList<String>();
+		options.add("--stats-file=" + file(stats).getPath());
+		options.add("--xasserts=false");
+		options.add("--cores=4");
+		options.addAll(args);
+		return options;
+	}
+
+	/** Run the simulator over the trace, returning its output */
+	String run(String stats, List<String> args) throws IOException, InterruptedException {
+		List<String> options = options(stats, args);
+		options.add("--tosim-fifo=" + trace.getPath());
+		return fork(ViserSim.class, options);
+	}
+
+	/**
+	 * The values of every stat that is stable from run to run, over all the
+	 * per-core and global lines of the stats file
+	 */
+	Map<String, List<String>> stats(String name) throws IOException {
+		Map<String, List<String>> stats = new HashMap<String, List<String>>();
+		BufferedReader r = new BufferedReader(new FileReader(file(name)));
+		try {
+			String line;
+			while ((line = r.readLine()) != null) {
+				Matcher m = STAT.matcher(line);
+				while (m.find()) {
+					if (UNSTABLE.matcher(m.group(1)).matches()) {
+						continue;
+					}
+					List<String> values = stats.get(m.group(1));
+					if (values == null) {
+						values = new ArrayList<String>();
+						stats.put(m.group(1), values);
+					}
+					values.add(m.group(2).trim());
+				}
+			}
+		} finally {
+			r.close();
+		}
+		return stats;
+	}
+
+	/** The last value of every count in the stats file; the global stats come after the per-core ones */
+	Map<String, Double> counts(String name) throws IOException {
+		Map<String, Double> counts = new HashMap<String, Double>();
+		for (Map.Entry<String, List<String>> e : stats(name).entrySet()) {
+			List<String> values = e.getValue();
+			try {
+				counts.put(e.getKey(), Double.valueOf(values.get(values.size() - 1)));
+			} catch (NumberFormatException nfe) {
+				// not a count
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,82 @@
+package simulator.viser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A run that is snapshotted when it enters the ROI and then restored has to end
+ * with the same stats as an uninterrupted run.
+ */
+public final class SnapshotTests {
+
+	/** Records of the trace before the ROI starts */
+	static final int PRE_ROI_RECORDS = 4000;
+
+	SimulatorRuns runs;
+
+	@Before
+	public void setUp() throws IOException {
+		runs = new SimulatorRuns("snapshot");
+	}
+
+	@After
+	public void tearDown() {
+		runs.delete();
+	}
+
+	/**
+	 * Write a trace of the pattern whose ROI starts after PRE_ROI_RECORDS records,
+	 * so the snapshot holds warm caches and epochs rather than an empty machine.
+	 */
+	void generate(TraceGenerator.Pattern pattern) throws IOException {
+		runs.generate(pattern, 8000, 20, 4, 8, 9);
+		runs.startROIAfter(PRE_ROI_RECORDS);
+	}
+
+	void checkRestore(TraceGenerator.Pattern pattern, String... options) throws Exception {
+		generate(pattern);
+		String snapshot = runs.file("roi.snap").getPath();
+		List<String> args = new ArrayList<String>();
+		for (String o : options) {
+			args.add(o);
+		}
+		runs.run("full.py", args);
+
+		List<String> save = new ArrayList<String>(args);
+		save.add("--save-snapshot=" + snapshot);
+		runs.run("saved.py", save);
+		assertTrue(new File(snapshot).length() > 0);
+
+		List<String> restore = new ArrayList<String>(args);
+		restore.add("--restore-snapshot=" + snapshot);
+		String output = runs.run("restored.py", restore);
+		// The snapshot is taken once the ROI_START record has been handled
+		assertTrue(output, output.contains("resuming from snapshot " + snapshot + " after " + (PRE_ROI_RECORDS + 1)));
+
+		Map<String, List<String>> full = runs.stats("full.py");
+		assertTrue(full.containsKey("pc_BandwidthDrivenCycleCount"));
+		assertEquals(full, runs.stats("saved.py"));
+		assertEquals(full, runs.stats("restored.py"));
+	}
+
+	@Test
+	public void testRestore() throws Exception {
+		checkRestore(TraceGenerator.Pattern.MIGRATORY);
+	}
+
+	/** Pausing keeps events of the paused cores buffered across the snapshot */
+	@Test
+	public void testRestoreWithPausing() throws Exception {
+		checkRestore(TraceGenerator.Pattern.RACY, "--pause-cores-at-conflicts=true");
+	}
+}
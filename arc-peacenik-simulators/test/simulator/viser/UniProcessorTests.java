@@ -18,8 +18,8 @@ import simulator.viser.ViserSim.PARSEC_PHASE;
 public final class UniProcessorTests {
 
 	static Machine<ViserLine> machine;
-	static final CpuId P0 = new CpuId(0);
-	static final ThreadId T0 = new ThreadId((byte) 0);
+	static final CpuId P0 = CpuId.of(0);
+	static final ThreadId T0 = ThreadId.of((byte) 0);
 
 	static final int CORES = 1;
 	static final int LINE_SIZE = 4;
@@ -149,7 +149,7 @@ public final class UniProcessorTests {
 						tmp.changeStateTo(l.getState());
 						tmp.setVersion(l.getVersion());
 						tmp.copyAllValues(l);
-						tmp.setLastWriters(l.getLastWriters());
+						tmp.copyLastWriters(l);
 						tmp.setLockOwnerID(l.getLockOwnerID());
 						// We do not update deferred owner id from here.
 						if (level.compareTo(proc.llc()) < 0) { // private line
@@ -163,7 +163,7 @@ public final class UniProcessorTests {
 							tmp.setEpoch(proc.id, proc.getCurrentEpoch());
 						} else {
 							for (int i = 0; i < proc.params.numProcessors(); i++) {
-								CpuId cpuId = new CpuId(i);
+								CpuId cpuId = CpuId.of(i);
 								PerCoreLineMetadata tmpMd = l.getPerCoreMetadata(cpuId);
 								// We do not bother with epoch here, since it should be taken care of
 								// automatically
@@ -224,6 +224,16 @@ public final class UniProcessorTests {
 				return true;
 			}
 
+			@Override
+			int bloomFilterBits() {
+				return BloomFilter.DEFAULT_NUM_BITS;
+			}
+
+			@Override
+			int bloomFilterHashFuncs() {
+				return BloomFilter.DEFAULT_NUM_HASH_FUNCS;
+			}
+
 			@Override
 			boolean useAIMCache() {
 				return false; // Reduce the default AIM cache size before setting this to true
@@ -343,10 +353,15 @@ public final class UniProcessorTests {
 			int checkPointingRate() {
 				return 0;
 			}
+
+			@Override
+			boolean functionalWarming() {
+				return false;
+			}
 		};
 
 		// Not sure how we can override JOpt command line
-		ViserSim.Options = Knobs.parser.parse("--xassert=true --assert-period=1");
+		ViserSim.setOptions(Knobs.parser.parse("--xassert=true --assert-period=1"));
 		ViserSim.setPARSECPhase(PARSEC_PHASE.IN_ROI);
 		assertTrue(ViserSim.XASSERTS);
 		assertEquals(1, ViserSim.Options.valueOf(Knobs.AssertPeriod).intValue());
@@ -0,0 +1,100 @@
+package simulator.viser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Functional warming of the pre-ROI part of a generated trace against the
+ * detailed simulation of the same part.
+ */
+public final class WarmingTests {
+
+	/** Records of the trace before the ROI starts, which touch every line of its pool */
+	static final int PRE_ROI_RECORDS = 10000;
+	static final List<String> WARMING = Arrays.asList("--functional-warming=true");
+	/** Counts of the ROI that have to be within TOLERANCE of the detailed run */
+	static final List<String> CLOSE = Arrays.asList("max_BandwidthDrivenCycleCount", "g_Data_L1ReadMisses",
+			"g_Data_L1WriteMisses", "g_Data_L3ReadHits", "g_Data_L3WriteHits", "g_ConflictCheckAttempts");
+	static final double TOLERANCE = 0.02;
+
+	SimulatorRuns runs;
+
+	@Before
+	public void setUp() throws IOException {
+		runs = new SimulatorRuns("warming");
+	}
+
+	@After
+	public void tearDown() {
+		runs.delete();
+	}
+
+	void generate(boolean preROI) throws IOException {
+		runs.generate(TraceGenerator.Pattern.MIGRATORY, 20000, 20, 4, 16, 5);
+		if (preROI) {
+			runs.startROIAfter(PRE_ROI_RECORDS);
+		}
+	}
+
+	Map<String, Double> count(String stats, List<String> args) throws Exception {
+		runs.run(stats, args);
+		return runs.counts(stats);
+	}
+
+	/** A count that is not in the stats file is zero */
+	static double get(Map<String, Double> counts, String name) {
+		Double c = counts.get(name);
+		return (c == null) ? 0 : c;
+	}
+
+	static double llcMisses(Map<String, Double> counts) {
+		return get(counts, "g_Data_L3ReadMisses") + get(counts, "g_Data_L3WriteMisses");
+	}
+
+	/** The lines warmed before the ROI are in the LLC when the ROI accesses them */
+	@Test
+	public void testWarmedLinesHitInLLC() throws Exception {
+		generate(false);
+		Map<String, Double> cold = count("cold.py", WARMING);
+		assertTrue(cold.toString(), llcMisses(cold) > 0);
+
+		generate(true);
+		Map<String, Double> warm = count("warm.py", WARMING);
+		assertTrue(warm.toString(), get(warm, "g_Data_L3ReadHits") > 0);
+		assertEquals(warm.toString(), 0, llcMisses(warm), 0);
+	}
+
+	/** Warming leaves the ROI with about the stats of simulating its prefix in detail */
+	@Test
+	public void testCloseToDetailedRun() throws Exception {
+		generate(true);
+		Map<String, Double> detailed = count("detailed.py", Collections.<String> emptyList());
+		Map<String, Double> warm = count("warm.py", WARMING);
+		assertEquals(get(detailed, "g_TotalMemoryAccesses"), get(warm, "g_TotalMemoryAccesses"), 0);
+		assertEquals(get(detailed, "g_RegionBoundaries"), get(warm, "g_RegionBoundaries"), 0);
+		assertEquals(llcMisses(detailed), llcMisses(warm), 0);
+		for (String name : CLOSE) {
+			double count = get(detailed, name);
+			assertTrue(name + " is " + count, count > 0);
+			assertEquals(name, count, get(warm, name), TOLERANCE * count);
+		}
+	}
+
+	@Test
+	public void testOffByDefault() throws Exception {
+		generate(true);
+		runs.run("default.py", Collections.<String> emptyList());
+		runs.run("off.py", Arrays.asList("--functional-warming=false"));
+		assertEquals(runs.stats("default.py"), runs.stats("off.py"));
+	}
+}
@@ -0,0 +1,160 @@
+package simulator.mesi;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * One set of a HierarchicalCache. The lines of the set sit in fixed ways, and
+ * the line address of each way is kept in a flat tag array, so a lookup
+ * compares tags instead of chasing list nodes. The recency order is kept
+ * explicitly as way numbers ordered from MRU (position 0) to LRU (position
+ * size()-1), and moving a line to the MRU spot just shifts that small array.
+ *
+ * Lines are addressed by their position in the recency order, like the list
+ * each set used to be. Under PLRU the lines are only ever replaced in place, so
+ * position i is way i and corresponds to bit i of the MRU bits of the set.
+ */
+final class CacheSet<Line extends MESILine> implements Iterable<Line> {
+
+	/** Tag of a line without an address */
+	private static final long NO_TAG = -1L;
+
+	private final Line[] ways;
+	/** Line address of each way */
+	private final long[] tags;
+	/** Ways ordered from MRU to LRU */
+	private final int[] order;
+
+	@SuppressWarnings("unchecked")
+	CacheSet(int assoc) {
+		ways = (Line[]) new MESILine[assoc];
+		tags = new long[assoc];
+		order = new int[assoc];
+		for (int i = 0; i < assoc; i++) {
+			order[i] = i;
+			tags[i] = NO_TAG;
+		}
+	}
+
+	private static long tagOf(MESILine l) {
+		return (l.lineAddress() == null) ? NO_TAG : l.lineAddress().get();
+	}
+
+	public int size() {
+		return ways.length;
+	}
+
+	public Line get(int pos) {
+		return ways[order[pos]];
+	}
+
+	public Line getFirst() {
+		return ways[order[0]];
+	}
+
+	public Line getLast() {
+		return ways[order[ways.length - 1]];
+	}
+
+	/** Return true if the line at the given position is a valid copy of lineAddr. */
+	public boolean holds(int pos, long lineAddr) {
+		int way = order[pos];
+		return tags[way] == lineAddr && ways[way].valid();
+	}
+
+	/** Return the position of the valid line for lineAddr, or -1 on a miss. */
+	public int find(long lineAddr) {
+		for (int pos = 0; pos < order.length; pos++) {
+			if (holds(pos, lineAddr)) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the position of the first line tagged with lineAddr, valid or not, or
+	 * -1 if there is none.
+	 */
+	public int findTag(long lineAddr) {
+		for (int pos = 0; pos < order.length; pos++) {
+			if (tags[order[pos]] == lineAddr) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	/** Return the valid line for lineAddr, or null on a miss. */
+	public Line getValid(long lineAddr) {
+		int pos = find(lineAddr);
+		return (pos < 0) ? null : get(pos);
+	}
+
+	/** Return the position of this very line object, or -1. */
+	public int indexOf(Line l) {
+		for (int pos = 0; pos < order.length; pos++) {
+			if (ways[order[pos]] == l) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	/** Put a line at the given position, keeping the recency order. */
+	public void set(int pos, Line l) {
+		int way = order[pos];
+		ways[way] = l;
+		tags[way] = tagOf(l);
+	}
+
+	/** Move the line at the given position to the MRU spot. */
+	public void promote(int pos) {
+		int way = order[pos];
+		System.arraycopy(order, 0, order, 1, pos);
+		order[0] = way;
+	}
+
+	/** Replace toEvict by incoming, which becomes the MRU line. */
+	public void replaceAndPromote(Line toEvict, Line incoming) {
+		int pos = indexOf(toEvict);
+		assert pos >= 0;
+		set(pos, incoming);
+		promote(pos);
+	}
+
+	/** Replace the line at the given position by incoming, which becomes the LRU line. */
+	public void replaceAndDemote(int pos, Line incoming) {
+		int way = order[pos];
+		System.arraycopy(order, pos + 1, order, pos, order.length - pos - 1);
+		order[order.length - 1] = way;
+		ways[way] = incoming;
+		tags[way] = tagOf(incoming);
+	}
+
+	/** Iterate over the lines from MRU to LRU. */
+	@Override
+	public Iterator<Line> iterator() {
+		return new Iterator<Line>() {
+			private int pos = 0;
+
+			@Override
+			public boolean hasNext() {
+				return pos < order.length;
+			}
+
+			@Override
+			public Line next() {
+				if (pos >= order.length) {
+					throw new NoSuchElementException();
+				}
+				return ways[order[pos++]];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -1,7 +1,5 @@
 package simulator.mesi;
 
-import simulator.mesi.MESISim.PARSEC_PHASE;
-
 public class Conflict {
 	// site0
 	short fileNumber0;
@@ -42,7 +40,7 @@ public class Conflict {
 	}
 
 	public void inc() {
-		if (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI && allowCounting) {
+		if (!MESISim.modelOnlyROI() || Counter.counting() && allowCounting) {
 			counter++;
 			allowCounting = false;
 		}
@@ -59,6 +57,10 @@ public class Conflict {
 		allowCounting = true;
 	}
 
+	public boolean isCountingAllowed() {
+		return allowCounting;
+	}
+
 	public double getCounter() {
 		return counter;
 	}
@@ -1,11 +1,11 @@
 package simulator.mesi;
 
-import simulator.mesi.MESISim.PARSEC_PHASE;
-
 public abstract class Counter {
 	protected CpuId cpuid;
-	protected double stat;
 	protected String name;
+	/** The stat block of the core, and the slot of this counter in it */
+	double[] block;
+	int slot;
 
 	/**
 	 * Each counter is associated with a CPU. New Counters are associated with
@@ -16,10 +16,26 @@ public abstract class Counter {
 	 */
 	public static CpuId currentCpu;
 
+	/**
+	 * Whether increments are counted. Only the ROI is counted if only the ROI is
+	 * modeled; the switch is flipped when the phase changes (see
+	 * MESISim.setPhase()) rather than checked on every increment.
+	 */
+	private static boolean counting = true;
+
 	Counter(CpuId cpu, String n) {
 		assert currentCpu != null;
 		this.cpuid = currentCpu;
 		this.name = n;
+		StatBlock.of(cpuid).add(this);
+	}
+
+	public static boolean counting() {
+		return counting;
+	}
+
+	static void setCounting(boolean c) {
+		counting = c;
 	}
 
 	public String name() {
@@ -27,28 +43,28 @@ public abstract class Counter {
 	}
 
 	public double get() {
-		return stat;
+		return block[slot];
 	}
 
 	public void set(double v) {
-		stat = v;
+		block[slot] = v;
 	}
 
 	public void incr() {
-		if (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
-			stat++;
+		if (counting) {
+			block[slot]++;
 		}
 	}
 
 	public void incr(double a) {
-		if (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
-			stat += a;
+		if (counting) {
+			block[slot] += a;
 		}
 	}
 
 	public void incr(double a, boolean forceInc) {
-		if (forceInc || !MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
-			stat += a;
+		if (forceInc || counting) {
+			block[slot] += a;
 			if (a < 0) {
 				System.out.println(name + " incr " + a);
 				System.exit(-177);
@@ -1,9 +1,10 @@
 package simulator.mesi;
 
 public class Event {
-	final EventType type;
-	final EventType semantics;
-	final ThreadId tid;
+	// Not final, so that an EventLog can replay its events through one Event
+	EventType type;
+	EventType semantics;
+	ThreadId tid;
 	long addr;
 	byte memOpSize;
 	boolean stackRef;
@@ -14,7 +15,7 @@ public class Event {
 	Event(EventType typ, EventType semantics, byte tid) {
 		this.type = typ;
 		this.semantics = semantics;
-		this.tid = new ThreadId(tid);
+		this.tid = ThreadId.of(tid);
 	}
 
 	boolean isRegionBoundary() {
@@ -0,0 +1,171 @@
+package simulator.mesi;
+
+/**
+ * The per-core log of events that a core may have to replay, i.e., the events
+ * of a paused core and the events of the current region under region restart.
+ *
+ * The fields of the events are kept in a ring of parallel primitive arrays, so
+ * the log holds no Event objects and adding or removing an event at either end
+ * is O(1). The arrays grow when the log is full and are reused across regions.
+ * Positions passed to get() and discardFirst() count from the oldest event in
+ * the log.
+ *
+ * Replayed events are returned in one Event per log, which the next get() or
+ * pollFirst() overwrites, so replaying does not allocate. Callers handle an
+ * event before they take the next one from the same log; add() and addFirst()
+ * copy the event, so the returned one can be put back.
+ */
+final class EventLog {
+
+	private static final int MIN_CAPACITY = 64;
+
+	private EventType[] type;
+	private EventType[] semantics;
+	private byte[] tid;
+	private long[] addr;
+	private byte[] memOpSize;
+	private boolean[] stackRef;
+	private long[] value;
+	private int[] insnCount;
+	private int[] siteIndex;
+
+	/** The event returned by get() and pollFirst() */
+	private Event replayed;
+
+	/** Slot of the oldest event */
+	private int head = 0;
+	private int size = 0;
+	private int mask;
+
+	EventLog() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		type = new EventType[capacity];
+		semantics = new EventType[capacity];
+		tid = new byte[capacity];
+		addr = new long[capacity];
+		memOpSize = new byte[capacity];
+		stackRef = new boolean[capacity];
+		value = new long[capacity];
+		insnCount = new int[capacity];
+		siteIndex = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Append an event at the end of the log. */
+	public void add(Event e) {
+		if (size == type.length) {
+			grow();
+		}
+		store((head + size) & mask, e);
+		size++;
+	}
+
+	/** Put an event at the front of the log, so it is the next one replayed. */
+	public void addFirst(Event e) {
+		if (size == type.length) {
+			grow();
+		}
+		head = (head - 1) & mask;
+		store(head, e);
+		size++;
+	}
+
+	/** Return the event at position i, in the Event of this log (see above). */
+	public Event get(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Position " + i + " in an event log of size " + size);
+		}
+		return load((head + i) & mask);
+	}
+
+	/** Remove and return the oldest event, in the Event of this log. */
+	public Event pollFirst() {
+		Event e = get(0);
+		discardFirst(1);
+		return e;
+	}
+
+	/** Drop the oldest n events. */
+	public void discardFirst(int n) {
+		if (n < 0 || n > size) {
+			throw new IndexOutOfBoundsException("Discarding " + n + " events from an event log of size " + size);
+		}
+		head = (head + n) & mask;
+		size -= n;
+	}
+
+	public void clear() {
+		discardFirst(size);
+		head = 0;
+	}
+
+	private void store(int slot, Event e) {
+		type[slot] = e.type;
+		semantics[slot] = e.semantics;
+		tid[slot] = (byte) e.tid.get();
+		addr[slot] = e.addr;
+		memOpSize[slot] = e.memOpSize;
+		stackRef[slot] = e.stackRef;
+		value[slot] = e.value;
+		insnCount[slot] = e.insnCount;
+		siteIndex[slot] = e.siteIndex;
+	}
+
+	private Event load(int slot) {
+		Event e = replayed;
+		if (e == null) {
+			e = replayed = new Event(type[slot], semantics[slot], tid[slot]);
+		} else {
+			e.type = type[slot];
+			e.semantics = semantics[slot];
+			e.tid = ThreadId.of(tid[slot]);
+		}
+		e.addr = addr[slot];
+		e.memOpSize = memOpSize[slot];
+		e.stackRef = stackRef[slot];
+		e.value = value[slot];
+		e.insnCount = insnCount[slot];
+		e.siteIndex = siteIndex[slot];
+		return e;
+	}
+
+	/** Double the capacity, moving the events to the start of the new arrays. */
+	private void grow() {
+		EventType[] oldType = type;
+		EventType[] oldSemantics = semantics;
+		byte[] oldTid = tid;
+		long[] oldAddr = addr;
+		byte[] oldMemOpSize = memOpSize;
+		boolean[] oldStackRef = stackRef;
+		long[] oldValue = value;
+		int[] oldInsnCount = insnCount;
+		int[] oldSiteIndex = siteIndex;
+		int oldMask = mask;
+
+		allocate(oldType.length << 1);
+		for (int i = 0; i < size; i++) {
+			int from = (head + i) & oldMask;
+			type[i] = oldType[from];
+			semantics[i] = oldSemantics[from];
+			tid[i] = oldTid[from];
+			addr[i] = oldAddr[from];
+			memOpSize[i] = oldMemOpSize[from];
+			stackRef[i] = oldStackRef[from];
+			value[i] = oldValue[from];
+			insnCount[i] = oldInsnCount[from];
+			siteIndex[i] = oldSiteIndex[from];
+		}
+		head = 0;
+	}
+}
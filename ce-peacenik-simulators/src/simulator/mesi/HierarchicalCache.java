@@ -1,21 +1,17 @@
 package simulator.mesi;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 
 interface CacheCallbacks<Line extends MESILine> {
 	/**
 	 * Called whenever a line needs to be evicted.
 	 * 
-	 * @param set   the set from which we need to evict something; the list is
-	 *              ordered from MRU (front) to LRU (back).
+	 * @param set   the set from which we need to evict something; its positions
+	 *              are ordered from MRU (first) to LRU (last).
 	 * @param level the level of the cache where the eviction is happening
 	 * @return the line to evict
 	 */
-	Line eviction(final Line incoming, final LinkedList<Line> set, CacheLevel level, short bits);
+	Line eviction(final Line incoming, final CacheSet<Line> set, CacheLevel level, short bits);
 }
 
 class CacheConfiguration<Line extends MESILine> {
@@ -37,6 +33,12 @@ class MemoryResponse<Line extends MESILine> {
 	public Line lineHit;
 	public int ceNumReturnDataBytes;
 
+	void reset() {
+		whereHit = null;
+		lineHit = null;
+		ceNumReturnDataBytes = 0;
+	}
+
 	@Override
 	public String toString() {
 		return whereHit.toString() + " " + String.valueOf(lineHit);
@@ -57,10 +59,15 @@ public class HierarchicalCache<Line extends MESILine> {
 	protected long indexMask;
 	protected short assocMask;
 
-	protected List<LinkedList<Line>> sets;
+	protected CacheSet<Line>[] sets;
 	protected short[] MRUBits;
 	protected CacheCallbacks<Line> callbacks;
 	protected LineFactory<Line> lineFactory;
+	/**
+	 * The response of request(), reused by every request. Each core makes one
+	 * request at a time, and a request visits each cache once.
+	 */
+	private final MemoryResponse<Line> response = new MemoryResponse<Line>();
 
 	/**
 	 * The next higher-level cache in the hierarchy. Can be shared by multiple
@@ -210,16 +217,18 @@ public class HierarchicalCache<Line extends MESILine> {
 		indexBits = (short) BitTwiddle.floorLog2(numSets);
 		lineOffsetBits = (short) BitTwiddle.floorLog2(thisConfig.lineSize);
 
-		sets = new ArrayList<LinkedList<Line>>(numSets);
+		@SuppressWarnings("unchecked")
+		CacheSet<Line>[] tmpSets = new CacheSet[numSets];
+		sets = tmpSets;
 		MRUBits = new short[numSets];
 
 		for (int i = 0; i < numSets; i++) {
-			LinkedList<Line> set = new LinkedList<Line>();
+			CacheSet<Line> set = new CacheSet<Line>(thisConfig.assoc);
 			for (int j = 0; j < thisConfig.assoc; j++) {
 				Line line = lineFactory.create(processor.id, levelInHierarchy);
-				set.add(line);
+				set.set(j, line);
 			}
-			sets.add(set);
+			sets[i] = set;
 			MRUBits[i] = 0;
 		}
 
@@ -240,26 +249,26 @@ public class HierarchicalCache<Line extends MESILine> {
 	 */
 	public MemoryResponse<Line> request(Processor<Line> proc, final ByteAddress address, boolean read) {
 		int setIndex = index(address.get());
-		LinkedList<Line> set = sets.get(setIndex);
+		CacheSet<Line> set = sets[setIndex];
 		assert set.size() == assoc;
 
-		MemoryResponse<Line> ret = new MemoryResponse<Line>();
+		MemoryResponse<Line> ret = response;
+		ret.reset();
 
 		// search this cache
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-
-			if (line.valid() && line.contains(address)) {
+		final long requestedLine = address.lineAddressBits();
+		for (int pos = 0; pos < set.size(); pos++) {
+			if (set.holds(pos, requestedLine)) {
+				Line line = set.get(pos);
 				// hit! move this line to the mru spot
 				if (levelInHierarchy == CacheLevel.L1) {
 					assert line.getState() != MESIState.MESI_INVALID;
 					// hit!
 					if (proc.params.usePLRU()) {
 						setMRUBit(line, read);
-					} else if (line != set.getFirst()) {
+					} else if (pos != 0) {
 						// move this line to the mru spot
-						it.remove();
-						set.addFirst(line);
+						set.promote(pos);
 						assert line == set.getFirst();
 					}
 					ret.lineHit = line;
@@ -286,7 +295,7 @@ public class HierarchicalCache<Line extends MESILine> {
 								// table
 								// and the corresponding supplied bit is set
 								if (i != proc.id.get()) {
-									CpuId cpuID = new CpuId(i);
+									CpuId cpuID = CpuId.of(i);
 									Processor<Line> p = proc.machine.getProc(cpuID);
 									CEGlobalTableValue val = md.getPerCoreMetadata(p);
 									assert val.regionID <= p.getCurrentEpoch().getRegionId();
@@ -354,7 +363,7 @@ public class HierarchicalCache<Line extends MESILine> {
 				int numReturnBytes = 0;
 				if (md != null) {
 					for (int i = 0; i < proc.params.numProcessors(); i++) {
-						CpuId id = new CpuId(i);
+						CpuId id = CpuId.of(i);
 						Processor<Line> p = proc.machine.getProc(id);
 						// There is no need to account for extra traffic if the outOfCache bit is not
 						// set. Seems unfair.
@@ -408,11 +417,10 @@ public class HierarchicalCache<Line extends MESILine> {
 				set.set(lineIndex, insert);
 				setMRUBit(insert, read);
 			} else {
-				boolean found = set.remove(toEvict);
-				assert found;
 				// NB: only push in the incoming line *after* we've evicted something
-				set.addFirst(insert);
+				set.replaceAndPromote(toEvict, insert);
 			}
+			updateSharers(proc, toEvict, insert);
 			ret.lineHit = insert;
 
 			if (nextCache != null) {
@@ -486,11 +494,10 @@ public class HierarchicalCache<Line extends MESILine> {
 				set.set(lineIndex, insert);
 				setMRUBit(insert, read);
 			} else {
-				boolean found = set.remove(toEvict);
-				assert found;
 				// NB: only push in the incoming line *after* we've evicted something
-				set.addFirst(insert);
+				set.replaceAndPromote(toEvict, insert);
 			}
+			updateSharers(proc, toEvict, insert);
 
 			if (nextCache != null) {
 				nextCache.evictedFromHigherCache(proc, toEvict);
@@ -505,7 +512,7 @@ public class HierarchicalCache<Line extends MESILine> {
 
 			LineAddress la = address.lineAddress();
 
-			set = sets.get(index(la.get()));
+			set = sets[index(la.get())];
 			Line toEvict = callbacks.eviction(ret.lineHit, set, levelInHierarchy, MRUBits[setIndex]);
 
 			// Check if the same line is in higher-level caches. If yes, then the line
@@ -526,10 +533,8 @@ public class HierarchicalCache<Line extends MESILine> {
 				set.set(lineIndex, ret.lineHit);
 				setMRUBit(ret.lineHit, read);
 			} else {
-				boolean found = set.remove(toEvict);
-				assert found;
 				// NB: add the incoming line *after* the eviction handler runs
-				set.addFirst(ret.lineHit);
+				set.replaceAndPromote(toEvict, ret.lineHit);
 			}
 
 		} else {
@@ -540,6 +545,28 @@ public class HierarchicalCache<Line extends MESILine> {
 
 	} // end request()
 
+	/**
+	 * Keep the sharer directory in step with a fill of this private cache, where
+	 * incoming took the place of evicted.
+	 */
+	private void updateSharers(Processor<Line> proc, Line evicted, Line incoming) {
+		long incomingAddr = incoming.lineAddress().get();
+		proc.machine.sharers.add(incomingAddr, proc.id.get());
+		if (evicted.lineAddress() != null) {
+			long evictedAddr = evicted.lineAddress().get();
+			// The other private cache, or another way of this one, may still hold the tag
+			if (evictedAddr != incomingAddr && !proc.L1cache.holdsTag(evictedAddr)
+					&& (proc.L2cache == null || !proc.L2cache.holdsTag(evictedAddr))) {
+				proc.machine.sharers.remove(evictedAddr, proc.id.get());
+			}
+		}
+	}
+
+	/** Return true if some line of this cache, valid or not, has the given address. */
+	boolean holdsTag(long lineAddr) {
+		return sets[index(lineAddr)].findTag(lineAddr) >= 0;
+	}
+
 	/**
 	 * Iterate over all processors and remove the line {@code toEvict} from all
 	 * private L1/L2 caches. This method is called from L3.
@@ -553,14 +580,14 @@ public class HierarchicalCache<Line extends MESILine> {
 
 		for (Processor<Line> p : processor.allProcessors) {
 			HashSet<Long> evictedL1Lines = new HashSet<>();
-			LinkedList<Line> set = p.L1cache.sets.get(p.L1cache.index(toEvict.lineAddress().get()));
+			CacheSet<Line> set = p.L1cache.sets[p.L1cache.index(toEvict.lineAddress().get())];
 
 			// search this cache
 			boolean foundL1 = false, foundL2 = false;
 
-			for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-				MESILine line = it.next();
-				if (line.valid() && line.lineAddress().get() == toEvict.lineAddress().get()) {
+			for (int pos = 0; pos < set.size(); pos++) {
+				if (set.holds(pos, toEvict.lineAddress().get())) {
+					MESILine line = set.get(pos);
 					if (line.getState() == MESIState.MESI_MODIFIED) {
 						modified = true;
 					}
@@ -603,11 +630,11 @@ public class HierarchicalCache<Line extends MESILine> {
 			// For this processor p, line toEvict was present in the L1, so it should be
 			// present in L2 as well.
 			// Even otherwise, we need to check the L2.
-			set = p.L2cache.sets.get(p.L2cache.index(toEvict.lineAddress().get()));
+			set = p.L2cache.sets[p.L2cache.index(toEvict.lineAddress().get())];
 
-			for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-				MESILine line = it.next();
-				if (line.valid() && line.lineAddress().get() == toEvict.lineAddress().get()) {
+			for (int pos = 0; pos < set.size(); pos++) {
+				if (set.holds(pos, toEvict.lineAddress().get())) {
+					MESILine line = set.get(pos);
 					if (line.getState() == MESIState.MESI_MODIFIED) {
 						modified = true;
 					}
@@ -690,12 +717,12 @@ public class HierarchicalCache<Line extends MESILine> {
 	private void recallFromL1Cache(Processor<Line> proc, Line toEvict) {
 		assert levelInHierarchy == CacheLevel.L2 && toEvict.valid();
 
-		LinkedList<Line> set = processor.L1cache.sets.get(processor.L1cache.index(toEvict.lineAddress().get()));
+		CacheSet<Line> set = processor.L1cache.sets[processor.L1cache.index(toEvict.lineAddress().get())];
 		assert set.size() == processor.L1cache.assoc;
 		// search this cache
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			MESILine line = it.next();
-			if (line.valid() && line.lineAddress().get() == toEvict.lineAddress().get()) {
+		for (int pos = 0; pos < set.size(); pos++) {
+			if (set.holds(pos, toEvict.lineAddress().get())) {
+				MESILine line = set.get(pos);
 				assert ((MESILine) toEvict).getState() == line.getState();
 				assert ((MESILine) toEvict).dirty() == line.dirty();
 				if (proc.params.conflictExceptions()) {
@@ -729,16 +756,8 @@ public class HierarchicalCache<Line extends MESILine> {
 
 	/** Just get the corresponding line, from any cache. */
 	public Line getLine(LineAddress addr) {
-		LinkedList<Line> set = sets.get(index(addr.get()));
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid()) {
-				if (line.lineAddress().get() == addr.get()) {
-					return line;
-				}
-			}
-		}
-		return null;
+		CacheSet<Line> set = sets[index(addr.get())];
+		return set.getValid(addr.get());
 	}
 
 	/**
@@ -758,25 +777,24 @@ public class HierarchicalCache<Line extends MESILine> {
 
 	private MemoryResponse<Line> __search(final ByteAddress address, final boolean reorderSet) {
 		MemoryResponse<Line> ret = new MemoryResponse<Line>();
-		final LinkedList<Line> set = sets.get(index(address.get()));
+		final CacheSet<Line> set = sets[index(address.get())];
 
 		// search this cache
-		for (Line l : set) {
-			if (l.valid() && l.contains(address)) {
-				// hit!
-				ret.lineHit = l;
-				ret.whereHit = levelInHierarchy;
-
-				if (reorderSet) {
-					if (processor.params.usePLRU()) {
-						setMRUBit(l, true);
-					} else {
-						set.remove(l);
-						set.addFirst(l);
-					}
+		int lineIndex = set.find(address.lineAddress().get());
+		if (lineIndex >= 0) {
+			Line l = set.get(lineIndex);
+			// hit!
+			ret.lineHit = l;
+			ret.whereHit = levelInHierarchy;
+
+			if (reorderSet) {
+				if (processor.params.usePLRU()) {
+					setMRUBit(l, true);
+				} else {
+					set.promote(lineIndex);
 				}
-				return ret;
 			}
+			return ret;
 		}
 
 		// at this point, we missed in this cache
@@ -799,26 +817,25 @@ public class HierarchicalCache<Line extends MESILine> {
 
 	private MemoryResponse<Line> __ceSearchPrivateCaches(final ByteAddress address, final boolean reorderSet) {
 		MemoryResponse<Line> ret = new MemoryResponse<Line>();
-		final LinkedList<Line> set = sets.get(index(address.get()));
+		final CacheSet<Line> set = sets[index(address.get())];
 
 		// search this cache
-		for (Line l : set) {
-			// CE: IMP: It does not matter if the line is invalid
-			if (l.lineAddress() != null && l.contains(address)) {
-				// hit!
-				ret.lineHit = l;
-				ret.whereHit = levelInHierarchy;
-
-				if (reorderSet) {
-					if (processor.params.usePLRU()) {
-						setMRUBit(l, true);
-					} else {
-						set.remove(l);
-						set.addFirst(l);
-					}
+		// CE: IMP: It does not matter if the line is invalid
+		int lineIndex = set.findTag(address.lineAddress().get());
+		if (lineIndex >= 0) {
+			Line l = set.get(lineIndex);
+			// hit!
+			ret.lineHit = l;
+			ret.whereHit = levelInHierarchy;
+
+			if (reorderSet) {
+				if (processor.params.usePLRU()) {
+					setMRUBit(l, true);
+				} else {
+					set.promote(lineIndex);
 				}
-				return ret;
 			}
+			return ret;
 		}
 
 		// at this point, we missed in this cache
@@ -843,7 +860,7 @@ public class HierarchicalCache<Line extends MESILine> {
 	 * traversed in no particular order.
 	 */
 	public void visitAllLines(LineVisitor<Line> lv) {
-		for (LinkedList<Line> set : sets) {
+		for (CacheSet<Line> set : sets) {
 			for (Line l : set) {
 				lv.visit(l);
 			}
@@ -852,8 +869,8 @@ public class HierarchicalCache<Line extends MESILine> {
 
 	/** Verify that each line is indexed into the proper set. */
 	public void verifyIndices() {
-		for (int i = 0; i < sets.size(); i++) {
-			LinkedList<Line> set = sets.get(i);
+		for (int i = 0; i < sets.length; i++) {
+			CacheSet<Line> set = sets[i];
 			for (Line l : set) {
 				if (l.lineAddress() != null) {
 					assert index(l.lineAddress().get()) == i;
@@ -869,7 +886,7 @@ public class HierarchicalCache<Line extends MESILine> {
 			s.append(this.processor + "\n");
 		}
 		s.append("cache=" + this.levelInHierarchy + System.getProperty("line.separator"));
-		for (LinkedList<Line> set : sets) {
+		for (CacheSet<Line> set : sets) {
 			for (Line l : set) {
 				s.append(l.toString() + "\n");
 			}
@@ -884,7 +901,7 @@ public class HierarchicalCache<Line extends MESILine> {
 
 	public void setMRUBit(Line cacheLine, boolean read) {
 		int setIndex = index(cacheLine.lineAddress().get());
-		LinkedList<Line> set = sets.get(setIndex);
+		CacheSet<Line> set = sets[setIndex];
 		short bits = MRUBits[setIndex];
 		int lineIndex = set.indexOf(cacheLine);
 		if (lineIndex < 0) {
@@ -933,15 +950,8 @@ public class HierarchicalCache<Line extends MESILine> {
 	// the line should still be valid when this function is called
 	public void resetMRUBit(Line toInvalidate) {
 		int setIndex = index(toInvalidate.lineAddress().get());
-		List<Line> set = sets.get(setIndex);
-		int lineIndex = -1;
-		for (Iterator<Line> it = set.iterator(); it.hasNext();) {
-			Line line = it.next();
-			if (line.valid() && line.lineAddress().get() == toInvalidate.lineAddress().get()) {
-				lineIndex = set.indexOf(line);
-				break;
-			}
-		}
+		CacheSet<Line> set = sets[setIndex];
+		int lineIndex = set.find(toInvalidate.lineAddress().get());
 		if (lineIndex == -1) {
 			System.out.println("Can't find the line to reset MRU bit");
 			System.exit(-1);
@@ -6,20 +6,43 @@ package simulator.mesi;
  * instead of treating them all as ints/longs.
  */
 
-/** Tracks CPU id's */
+/**
+ * Tracks CPU id's. Ids are interned, so use of() instead of allocating a new
+ * CpuId for every lookup.
+ */
 class CpuId {
+	/** Ids 0..CACHED_IDS-1 have a canonical instance */
+	private static final int CACHED_IDS = 256;
+	private static final CpuId[] cache = new CpuId[CACHED_IDS];
+
+	static {
+		for (int i = 0; i < CACHED_IDS; i++) {
+			cache[i] = new CpuId(i);
+		}
+	}
+
 	private final short cpuid;
 
-	public CpuId(int id) {
+	private CpuId(int id) {
 		cpuid = (short) id;
 	}
 
+	public static CpuId of(int id) {
+		if (id >= 0 && id < CACHED_IDS) {
+			return cache[id];
+		}
+		return new CpuId(id);
+	}
+
 	public short get() {
 		return cpuid;
 	}
 
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
 		if (o instanceof CpuId) {
 			CpuId other = (CpuId) o;
 			return this.cpuid == other.cpuid;
@@ -38,14 +61,34 @@ class CpuId {
 	}
 }
 
-/** Tracks thread id's */
+/**
+ * Tracks thread id's. Ids are interned, so use of() instead of allocating a new
+ * ThreadId for every event.
+ */
 class ThreadId {
+	/** Ids 0..CACHED_IDS-1 have a canonical instance */
+	private static final int CACHED_IDS = 256;
+	private static final ThreadId[] cache = new ThreadId[CACHED_IDS];
+
+	static {
+		for (int i = 0; i < CACHED_IDS; i++) {
+			cache[i] = new ThreadId(i);
+		}
+	}
+
 	private final short tid;
 
-	public ThreadId(int id) {
+	private ThreadId(int id) {
 		tid = (short) id;
 	}
 
+	public static ThreadId of(int id) {
+		if (id >= 0 && id < CACHED_IDS) {
+			return cache[id];
+		}
+		return new ThreadId(id);
+	}
+
 	public short get() {
 		return tid;
 	}
@@ -56,6 +99,9 @@ class ThreadId {
 
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
 		if (o instanceof ThreadId) {
 			ThreadId other = (ThreadId) o;
 			return this.tid == other.tid;
@@ -86,6 +132,15 @@ abstract class ByteAddress {
 		return this.addr;
 	}
 
+	public void set(long a) {
+		this.addr = a;
+	}
+
+	/** Return the address of the line holding this byte, without making a LineAddress. */
+	public long lineAddressBits() {
+		return this.addr & (~MemorySystemConstants.LINE_OFFSET_MASK());
+	}
+
 	public void incr() {
 		this.addr++;
 	}
@@ -187,18 +242,13 @@ class DataLineAddress extends LineAddress {
  * noted in the cache. To be simple, we disallow swapping threads in and out in
  * a region, except at region boundaries. Moreover, validation needs to be done
  * if a thread gets stuck doing IO within a long region.
+ *
+ * Epochs are immutable; a core moves to the next region by replacing its epoch.
  */
 class Epoch {
 	static final int REGION_ID_START = 1;
-	private int regionId;
-
-	public Epoch() {
-		this(-1);
-	}
 
-	public Epoch(Epoch ep) {
-		this(ep.regionId);
-	}
+	private final int regionId;
 
 	public Epoch(int reg) {
 		this.regionId = reg;
@@ -208,13 +258,10 @@ class Epoch {
 		return regionId;
 	}
 
-	public void setRegionId(int reg) {
-		this.regionId = reg;
-	}
-
-	public void incrementRegionId() {
-		this.regionId++;
-		assert this.regionId <= Integer.MAX_VALUE : "Region id has overflowed for Thread";
+	/** Return the epoch of the next region. */
+	public Epoch next() {
+		assert this.regionId < Integer.MAX_VALUE : "Region id has overflowed for Thread";
+		return new Epoch(regionId + 1);
 	}
 
 	@Override
@@ -224,6 +271,9 @@ class Epoch {
 
 	@Override
 	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
 		if (o instanceof Epoch) {
 			Epoch that = (Epoch) o;
 			return this.regionId == that.regionId;
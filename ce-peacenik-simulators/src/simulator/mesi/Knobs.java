@@ -16,6 +16,13 @@ public class Knobs {
 	public static final OptionSpec<Integer> AssertPeriod;
 	public static final OptionSpec<String> StatsFile;
 	public static final OptionSpec<String> ToSimulatorFifo;
+	public static final OptionSpec<Boolean> PrefetchTrace;
+	public static final OptionSpec<Integer> MonitorPeriod;
+	public static final OptionSpec<String> MonitorFile;
+	public static final OptionSpec<Long> IntervalEvents;
+	public static final OptionSpec<Long> IntervalCycles;
+	public static final OptionSpec<String> IntervalFile;
+	public static final OptionSpec<String> IntervalCounters;
 
 	public static final OptionSpec<Integer> Cores;
 	public static final OptionSpec<Integer> PinThreads;
@@ -82,6 +89,21 @@ public class Knobs {
 		StatsFile = parser.accepts("stats-file", "stats file to generate").withRequiredArg().defaultsTo("sim-stats.py");
 		ToSimulatorFifo = parser.accepts("tosim-fifo", "named fifo used to get events from the front-end")
 				.withRequiredArg();
+		PrefetchTrace = parser.accepts("prefetch-trace", "read the trace ahead of the simulation on a separate thread")
+				.withRequiredArg().ofType(Boolean.class).defaultsTo(true);
+		MonitorPeriod = parser.accepts("monitor-period", "seconds between updates of the live metrics (see SimMonitor)")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(10);
+		MonitorFile = parser.accepts("monitor-file", "file to append the live metrics to every monitor period")
+				.withRequiredArg();
+		IntervalEvents = parser.accepts("interval-events", "write the per-core counters every that many events")
+				.withRequiredArg().ofType(Long.class).defaultsTo(0L);
+		IntervalCycles = parser.accepts("interval-cycles", "write the per-core counters every that many cycles")
+				.withRequiredArg().ofType(Long.class).defaultsTo(0L);
+		IntervalFile = parser.accepts("interval-file", "file to write the per-core counters to (see IntervalStats)")
+				.withRequiredArg().defaultsTo("interval-stats.bin");
+		IntervalCounters = parser
+				.accepts("interval-counters", "comma-separated per-core counters to write, all if not given")
+				.withRequiredArg().withValuesSeparatedBy(',');
 		modelOnlyROI = parser.accepts("model-only-roi", "Whether to only simulate the ROI?").withRequiredArg()
 				.ofType(Boolean.class).defaultsTo(true);
 
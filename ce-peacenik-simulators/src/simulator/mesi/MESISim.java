@@ -1,11 +1,8 @@
 package simulator.mesi;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
-import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -21,7 +18,7 @@ public class MESISim {
 	/** enable checking of computationally expensive asserts */
 	public static boolean XASSERTS = true;
 
-	public static final ThreadId INVALID_THREADID = new ThreadId(-1);
+	public static final ThreadId INVALID_THREADID = ThreadId.of(-1);
 
 	public enum PARSEC_PHASE {
 		PRE_ROI, IN_ROI, POST_ROI, IN_SERVER_ROI, POST_SERVER_ROI
@@ -31,6 +28,11 @@ public class MESISim {
 
 	static OptionSet Options;
 
+	// Options read on hot paths, cached by setOptions()
+	private static boolean modelOnlyROI;
+	private static int numProcessors;
+	private static int assertPeriod;
+
 	private static int maxLiveThreads;
 	private static int numSpawnedThreads;
 	private static int currentLiveThreads;
@@ -46,7 +48,7 @@ public class MESISim {
 	public static double totalScavengeTime = 0;
 
 	/** Events buffer for paused cores */
-	private static final List<List<Event>> eventsBuffer = new ArrayList<List<Event>>();
+	private static final List<EventLog> eventsBuffer = new ArrayList<EventLog>();
 	public static int[] pos;
 
 	public static final long debugStart = 626000000;
@@ -70,7 +72,7 @@ public class MESISim {
 	// These checks are expensive
 	public static boolean enableXasserts() {
 		if (XASSERTS) {
-			if ((totalEvents % Options.valueOf(Knobs.AssertPeriod) == 0)
+			if ((totalEvents % assertPeriod == 0)
 			// &&
 			// totalEvents > debugStart
 			) {
@@ -81,11 +83,17 @@ public class MESISim {
 	}
 
 	public static boolean modelOnlyROI() {
-		return Options.valueOf(Knobs.modelOnlyROI);
+		return modelOnlyROI;
 	}
 
 	public static void setPhase(PARSEC_PHASE p) {
 		phase = p;
+		updateCounting();
+	}
+
+	/** Flip the switch that gates all counter increments. */
+	private static void updateCounting() {
+		Counter.setCounting(!modelOnlyROI || phase == PARSEC_PHASE.IN_ROI);
 	}
 
 	public static PARSEC_PHASE getPARSECPhase() {
@@ -93,60 +101,64 @@ public class MESISim {
 	}
 
 	public static int numProcessors() {
-		return Options.valueOf(Knobs.Cores);
+		return numProcessors;
 	}
 
-	public static void main(String[] args) throws IOException {
-		Options = Knobs.parser.parse(args);
-		if (Options.has(Knobs.Help)) {
-			Knobs.parser.printHelpOn(System.out);
-			return;
-		}
-		XASSERTS = Options.valueOf(Knobs.Xasserts);
-
-		final SimulationMode simMode;
-		// if (Options.valueOf(Knobs.SimulationMode).equals("baseline")) {
-		simMode = SimulationMode.BASELINE;
-		/*
-		 * } else if (Options.valueOf(Knobs.SimulationMode).equals("viser")) { throw new
-		 * UnsupportedOperationException("Viser mode not implemented."); } else { throw
-		 * new IllegalStateException("Invalid simulation mode: " +
-		 * Options.valueOf(Knobs.SimulationMode)); }
-		 */
-
-		DataInputStream in;
-		String fifoName = Options.valueOf(Knobs.ToSimulatorFifo);
-		String bench = fifoName.split("\\.")[0];
-		try {
-			FileInputStream fis = new FileInputStream(fifoName);
-			in = new DataInputStream(new BufferedInputStream(fis));
-		} catch (FileNotFoundException fnf) {
-			fnf.printStackTrace();
-			return;
-		}
+	/** Set the options of the run, and cache the ones that are read on hot paths. */
+	static void setOptions(OptionSet options) {
+		Options = options;
+		modelOnlyROI = options.valueOf(Knobs.modelOnlyROI);
+		numProcessors = options.valueOf(Knobs.Cores);
+		assertPeriod = options.valueOf(Knobs.AssertPeriod);
+		updateCounting();
+	}
 
-		final long startTime = System.currentTimeMillis();
-		MemorySystemConstants.setLineSize(Options.valueOf(Knobs.LineSize));
-		MemorySystemConstants.setLLCAccessTimes(numProcessors());
+	/** The machine parameters given by the options */
+	static Machine.MachineParams<MESILine> machineParams(final SimulationMode simMode) {
+		return new Machine.MachineParams<MESILine>() {
+			// Read the options once, so that the accessors are plain field reads
+			private final int numProcessors = Options.valueOf(Knobs.Cores);
+			private final int numPinThreads = Options.valueOf(Knobs.PinThreads);
+			private final boolean pintool = Options.valueOf(Knobs.Pintool);
+			private final boolean useL2 = Options.valueOf(Knobs.UseL2);
+			private final boolean ignoreStackReferences = Options.valueOf(Knobs.IgnoreStackRefs);
+			private final boolean remoteAccessesAffectLRU = Options.valueOf(Knobs.RemoteAccessesAffectLRU);
+			private final boolean conflictExceptions = Options.valueOf(Knobs.ConflictExceptions);
+			private final boolean treatAtomicUpdatesAsRegularAccesses = Options
+					.valueOf(Knobs.TreatAtomicUpdatesAsRegularAccesses);
+			private final boolean usePLRU = Options.valueOf(Knobs.UsePLRU);
+			private final boolean withPacifistBackends = Options.valueOf(Knobs.WithPacifistBackends);
+			private final boolean pauseCoresAtConflicts = Options.valueOf(Knobs.PauseCoresAtConflicts);
+			private final boolean siteTracking = Options.valueOf(Knobs.SiteTracking);
+			private final boolean lockstep = Options.valueOf(Knobs.Lockstep);
+			private final boolean isHttpd = Options.valueOf(Knobs.IsHttpd);
+			private final boolean dirtyEscapeOpt = Options.valueOf(Knobs.DirtyEscapeInvovledConflictOpt);
+			private final boolean restartAtFailedValidationsOrDeadlocks = Options
+					.valueOf(Knobs.RestartAtFailedValidationsOrDeadlocks);
+			private final boolean evictCleanLineFirst = Options.valueOf(Knobs.EvictCleanLineFirst);
+			private final boolean setWriteBitsInL2 = Options.valueOf(Knobs.SetWriteBitsInL2);
+			private final boolean BackupDeferredWritebacksLasily = Options
+					.valueOf(Knobs.BackupDeferredWritebacksLasily);
+			private final boolean FalseRestart = Options.valueOf(Knobs.FalseRestart);
+			private final int pausingTimeout = Options.valueOf(Knobs.PausingTimeout);
 
-		Machine.MachineParams<MESILine> p = new Machine.MachineParams<MESILine>() {
 			SimulationMode simulationMode() {
 				return simMode;
 			}
 
 			@Override
 			int numProcessors() {
-				return Options.valueOf(Knobs.Cores);
+				return numProcessors;
 			}
 
 			@Override
 			int numPinThreads() {
-				return Options.valueOf(Knobs.PinThreads);
+				return numPinThreads;
 			}
 
 			@Override
 			boolean pintool() {
-				return Options.valueOf(Knobs.Pintool);
+				return pintool;
 			}
 
 			CacheConfiguration<MESILine> l1config() {
@@ -164,7 +176,7 @@ public class MESISim {
 			}
 
 			boolean useL2() {
-				return Options.valueOf(Knobs.UseL2);
+				return useL2;
 			}
 
 			CacheConfiguration<MESILine> l2config() {
@@ -225,17 +237,17 @@ public class MESISim {
 
 			@Override
 			boolean ignoreStackReferences() {
-				return Options.valueOf(Knobs.IgnoreStackRefs);
+				return ignoreStackReferences;
 			}
 
 			@Override
 			boolean remoteAccessesAffectLRU() {
-				return Options.valueOf(Knobs.RemoteAccessesAffectLRU);
+				return remoteAccessesAffectLRU;
 			}
 
 			@Override
 			boolean conflictExceptions() {
-				return Options.valueOf(Knobs.ConflictExceptions);
+				return conflictExceptions;
 			}
 
 			@Override
@@ -245,74 +257,109 @@ public class MESISim {
 
 			@Override
 			boolean treatAtomicUpdatesAsRegularAccesses() {
-				return Options.valueOf(Knobs.TreatAtomicUpdatesAsRegularAccesses);
+				return treatAtomicUpdatesAsRegularAccesses;
 			}
 
 			@Override
 			boolean usePLRU() {
-				return Options.valueOf(Knobs.UsePLRU);
+				return usePLRU;
 			}
 
 			@Override
 			boolean withPacifistBackends() {
-				return Options.valueOf(Knobs.WithPacifistBackends);
+				return withPacifistBackends;
 			}
 
 			@Override
 			boolean pauseCoresAtConflicts() {
-				return Options.valueOf(Knobs.PauseCoresAtConflicts);
+				return pauseCoresAtConflicts;
 			}
 
 			@Override
 			boolean siteTracking() {
-				return Options.valueOf(Knobs.SiteTracking);
+				return siteTracking;
 			}
 
 			@Override
 			boolean lockstep() {
-				return Options.valueOf(Knobs.Lockstep);
+				return lockstep;
 			}
 
 			@Override
 			boolean isHttpd() {
-				return Options.valueOf(Knobs.IsHttpd);
+				return isHttpd;
 			}
 
 			@Override
 			boolean dirtyEscapeOpt() {
-				return Options.valueOf(Knobs.DirtyEscapeInvovledConflictOpt);
+				return dirtyEscapeOpt;
 			}
 
 			@Override
 			boolean restartAtFailedValidationsOrDeadlocks() {
-				return Options.valueOf(Knobs.RestartAtFailedValidationsOrDeadlocks);
+				return restartAtFailedValidationsOrDeadlocks;
 			}
 
 			@Override
 			boolean evictCleanLineFirst() {
-				return Options.valueOf(Knobs.EvictCleanLineFirst);
+				return evictCleanLineFirst;
 			}
 
 			@Override
 			boolean setWriteBitsInL2() {
-				return Options.valueOf(Knobs.SetWriteBitsInL2);
+				return setWriteBitsInL2;
 			}
 
 			@Override
 			boolean BackupDeferredWritebacksLasily() {
-				return Options.valueOf(Knobs.BackupDeferredWritebacksLasily);
+				return BackupDeferredWritebacksLasily;
 			}
 
 			@Override
 			boolean FalseRestart() {
-				return Options.valueOf(Knobs.FalseRestart);
+				return FalseRestart;
 			}
 
 			@Override
 			int pausingTimeout() {
-				return Options.valueOf(Knobs.PausingTimeout);
+				return pausingTimeout;
 			}
 		};
+	}
+
+	public static void main(String[] args) throws IOException {
+		setOptions(Knobs.parser.parse(args));
+		if (Options.has(Knobs.Help)) {
+			Knobs.parser.printHelpOn(System.out);
+			return;
+		}
+		XASSERTS = Options.valueOf(Knobs.Xasserts);
+
+		final SimulationMode simMode;
+		// if (Options.valueOf(Knobs.SimulationMode).equals("baseline")) {
+		simMode = SimulationMode.BASELINE;
+		/*
+		 * } else if (Options.valueOf(Knobs.SimulationMode).equals("viser")) { throw new
+		 * UnsupportedOperationException("Viser mode not implemented."); } else { throw
+		 * new IllegalStateException("Invalid simulation mode: " +
+		 * Options.valueOf(Knobs.SimulationMode)); }
+		 */
+
+		TraceReader in;
+		String fifoName = Options.valueOf(Knobs.ToSimulatorFifo);
+		String bench = fifoName.split("\\.")[0];
+		try {
+			in = TraceReader.open(fifoName);
+		} catch (FileNotFoundException fnf) {
+			fnf.printStackTrace();
+			return;
+		}
+
+		final long startTime = System.currentTimeMillis();
+		MemorySystemConstants.setLineSize(Options.valueOf(Knobs.LineSize));
+		MemorySystemConstants.setLLCAccessTimes(numProcessors());
+
+		Machine.MachineParams<MESILine> p = machineParams(simMode);
 
 		Machine<MESILine> sim = new Machine<MESILine>(p);
 		if (p.lockstep()) {
@@ -326,8 +373,7 @@ public class MESISim {
 		if (sim.params.restartAtFailedValidationsOrDeadlocks() || sim.params.FalseRestart()) {
 			pos = new int[numProcessors()];
 			for (int i = 0; i < numProcessors(); i++) {
-				// eventsBuffer.add(new ArrayList<Event>(initCapacity));
-				eventsBuffer.add(new ArrayList<Event>());
+				eventsBuffer.add(new EventLog());
 				pos[i] = 0;
 			}
 			if (sim.params.evictCleanLineFirst())
@@ -341,7 +387,7 @@ public class MESISim {
 
 		} else if (p.pauseCoresAtConflicts()) {
 			for (int i = 0; i < numProcessors(); i++) {
-				eventsBuffer.add(new ArrayList<Event>());
+				eventsBuffer.add(new EventLog());
 			}
 			prix = "[cesim-pausing] ";
 		} else if (p.conflictExceptions()) {
@@ -349,7 +395,21 @@ public class MESISim {
 		} else {
 			prix = "[mesisim] ";
 		}
+		// MultiSim already reads the trace on its own thread, and a lone host core
+		// would just switch between the two
+		if (Options.valueOf(Knobs.PrefetchTrace) && TraceReader.sharedFeed == null
+				&& Runtime.getRuntime().availableProcessors() > 1) {
+			in = in.prefetch();
+		}
 		System.out.println(prix + "starting simulation...");
+		SimMonitor monitor = SimMonitor.start(sim, Options.valueOf(Knobs.StatsFile),
+				Options.valueOf(Knobs.MonitorPeriod), Options.valueOf(Knobs.MonitorFile));
+		IntervalStats intervals = null;
+		if (Options.valueOf(Knobs.IntervalEvents) > 0 || Options.valueOf(Knobs.IntervalCycles) > 0) {
+			intervals = new IntervalStats(sim.coreStatBlocks(), Options.valueOf(Knobs.IntervalFile),
+					Options.valueOf(Knobs.IntervalEvents), Options.valueOf(Knobs.IntervalCycles),
+					Options.valuesOf(Knobs.IntervalCounters));
+		}
 
 		short Cid = 0;
 		while (true) {
@@ -357,9 +417,12 @@ public class MESISim {
 				Event e = getNextEvent(in, sim, Cid);
 				boolean simulationFinished = handleEvent(e, sim, prix);
 				Cid = sim.cpuOfTid(e.tid).get();
+				if (intervals != null) {
+					intervals.eventHandled(Cid);
+				}
 				if (!sim.params.restartAtFailedValidationsOrDeadlocks()) {
 					if (sim.processors[Cid].reRunEvent) {
-						eventsBuffer.get(Cid).add(0, e); // rerun immediately when resuming from pausing
+						eventsBuffer.get(Cid).addFirst(e); // rerun immediately when resuming from pausing
 						// totalPausings++;
 						/*
 						 * System.out.println(prix + "p" + Cid +
@@ -404,6 +467,10 @@ public class MESISim {
 		}
 
 		in.close();
+		monitor.stop();
+		if (intervals != null) {
+			intervals.close();
+		}
 
 		double mins = (System.currentTimeMillis() - startTime) / (double) (1000 * 60);
 
@@ -470,12 +537,12 @@ public class MESISim {
 		System.out.println("====================================================================================");
 	}
 
-	private static Event getNextEvent(DataInputStream in, Machine<MESILine> sim, short lastCid) throws IOException {
+	private static Event getNextEvent(TraceReader in, Machine<MESILine> sim, short lastCid) throws IOException {
 		boolean needPause = sim.params.pauseCoresAtConflicts();
 		long currentPausingBits = sim.getPausingBits();
 		if (needPause) {
 			if (sim.params.restartAtFailedValidationsOrDeadlocks()) {
-				List<Event> EB;
+				EventLog EB;
 				for (short i = 0; i < eventsBuffer.size(); i++) {
 					// fair round-robin
 					// TODO this may introduce exec changes compared to pause config even without
@@ -498,11 +565,10 @@ public class MESISim {
 				}
 			} else {
 				for (short i = 0; i < eventsBuffer.size(); i++) {
-					List<Event> EB = eventsBuffer.get(i);
+					EventLog EB = eventsBuffer.get(i);
 					// this core is not paused
 					if ((currentPausingBits & (1L << i)) == 0L && !EB.isEmpty()) {
-						Event e = EB.get(0);
-						EB.remove(0);
+						Event e = EB.pollFirst();
 						// System.out.println("[visersim] Event from eventsBuffer. Type: " + e.type + ",
 						// Tid: " +
 						// e.tid);
@@ -512,24 +578,23 @@ public class MESISim {
 			}
 		}
 		do {
-			byte type = in.readByte();
-			byte semantics = in.readByte();
-			byte tid = (byte) in.readShort();
+			in.next();
+			byte type = in.type;
+			byte semantics = in.semantics;
+			byte tid = (byte) in.tid;
 			Event e = new Event(EventType.fromByte(type), EventType.fromByte(semantics), tid);
-			e.addr = in.readLong();
-			e.memOpSize = (byte) in.readInt();
-			byte bits = in.readByte();
-			e.stackRef = (bits & 0x1) == 1;
-			e.value = in.readLong();
-			e.insnCount = in.readInt();
+			e.addr = in.addr;
+			e.memOpSize = (byte) in.memOpSize;
+			e.stackRef = (in.bits & 0x1) == 1;
+			e.value = in.value;
+			e.insnCount = in.insnCount;
 
 			// site info
-			short lineno = in.readShort();
-			short fno = in.readShort();
-			short rno = in.readShort();
-			in.readInt(); // eventID
-			short lastLineno = in.readShort();
-			short lastFno = in.readShort();
+			short lineno = in.lineno;
+			short fno = in.fno;
+			short rno = in.rno;
+			short lastLineno = in.lastLineno;
+			short lastFno = in.lastFno;
 			/*
 			 * if (lineno == 1120 && e.addr == 6321000 && tid == 3 && e.type ==
 			 * EventType.MEMORY_READ) { System.out.println(++count + ", T3 read 1120 id: " +
@@ -537,22 +602,10 @@ public class MESISim {
 			 * EventType.MEMORY_WRITE) { System.out.println("T2 write 1111 id: " + iid); }
 			 */
 			if (sim.params.siteTracking()) {
-				SiteInfoEntry siEntry = new SiteInfoEntry(fno, lineno, rno);
-				int index = sim.siteInfo.indexOf(siEntry);
-				if (index == -1) {
-					sim.siteInfo.add(siEntry);
-					index = sim.siteInfo.size() - 1;
-				}
-				e.siteIndex = index;
-
-				// last site info
-				siEntry = new SiteInfoEntry(lastFno, lastLineno, (short) 0);
-				index = sim.siteInfo.indexOf(siEntry);
-				if (index == -1) {
-					sim.siteInfo.add(siEntry);
-					index = sim.siteInfo.size() - 1;
-				}
-				// e.lastSiteIndex = index;
+				e.siteIndex = sim.siteInfo.intern(fno, lineno, rno);
+				// The last site is not tracked, but interned like the current one so the
+				// site table holds the same entries
+				sim.siteInfo.intern(lastFno, lastLineno, (short) 0);
 			} else {
 				e.siteIndex = -1;
 				// e.lastSiteIndex = -1;
@@ -587,7 +640,7 @@ public class MESISim {
 				// e.type + ", Pid:" +
 				// pid);
 				if (sim.params.restartAtFailedValidationsOrDeadlocks() && (!sim.params.isHttpd()
-						&& (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+						&& Counter.counting()
 						|| MESISim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI) && !e.isLockAccess()) {
 					// all events of the current regions should be saved in case of restart
 					eventsBuffer.get(pid).add(e);
@@ -613,13 +666,13 @@ public class MESISim {
 		switch (e.type) {
 		case ROI_START: {
 			assert phase == PARSEC_PHASE.PRE_ROI;
-			phase = PARSEC_PHASE.IN_ROI;
+			setPhase(PARSEC_PHASE.IN_ROI);
 			break;
 		}
 
 		case ROI_END: {
 			assert phase == PARSEC_PHASE.IN_ROI;
-			phase = PARSEC_PHASE.POST_ROI;
+			setPhase(PARSEC_PHASE.POST_ROI);
 			break;
 		}
 
@@ -746,7 +799,7 @@ public class MESISim {
 		}
 		case SERVER_ROI_START: {
 			if (phase == PARSEC_PHASE.PRE_ROI) {
-				phase = PARSEC_PHASE.IN_SERVER_ROI;
+				setPhase(PARSEC_PHASE.IN_SERVER_ROI);
 				// printConflicts(machine, prefix + "[mid] ");
 				if (machine.params.conflictExceptions()) {
 					computeCounters(machine, prefix + "[SERVER_ROI_START] ", true);
@@ -757,7 +810,7 @@ public class MESISim {
 
 		case SERVER_ROI_END: {
 			if (phase == PARSEC_PHASE.IN_SERVER_ROI) {
-				phase = PARSEC_PHASE.POST_SERVER_ROI;
+				setPhase(PARSEC_PHASE.POST_SERVER_ROI);
 				if (machine.params.conflictExceptions()) {
 					computeCounters(machine, prefix + "[SERVER_ROI_END] ", false);
 				}
@@ -782,7 +835,7 @@ public class MESISim {
 		short pid = -1;
 		for (Processor<MESILine> pc : sim.processors) {
 
-			double cycles = pc.stats.pc_BandwidthDrivenCycleCount.stat;
+			double cycles = pc.stats.pc_BandwidthDrivenCycleCount.get();
 			if (cycles > maxCycles) {
 				pid = pc.id.get();
 				maxCycles = cycles;
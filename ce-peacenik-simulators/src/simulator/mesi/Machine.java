@@ -6,9 +6,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /** A class that manages the set of processors in the system. */
@@ -21,10 +19,12 @@ public class Machine<Line extends MESILine> {
 		BASELINE, VISER
 	}
 
-	List<Conflict> conflicts = new ArrayList<>();
-	List<SiteInfoEntry> siteInfo = new ArrayList<SiteInfoEntry>();
+	final ConflictTable conflicts = new ConflictTable();
+	final SiteTable siteInfo = new SiteTable();
 
-	HashMap<Long, CEPerLineMetadata<Line>> globalTable = new HashMap<>();
+	LongHashMap<CEPerLineMetadata<Line>> globalTable = new LongHashMap<CEPerLineMetadata<Line>>();
+	/** The cores whose private caches hold each line */
+	final SharerDirectory sharers = new SharerDirectory();
 	/**
 	 * Machine-wide epoch. This is per-core and not per-thread. We can just maintain
 	 * an array of integers.
@@ -32,6 +32,8 @@ public class Machine<Line extends MESILine> {
 	private Epoch[] epochMap = null;
 
 	public long pausingBits = 0L;
+	/** Number of times a core has been paused */
+	public long totalPauses = 0L;
 	private DataOutputStream[] perThreadFifoOut;
 
 	/**
@@ -103,6 +105,9 @@ public class Machine<Line extends MESILine> {
 		abstract int pausingTimeout();
 	}
 
+	/** The stat blocks of the counters of this machine, by core id (see StatBlock) */
+	final Map<Integer, StatBlock> statBlocks = new HashMap<Integer, StatBlock>();
+
 	@SuppressWarnings("unchecked")
 	public Machine(MachineParams<Line> args) {
 		this.params = args;
@@ -112,10 +117,13 @@ public class Machine<Line extends MESILine> {
 			createEpochs(params.numProcessors());
 		}
 
+		// the counters created from now on belong to this machine
+		StatBlock.blocks = statBlocks;
+
 		// construct processors
 		processors = new Processor[args.numProcessors()];
 		for (int i = 0; i < processors.length; i++) {
-			CpuId cpuid = new CpuId(i);
+			CpuId cpuid = CpuId.of(i);
 			/* HACK: see Counter.currentCpu for details */
 			Counter.currentCpu = cpuid;
 			processors[i] = new Processor<Line>(args, this, cpuid, processors, varmap);
@@ -140,12 +148,22 @@ public class Machine<Line extends MESILine> {
 		return p;
 	}
 
+	/** The stat blocks of the cores, in core order */
+	StatBlock[] coreStatBlocks() {
+		StatBlock[] cores = new StatBlock[processors.length];
+		for (int i = 0; i < cores.length; i++) {
+			cores[i] = statBlocks.get(i);
+		}
+		return cores;
+	}
+
 	public void dumpStats(Writer wr, String prefix, String suffix) throws IOException {
-		// the Counter class keeps track of all its instances, so we only need to dump
-		// once
-		SumCounter.dumpCounters(wr, prefix, suffix);
-		MaxCounter.dumpCounters(wr, prefix, suffix);
-		DependentCounter.dumpCounters(wr, prefix, suffix);
+		// the counters of the cores are all in their stat blocks, so we only need to
+		// dump once
+		StatBlock[] cores = coreStatBlocks();
+		SumCounter.dumpCounters(cores, wr, prefix, suffix);
+		MaxCounter.dumpCounters(cores, wr, prefix, suffix);
+		DependentCounter.dumpCounters(cores, wr, prefix, suffix);
 	}
 
 	public Processor<Line>[] getProcs() {
@@ -207,8 +225,8 @@ public class Machine<Line extends MESILine> {
 			assert false;
 		}
 
-		Processor.DataMemoryAccessResult mopResult = new Processor.DataMemoryAccessResult();
-		mopResult.remoteCommunicatedHappened = false;
+		Processor.DataMemoryAccessResult mopResult = proc.opResult;
+		mopResult.reset();
 		int remainingSize = size;
 
 		if (type == MemoryAccessType.LOCK_ACQ_READ || type == MemoryAccessType.LOCK_ACQ_WRITE
@@ -218,17 +236,18 @@ public class Machine<Line extends MESILine> {
 		}
 
 		for (long a = addr; remainingSize > 0;) {
-			DataByteAddress dba = new DataByteAddress(a);
-			int data_bytesFromStartOfLine = dba.lineOffset();
+			int data_bytesFromStartOfLine = (int) (a & MemorySystemConstants.LINE_OFFSET_MASK());
 			int data_maxSizeAccessWithinThisLine = MemorySystemConstants.LINE_SIZE() - data_bytesFromStartOfLine;
 
 			// data access
 			int accessSize = Math.min(remainingSize, data_maxSizeAccessWithinThisLine);
+			DataAccess access = proc.currentAccess;
+			access.reset(type, a, accessSize, siteIndex);
 			Processor.DataMemoryAccessResult tempMor;
 			if (write) {
-				tempMor = proc.write(new DataAccess(type, dba, accessSize, siteIndex));
+				tempMor = proc.write(access);
 			} else {
-				tempMor = proc.read(new DataAccess(type, dba, accessSize, siteIndex));
+				tempMor = proc.read(access);
 			}
 
 			if (proc.reRunEvent) {
@@ -252,7 +271,7 @@ public class Machine<Line extends MESILine> {
 	}
 
 	public void processSyncOp(final CpuId performingCpu, ThreadId tid, EventType type, EventType semantics,
-			List<Event> EB, int curPosition) {
+			EventLog EB, int curPosition) {
 		Processor<Line> performingProc = getProc(performingCpu);
 
 		if (semantics == EventType.REG_END) {
@@ -284,7 +303,7 @@ public class Machine<Line extends MESILine> {
 				}
 			} else if (params.restartAtFailedValidationsOrDeadlocks()) {
 				// clear the event buffer of this core
-				EB.subList(0, curPosition).clear();
+				EB.discardFirst(curPosition);
 			}
 		}
 
@@ -297,15 +316,16 @@ public class Machine<Line extends MESILine> {
 				performingProc.decIgnoreCounter();
 				if (params.restartAtFailedValidationsOrDeadlocks()) {
 					// clear the event buffer of this core
-					EB.subList(0, curPosition).clear();
+					EB.discardFirst(curPosition);
 				}
 			}
 		}
 	}
 
 	public void printGlobalTable() {
-		for (Long l : globalTable.keySet()) {
-			System.out.println("Line address: " + l);
+		LongHashMap<CEPerLineMetadata<Line>>.Cursor l = globalTable.cursor();
+		while (l.advance()) {
+			System.out.println("Line address: " + l.key());
 		}
 	}
 
@@ -332,7 +352,7 @@ public class Machine<Line extends MESILine> {
 
 	/** Increment epoch for current core id (not thread) */
 	public void incrementEpoch(CpuId id) {
-		epochMap[id.get()].incrementRegionId();
+		epochMap[id.get()] = epochMap[id.get()].next();
 	}
 
 	public Epoch getEpoch(CpuId id) {
@@ -349,6 +369,9 @@ public class Machine<Line extends MESILine> {
 			return;
 		}
 		long t = 1L << offset;
+		if ((pausingBits & t) == 0) {
+			totalPauses++;
+		}
 		pausingBits |= t;
 	}
 
@@ -439,22 +462,11 @@ public class Machine<Line extends MESILine> {
 	}
 
 	public void updateConflictCounters(int f0, int l0, int r0, int f1, int l1, int r1) {
-		for (int i = 0; i < conflicts.size(); i++) {
-			Conflict conflict = conflicts.get(i);
-			if (conflict.isTheSame(f0, l0, f1, l1)) {
-				conflict.inc();
-				return;
-			}
-		}
-		Conflict conflict = new Conflict(f0, l0, r0, f1, l1, r1);
-		conflict.inc();
-		conflicts.add(conflict);
+		conflicts.increment(f0, l0, r0, f1, l1, r1);
 	}
 
 	// reset the counters to allow counting for other lines.
 	public void resetConflictCounter() {
-		for (int i = 0; i < conflicts.size(); i++) {
-			conflicts.get(i).allowCounting();
-		}
+		conflicts.reset();
 	}
 };
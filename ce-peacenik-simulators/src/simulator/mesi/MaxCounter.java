@@ -3,24 +3,23 @@ package simulator.mesi;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 public final class MaxCounter extends Counter {
 	CpuId maxId; // Track the CPU which contributes the maximum
 
-	/** List of all the stats that have been created. */
-	protected static List<MaxCounter> AllCounters = new LinkedList<MaxCounter>();
-
 	// maps pc counter names => global Counter objects that has the max value
 	static Map<String, MaxCounter> globalCounters = new HashMap<String, MaxCounter>();
 
-	public static void dumpCounters(Writer wr, String prefix, String suffix) throws IOException {
+	/** Dump the counters of the cores, from their stat blocks, and the global counters. */
+	public static void dumpCounters(StatBlock[] cores, Writer wr, String prefix, String suffix) throws IOException {
+		List<MaxCounter> counters = StatBlock.counters(cores, MaxCounter.class);
+
 		// generate global max counters
-		currentCpu = new CpuId(-1);
+		currentCpu = CpuId.of(-1);
 
-		for (MaxCounter mc : AllCounters) {
+		for (MaxCounter mc : counters) {
 			if (!mc.name.startsWith("pc_")) {
 				continue;
 			}
@@ -38,11 +37,11 @@ public final class MaxCounter extends Counter {
 			}
 		}
 		currentCpu = null;
-		AllCounters.addAll(globalCounters.values());
+		counters.addAll(globalCounters.values());
 
 		// write counter values
-		for (MaxCounter mc : AllCounters) {
-			wr.write(prefix + "'cpuid': " + mc.cpuid.get() + ", '" + mc.name + "': " + mc.stat + suffix);
+		for (MaxCounter mc : counters) {
+			wr.write(prefix + "'cpuid': " + mc.cpuid.get() + ", '" + mc.name + "': " + mc.get() + suffix);
 		}
 	}
 
@@ -52,6 +51,5 @@ public final class MaxCounter extends Counter {
 
 	MaxCounter(String name) {
 		super(currentCpu, name);
-		AllCounters.add(this);
 	}
 }
@@ -105,9 +105,9 @@ class MemorySystemConstants {
 
 abstract class GenericAccess {
     /** cpuid used when manipulating "global" metadata addresses */
-    static final CpuId GLOBAL_CPUID = new CpuId(0);
+    static final CpuId GLOBAL_CPUID = CpuId.of(0);
     /** cpuid used when manipulating data addresses */
-    static final CpuId DATA_CPUID = new CpuId(0);
+    static final CpuId DATA_CPUID = CpuId.of(0);
 
     protected MemoryAccessType type;
     protected ByteAddress baseAddr;
@@ -153,25 +153,35 @@ abstract class GenericAccess {
     }
 }
 
+/**
+ * A data access to (part of) one line. Each core keeps one DataAccess that is
+ * reset for every access, so the access path does not allocate.
+ */
 class DataAccess extends GenericAccess {
-    private int[] siteInfo = null;
+    private int[] siteInfo = new int[MemorySystemConstants.LINE_SIZE()];
+
+    DataAccess() {
+        this.baseAddr = new DataByteAddress(0);
+        this.addr = new DataByteAddress(0);
+    }
 
     DataAccess(MemoryAccessType mtype, ByteAddress addr, final int size, int siteIndex) {
+        this();
+        reset(mtype, addr.get(), size, siteIndex);
+    }
+
+    /** Make this object describe a new access. */
+    void reset(MemoryAccessType mtype, long a, final int size, int siteIndex) {
         this.type = mtype;
-        // make defensive copies
-        this.baseAddr = new DataByteAddress(addr.get());
-        this.addr = new DataByteAddress(addr.get());
+        this.baseAddr.set(a);
+        this.addr.set(a);
         this.size = size;
-        this.siteInfo = new int[MemorySystemConstants.LINE_SIZE()];
         // ensure access fits within a cache line
         assert (lineOffset() + size <= MemorySystemConstants.LINE_SIZE());
-        if (siteIndex != -1) {
-            if (siteInfo == null) {
-                siteInfo = new int[MemorySystemConstants.LINE_SIZE()];
-            }
-            for (int i = addr.lineOffset(); i < addr.lineOffset() + size; i++) {
-                this.siteInfo[i] = siteIndex;
-            }
+        // Only the accessed bytes of siteInfo are read, so only those are reset
+        int site = (siteIndex != -1) ? siteIndex : 0;
+        for (int i = lineOffset(); i < lineOffset() + size; i++) {
+            this.siteInfo[i] = site;
         }
     }
 
@@ -0,0 +1,214 @@
+package simulator.mesi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates several configurations over one trace in a single JVM.
+ *
+ * Usage: MultiSim <trace-or-fifo> <config-file>
+ *
+ * Every line of the config file (other than blank lines and lines starting with
+ * '#') holds the MESISim options of one configuration, e.g., the CE and the
+ * CE+Peacenik knobs of a sweep. Each configuration should use its own
+ * --stats-file.
+ *
+ * The simulator keeps most of its state in static fields, so every
+ * configuration runs MESISim.main() on its own thread with its own copy of the
+ * simulator classes, loaded by a separate class loader. The trace is read once
+ * by this driver and handed to every configuration in chunks of whole records
+ * (see TraceReader.nextChunk()), so there is no need for pipefork and one JVM
+ * per configuration. The console output of configuration i goes to
+ * <config-file>.i.log. Lockstep mode is not supported, since there is no single
+ * simulator to drive the front end, and a configuration that calls
+ * System.exit() ends the whole run.
+ */
+public class MultiSim {
+
+	/** Chunks of the trace a configuration may fall behind the driver by */
+	private static final int QUEUE_CAPACITY = 16;
+
+	/** Console output of the current configuration thread */
+	private static final InheritableThreadLocal<PrintStream> threadOut = new InheritableThreadLocal<PrintStream>();
+
+	/** Routes System.out and System.err to the log of the current configuration */
+	private static final class PerThreadOutputStream extends OutputStream {
+		private final PrintStream fallback;
+
+		PerThreadOutputStream(PrintStream fallback) {
+			this.fallback = fallback;
+		}
+
+		private PrintStream target() {
+			PrintStream out = threadOut.get();
+			return (out == null) ? fallback : out;
+		}
+
+		@Override
+		public void write(int b) {
+			target().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			target().write(b, off, len);
+		}
+
+		@Override
+		public void flush() {
+			target().flush();
+		}
+	}
+
+	private static final class Config {
+		final int index;
+		final String[] args;
+		final BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<ByteBuffer>(QUEUE_CAPACITY);
+		Thread thread;
+		Throwable failure;
+
+		Config(int index, String[] args) {
+			this.index = index;
+			this.args = args;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			throw new IllegalArgumentException("Usage: MultiSim <trace-or-fifo> <config-file>");
+		}
+		String traceName = args[0];
+		String configFile = args[1];
+
+		List<Config> configs = readConfigs(traceName, configFile);
+		if (configs.isEmpty()) {
+			throw new IllegalArgumentException("No configurations in " + configFile);
+		}
+
+		System.setOut(new PrintStream(new PerThreadOutputStream(System.out), true));
+		System.setErr(new PrintStream(new PerThreadOutputStream(System.err), true));
+
+		URL[] classpath = getClasspath();
+		// The parent of the system class loader does not see the simulator classes
+		ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+		for (Config c : configs) {
+			startConfig(c, new URLClassLoader(classpath, parent), configFile + "." + c.index + ".log");
+		}
+
+		long startTime = System.currentTimeMillis();
+		TraceReader in = TraceReader.open(traceName);
+		ByteBuffer chunk;
+		while ((chunk = in.nextChunk()) != null) {
+			for (Config c : configs) {
+				dispatch(c, chunk.duplicate());
+			}
+		}
+		in.close();
+		for (Config c : configs) {
+			dispatch(c, ByteBuffer.allocate(0)); // End of the trace
+		}
+
+		boolean failed = false;
+		for (Config c : configs) {
+			c.thread.join();
+			if (c.failure != null) {
+				failed = true;
+				System.out.println("[multisim] configuration " + c.index + " failed: " + c.failure);
+			}
+		}
+		double mins = (System.currentTimeMillis() - startTime) / (double) (1000 * 60);
+		System.out.println("[multisim] simulated " + configs.size() + " configurations in " + mins + " mins");
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	private static List<Config> readConfigs(String traceName, String configFile) throws IOException {
+		List<Config> configs = new ArrayList<Config>();
+		BufferedReader br = new BufferedReader(new FileReader(configFile));
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				List<String> simArgs = new ArrayList<String>(Arrays.asList(line.split("\\s+")));
+				// MESISim derives the benchmark name from the trace name
+				simArgs.add("--tosim-fifo=" + traceName);
+				configs.add(new Config(configs.size(), simArgs.toArray(new String[simArgs.size()])));
+			}
+		} finally {
+			br.close();
+		}
+		return configs;
+	}
+
+	private static URL[] getClasspath() throws IOException {
+		String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		URL[] urls = new URL[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			urls[i] = new File(entries[i]).toURI().toURL();
+		}
+		return urls;
+	}
+
+	private static void startConfig(final Config c, final ClassLoader loader, String logName) throws Exception {
+		// Point the TraceReader of this copy of the simulator at the shared trace
+		Field feed = loader.loadClass(TraceReader.class.getName()).getDeclaredField("sharedFeed");
+		feed.setAccessible(true);
+		feed.set(null, c.queue);
+		final Method simMain = loader.loadClass(MESISim.class.getName()).getMethod("main", String[].class);
+		final PrintStream log = new PrintStream(new FileOutputStream(logName), true);
+
+		c.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				threadOut.set(log);
+				try {
+					simMain.invoke(null, (Object) c.args);
+				} catch (InvocationTargetException ite) {
+					c.failure = ite.getCause();
+					ite.getCause().printStackTrace();
+				} catch (Throwable t) {
+					c.failure = t;
+					t.printStackTrace();
+				} finally {
+					log.close();
+				}
+			}
+		}, "multisim-" + c.index);
+		c.thread.setContextClassLoader(loader);
+		c.thread.start();
+	}
+
+	/**
+	 * Hand a chunk to a configuration, waiting while it is behind. A configuration
+	 * that has stopped (it finished early or failed) does not take any more
+	 * chunks.
+	 */
+	private static void dispatch(Config c, ByteBuffer chunk) throws InterruptedException {
+		while (!c.queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+			if (!c.thread.isAlive()) {
+				return;
+			}
+		}
+	}
+}
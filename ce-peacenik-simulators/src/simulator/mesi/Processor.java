@@ -1,10 +1,8 @@
 package simulator.mesi;
 
-import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -33,6 +31,15 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 	final Machine.MachineParams<Line> params;
 	final ProcessorStats stats = new ProcessorStats();
 
+	// Access context, reused by every access of this core so that the access path
+	// does not allocate
+	/** The line-sized piece of an access being performed */
+	final DataAccess currentAccess = new DataAccess();
+	/** Result returned by read() and write() */
+	private final DataMemoryAccessResult accessResult = new DataMemoryAccessResult();
+	/** Result of a whole access, aggregated over its line-sized pieces */
+	final DataMemoryAccessResult opResult = new DataMemoryAccessResult();
+
 	/** Set this to true the first time a region performs a write. */
 	boolean regionContainsWrite = false;
 
@@ -290,7 +297,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 	}
 
 	@Override
-	public Line eviction(final Line incoming, final LinkedList<Line> set, final CacheLevel level, short bits) {
+	public Line eviction(final Line incoming, final CacheSet<Line> set, final CacheLevel level, short bits) {
 		Line toEvict = null;
 		if (params.usePLRU()) {
 			for (int i = 0; i < set.size(); i++) {
@@ -312,32 +319,22 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 			toEvict = set.getLast(); // straight LRU
 
 			if ((params.evictCleanLineFirst() && !hasDirtyEviction) && level == CacheLevel.L2 && toEvict.valid()) {
-				List<Line> tmp = new ArrayList<Line>(set.size());
-				boolean notPreferred;
-				long enc;
-				do {
-					Line l1Line = L1cache.getLine(toEvict);
-
+				// Walk from the LRU towards the MRU line for a line without writes
+				boolean notPreferred = true;
+				for (int i = set.size() - 1; i >= 0 && notPreferred; i--) {
+					Line line = set.get(i);
+					Line l1Line = L1cache.getLine(line);
+					long enc;
 					if (l1Line != null && l1Line.valid())
-						enc = l1Line.getLocalWrites() | toEvict.getLocalWrites();
+						enc = l1Line.getLocalWrites() | line.getLocalWrites();
 					else
-						enc = toEvict.getLocalWrites();
-					notPreferred = enc != 0L;
-
-					if (notPreferred && set.size() > 1) { // WAR or dirty line
-						set.removeLast();
-						tmp.add(toEvict);
-						toEvict = set.getLast();
-					} else
-						break;
-				} while (true);
-
-				for (int i = tmp.size() - 1; i >= 0; i--)
-					set.addLast(tmp.get(i));
-				if (notPreferred) {
-					// System.out.println("WAR Eviction from " + id);
-					toEvict = set.getLast();
+						enc = line.getLocalWrites();
+					notPreferred = enc != 0L; // WAR or dirty line
+					if (!notPreferred) {
+						toEvict = line;
+					}
 				}
+				// if (notPreferred) System.out.println("WAR Eviction from " + id);
 			}
 		}
 
@@ -451,6 +448,11 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 		 */
 		boolean remoteCommunicatedHappened = false;
 
+		void reset() {
+			latency = 0;
+			remoteCommunicatedHappened = false;
+		}
+
 		/** Aggregate the result of another memory op into the current result. */
 		void aggregate(DataMemoryAccessResult dmar) {
 			this.remoteCommunicatedHappened |= dmar.remoteCommunicatedHappened;
@@ -526,8 +528,8 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 			short[] waitee = new short[params.numProcessors()];
 			short[] ends = new short[2];
 			if (!machine.detectDeadlock(waitee, ends)) {
-				last_pause = stats.pc_BandwidthDrivenCycleCount.stat;
-				start_time = machine.processors[cpuId].stats.pc_BandwidthDrivenCycleCount.stat;
+				last_pause = stats.pc_BandwidthDrivenCycleCount.get();
+				start_time = machine.processors[cpuId].stats.pc_BandwidthDrivenCycleCount.get();
 				machine.setPausingBitsAtOffset(id.get());
 
 				if (params.printConflictingSites()) {
@@ -571,8 +573,8 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 				// if (last_pause != 0)
 				// stats.pc_TotalIntervals.incr(stats.pc_BandwidthDrivenCycleCount.stat -
 				// last_pause);
-				last_pause = stats.pc_BandwidthDrivenCycleCount.stat;
-				start_time = machine.processors[rid].stats.pc_BandwidthDrivenCycleCount.stat;
+				last_pause = stats.pc_BandwidthDrivenCycleCount.get();
+				start_time = machine.processors[rid].stats.pc_BandwidthDrivenCycleCount.get();
 				machine.setPausingBitsAtOffset(cid);
 
 				Processor<Line> eligileCore = machine.processors[i];
@@ -585,7 +587,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 				} else
 					waiteeCore = machine.processors[ends[0]];
 
-				double end_time = waiteeCore.stats.pc_BandwidthDrivenCycleCount.stat;
+				double end_time = waiteeCore.stats.pc_BandwidthDrivenCycleCount.get();
 				double paused_cycles = end_time - eligileCore.start_time;
 				if (paused_cycles < 0) {
 					throw new RuntimeException("paused_cycles < 0: " + end_time + " " + eligileCore.start_time + " "
@@ -735,7 +737,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 	}
 
 	public boolean checkPreciseWriteWriteConflict(Line line, long remoteWrites, long localWrites, int[] curSI) {
-		if (!(!params.isHttpd() && (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+		if (!(!params.isHttpd() && Counter.counting()
 				|| MESISim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI)) { // Not in ROIs
 			return false;
 		}
@@ -782,7 +784,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 	}
 
 	public boolean checkPreciseWriteReadConflict(Line line, long remoteWrites, long localReads, int[] curSI) {
-		if (!(!params.isHttpd() && (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+		if (!(!params.isHttpd() && Counter.counting()
 				|| MESISim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI)) { // Not in ROIs
 			return false;
 		}
@@ -829,7 +831,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 	}
 
 	public boolean checkPreciseReadWriteConflict(Line line, long remoteReads, long localWrites, int[] curSI) {
-		if (!(!params.isHttpd() && (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI)
+		if (!(!params.isHttpd() && Counter.counting()
 				|| MESISim.getPARSECPhase() == PARSEC_PHASE.IN_SERVER_ROI)) { // Not in ROIs
 			return false;
 		}
@@ -879,17 +881,9 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 
 	// full bit map, we want to be precise at the byte-level
 	long getEncodingForAccess(DataAccess access) {
-		long tmp = 0;
-		ByteAddress start = new DataByteAddress(access.addr().get());
-		for (int i = 0; i < access.size(); i++) {
-			tmp |= getEncodingForOffset(start.lineOffset());
-			start.incr();
-		}
-		return tmp;
-	}
-
-	private long getEncodingForOffset(int off) {
-		return 1L << off;
+		// The access lies within a line of at most 64 bytes
+		long bytes = (access.size() == Long.SIZE) ? -1L : (1L << access.size()) - 1;
+		return bytes << access.lineOffset();
 	}
 
 	/** Perform a data read specified by the given access. */
@@ -905,8 +899,8 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 			stats.pc_TotalMemoryAccesses.incr();
 		}
 
-		DataMemoryAccessResult dmaResult = new DataMemoryAccessResult();
-		dmaResult.remoteCommunicatedHappened = false;
+		DataMemoryAccessResult dmaResult = accessResult;
+		dmaResult.reset();
 
 		MemoryResponse<Line> resp = L1cache.request(this, access.addr(), true);
 		Line line = resp.lineHit;
@@ -1056,7 +1050,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 				CEPerLineMetadata<Line> md = machine.globalTable.get(line.lineAddress().get());
 				if (md != null) {
 					for (int i = 0; i < params.numProcessors(); i++) {
-						CpuId cpudID = new CpuId(i);
+						CpuId cpudID = CpuId.of(i);
 						CEGlobalTableValue val = md.getPerCoreMetadata(machine.getProc(cpudID));
 						if (val.localReads != 0) {
 							newMesiState = MESIState.MESI_SHARED;
@@ -1175,15 +1169,37 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 		Processor<Line> lastWriter;
 	}
 
+	/**
+	 * Return the bitmask of the other cores whose private caches may hold the line
+	 * of the given access, according to the sharer directory. Cores outside the
+	 * mask hold no copy of the line, valid or not.
+	 */
+	private long remoteSharers(final DataAccess access) {
+		long others;
+		if (params.remoteAccessesAffectLRU()) {
+			// A remote search that misses in the private caches goes on to reorder the
+			// LLC, so every core has to be searched
+			others = (allProcessors.length == Long.SIZE) ? -1L : (1L << allProcessors.length) - 1;
+		} else {
+			long lineAddr = access.addr().lineAddress().get();
+			others = machine.sharers.get(lineAddr);
+			if (MESISim.assertsEnabled) {
+				for (Processor<Line> p : allProcessors) {
+					boolean holds = p.L1cache.holdsTag(lineAddr) || (p.L2cache != null && p.L2cache.holdsTag(lineAddr));
+					assert holds == ((others & (1L << p.id.get())) != 0L) : "Sharer directory is out of date";
+				}
+			}
+		}
+		return others & ~(1L << id.get());
+	}
+
 	private RemoteReadResponse performRemoteRead(final DataAccess access) {
 		RemoteReadResponse rrr = new RemoteReadResponse();
 		rrr.isShared = false;
 		rrr.providedData = false;
 
-		for (Processor<Line> otherProc : allProcessors) {
-			if (otherProc == this) {
-				continue; // skip ourselves
-			}
+		for (long others = remoteSharers(access); others != 0L; others &= others - 1) {
+			Processor<Line> otherProc = allProcessors[Long.numberOfTrailingZeros(others)];
 
 			MemoryResponse<Line> resp = otherProc.L1cache.search(access.addr(), params.remoteAccessesAffectLRU());
 			Line otherLine = resp.lineHit;
@@ -1282,7 +1298,8 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 			stats.pc_TotalMemoryAccesses.incr();
 		}
 
-		DataMemoryAccessResult dmaResult = new DataMemoryAccessResult();
+		DataMemoryAccessResult dmaResult = accessResult;
+		dmaResult.reset();
 
 		MemoryResponse<Line> resp = L1cache.request(this, access.addr(), false);
 		Line line = resp.lineHit;
@@ -1607,10 +1624,8 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 		int numInvalidations = 0;
 		RemoteWriteResponse rwr = new RemoteWriteResponse();
 
-		for (Processor<Line> otherProc : allProcessors) {
-			if (otherProc == this) {
-				continue; // skip ourselves
-			}
+		for (long others = remoteSharers(access); others != 0L; others &= others - 1) {
+			Processor<Line> otherProc = allProcessors[Long.numberOfTrailingZeros(others)];
 
 			// CE: Servicing a remote write or invalidate miss request
 			if (params.conflictExceptions()) {
@@ -1736,7 +1751,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 		HierarchicalCache<Line> cache = (level == CacheLevel.L1) ? L1cache : L2cache;
 		int size = 0;
 
-		for (LinkedList<Line> set : cache.sets) {
+		for (CacheSet<Line> set : cache.sets) {
 			for (Line l : set) {
 				if (level == CacheLevel.L2) {
 					if (l.lineAddress() != null && skipL1Lines.contains(l.lineAddress().get())) {
@@ -1978,7 +1993,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 		// Clear pausingBits to rerun paused cores
 		if (pausedCores != 0) {
 			long t = 1L;
-			double end_time = stats.pc_BandwidthDrivenCycleCount.stat;
+			double end_time = stats.pc_BandwidthDrivenCycleCount.get();
 			for (short i = 0; i < params.numProcessors(); i++) {
 				if ((pausedCores & t) != 0L) { // core i was paused at a
 												// conflict
@@ -2009,7 +2024,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 	public void checkLongPausingCores(int timeout) {
 		if (pausedCores != 0) {
 			long t = 1L;
-			double end_time = stats.pc_BandwidthDrivenCycleCount.stat;
+			double end_time = stats.pc_BandwidthDrivenCycleCount.get();
 			for (short i = 0; i < params.numProcessors(); i++) {
 				if ((pausedCores & t) != 0L) { // core i was paused at a
 												// conflict
@@ -2074,7 +2089,7 @@ public class Processor<Line extends MESILine> implements CacheCallbacks<Line> {
 
 	private void clearPrivateCacheMetadata(CacheLevel level, boolean toRestartRegion) {
 		HierarchicalCache<Line> cache = (level == CacheLevel.L1) ? L1cache : L2cache;
-		for (LinkedList<Line> set : cache.sets) {
+		for (CacheSet<Line> set : cache.sets) {
 			for (Line l : set) {
 				l.clearSupplied();
 				/*
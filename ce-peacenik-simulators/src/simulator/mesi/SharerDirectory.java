@@ -0,0 +1,119 @@
+package simulator.mesi;
+
+/**
+ * An LLC-side directory of the cores whose private caches hold a line. For every
+ * line address it keeps a bitmask of the cores whose L1 or L2 has a line with
+ * that tag, whether valid or not, since CE also looks at the access bits of
+ * invalid lines. HierarchicalCache keeps it in step with fills of the private
+ * caches, so remote reads and writes only need to look at the cores in the
+ * mask instead of searching the caches of every core.
+ *
+ * Masks live in a flat open-addressed table keyed by line address. A slot with
+ * an empty mask is free, and entries whose mask drops to zero are removed, so
+ * the table only holds lines that are in some private cache. Limited to 64
+ * cores, like the pausing bits.
+ */
+final class SharerDirectory {
+
+	private static final int MIN_CAPACITY = 1024;
+
+	private long[] keys;
+	/** Sharers of each line, 0 for a free slot */
+	private long[] masks;
+	private int mask;
+	private int size = 0;
+
+	SharerDirectory() {
+		allocate(MIN_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		masks = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(long key) {
+		// Murmur3 64-bit finalizer
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	/** Return the slot of lineAddr, or the free slot where it would go. */
+	private int slotOf(long lineAddr) {
+		int slot = hash(lineAddr) & mask;
+		while (masks[slot] != 0L && keys[slot] != lineAddr) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/** Return the bitmask of the cores whose private caches hold lineAddr. */
+	public long get(long lineAddr) {
+		return masks[slotOf(lineAddr)];
+	}
+
+	public void add(long lineAddr, int core) {
+		assert core < Long.SIZE : "The sharer directory supports at most 64 cores";
+		int slot = slotOf(lineAddr);
+		if (masks[slot] == 0L) {
+			keys[slot] = lineAddr;
+			size++;
+		}
+		masks[slot] |= (1L << core);
+		if (size * 4 >= keys.length * 3) {
+			grow();
+		}
+	}
+
+	public void remove(long lineAddr, int core) {
+		int slot = slotOf(lineAddr);
+		if (masks[slot] == 0L) {
+			return;
+		}
+		masks[slot] &= ~(1L << core);
+		if (masks[slot] == 0L) {
+			size--;
+			closeGap(slot);
+		}
+	}
+
+	/** Shift later entries of the probe run back into the freed slot. */
+	private void closeGap(int free) {
+		int slot = free;
+		while (true) {
+			slot = (slot + 1) & mask;
+			if (masks[slot] == 0L) {
+				return;
+			}
+			int home = hash(keys[slot]) & mask;
+			// Move the entry unless its home lies cyclically in (free, slot]
+			boolean stays = (free <= slot) ? (free < home && home <= slot) : (free < home || home <= slot);
+			if (!stays) {
+				keys[free] = keys[slot];
+				masks[free] = masks[slot];
+				masks[slot] = 0L;
+				free = slot;
+			}
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldMasks = masks;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldMasks[i] != 0L) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				masks[slot] = oldMasks[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,27 @@
+package simulator.mesi;
+
+/** The live metrics of a simulation, see SimMonitor. */
+public interface SimMonitorMBean {
+
+	/** Events simulated so far */
+	long getTotalEvents();
+
+	/** Events simulated per second over the last monitor period */
+	double getEventsPerSecond();
+
+	/** The pc_BandwidthDrivenCycleCount of each core */
+	double[] getBandwidthDrivenCycleCounts();
+
+	long getTotalRegionRestarts();
+
+	/** Number of times a core has been paused at a conflict */
+	long getTotalPauses();
+
+	/** Number of cores that are paused right now */
+	int getPausedCores();
+
+	long getHeapUsedBytes();
+
+	/** Number of lines in the global table of the CE metadata */
+	int getGlobalTableLines();
+}
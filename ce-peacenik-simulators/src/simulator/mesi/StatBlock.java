@@ -0,0 +1,79 @@
+package simulator.mesi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The values of the counters of one core, in a dense array with a slot per
+ * counter. Each counter holds the array and its slot, so an increment is a
+ * single array update. The array only grows while the counters of the core are
+ * created, and the counters are then pointed to the new array.
+ *
+ * Values are doubles since cycle counts are incremented by fractional
+ * bandwidth-driven latencies.
+ *
+ * The blocks belong to a Machine (see Machine.statBlocks), and the stats of its
+ * cores are dumped from them.
+ */
+final class StatBlock {
+
+	private static final int INITIAL_SLOTS = 256;
+
+	/**
+	 * The blocks of the machine being built, by core id; global counters use core
+	 * -1. Set by the Machine ctor.
+	 */
+	static Map<Integer, StatBlock> blocks = new HashMap<Integer, StatBlock>();
+
+	private double[] values = new double[INITIAL_SLOTS];
+	private final List<Counter> counters = new ArrayList<Counter>();
+
+	static StatBlock of(CpuId cpu) {
+		int id = cpu.get();
+		StatBlock b = blocks.get(id);
+		if (b == null) {
+			b = new StatBlock();
+			blocks.put(id, b);
+		}
+		return b;
+	}
+
+	/** Give the counter the next slot of this block. */
+	void add(Counter c) {
+		if (counters.size() == values.length) {
+			values = Arrays.copyOf(values, 2 * values.length);
+			for (Counter o : counters) {
+				o.block = values;
+			}
+		}
+		c.block = values;
+		c.slot = counters.size();
+		counters.add(c);
+	}
+
+	/** The counter of this block with the given name, null if none */
+	Counter counter(String name) {
+		for (Counter c : counters) {
+			if (c.name.equals(name)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/** The counters of the given type in the blocks, in block and slot order */
+	static <C extends Counter> List<C> counters(StatBlock[] bs, Class<C> type) {
+		List<C> cs = new ArrayList<C>();
+		for (StatBlock b : bs) {
+			for (Counter c : b.counters) {
+				if (type.isInstance(c)) {
+					cs.add(type.cast(c));
+				}
+			}
+		}
+		return cs;
+	}
+}
@@ -0,0 +1,486 @@
+package simulator.mesi;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+/**
+ * Generates synthetic traces in the binary record format of the Pintool (see
+ * Event::send() in peacenik-pintool/event.hpp and TraceReader), so that the
+ * simulators can be run and scaled without Pin and the PARSEC binaries.
+ *
+ * The events follow the order in which the Pintool sends them. The main thread
+ * (tid 0) starts, spawns the worker threads and starts the ROI. Every thread
+ * then runs regionLength accesses per region, where regions are delimited by
+ * lock acquires (LOCK_ACQUIRE with REG_END, then with REG_BEGIN once the lock
+ * is held) and lock releases (LOCK_RELEASE with REG_END). Like the Pintool,
+ * the generator sends no accesses to the lock words (LOCK_ACQ_READ and the
+ * like). Finally the main thread joins the workers, ends the ROI and finishes.
+ * The threads are interleaved at random, one event at a time, but a thread
+ * never acquires a lock that is held by another one.
+ *
+ * The pattern decides what the regions access:
+ *
+ * private: only lines of the thread's own pool, under a per-thread lock.
+ *
+ * read-shared: reads of a pool shared by all threads, writes to the own pool.
+ *
+ * migratory: the lines of one of a number of objects in the shared pool, each
+ * protected by its own lock, so the lines move from core to core.
+ *
+ * producer-consumer: threads are paired over buffers in the shared pool; the
+ * producer fills the buffer in one region and the consumer drains it in the
+ * next one, under the lock of the buffer.
+ *
+ * racy: the shared pool, with no lock protecting it, so regions conflict.
+ *
+ * lock-heavy: alternates critical sections on a few contended locks with
+ * regions of private work.
+ *
+ * Reads carry the value last written to the address (writes get unique
+ * values), and accesses carry a site (file, line and routine) out of a fixed
+ * set of sites, so conflicts are reported against consistent sites.
+ *
+ * Run with "ant tracegen", passing options through -Dtracegen.args, e.g.,
+ * -Dtracegen.args="--output=/tmp/racy.trace --pattern=racy --threads=8".
+ * The trace is read by the simulator through --tosim-fifo.
+ */
+public final class TraceGenerator {
+
+	enum Pattern {
+		PRIVATE("private"), READ_SHARED("read-shared"), MIGRATORY("migratory"), PRODUCER_CONSUMER(
+				"producer-consumer"), RACY("racy"), LOCK_HEAVY("lock-heavy");
+
+		final String name;
+
+		private Pattern(String name) {
+			this.name = name;
+		}
+
+		static Pattern of(String name) {
+			for (Pattern p : values()) {
+				if (p.name.equals(name)) {
+					return p;
+				}
+			}
+			throw new IllegalArgumentException("Unknown pattern: " + name);
+		}
+	}
+
+	private static final long LOCK_BASE = 0x08000000L;
+	private static final long SHARED_BASE = 0x10000000L;
+	private static final long PRIVATE_BASE = 0x20000000L;
+	private static final long PRIVATE_STRIDE = 0x1000000L;
+	private static final int WORD_SIZE = 8;
+	/** Records written to the file at a time */
+	private static final int BUFFER_RECORDS = 1 << 14;
+
+	/** Stages of a thread */
+	private static final int START = 0, ACQUIRE = 1, BODY = 2, RELEASE = 3, FINISHED = 4;
+
+	/** State of one simulated application thread */
+	private static final class AppThread {
+		final int index;
+		final short tid;
+		int stage = START;
+		/** Regions left to run */
+		long regions;
+		/** Accesses left in the current region */
+		int accesses;
+		/** Accesses since the last basic block event */
+		int blockAccesses;
+		/** Lock of the current region */
+		int lock;
+		/** First word of the current region's data, in the shared or own pool */
+		int first;
+		/** Words of the current region's data */
+		int extent;
+		boolean shared;
+		/** True if the current region only writes, false if it only reads */
+		boolean producing;
+		/** Regions run so far */
+		long ran;
+		short lastLine;
+		short lastFno;
+
+		AppThread(int index) {
+			this.index = index;
+			// Tid 1 is the IO thread of the Pintool, see Machine.cpuOfTid()
+			tid = (short) ((index == 0) ? 0 : index + 1);
+		}
+	}
+
+	private final Pattern pattern;
+	private final int regionLength;
+	private final double writeRatio;
+	private final int lineSize;
+	private final int numLocks;
+	/** Locks of the objects or buffers in the shared pool, the per-thread locks follow */
+	private final int sharedLocks;
+	private final int sites;
+	private final int blockAccesses;
+	private final Random rnd;
+
+	private final AppThread[] threads;
+	/** Current values of the words of the shared pool and of the private pools */
+	private final long[] shared;
+	private final long[][] own;
+	/** Holder of each shared lock (then of each per-thread lock), -1 if free */
+	private final int[] holder;
+	/** Whether each producer-consumer buffer is full */
+	private final boolean[] full;
+
+	private final FileChannel out;
+	private final ByteBuffer buf = ByteBuffer.allocate(TraceReader.RECORD_SIZE * BUFFER_RECORDS);
+	private long records = 0;
+	private long lastValue = 0;
+
+	TraceGenerator(FileChannel out, Pattern pattern, int numThreads, long events, int regionLength, double writeRatio,
+			int lineSize, int footprint, int numLocks, int sites, int blockAccesses, long seed) {
+		if (numThreads < 1 || regionLength < 1 || footprint < 1 || numLocks < 1 || sites < 1
+				|| lineSize < WORD_SIZE) {
+			throw new IllegalArgumentException("Bad trace parameters");
+		}
+		this.out = out;
+		this.pattern = pattern;
+		this.regionLength = regionLength;
+		this.writeRatio = writeRatio;
+		this.lineSize = lineSize;
+		this.numLocks = numLocks;
+		this.sites = sites;
+		this.blockAccesses = blockAccesses;
+		rnd = new Random(seed);
+
+		threads = new AppThread[numThreads];
+		long regions = Math.max(1, events / numThreads / regionLength);
+		for (int i = 0; i < numThreads; i++) {
+			threads[i] = new AppThread(i);
+			threads[i].regions = regions;
+		}
+		shared = new long[footprint * wordsPerLine()];
+		own = new long[numThreads][footprint * wordsPerLine()];
+		full = new boolean[(numThreads + 1) / 2];
+		sharedLocks = Math.max(numLocks, full.length);
+		holder = new int[sharedLocks + numThreads];
+		for (int i = 0; i < holder.length; i++) {
+			holder[i] = -1;
+		}
+	}
+
+	private int wordsPerLine() {
+		return lineSize / WORD_SIZE;
+	}
+
+	/** Write the whole trace. */
+	void generate() throws IOException {
+		AppThread main = threads[0];
+		record(EventType.THREAD_START, EventType.REG_END, main.tid, 0, 0, 0);
+		for (int i = 1; i < threads.length; i++) {
+			record(EventType.THREAD_SPAWN, EventType.REG_END, main.tid, 0, 0, 0);
+			record(EventType.THREAD_START, EventType.REG_END, threads[i].tid, 0, 0, 0);
+		}
+		for (AppThread t : threads) {
+			t.stage = ACQUIRE;
+		}
+		record(EventType.ROI_START, EventType.INVALID_EVENT, main.tid, 0, 0, 0);
+
+		int live = threads.length;
+		while (live > 0) {
+			AppThread t = pickRunnable();
+			step(t);
+			if (t.stage == FINISHED) {
+				live--;
+			}
+		}
+		// All workers have finished and the main thread has done its part
+		for (int i = 1; i < threads.length; i++) {
+			record(EventType.THREAD_JOIN, EventType.REG_END, main.tid, 0, 0, 0);
+		}
+		record(EventType.ROI_END, EventType.INVALID_EVENT, main.tid, 0, 0, 0);
+		record(EventType.THREAD_FINISH, EventType.REG_END, main.tid, 0, 0, 0);
+		flush();
+	}
+
+	/** A random thread that can make progress */
+	private AppThread pickRunnable() {
+		int start = rnd.nextInt(threads.length);
+		for (int k = 0; k < threads.length; k++) {
+			AppThread t = threads[(start + k) % threads.length];
+			if (runnable(t)) {
+				return t;
+			}
+		}
+		throw new IllegalStateException("No runnable thread");
+	}
+
+	private boolean runnable(AppThread t) {
+		switch (t.stage) {
+		case FINISHED:
+			return false;
+		case ACQUIRE:
+			if (t.regions == 0) {
+				// The main thread finishes last, after joining all the workers
+				if (t.index == 0) {
+					for (int i = 1; i < threads.length; i++) {
+						if (threads[i].stage != FINISHED) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+			planRegion(t);
+			if (holder[t.lock] != -1) {
+				return false;
+			}
+			return pattern != Pattern.PRODUCER_CONSUMER || full[t.index / 2] != t.producing;
+		default:
+			return true;
+		}
+	}
+
+	/** Choose the lock and the data of the next region of the thread. */
+	private void planRegion(AppThread t) {
+		int privateLock = sharedLocks + t.index;
+		int words = shared.length;
+		t.shared = true;
+		t.producing = false;
+		switch (pattern) {
+		case PRIVATE:
+		case READ_SHARED:
+		case RACY:
+			t.lock = privateLock;
+			t.first = 0;
+			t.extent = words;
+			t.shared = pattern != Pattern.PRIVATE;
+			break;
+		case MIGRATORY:
+			// The object is kept once chosen, until the region has run
+			if (t.lock >= numLocks || t.extent == 0) {
+				t.lock = rnd.nextInt(numLocks);
+			}
+			objectOf(t, t.lock, numLocks);
+			break;
+		case PRODUCER_CONSUMER: {
+			int buffer = t.index / 2;
+			boolean solo = t.index == threads.length - 1 && threads.length % 2 == 1;
+			t.lock = buffer;
+			t.producing = solo ? t.ran % 2 == 0 : t.index % 2 == 0;
+			objectOf(t, buffer, full.length);
+			break;
+		}
+		case LOCK_HEAVY:
+			if (t.ran % 2 == 0) {
+				if (t.lock >= numLocks || t.extent == 0) {
+					t.lock = rnd.nextInt(numLocks);
+				}
+				objectOf(t, t.lock, numLocks);
+			} else {
+				t.lock = privateLock;
+				t.first = 0;
+				t.extent = words;
+				t.shared = false;
+			}
+			break;
+		default:
+			assert false;
+		}
+	}
+
+	/** Data of the given one of n objects that split the shared pool */
+	private void objectOf(AppThread t, int object, int n) {
+		int words = Math.max(1, shared.length / n);
+		t.first = (object * words) % shared.length;
+		t.extent = Math.min(words, shared.length - t.first);
+	}
+
+	/** Emit the next event(s) of the thread. */
+	private void step(AppThread t) throws IOException {
+		switch (t.stage) {
+		case ACQUIRE: {
+			if (t.regions == 0) {
+				if (t.index != 0) {
+					record(EventType.THREAD_FINISH, EventType.REG_END, t.tid, 0, 0, 0);
+				}
+				t.stage = FINISHED;
+				return;
+			}
+			long lockAddr = lockAddress(t.lock);
+			holder[t.lock] = t.index;
+			record(EventType.LOCK_ACQUIRE, EventType.REG_END, t.tid, lockAddr, 0, 0);
+			record(EventType.LOCK_ACQUIRE, EventType.REG_BEGIN, t.tid, lockAddr, 0, 0);
+			t.accesses = regionLength;
+			t.stage = BODY;
+			return;
+		}
+		case BODY: {
+			if (blockAccesses > 0 && t.blockAccesses++ % blockAccesses == 0) {
+				// About one memory operand every three instructions
+				record(EventType.BASIC_BLOCK, EventType.INVALID_EVENT, t.tid, 0, 0, 3 * blockAccesses);
+			}
+			access(t, regionLength - t.accesses);
+			if (--t.accesses == 0) {
+				t.stage = RELEASE;
+			}
+			return;
+		}
+		case RELEASE: {
+			long lockAddr = lockAddress(t.lock);
+			record(EventType.LOCK_RELEASE, EventType.REG_END, t.tid, lockAddr, 0, 0);
+			holder[t.lock] = -1;
+			if (pattern == Pattern.PRODUCER_CONSUMER) {
+				full[t.lock] = t.producing;
+			}
+			t.extent = 0;
+			t.ran++;
+			t.regions--;
+			t.stage = ACQUIRE;
+			return;
+		}
+		default:
+			throw new IllegalStateException("Thread " + t.tid + " cannot run in stage " + t.stage);
+		}
+	}
+
+	/** Emit the k-th access of the current region of the thread. */
+	private void access(AppThread t, int k) throws IOException {
+		boolean write;
+		boolean inShared = t.shared;
+		int word;
+		if (pattern == Pattern.PRODUCER_CONSUMER) {
+			// Sweep the buffer, so that the consumer reads what the producer wrote
+			write = t.producing;
+			word = t.first + k % t.extent;
+		} else {
+			write = rnd.nextDouble() < writeRatio;
+			if (pattern == Pattern.READ_SHARED && write) {
+				inShared = false;
+			}
+			word = t.first + rnd.nextInt(t.extent);
+		}
+		long[] values = inShared ? shared : own[t.index];
+		word %= values.length;
+		long addr = (inShared ? SHARED_BASE : PRIVATE_BASE + t.index * PRIVATE_STRIDE) + (long) word * WORD_SIZE;
+		long value;
+		if (write) {
+			value = ++lastValue;
+			values[word] = value;
+		} else {
+			value = values[word];
+		}
+
+		// Reads and writes come from separate sets of sites
+		int site = k % sites;
+		short line = (short) (1 + site + (write ? sites : 0));
+		short fno = (short) (1 + pattern.ordinal());
+		short rno = (short) (1 + site % 16);
+		recordAccess(write ? EventType.MEMORY_WRITE : EventType.MEMORY_READ, t, addr, value, line, fno, rno);
+		t.lastLine = line;
+		t.lastFno = fno;
+	}
+
+	private long lockAddress(int lock) {
+		return LOCK_BASE + (long) lock * lineSize;
+	}
+
+	private void record(EventType type, EventType semantics, short tid, long addr, int size, long valueOrInsns)
+			throws IOException {
+		boolean bb = type == EventType.BASIC_BLOCK;
+		put(type, semantics, tid, addr, size, bb ? 0 : valueOrInsns, bb ? (int) valueOrInsns : 0, (short) 0,
+				(short) 0, (short) 0, (short) 0, (short) 0);
+	}
+
+	private void recordAccess(EventType type, AppThread t, long addr, long value, short line, short fno, short rno)
+			throws IOException {
+		put(type, EventType.INVALID_EVENT, t.tid, addr, WORD_SIZE, value, 0, line, fno, rno, t.lastLine, t.lastFno);
+	}
+
+	/** Append one record, laid out as TraceReader.next() decodes it */
+	private void put(EventType type, EventType semantics, short tid, long addr, int size, long value, int insnCount,
+			short line, short fno, short rno, short lastLine, short lastFno) throws IOException {
+		if (buf.remaining() < TraceReader.RECORD_SIZE) {
+			flush();
+		}
+		buf.put(type.asByte());
+		buf.put(semantics.asByte());
+		buf.putShort(tid);
+		buf.putLong(addr);
+		buf.putInt(size);
+		buf.put((byte) 0); // not a stack reference
+		buf.putLong(value);
+		buf.putInt(insnCount);
+		buf.putShort(line);
+		buf.putShort(fno);
+		buf.putShort(rno);
+		buf.putInt((int) ++records); // event id, as numbered by the Pintool
+		buf.putShort(lastLine);
+		buf.putShort(lastFno);
+	}
+
+	private void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			out.write(buf);
+		}
+		buf.clear();
+	}
+
+	long records() {
+		return records;
+	}
+
+	public static void main(String[] args) throws IOException {
+		OptionParser parser = new OptionParser();
+		OptionSpec<String> outputOpt = parser.accepts("output", "trace file (or FIFO) to write").withRequiredArg();
+		OptionSpec<String> patternOpt = parser
+				.accepts("pattern", "private, read-shared, migratory, producer-consumer, racy or lock-heavy")
+				.withRequiredArg().defaultsTo("private");
+		OptionSpec<Integer> threadsOpt = parser.accepts("threads", "application threads, including the main one")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(4);
+		OptionSpec<Long> eventsOpt = parser.accepts("events", "memory accesses in the ROI, over all threads")
+				.withRequiredArg().ofType(Long.class).defaultsTo(1000000L);
+		OptionSpec<Integer> regionOpt = parser.accepts("region-length", "memory accesses per region")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(100);
+		OptionSpec<Double> writeOpt = parser.accepts("write-ratio", "share of the accesses that are writes")
+				.withRequiredArg().ofType(Double.class).defaultsTo(0.3);
+		OptionSpec<Integer> lineOpt = parser.accepts("line-size", "line size the data is laid out for")
+				.withRequiredArg().ofType(Integer.class).defaultsTo(64);
+		OptionSpec<Integer> footprintOpt = parser
+				.accepts("footprint", "lines of the shared pool and of each private pool").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(1024);
+		OptionSpec<Integer> locksOpt = parser
+				.accepts("locks", "shared locks, i.e., objects of migratory and lock-heavy").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(8);
+		OptionSpec<Integer> sitesOpt = parser.accepts("sites", "distinct read (and write) sites").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(32);
+		OptionSpec<Integer> blockOpt = parser
+				.accepts("block-accesses", "memory accesses per basic block event, 0 for none").withRequiredArg()
+				.ofType(Integer.class).defaultsTo(4);
+		OptionSpec<Long> seedOpt = parser.accepts("seed", "random seed").withRequiredArg().ofType(Long.class)
+				.defaultsTo(42L);
+		OptionSpec<Void> helpOpt = parser.accepts("help", "print this help message");
+		OptionSet opts = parser.parse(args);
+		if (opts.has(helpOpt) || !opts.has(outputOpt)) {
+			parser.printHelpOn(System.out);
+			return;
+		}
+
+		FileOutputStream fos = new FileOutputStream(opts.valueOf(outputOpt));
+		try {
+			TraceGenerator gen = new TraceGenerator(fos.getChannel(), Pattern.of(opts.valueOf(patternOpt)),
+					opts.valueOf(threadsOpt), opts.valueOf(eventsOpt), opts.valueOf(regionOpt),
+					opts.valueOf(writeOpt), opts.valueOf(lineOpt), opts.valueOf(footprintOpt),
+					opts.valueOf(locksOpt), opts.valueOf(sitesOpt), opts.valueOf(blockOpt), opts.valueOf(seedOpt));
+			gen.generate();
+			System.out.println("[tracegen] wrote " + gen.records() + " records to " + opts.valueOf(outputOpt));
+		} finally {
+			fos.close();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package simulator.mesi;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decodes the fixed-size event records sent by the Pintool (see Event::send() in
+ * peacenik-pintool/event.hpp). All multi-byte fields are big-endian.
+ *
+ * A saved trace (a regular file) is memory mapped in record-aligned windows, so
+ * no record straddles two windows. A FIFO is read through a large direct buffer
+ * that is refilled from the channel. The fields of the last record read by
+ * next() are kept in this object, so decoding itself does not allocate.
+ *
+ * When run under MultiSim, the trace is instead taken from a queue of chunks of
+ * whole records that the driver shares among all configurations. The same kind
+ * of queue lets a reader prefetch the trace on a separate thread (see
+ * prefetch()).
+ */
+final class TraceReader implements Closeable {
+
+	/** type, semantics, tid, addr, memOpSize, bits, value, insnCount, line, fno, rno, eventID, lastLine, lastFno */
+	static final int RECORD_SIZE = 1 + 1 + 2 + 8 + 4 + 1 + 8 + 4 + 2 + 2 + 2 + 4 + 2 + 2;
+
+	/** Mapped window for regular files, a multiple of the record size (~688 MB) */
+	private static final long MAP_WINDOW_SIZE = RECORD_SIZE * (1L << 24);
+	/** Direct buffer for FIFOs, a multiple of the record size (~2.8 MB) */
+	private static final int STREAM_BUFFER_SIZE = RECORD_SIZE * (1 << 16);
+
+	/** Chunks a prefetching thread may run ahead of the simulator by */
+	private static final int PREFETCH_CHUNKS = 16;
+	/** Size of the chunks a mapped window is handed out in when prefetching */
+	private static final int PREFETCH_CHUNK_SIZE = STREAM_BUFFER_SIZE;
+	private static final int PAGE_SIZE = 4096;
+
+	/** Set by MultiSim before the simulator starts, null otherwise */
+	static BlockingQueue<ByteBuffer> sharedFeed = null;
+
+	private final ReadableByteChannel channel;
+	private final boolean mapped;
+	private final BlockingQueue<ByteBuffer> feed;
+	/** Size of the mapped file */
+	private final long fileSize;
+	/** File offset just past the currently mapped window */
+	private long windowEnd = 0;
+	private ByteBuffer buf;
+	/** The thread that fills the feed of a prefetching reader, null otherwise */
+	private Thread prefetcher = null;
+	/** Set by the prefetching thread if reading the trace failed */
+	private volatile IOException prefetchFailure = null;
+	/** The reader a prefetching thread reads from */
+	private TraceReader prefetchSource = null;
+
+	// Fields of the last record
+	byte type;
+	byte semantics;
+	short tid;
+	long addr;
+	int memOpSize;
+	byte bits;
+	long value;
+	int insnCount;
+	short lineno;
+	short fno;
+	short rno;
+	int eventID;
+	short lastLineno;
+	short lastFno;
+
+	private TraceReader(FileChannel fc) throws IOException {
+		channel = fc;
+		mapped = true;
+		feed = null;
+		fileSize = fc.size();
+		buf = ByteBuffer.allocate(0);
+	}
+
+	private TraceReader(ReadableByteChannel ch) {
+		channel = ch;
+		mapped = false;
+		feed = null;
+		fileSize = -1;
+		buf = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+		buf.flip(); // Start out empty
+	}
+
+	private TraceReader(BlockingQueue<ByteBuffer> q) {
+		channel = null;
+		mapped = false;
+		feed = q;
+		fileSize = -1;
+		buf = ByteBuffer.allocate(0);
+	}
+
+	/** Open a saved trace or a FIFO written to by the Pintool. */
+	static TraceReader open(String name) throws IOException {
+		if (sharedFeed != null) {
+			return new TraceReader(sharedFeed);
+		}
+		Path path = Paths.get(name);
+		if (Files.isRegularFile(path)) {
+			return new TraceReader(FileChannel.open(path, StandardOpenOption.READ));
+		}
+		// A FIFO cannot be mapped, so read it as a plain byte channel
+		ReadableByteChannel ch = new FileInputStream(name).getChannel();
+		return new TraceReader(ch);
+	}
+
+	/**
+	 * Decode the next record into the fields of this object. Throws EOFException
+	 * if the trace does not have another complete record.
+	 */
+	void next() throws IOException {
+		if (buf.remaining() < RECORD_SIZE) {
+			if (feed != null) {
+				takeChunk();
+			} else if (mapped) {
+				mapNextWindow();
+			} else {
+				refill();
+			}
+		}
+		ByteBuffer b = buf;
+		type = b.get();
+		semantics = b.get();
+		tid = b.getShort();
+		addr = b.getLong();
+		memOpSize = b.getInt();
+		bits = b.get();
+		value = b.getLong();
+		insnCount = b.getInt();
+		lineno = b.getShort();
+		fno = b.getShort();
+		rno = b.getShort();
+		eventID = b.getInt();
+		lastLineno = b.getShort();
+		lastFno = b.getShort();
+	}
+
+	private void mapNextWindow() throws IOException {
+		// Windows are record-aligned, so a partial record can only be at the end of
+		// the file
+		long length = Math.min(MAP_WINDOW_SIZE, fileSize - windowEnd);
+		if (length < RECORD_SIZE) {
+			throw new EOFException();
+		}
+		buf = ((FileChannel) channel).map(MapMode.READ_ONLY, windowEnd, length);
+		windowEnd += length;
+	}
+
+	private void refill() throws IOException {
+		buf.compact();
+		while (buf.position() < RECORD_SIZE) {
+			if (channel.read(buf) < 0) {
+				buf.flip();
+				throw new EOFException();
+			}
+		}
+		buf.flip();
+	}
+
+	private void takeChunk() throws IOException {
+		try {
+			buf = feed.take();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		// An empty chunk marks the end of the trace
+		if (buf.remaining() < RECORD_SIZE) {
+			if (prefetchFailure != null) {
+				throw prefetchFailure;
+			}
+			throw new EOFException();
+		}
+	}
+
+	/**
+	 * Return a reader for the rest of this trace that is read ahead, on a separate
+	 * thread, by up to PREFETCH_CHUNKS chunks of records. Waiting on a FIFO and
+	 * faulting in the pages of a mapped trace then overlap with the simulation,
+	 * while the simulator still sees the records in trace order. This reader must
+	 * not be used afterwards; closing the returned reader closes it.
+	 */
+	TraceReader prefetch() {
+		assert feed == null;
+		final BlockingQueue<ByteBuffer> q = new ArrayBlockingQueue<ByteBuffer>(PREFETCH_CHUNKS);
+		final TraceReader front = new TraceReader(q);
+		front.prefetchSource = this;
+		front.prefetcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ByteBuffer chunk;
+					while ((chunk = nextChunk()) != null) {
+						if (mapped) {
+							// Hand out a window in pieces, so that the simulator can start on a piece
+							// while the later ones are faulted in
+							for (int from = 0; from < chunk.limit(); from += PREFETCH_CHUNK_SIZE) {
+								ByteBuffer piece = chunk.duplicate();
+								piece.position(from);
+								piece.limit(Math.min(from + PREFETCH_CHUNK_SIZE, chunk.limit()));
+								piece = piece.slice();
+								touchPages(piece);
+								q.put(piece);
+							}
+						} else {
+							q.put(chunk);
+						}
+					}
+				} catch (IOException ioe) {
+					front.prefetchFailure = ioe;
+				} catch (InterruptedException ie) {
+					return; // The simulator has closed the reader
+				}
+				try {
+					q.put(ByteBuffer.allocate(0)); // End of the trace
+				} catch (InterruptedException ie) {
+					// The simulator has closed the reader
+				}
+			}
+		}, "trace-prefetcher");
+		front.prefetcher.setDaemon(true);
+		front.prefetcher.start();
+		return front;
+	}
+
+	/** Read one byte of every page of a mapped chunk, so it is in memory */
+	private static void touchPages(ByteBuffer chunk) {
+		for (int i = 0; i < chunk.limit(); i += PAGE_SIZE) {
+			chunk.get(i);
+		}
+	}
+
+	/**
+	 * Return the rest of the trace as a chunk of whole records, or null at the end
+	 * of the trace. Used by MultiSim and prefetch(): a chunk is never reused by
+	 * this reader, so it can be read through duplicate() views by several
+	 * simulators at once. Chunks of a mapped trace are views of the mapping;
+	 * chunks of a FIFO are copied out of the stream buffer.
+	 */
+	ByteBuffer nextChunk() throws IOException {
+		assert feed == null;
+		try {
+			if (buf.remaining() < RECORD_SIZE) {
+				if (mapped) {
+					mapNextWindow();
+				} else {
+					refill();
+				}
+			}
+		} catch (EOFException eof) {
+			return null;
+		}
+		int length = buf.remaining() - buf.remaining() % RECORD_SIZE;
+		ByteBuffer chunk;
+		if (mapped) {
+			chunk = buf.slice();
+			chunk.limit(length);
+		} else {
+			ByteBuffer src = buf.duplicate();
+			src.limit(src.position() + length);
+			chunk = ByteBuffer.allocate(length);
+			chunk.put(src);
+			chunk.flip();
+		}
+		buf.position(buf.position() + length);
+		return chunk.asReadOnlyBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (prefetcher != null) {
+			prefetcher.interrupt();
+			prefetchSource.close();
+		}
+		if (channel != null) {
+			channel.close();
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package simulator.mesi;
 
-import simulator.mesi.MESISim.PARSEC_PHASE;
-
 public class tmpCounter {
 	private double stat = 0;
 
@@ -16,7 +14,7 @@ public class tmpCounter {
 	}
 
 	public void incr(double a) {
-		if (!MESISim.modelOnlyROI() || MESISim.getPARSECPhase() == PARSEC_PHASE.IN_ROI) {
+		if (Counter.counting()) {
 			stat += a;
 		}
 	}
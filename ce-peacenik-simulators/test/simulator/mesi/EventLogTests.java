@@ -0,0 +1,158 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class EventLogTests {
+
+	/** An event whose fields all derive from n */
+	static Event event(int n) {
+		EventType type = (n % 3 == 0) ? EventType.LOCK_ACQUIRE : EventType.MEMORY_READ;
+		Event e = new Event(type, (n % 3 == 0) ? EventType.REG_END : EventType.INVALID_EVENT, (byte) (n % 7));
+		e.addr = 0x7f0000000000L + n * 8L;
+		e.memOpSize = (byte) (1 + n % 8);
+		e.stackRef = n % 2 == 0;
+		e.value = -n;
+		e.insnCount = n * 3;
+		e.siteIndex = n + 1;
+		return e;
+	}
+
+	static void assertEvent(int n, Event e) {
+		Event x = event(n);
+		assertEquals(x.type, e.type);
+		assertEquals(x.semantics, e.semantics);
+		assertEquals(x.tid, e.tid);
+		assertEquals(x.addr, e.addr);
+		assertEquals(x.memOpSize, e.memOpSize);
+		assertEquals(x.stackRef, e.stackRef);
+		assertEquals(x.value, e.value);
+		assertEquals(x.insnCount, e.insnCount);
+		assertEquals(x.siteIndex, e.siteIndex);
+	}
+
+	static void assertLog(Deque<Integer> expected, EventLog log) {
+		assertEquals(expected.size(), log.size());
+		assertEquals(expected.isEmpty(), log.isEmpty());
+		int i = 0;
+		for (int n : expected) {
+			assertEvent(n, log.get(i++));
+		}
+	}
+
+	@Test
+	public void testAddPoll() {
+		EventLog log = new EventLog();
+		assertTrue(log.isEmpty());
+		for (int n = 0; n < 10; n++) {
+			log.add(event(n));
+		}
+		for (int n = 0; n < 10; n++) {
+			assertEvent(n, log.pollFirst());
+		}
+		assertTrue(log.isEmpty());
+	}
+
+	/** The ring wraps around at both ends, and grows while it is wrapped. */
+	@Test
+	public void testWraparoundAndGrowth() {
+		EventLog log = new EventLog();
+		Deque<Integer> expected = new ArrayDeque<Integer>();
+		// Move the head to the middle of the initial ring, then wrap the tail
+		for (int n = 0; n < 40; n++) {
+			log.add(event(n));
+			expected.addLast(n);
+		}
+		log.discardFirst(30);
+		for (int i = 0; i < 30; i++) {
+			expected.removeFirst();
+		}
+		for (int n = 40; n < 90; n++) {
+			log.add(event(n));
+			expected.addLast(n);
+		}
+		assertLog(expected, log);
+		// Fill the ring, and grow it while it wraps
+		for (int n = 90; n < 200; n++) {
+			log.add(event(n));
+			expected.addLast(n);
+		}
+		assertLog(expected, log);
+
+		// addFirst() at slot 0 wraps the head to the end of the ring
+		log.clear();
+		expected.clear();
+		for (int n = 0; n < 100; n++) {
+			log.addFirst(event(n));
+			expected.addFirst(n);
+		}
+		assertLog(expected, log);
+	}
+
+	@Test
+	public void testRandomOps() {
+		Random rnd = new Random(3);
+		EventLog log = new EventLog();
+		Deque<Integer> expected = new ArrayDeque<Integer>();
+		for (int n = 0; n < 100000; n++) {
+			switch (rnd.nextInt(4)) {
+			case 0:
+				log.addFirst(event(n));
+				expected.addFirst(n);
+				break;
+			case 1:
+				if (!expected.isEmpty()) {
+					assertEvent(expected.removeFirst(), log.pollFirst());
+				}
+				break;
+			default:
+				log.add(event(n));
+				expected.addLast(n);
+			}
+			if (n % 5000 == 0) {
+				assertLog(expected, log);
+			}
+		}
+		assertLog(expected, log);
+	}
+
+	/** Replayed events share the Event of the log, and may be put back. */
+	@Test
+	public void testReplayedEventIsReused() {
+		EventLog log = new EventLog();
+		log.add(event(1));
+		log.add(event(2));
+		Event e = log.get(0);
+		assertSame(e, log.get(1));
+		assertEvent(2, e);
+
+		// Put the event back in front of the log, as when a paused core resumes
+		e = log.pollFirst();
+		assertEvent(1, e);
+		log.addFirst(e);
+		assertEvent(1, log.get(0));
+		assertEvent(2, log.get(1));
+		assertEquals(2, log.size());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetPastEnd() {
+		EventLog log = new EventLog();
+		log.add(event(1));
+		log.get(1);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testDiscardPastEnd() {
+		EventLog log = new EventLog();
+		log.add(event(1));
+		log.discardFirst(2);
+	}
+}
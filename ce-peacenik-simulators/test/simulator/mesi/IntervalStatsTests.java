@@ -0,0 +1,168 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simulator.mesi.MESISim.PARSEC_PHASE;
+
+public final class IntervalStatsTests {
+
+	static final int CORES = 2;
+
+	StatBlock[] cores;
+	Counter[] reads;
+	Counter[] cycles;
+	File file;
+
+	long savedEvents;
+	PARSEC_PHASE savedPhase;
+
+	@Before
+	public void setUp() throws Exception {
+		savedEvents = MESISim.totalEvents;
+		savedPhase = MESISim.getPARSECPhase();
+		MESISim.totalEvents = 0;
+		MESISim.setPhase(PARSEC_PHASE.IN_ROI);
+
+		// The counters of two cores, in blocks of their own
+		StatBlock.blocks = new HashMap<Integer, StatBlock>();
+		cores = new StatBlock[CORES];
+		reads = new Counter[CORES];
+		cycles = new Counter[CORES];
+		for (int i = 0; i < CORES; i++) {
+			Counter.currentCpu = CpuId.of(i);
+			reads[i] = new SumCounter("pc_Reads");
+			cycles[i] = new MaxCounter("pc_BandwidthDrivenCycleCount");
+			cores[i] = StatBlock.of(CpuId.of(i));
+		}
+		Counter.currentCpu = null;
+		file = File.createTempFile("intervals", ".bin");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		MESISim.totalEvents = savedEvents;
+		MESISim.setPhase(savedPhase);
+		file.delete();
+	}
+
+	/** An event of core cid with the given reads and cycles */
+	void event(IntervalStats s, int cid, int n, double c) throws IOException {
+		MESISim.totalEvents++;
+		reads[cid].set(reads[cid].get() + n);
+		cycles[cid].set(cycles[cid].get() + c);
+		s.eventHandled(cid);
+	}
+
+	String csv(IntervalStats.Reader r, boolean deltas, String... names) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		IntervalStats.printCsv(r, Arrays.asList(names), deltas, new PrintStream(bytes, true));
+		return bytes.toString();
+	}
+
+	@Test
+	public void testEventIntervals() throws IOException {
+		IntervalStats s = new IntervalStats(cores, file.getPath(), 3, 0, Collections.<String> emptyList());
+		for (int i = 0; i < 7; i++) {
+			event(s, i % CORES, 1, 10);
+		}
+		s.close();
+
+		IntervalStats.Reader r = new IntervalStats.Reader(file.getPath());
+		// The SumCounters of the cores come first, then the MaxCounters
+		assertArrayEquals(new String[] { "pc_Reads", "pc_Reads", "pc_BandwidthDrivenCycleCount",
+				"pc_BandwidthDrivenCycleCount" }, r.names);
+		assertArrayEquals(new short[] { 0, 1, 0, 1 }, r.cpus);
+
+		// A row every 3 events, and the last one at the end
+		long[] events = { 3, 6, 7 };
+		double[][] values = { { 2, 1, 20, 10 }, { 3, 3, 30, 30 }, { 4, 3, 40, 30 } };
+		for (int row = 0; row < events.length; row++) {
+			assertTrue(r.next());
+			assertEquals(events[row], r.events());
+			assertEquals(PARSEC_PHASE.IN_ROI, r.phase());
+			for (int i = 0; i < values[row].length; i++) {
+				assertEquals(values[row][i], r.value(i), 0);
+			}
+		}
+		assertFalse(r.next());
+		r.close();
+	}
+
+	@Test
+	public void testCycleIntervals() throws IOException {
+		IntervalStats s = new IntervalStats(cores, file.getPath(), 0, 25,
+				Arrays.asList("pc_BandwidthDrivenCycleCount"));
+		event(s, 0, 1, 10);
+		event(s, 0, 1, 10);
+		event(s, 1, 1, 30); // the slowest core is at 30
+		event(s, 0, 1, 20);
+		event(s, 0, 1, 20); // 60 >= 30 + 25
+		// Cycles charged to core 1 by another core are seen at its next event
+		cycles[1].set(100);
+		event(s, 0, 1, 0);
+		event(s, 1, 1, 0);
+		s.close();
+
+		IntervalStats.Reader r = new IntervalStats.Reader(file.getPath());
+		assertArrayEquals(new String[] { "pc_BandwidthDrivenCycleCount", "pc_BandwidthDrivenCycleCount" }, r.names);
+		long[] events = { 3, 5, 7, 7 };
+		for (long e : events) {
+			assertTrue(r.next());
+			assertEquals(e, r.events());
+		}
+		assertEquals(60, r.value(0), 0);
+		assertEquals(100, r.value(1), 0);
+		assertFalse(r.next());
+		r.close();
+	}
+
+	@Test
+	public void testCsv() throws IOException {
+		IntervalStats s = new IntervalStats(cores, file.getPath(), 2, 0, Collections.<String> emptyList());
+		event(s, 0, 2, 10);
+		event(s, 1, 1, 10);
+		event(s, 0, 3, 10);
+		event(s, 0, 1, 10);
+		event(s, 1, 4, 10);
+		s.close();
+
+		IntervalStats.Reader r = new IntervalStats.Reader(file.getPath());
+		assertEquals("events,phase,pc_Reads@0,pc_Reads@1\n" //
+				+ "2,IN_ROI,2.0,1.0\n" //
+				+ "4,IN_ROI,6.0,1.0\n" //
+				+ "5,IN_ROI,6.0,5.0\n", csv(r, false, "pc_Reads").replace(System.lineSeparator(), "\n"));
+		r.close();
+
+		r = new IntervalStats.Reader(file.getPath());
+		assertEquals("events,phase,pc_Reads@0,pc_Reads@1," //
+				+ "pc_BandwidthDrivenCycleCount@0,pc_BandwidthDrivenCycleCount@1\n" //
+				+ "2,IN_ROI,2.0,1.0,10.0,10.0\n" //
+				+ "4,IN_ROI,4.0,0.0,20.0,0.0\n" //
+				+ "5,IN_ROI,0.0,4.0,0.0,10.0\n", csv(r, true).replace(System.lineSeparator(), "\n"));
+		r.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAnIntervalStatsFile() throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		out.close();
+		new IntervalStats.Reader(file.getPath());
+	}
+}
@@ -0,0 +1,145 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class LongHashMapTests {
+
+	/** Line addresses, whose low bits are all zero */
+	static long key(int i) {
+		return 0x7f0000000000L + ((long) i << 6);
+	}
+
+	/** Check that m holds exactly the entries of the reference map */
+	static void assertSameEntries(Map<Long, String> expected, LongHashMap<String> m) {
+		assertEquals(expected.size(), m.size());
+		assertEquals(expected.isEmpty(), m.isEmpty());
+		for (Map.Entry<Long, String> e : expected.entrySet()) {
+			assertEquals(e.getValue(), m.get(e.getKey()));
+		}
+		Map<Long, String> seen = new HashMap<Long, String>();
+		LongHashMap<String>.Cursor c = m.cursor();
+		while (c.advance()) {
+			assertNull("key seen twice", seen.put(c.key(), c.value()));
+		}
+		assertEquals(expected, seen);
+	}
+
+	@Test
+	public void testPutGetRemove() {
+		LongHashMap<String> m = new LongHashMap<String>();
+		assertTrue(m.isEmpty());
+		assertNull(m.put(key(1), "a"));
+		assertEquals("a", m.put(key(1), "b"));
+		assertEquals("b", m.get(key(1)));
+		assertTrue(m.containsKey(key(1)));
+		assertFalse(m.containsKey(key(2)));
+		assertNull(m.get(key(2)));
+		assertNull(m.remove(key(2)));
+		assertEquals("b", m.remove(key(1)));
+		assertNull(m.remove(key(1)));
+		assertTrue(m.isEmpty());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNullValue() {
+		new LongHashMap<String>().put(key(1), null);
+	}
+
+	@Test
+	public void testGrowth() {
+		Map<Long, String> expected = new HashMap<Long, String>();
+		LongHashMap<String> m = new LongHashMap<String>();
+		for (int i = 0; i < 10000; i++) {
+			m.put(key(i), "v" + i);
+			expected.put(key(i), "v" + i);
+		}
+		assertSameEntries(expected, m);
+	}
+
+	/** Keys found after tombstones in their probe sequence */
+	@Test
+	public void testLookupsAfterTombstones() {
+		Map<Long, String> expected = new HashMap<Long, String>();
+		LongHashMap<String> m = new LongHashMap<String>();
+		// Stay below the threshold of the initial table, so the tombstones are not
+		// dropped by a rebuild
+		for (int i = 0; i < 11; i++) {
+			m.put(key(i), "v" + i);
+			expected.put(key(i), "v" + i);
+		}
+		for (int i = 0; i < 11; i += 2) {
+			assertEquals("v" + i, m.remove(key(i)));
+			expected.remove(key(i));
+		}
+		assertSameEntries(expected, m);
+		for (int i = 0; i < 11; i += 2) {
+			assertFalse(m.containsKey(key(i)));
+		}
+
+		// Re-adding a key reuses a tombstone rather than duplicating the key
+		m.put(key(4), "w4");
+		expected.put(key(4), "w4");
+		m.put(key(5), "w5");
+		expected.put(key(5), "w5");
+		assertSameEntries(expected, m);
+	}
+
+	/** Insert/remove churn that goes through many rebuilds, with and without growth */
+	@Test
+	public void testChurn() {
+		Random rnd = new Random(7);
+		Map<Long, String> expected = new HashMap<Long, String>();
+		LongHashMap<String> m = new LongHashMap<String>();
+		for (int round = 0; round < 200000; round++) {
+			int i = rnd.nextInt((round < 100000) ? 4000 : 300);
+			if (rnd.nextInt(3) == 0) {
+				assertEquals(expected.remove(key(i)), m.remove(key(i)));
+			} else {
+				String v = "v" + round;
+				assertEquals(expected.put(key(i), v), m.put(key(i), v));
+			}
+		}
+		assertSameEntries(expected, m);
+		m.clear();
+		expected.clear();
+		assertSameEntries(expected, m);
+	}
+
+	@Test
+	public void testCursorRemove() {
+		Map<Long, String> expected = new HashMap<Long, String>();
+		LongHashMap<String> m = new LongHashMap<String>();
+		for (int i = 0; i < 1000; i++) {
+			m.put(key(i), "v" + i);
+			expected.put(key(i), "v" + i);
+		}
+		LongHashMap<String>.Cursor c = m.cursor();
+		while (c.advance()) {
+			if (c.key() % 3 == 0) {
+				expected.remove(c.key());
+				c.remove();
+			}
+		}
+		assertSameEntries(expected, m);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void testCursorAfterRemove() {
+		LongHashMap<String> m = new LongHashMap<String>();
+		m.put(key(1), "a");
+		LongHashMap<String>.Cursor c = m.cursor();
+		assertTrue(c.advance());
+		c.remove();
+		c.value();
+	}
+}
@@ -16,10 +16,10 @@ public class MESIMultiProcessorTests {
 
 	static Machine<MESILine> machine;
 
-	static final CpuId P0 = new CpuId(0);
-	static final CpuId P1 = new CpuId(1);
-	static final CpuId P2 = new CpuId(2);
-	static final CpuId P3 = new CpuId(3);
+	static final CpuId P0 = CpuId.of(0);
+	static final CpuId P1 = CpuId.of(1);
+	static final CpuId P2 = CpuId.of(2);
+	static final CpuId P3 = CpuId.of(3);
 
 	static final int CORES = 4;
 	static final int PINTHREADS = 1;
@@ -251,7 +251,7 @@ public class MESIMultiProcessorTests {
 		machine = new Machine<MESILine>(params);
 
 		// Not sure how we can override JOpt command line
-		MESISim.Options = Knobs.parser.parse("--xassert=true --assert-period=1");
+		MESISim.setOptions(Knobs.parser.parse("--xassert=true --assert-period=1"));
 		MESISim.setPhase(PARSEC_PHASE.IN_ROI);
 		assertTrue(MESISim.XASSERTS);
 		assertEquals(1, MESISim.Options.valueOf(Knobs.AssertPeriod).intValue());
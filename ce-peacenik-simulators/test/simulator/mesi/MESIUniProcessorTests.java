@@ -19,7 +19,7 @@ public class MESIUniProcessorTests {
 
 	static Machine<MESILine> machine;
 
-	static final CpuId P0 = new CpuId(0);
+	static final CpuId P0 = CpuId.of(0);
 	static final int CORES = 1;
 	static final int PINTHREADS = 1;
 	static final int LINE_SIZE = 4;
@@ -252,7 +252,7 @@ public class MESIUniProcessorTests {
 		machine = new Machine<MESILine>(params);
 
 		// Not sure how we can override JOpt command line
-		MESISim.Options = Knobs.parser.parse("--xassert=true --assert-period=1");
+		MESISim.setOptions(Knobs.parser.parse("--xassert=true --assert-period=1"));
 		MESISim.setPhase(PARSEC_PHASE.IN_ROI);
 		assertTrue(MESISim.XASSERTS);
 		assertEquals(1, MESISim.Options.valueOf(Knobs.AssertPeriod).intValue());
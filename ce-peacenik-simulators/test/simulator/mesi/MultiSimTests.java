@@ -0,0 +1,112 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** MultiSim runs against standalone runs of the same configurations */
+public final class MultiSimTests {
+
+	static final List<String> CE = Arrays.asList("--conflict-exceptions=true");
+
+	SimulatorRuns runs;
+
+	@Before
+	public void setUp() throws IOException {
+		runs = new SimulatorRuns("multisim");
+		runs.generate(TraceGenerator.Pattern.RACY, 20000, 20, 4, 16, 21);
+	}
+
+	@After
+	public void tearDown() {
+		runs.delete();
+	}
+
+	/** Write a config file with one line of options per configuration */
+	File configs(List<List<String>> configs) throws IOException {
+		File file = runs.file("configs.txt");
+		PrintWriter w = new PrintWriter(file);
+		try {
+			w.println("# generated by " + getClass().getSimpleName());
+			for (List<String> options : configs) {
+				StringBuilder line = new StringBuilder();
+				for (String option : options) {
+					line.append(option).append(' ');
+				}
+				w.println(line.toString().trim());
+			}
+		} finally {
+			w.close();
+		}
+		return file;
+	}
+
+	String log(File configs, int index) throws IOException {
+		return new String(Files.readAllBytes(new File(configs.getPath() + "." + index + ".log").toPath()),
+				StandardCharsets.UTF_8);
+	}
+
+	String multiSim(File configs, int status) throws Exception {
+		return runs.fork(MultiSim.class, Arrays.asList(runs.trace.getPath(), configs.getPath()), status);
+	}
+
+	/**
+	 * Each configuration, on its own copy of the simulator classes and fed from
+	 * the shared trace, has the same stats as a run of MESISim on its own, and
+	 * its console output goes to its own log
+	 */
+	@Test
+	public void testSameStatsAsStandaloneRuns() throws Exception {
+		List<String> none = Collections.emptyList();
+		File configs = configs(Arrays.asList(runs.options("multi-mesi.py", none), runs.options("multi-ce.py", CE)));
+		String output = multiSim(configs, 0);
+		assertTrue(output, output.contains("[multisim] simulated 2 configurations"));
+
+		String mesi = log(configs, 0);
+		String ce = log(configs, 1);
+		assertTrue(mesi, mesi.contains("[mesisim] starting simulation"));
+		assertTrue(mesi, mesi.contains("[mesisim] finished"));
+		assertFalse(mesi, mesi.contains("[cesim]"));
+		assertTrue(ce, ce.contains("[cesim] starting simulation"));
+		assertTrue(ce, ce.contains("[cesim] finished"));
+		assertFalse(ce, ce.contains("[mesisim] starting"));
+		assertFalse(output, output.contains("starting simulation"));
+
+		runs.run("mesi.py", none);
+		assertFalse(runs.stats("mesi.py").isEmpty());
+		runs.run("ce.py", CE);
+		assertEquals(runs.stats("mesi.py"), runs.stats("multi-mesi.py"));
+		assertEquals(runs.stats("ce.py"), runs.stats("multi-ce.py"));
+	}
+
+	/**
+	 * A configuration that fails at startup takes no more of the trace, the
+	 * others run to the end, and the driver reports the failure
+	 */
+	@Test
+	public void testFailedConfiguration() throws Exception {
+		List<String> none = Collections.emptyList();
+		List<String> bad = Arrays.asList("--no-such-knob=true");
+		File configs = configs(Arrays.asList(runs.options("multi-bad.py", bad), runs.options("multi-mesi.py", none)));
+		String output = multiSim(configs, 1);
+		assertTrue(output, output.contains("[multisim] configuration 0 failed: joptsimple.UnrecognizedOptionException"));
+		assertFalse(output, output.contains("configuration 1 failed"));
+		assertTrue(log(configs, 0), log(configs, 0).contains("UnrecognizedOptionException"));
+
+		runs.run("mesi.py", none);
+		assertEquals(runs.stats("mesi.py"), runs.stats("multi-mesi.py"));
+	}
+}
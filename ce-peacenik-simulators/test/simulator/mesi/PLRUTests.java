@@ -19,15 +19,15 @@ public final class PLRUTests {
 
 	static Machine<MESILine> machine;
 
-	static final CpuId P0 = new CpuId(0);
-	static final CpuId P1 = new CpuId(1);
-	static final CpuId P2 = new CpuId(2);
-	static final CpuId P3 = new CpuId(3);
+	static final CpuId P0 = CpuId.of(0);
+	static final CpuId P1 = CpuId.of(1);
+	static final CpuId P2 = CpuId.of(2);
+	static final CpuId P3 = CpuId.of(3);
 
-	static final ThreadId T0 = new ThreadId((byte) 0);
-	static final ThreadId T1 = new ThreadId((byte) 1);
-	static final ThreadId T2 = new ThreadId((byte) 2);
-	static final ThreadId T3 = new ThreadId((byte) 3);
+	static final ThreadId T0 = ThreadId.of((byte) 0);
+	static final ThreadId T1 = ThreadId.of((byte) 1);
+	static final ThreadId T2 = ThreadId.of((byte) 2);
+	static final ThreadId T3 = ThreadId.of((byte) 3);
 
 	static final int CORES = 4;
 	static final int PINTHREADS = 4;
@@ -260,7 +260,7 @@ public final class PLRUTests {
 		machine = new Machine<MESILine>(params);
 
 		// Not sure how we can override JOpt command line
-		MESISim.Options = Knobs.parser.parse("--xassert=true --assert-period=1");
+		MESISim.setOptions(Knobs.parser.parse("--xassert=true --assert-period=1"));
 		MESISim.setPhase(PARSEC_PHASE.IN_ROI);
 		assertTrue(MESISim.XASSERTS);
 		assertEquals(1, MESISim.Options.valueOf(Knobs.AssertPeriod).intValue());
@@ -0,0 +1,113 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public final class SharerDirectoryTests {
+
+	static long line(int i) {
+		return 0x7f0000000000L + ((long) i << 6);
+	}
+
+	/** The cores in a sharer mask, walked like Processor.performRemoteRead() */
+	static List<Integer> cores(long sharers) {
+		List<Integer> cs = new ArrayList<Integer>();
+		for (long others = sharers; others != 0L; others &= others - 1) {
+			cs.add(Long.numberOfTrailingZeros(others));
+		}
+		return cs;
+	}
+
+	@Test
+	public void testAddRemove() {
+		SharerDirectory d = new SharerDirectory();
+		assertEquals(0L, d.get(line(1)));
+		d.add(line(1), 0);
+		d.add(line(1), 3);
+		d.add(line(1), 63);
+		d.add(line(1), 3);
+		d.add(line(2), 3);
+		assertEquals(2, d.size());
+		assertEquals(Arrays.asList(0, 3, 63), cores(d.get(line(1))));
+		assertEquals(Arrays.asList(3), cores(d.get(line(2))));
+
+		d.remove(line(1), 3);
+		assertEquals(Arrays.asList(0, 63), cores(d.get(line(1))));
+		assertEquals(Arrays.asList(3), cores(d.get(line(2))));
+		// Removing a core that is not a sharer, or a line that has none, changes nothing
+		d.remove(line(1), 5);
+		d.remove(line(3), 0);
+		assertEquals(Arrays.asList(0, 63), cores(d.get(line(1))));
+		assertEquals(2, d.size());
+
+		d.remove(line(1), 0);
+		d.remove(line(1), 63);
+		assertEquals(0L, d.get(line(1)));
+		assertEquals(1, d.size());
+		d.remove(line(2), 3);
+		assertEquals(0, d.size());
+	}
+
+	/**
+	 * Random fills and evictions across the cores. Enough lines are live at once
+	 * that probe runs are long and wrap around the table, so removals have to
+	 * close gaps, and the table grows along the way.
+	 */
+	@Test
+	public void testChurn() {
+		final int cores = 64;
+		final int lines = 2000;
+		Random rnd = new Random(11);
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		SharerDirectory d = new SharerDirectory();
+		for (int round = 0; round < 300000; round++) {
+			long l = line(rnd.nextInt((round < 150000) ? 700 : lines));
+			int core = rnd.nextInt(cores);
+			Long m = expected.get(l);
+			long sharers = (m == null) ? 0L : m;
+			if (rnd.nextInt(5) < 2) {
+				d.remove(l, core);
+				sharers &= ~(1L << core);
+			} else {
+				d.add(l, core);
+				sharers |= 1L << core;
+			}
+			if (sharers == 0L) {
+				expected.remove(l);
+			} else {
+				expected.put(l, sharers);
+			}
+
+			if (round % 10000 == 0) {
+				checkSame(expected, d, lines);
+			}
+		}
+		checkSame(expected, d, lines);
+
+		// Evict every line from every core
+		for (int i = 0; i < lines; i++) {
+			for (int core : cores(d.get(line(i)))) {
+				d.remove(line(i), core);
+			}
+			expected.remove(line(i));
+			assertEquals(0L, d.get(line(i)));
+		}
+		checkSame(expected, d, lines);
+	}
+
+	static void checkSame(Map<Long, Long> expected, SharerDirectory d, int lines) {
+		assertEquals(expected.size(), d.size());
+		for (int i = 0; i < lines; i++) {
+			Long m = expected.get(line(i));
+			assertEquals(cores((m == null) ? 0L : m), cores(d.get(line(i))));
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** The monitor of a small machine, ticking every second */
+public final class SimMonitorTests {
+
+	static final String STATS = "monitor-stats.py";
+	/** How long to wait for a tick before giving up */
+	static final long TIMEOUT = 10000;
+
+	File dir;
+	SimMonitor monitor;
+	long savedEvents;
+
+	@Before
+	public void setUp() throws Exception {
+		new MESIMultiProcessorTests().setUp();
+		dir = Files.createTempDirectory("monitor").toFile();
+		savedEvents = MESISim.totalEvents;
+		MESISim.totalEvents = 1000;
+	}
+
+	@After
+	public void tearDown() {
+		if (monitor != null) {
+			monitor.stop();
+		}
+		MESISim.totalEvents = savedEvents;
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	static void await(String what, Condition c) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!c.holds()) {
+			assertTrue("No " + what, System.currentTimeMillis() < deadline);
+			Thread.sleep(50);
+		}
+	}
+
+	interface Condition {
+		boolean holds() throws Exception;
+	}
+
+	@Test
+	public void testMonitorFileAndMBean() throws Exception {
+		final File file = new File(dir, "monitor.py");
+		monitor = SimMonitor.start(MESIMultiProcessorTests.machine, STATS, 1, file.getPath());
+		await("monitor file", new Condition() {
+			@Override
+			public boolean holds() throws IOException {
+				return file.exists() && Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size() > 0;
+			}
+		});
+
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		String line = lines.get(0);
+		assertTrue(line, line.startsWith("{'seconds': ") && line.endsWith("}"));
+		assertTrue(line, line.contains("'totalEvents': 1000,"));
+		assertTrue(line, line.contains("'bandwidthDrivenCycleCounts': [0.0, 0.0, 0.0, 0.0]"));
+		assertTrue(line, line.contains("'pausedCores': 0,"));
+		assertTrue(monitor.getEventsPerSecond() > 0);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("simulator.mesi:type=SimMonitor,name=" + ObjectName.quote(STATS));
+		assertEquals(1000L, server.getAttribute(name, "TotalEvents"));
+		assertEquals(monitor.getEventsPerSecond(), (Double) server.getAttribute(name, "EventsPerSecond"), 0);
+		assertEquals(0L, server.getAttribute(name, "TotalPauses"));
+		assertEquals(MESIMultiProcessorTests.machine.globalTable.size(), server.getAttribute(name, "GlobalTableLines"));
+
+		monitor.stop();
+		monitor = null;
+		assertFalse(server.isRegistered(name));
+	}
+
+	/** A monitor file that cannot be written is reported once, and does not stop the updates */
+	@Test
+	public void testUnwritableMonitorFile() throws Exception {
+		PrintStream err = System.err;
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(errors, true));
+		try {
+			File file = new File(new File(dir, "missing"), "monitor.py");
+			monitor = SimMonitor.start(MESIMultiProcessorTests.machine, STATS, 1, file.getPath());
+			await("first tick", new Condition() {
+				@Override
+				public boolean holds() {
+					return monitor.getEventsPerSecond() > 0;
+				}
+			});
+			// No events over the next period
+			await("second tick", new Condition() {
+				@Override
+				public boolean holds() {
+					return monitor.getEventsPerSecond() == 0;
+				}
+			});
+			// The writes of the first two ticks have failed by the third
+			MESISim.totalEvents = 2000;
+			await("third tick", new Condition() {
+				@Override
+				public boolean holds() {
+					return monitor.getEventsPerSecond() > 0;
+				}
+			});
+			monitor.stop();
+			monitor = null;
+		} finally {
+			System.setErr(err);
+		}
+		String output = errors.toString();
+		assertEquals(output, output.indexOf("Cannot write monitor file"),
+				output.lastIndexOf("Cannot write monitor file"));
+		assertTrue(output, output.contains("Cannot write monitor file"));
+	}
+}
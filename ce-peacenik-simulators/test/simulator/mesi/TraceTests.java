@@ -0,0 +1,271 @@
+package simulator.mesi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simulator.mesi.TraceGenerator.Pattern;
+
+/** Traces written by TraceGenerator and read back by TraceReader */
+public final class TraceTests {
+
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("trace", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/** Write a small trace of the pattern, returning the number of records */
+	long generate(Pattern pattern, long seed) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			TraceGenerator gen = new TraceGenerator(fos.getChannel(), pattern, 4, 2000, 10, 0.3, 64, 16, 2, 8, 4,
+					seed);
+			gen.generate();
+			return gen.records();
+		} finally {
+			fos.close();
+		}
+	}
+
+	/** One record, decoded field by field from the raw big-endian bytes */
+	static final class Record {
+		byte type, semantics, bits;
+		short tid, lineno, fno, rno, lastLineno, lastFno;
+		long addr, value;
+		int memOpSize, insnCount, eventID;
+
+		Record(DataInputStream in) throws IOException {
+			type = in.readByte();
+			semantics = in.readByte();
+			tid = in.readShort();
+			addr = in.readLong();
+			memOpSize = in.readInt();
+			bits = in.readByte();
+			value = in.readLong();
+			insnCount = in.readInt();
+			lineno = in.readShort();
+			fno = in.readShort();
+			rno = in.readShort();
+			eventID = in.readInt();
+			lastLineno = in.readShort();
+			lastFno = in.readShort();
+		}
+
+		void assertRead(TraceReader r) {
+			assertEquals(type, r.type);
+			assertEquals(semantics, r.semantics);
+			assertEquals(tid, r.tid);
+			assertEquals(addr, r.addr);
+			assertEquals(memOpSize, r.memOpSize);
+			assertEquals(bits, r.bits);
+			assertEquals(value, r.value);
+			assertEquals(insnCount, r.insnCount);
+			assertEquals(lineno, r.lineno);
+			assertEquals(fno, r.fno);
+			assertEquals(rno, r.rno);
+			assertEquals(eventID, r.eventID);
+			assertEquals(lastLineno, r.lastLineno);
+			assertEquals(lastFno, r.lastFno);
+		}
+	}
+
+	static void assertEndOfTrace(TraceReader r) throws IOException {
+		try {
+			r.next();
+			fail("Read past the end of the trace");
+		} catch (EOFException eof) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRecordSize() {
+		assertEquals(43, TraceReader.RECORD_SIZE);
+	}
+
+	/** Every field of every record, for each pattern */
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (Pattern p : Pattern.values()) {
+			long records = generate(p, 1);
+			assertEquals(p.name, records * TraceReader.RECORD_SIZE, file.length());
+			DataInputStream raw = new DataInputStream(new FileInputStream(file));
+			TraceReader r = TraceReader.open(file.getPath());
+			try {
+				for (long i = 0; i < records; i++) {
+					r.next();
+					new Record(raw).assertRead(r);
+				}
+				assertEndOfTrace(r);
+			} finally {
+				r.close();
+				raw.close();
+			}
+		}
+	}
+
+	/** The events make sense as a program: ids, threads, locks and values */
+	@Test
+	public void testEvents() throws IOException {
+		for (Pattern p : Pattern.values()) {
+			long records = generate(p, 2);
+			TraceReader r = TraceReader.open(file.getPath());
+			Map<Long, Long> memory = new HashMap<Long, Long>();
+			Map<Long, Short> locks = new HashMap<Long, Short>();
+			int accesses = 0;
+			try {
+				r.next();
+				assertEquals(EventType.THREAD_START, EventType.fromByte(r.type));
+				assertEquals(0, r.tid);
+				for (long i = 2; i <= records; i++) {
+					r.next();
+					assertEquals(i, r.eventID);
+					assertTrue(r.tid != 1); // the IO thread of the Pintool
+					EventType type = EventType.fromByte(r.type);
+					EventType semantics = EventType.fromByte(r.semantics);
+					switch (type) {
+					case MEMORY_READ:
+						Long v = memory.get(r.addr);
+						assertEquals(p.name + " read of " + r.addr, (v == null) ? 0L : v, r.value);
+						// fall through
+					case MEMORY_WRITE:
+						assertEquals(8, r.memOpSize);
+						assertTrue(r.lineno > 0 && r.fno > 0 && r.rno > 0);
+						memory.put(r.addr, r.value);
+						accesses++;
+						break;
+					case LOCK_ACQUIRE:
+						if (semantics == EventType.REG_BEGIN) {
+							assertEquals(null, locks.put(r.addr, r.tid));
+						}
+						break;
+					case LOCK_RELEASE:
+						assertEquals((Short) r.tid, locks.remove(r.addr));
+						break;
+					default:
+						break;
+					}
+				}
+				assertEquals(EventType.THREAD_FINISH, EventType.fromByte(r.type));
+				assertEquals(0, r.tid);
+				assertTrue(locks.isEmpty());
+				assertEquals(p.name, 2000, accesses);
+				assertEndOfTrace(r);
+			} finally {
+				r.close();
+			}
+		}
+	}
+
+	/** A partial record at the end of the trace is not decoded */
+	@Test
+	public void testPartialRecord() throws IOException {
+		long records = generate(Pattern.RACY, 3);
+		FileOutputStream fos = new FileOutputStream(file, true);
+		fos.write(new byte[TraceReader.RECORD_SIZE - 1]);
+		fos.close();
+		TraceReader r = TraceReader.open(file.getPath());
+		try {
+			for (long i = 0; i < records; i++) {
+				r.next();
+			}
+			assertEquals(records, r.eventID);
+			assertEndOfTrace(r);
+		} finally {
+			r.close();
+		}
+	}
+
+	/** The chunks handed out to MultiSim cover the trace, in whole records */
+	@Test
+	public void testChunks() throws IOException {
+		long records = generate(Pattern.PRODUCER_CONSUMER, 5);
+		byte[] expected = Files.readAllBytes(file.toPath());
+		ByteBuffer all = ByteBuffer.allocate(expected.length);
+		TraceReader r = TraceReader.open(file.getPath());
+		try {
+			ByteBuffer chunk;
+			while ((chunk = r.nextChunk()) != null) {
+				assertEquals(0, chunk.remaining() % TraceReader.RECORD_SIZE);
+				all.put(chunk);
+			}
+		} finally {
+			r.close();
+		}
+		assertEquals(records * TraceReader.RECORD_SIZE, all.position());
+		assertTrue(ByteBuffer.wrap(expected).equals(all.flip()));
+	}
+
+	/** A FIFO is read through the stream buffer, which has to be refilled */
+	@Test
+	public void testFifo() throws Exception {
+		final long records = generate(Pattern.LOCK_HEAVY, 6);
+		final File fifo = new File(file.getPath() + ".fifo");
+		int made;
+		try {
+			made = new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor();
+		} catch (IOException ioe) {
+			made = -1;
+		}
+		Assume.assumeTrue(made == 0);
+		try {
+			// Write the trace in small pieces, so records straddle the reads
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						byte[] bytes = Files.readAllBytes(file.toPath());
+						OutputStream out = new FileOutputStream(fifo);
+						for (int i = 0; i < bytes.length; i += 1000) {
+							out.write(bytes, i, Math.min(1000, bytes.length - i));
+							out.flush();
+						}
+						out.close();
+					} catch (IOException ioe) {
+						throw new RuntimeException(ioe);
+					}
+				}
+			};
+			writer.start();
+			DataInputStream raw = new DataInputStream(new FileInputStream(file));
+			TraceReader r = TraceReader.open(fifo.getPath());
+			try {
+				for (long i = 0; i < records; i++) {
+					r.next();
+					new Record(raw).assertRead(r);
+				}
+				assertEndOfTrace(r);
+			} finally {
+				r.close();
+				raw.close();
+			}
+			writer.join();
+		} finally {
+			fifo.delete();
+		}
+	}
+}